@@ -0,0 +1,104 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses per second over a corpus of {@value #CORPUS_SIZE} connection strings in the shapes
+ * found in configuration files and driver documentation: URIs with credentials and parameters,
+ * JDBC URLs for each driver, ADO.NET strings with quoted values, TNS descriptors, replica-set
+ * host lists. The corpus is generated from a fixed seed so runs are comparable. Run from the
+ * project root:
+ * <pre>
+ * mvn -Pbenchmark test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main ConnectionStringParserBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionStringParserBenchmark {
+
+    static final int CORPUS_SIZE = 5000;
+
+    private static final String[] HOSTS = {"localhost", "127.0.0.1", "db.internal", "orders-db.prod.example.com",
+            "pg-replica-02.eu-west-1.rds.amazonaws.com", "[2001:db8::17]", "sql01.database.windows.net"};
+    private static final String[] USERS = {"app", "orders_app", "sa", "scott", "svc-reporting", "admin"};
+    private static final String[] PASSWORDS = {"secret", "Tr0ub4dor&3", "p%40ss%3Aword", "correct-horse-battery",
+            "Xk9$vQ2!mZ"};
+    private static final String[] DATABASES = {"orders", "inventory", "analytics_v2", "postgres", "shop"};
+
+    private String[] corpus;
+
+    @Setup
+    public void setUp() {
+        corpus = corpus(new Random(42), CORPUS_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public void parse(Blackhole blackhole) {
+        for (String connectionString : corpus) {
+            blackhole.consume(ConnectionStringParser.parse(connectionString, null));
+        }
+    }
+
+    static String[] corpus(Random random, int size) {
+        String[] corpus = new String[size];
+        for (int i = 0; i < size; i++) {
+            corpus[i] = connectionString(random);
+        }
+        return corpus;
+    }
+
+    private static String connectionString(Random random) {
+        String host = pick(random, HOSTS);
+        String user = pick(random, USERS);
+        String password = pick(random, PASSWORDS);
+        String database = pick(random, DATABASES);
+        return switch (random.nextInt(12)) {
+            case 0 -> "postgresql://" + user + ":" + password + "@" + host + ":5432/" + database
+                    + "?sslmode=verify-full&application_name=checkout&connect_timeout=10";
+            case 1 -> "jdbc:postgresql://" + host + ":5432/" + database + "?user=" + user + "&password=" + password
+                    + "&ssl=true&currentSchema=public";
+            case 2 -> "mysql://" + user + ":" + password + "@" + host + ":3306/" + database
+                    + "?useSSL=true&characterEncoding=utf8mb4&serverTimezone=UTC";
+            case 3 -> "jdbc:mysql://" + host + ":3306/" + database
+                    + "?useSSL=false&allowPublicKeyRetrieval=true&autoReconnect=true&rewriteBatchedStatements=true";
+            case 4 -> "mongodb://" + user + ":" + password + "@" + host + ":27017,mongo-2:27017,mongo-3:27017/" + database
+                    + "?replicaSet=rs0&authSource=admin&retryWrites=true&w=majority";
+            case 5 -> "mongodb+srv://" + user + ":" + password + "@cluster0.ab1cd.mongodb.net/" + database
+                    + "?retryWrites=true&w=majority&appName=Cluster0";
+            case 6 -> "Server=tcp:" + host + ",1433;Initial Catalog=" + database + ";Persist Security Info=False;User ID="
+                    + user + ";Password='" + password + "';MultipleActiveResultSets=False;Encrypt=True;"
+                    + "TrustServerCertificate=False;Connection Timeout=30;";
+            case 7 -> "jdbc:sqlserver://" + host + ":1433;databaseName=" + database + ";user=" + user
+                    + ";encrypt=true;trustServerCertificate=true;loginTimeout=30";
+            case 8 -> "jdbc:oracle:thin:" + user + "/" + password + "@(DESCRIPTION=(ADDRESS_LIST=(ADDRESS=(PROTOCOL=TCP)"
+                    + "(HOST=" + host + ")(PORT=1521)))(CONNECT_DATA=(SERVER=DEDICATED)(SERVICE_NAME=" + database + ".example.com)))";
+            case 9 -> "rediss://default:" + password + "@" + host + ":6380/0";
+            case 10 -> "jdbc:h2:tcp://" + host + ":9092/~/" + database + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+            default -> "jdbc:oracle:thin:@//" + host + ":1521/" + database;
+        };
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
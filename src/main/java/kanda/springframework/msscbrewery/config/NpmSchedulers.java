@@ -0,0 +1,83 @@
+package kanda.springframework.msscbrewery.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Execution model for the NPM analyzer and reporting endpoints.
+ *
+ * The application runs on Tomcat (spring-boot-starter-web wins over webflux when both are
+ * present), so controller methods start on a servlet thread and the WebClient calls complete
+ * on reactor-netty event loops. Work that must not run on either of those is moved here:
+ * <ul>
+ *     <li>{@link #blocking()} - bounded elastic pool for blocking I/O such as reading uploads</li>
+ *     <li>{@link #cpu()} - fixed-size non-blocking pool for PDF, CSV and JSON rendering</li>
+ * </ul>
+ * Both schedulers are instrumented with Micrometer, publishing submitted/active/completed task
+ * counts, pending (queued) tasks and execution latency under {@code npm.scheduler.blocking.*}
+ * and {@code npm.scheduler.cpu.*}.
+ * <p>
+ * With {@code spring.threads.virtual.enabled=true} the blocking scheduler runs its tasks on virtual
+ * threads; it stays bounded so the queue capacity still applies back-pressure. The CPU scheduler
+ * always uses platform threads, since rendering never parks.
+ */
+@Component
+@Slf4j
+public class NpmSchedulers implements DisposableBean {
+
+    private static final int BOUNDED_ELASTIC_TTL_SECONDS = 60;
+
+    private final Scheduler blockingScheduler;
+    private final Scheduler cpuScheduler;
+    private final Scheduler blocking;
+    private final Scheduler cpu;
+
+    public NpmSchedulers(MeterRegistry meterRegistry,
+                         @Value("${npm.scheduler.blocking.threads:16}") int blockingThreads,
+                         @Value("${npm.scheduler.blocking.queue-capacity:1000}") int blockingQueueCapacity,
+                         @Value("${npm.scheduler.cpu.threads:0}") int cpuThreads,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        int parallelism = cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors();
+
+        this.blockingScheduler = virtualThreads
+                ? Schedulers.newBoundedElastic(blockingThreads, blockingQueueCapacity,
+                        Thread.ofVirtual().name("npm-blocking-", 0).factory(), BOUNDED_ELASTIC_TTL_SECONDS)
+                : Schedulers.newBoundedElastic(blockingThreads, blockingQueueCapacity, "npm-blocking");
+        this.cpuScheduler = Schedulers.newParallel("npm-cpu", parallelism);
+        this.blocking = Micrometer.timedScheduler(blockingScheduler, meterRegistry, "npm.scheduler.blocking", Tags.empty());
+        this.cpu = Micrometer.timedScheduler(cpuScheduler, meterRegistry, "npm.scheduler.cpu", Tags.empty());
+
+        log.info("NPM schedulers initialised: blocking={} {} threads/{} queued, cpu={} threads",
+                blockingThreads, virtualThreads ? "virtual" : "platform", blockingQueueCapacity, parallelism);
+    }
+
+    /**
+     * Scheduler for calls that block the calling thread (file and stream reads).
+     */
+    public Scheduler blocking() {
+        return blocking;
+    }
+
+    /**
+     * Scheduler for CPU-bound rendering. Its threads are marked non-blocking, so blocking calls
+     * made here are reported by BlockHound when it is installed.
+     */
+    public Scheduler cpu() {
+        return cpu;
+    }
+
+    @Override
+    public void destroy() {
+        blocking.dispose();
+        cpu.dispose();
+        blockingScheduler.dispose();
+        cpuScheduler.dispose();
+    }
+}
@@ -0,0 +1,147 @@
+package kanda.springframework.msscbrewery.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64 (seed 0): a non-cryptographic 64-bit hash that runs at memory bandwidth, used to
+ * recognise re-uploaded files and to derive ETags. Bytes are fed with {@link #update} as they
+ * arrive, so hashing adds no extra pass over the file.
+ */
+public final class XxHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] buffer = new byte[32];
+    private int buffered;
+    private long total;
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+
+    public XxHash64 update(byte[] bytes, int offset, int length) {
+        total += length;
+        if (buffered + length < 32) {
+            System.arraycopy(bytes, offset, buffer, buffered, length);
+            buffered += length;
+            return this;
+        }
+        int end = offset + length;
+        if (buffered > 0) {
+            int fill = 32 - buffered;
+            System.arraycopy(bytes, offset, buffer, buffered, fill);
+            stripe(buffer, 0);
+            offset += fill;
+            buffered = 0;
+        }
+        for (; offset <= end - 32; offset += 32) {
+            stripe(bytes, offset);
+        }
+        buffered = end - offset;
+        System.arraycopy(bytes, offset, buffer, 0, buffered);
+        return this;
+    }
+
+    /**
+     * Hash of the bytes fed so far. Does not reset the state.
+     */
+    public long getValue() {
+        long hash;
+        if (total >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = P5;
+        }
+        hash += total;
+
+        int offset = 0;
+        for (; offset + 8 <= buffered; offset += 8) {
+            hash ^= round(0, (long) LONG.get(buffer, offset));
+            hash = Long.rotateLeft(hash, 27) * P1 + P4;
+        }
+        if (offset + 4 <= buffered) {
+            hash ^= ((int) INT.get(buffer, offset) & 0xFFFFFFFFL) * P1;
+            hash = Long.rotateLeft(hash, 23) * P2 + P3;
+            offset += 4;
+        }
+        for (; offset < buffered; offset++) {
+            hash ^= (buffer[offset] & 0xFF) * P5;
+            hash = Long.rotateLeft(hash, 11) * P1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= P2;
+        hash ^= hash >>> 29;
+        hash *= P3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * Hash as 16 lower-case hex digits.
+     */
+    public String toHex() {
+        return String.format("%016x", getValue());
+    }
+
+    public static XxHash64 hash(InputStream inputStream) throws IOException {
+        XxHash64 hash = new XxHash64();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = inputStream.read(chunk)) != -1) {
+            hash.update(chunk, 0, read);
+        }
+        return hash;
+    }
+
+    /**
+     * Copies the stream to {@code outputStream}, hashing the bytes on the way. Fails once more
+     * than {@code maxLength} bytes have been read.
+     */
+    public static XxHash64 copy(InputStream inputStream, OutputStream outputStream, long maxLength) throws IOException {
+        XxHash64 hash = new XxHash64();
+        byte[] chunk = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = inputStream.read(chunk)) != -1) {
+            total += read;
+            if (total > maxLength) {
+                throw new IOException("File exceeds the maximum size of " + maxLength + " bytes");
+            }
+            hash.update(chunk, 0, read);
+            outputStream.write(chunk, 0, read);
+        }
+        return hash;
+    }
+
+    private void stripe(byte[] bytes, int offset) {
+        v1 = round(v1, (long) LONG.get(bytes, offset));
+        v2 = round(v2, (long) LONG.get(bytes, offset + 8));
+        v3 = round(v3, (long) LONG.get(bytes, offset + 16));
+        v4 = round(v4, (long) LONG.get(bytes, offset + 24));
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * P2, 31) * P1;
+    }
+
+    private static long mergeRound(long hash, long value) {
+        return (hash ^ round(0, value)) * P1 + P4;
+    }
+}
@@ -0,0 +1,78 @@
+package kanda.springframework.msscbrewery.web.controller;
+
+import kanda.springframework.msscbrewery.web.model.AirQualityDto;
+import kanda.springframework.msscbrewery.web.model.ErrorResponse;
+import kanda.springframework.msscbrewery.web.services.AirQualityService;
+import kanda.springframework.msscbrewery.web.services.CountryValidationService;
+import kanda.springframework.msscbrewery.web.services.airquality.AqiAggregates;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@RequestMapping("/api/v1/air-quality")
+@RestController
+public class AirQualityController {
+
+    private static final int MAX_HISTORY_POINTS = 2000;
+
+    private final AirQualityService airQualityService;
+    private final CountryValidationService countryValidationService;
+
+    public AirQualityController(AirQualityService airQualityService,
+                                CountryValidationService countryValidationService) {
+        this.airQualityService = airQualityService;
+        this.countryValidationService = countryValidationService;
+    }
+
+    /**
+     * Current AQI with rolling aggregates and, optionally, interpolated history for the last
+     * {@code hours} hours at {@code stepMinutes} resolution.
+     */
+    @GetMapping("/{location}")
+    public ResponseEntity<?> getAirQuality(@PathVariable("location") String location,
+                                           @RequestParam(value = "hours", defaultValue = "0") int hours,
+                                           @RequestParam(value = "stepMinutes", defaultValue = "60") int stepMinutes) {
+        String validationMessage = countryValidationService.getValidationMessage(location);
+        if (validationMessage != null) {
+            return new ResponseEntity<>(new ErrorResponse(validationMessage), HttpStatus.BAD_REQUEST);
+        }
+        if (hours < 0 || stepMinutes <= 0 || (long) hours * 60 / stepMinutes > MAX_HISTORY_POINTS) {
+            return new ResponseEntity<>(new ErrorResponse(
+                    "History must be at most " + MAX_HISTORY_POINTS + " points with a positive step"), HttpStatus.BAD_REQUEST);
+        }
+
+        long now = System.currentTimeMillis();
+        AirQualityService.AirQualityInfo info = airQualityService.getAirQualityInfo(location, now);
+        AqiAggregates aggregates = airQualityService.getAggregates(location);
+
+        AirQualityDto.AirQualityDtoBuilder builder = AirQualityDto.builder()
+                .location(location)
+                .timestamp(Instant.ofEpochMilli(now))
+                .aqi(info.getAqi())
+                .aqiCategory(info.getCategory())
+                .aqiDescription(info.getDescription())
+                .average1h(Math.round(aggregates.getAverage1h() * 10.0) / 10.0)
+                .max1h(aggregates.getMax1h())
+                .average24h(Math.round(aggregates.getAverage24h() * 10.0) / 10.0)
+                .max24h(aggregates.getMax24h())
+                .source(airQualityService.hasFeedData(location) ? "feed" : "simulated");
+
+        if (hours > 0) {
+            long step = Duration.ofMinutes(stepMinutes).toMillis();
+            long to = Math.floorDiv(now, step) * step;
+            long from = to - Duration.ofHours(hours).toMillis();
+            int[] values = airQualityService.getHistory(location, from, to, step);
+            List<AirQualityDto.Sample> history = new ArrayList<>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                history.add(new AirQualityDto.Sample(Instant.ofEpochMilli(from + i * step), values[i]));
+            }
+            builder.history(history);
+        }
+        return new ResponseEntity<>(builder.build(), HttpStatus.OK);
+    }
+}
@@ -1,13 +1,30 @@
 package kanda.springframework.msscbrewery.web.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kanda.springframework.msscbrewery.util.XxHash64;
+import kanda.springframework.msscbrewery.web.model.ConnectionBundleRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionParseRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionSection;
 import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
 import kanda.springframework.msscbrewery.web.model.ConnectionStringResponse;
+import kanda.springframework.msscbrewery.web.model.ErrorResponse;
 import kanda.springframework.msscbrewery.web.model.ExportFormat;
+import kanda.springframework.msscbrewery.web.model.PoolSizingRequest;
 import kanda.springframework.msscbrewery.web.services.ConnectionStringService;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionBundle;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionStringParseException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -22,21 +39,73 @@ import java.util.Map;
 public class ConnectionBuilderController {
 
     private final ConnectionStringService connectionStringService;
+    private final ObjectMapper objectMapper;
+    private final CachedJson templates;
+    private final CachedJson supportedDatabases;
+
+    /**
+     * Constant JSON: serialized once, served as is, and validated by an ETag of its bytes, so
+     * unchanged data costs a 304 and changed data (a new release) is picked up on revalidation.
+     */
+    private record CachedJson(byte[] body, String etag, CacheControl cacheControl) {
+
+        static CachedJson of(ObjectMapper objectMapper, Object value, Duration maxAge) throws JsonProcessingException {
+            byte[] body = objectMapper.writeValueAsBytes(value);
+            String etag = "\"" + new XxHash64().update(body, 0, body.length).toHex() + "\"";
+            return new CachedJson(body, etag, CacheControl.maxAge(maxAge).cachePublic());
+        }
+
+        ResponseEntity<byte[]> response() {
+            // For GET and HEAD, Spring answers a matching If-None-Match with 304 and no body
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .body(body);
+        }
+    }
 
     @Autowired
-    public ConnectionBuilderController(ConnectionStringService connectionStringService) {
+    public ConnectionBuilderController(ConnectionStringService connectionStringService, ObjectMapper objectMapper,
+                                       @Value("${connection.catalog.max-age:1d}") Duration catalogMaxAge)
+            throws JsonProcessingException {
         this.connectionStringService = connectionStringService;
+        this.objectMapper = objectMapper;
+        this.templates = CachedJson.of(objectMapper, connectionStringService.getTemplates(), catalogMaxAge);
+        this.supportedDatabases = CachedJson.of(objectMapper, connectionStringService.getSupportedDatabases(), catalogMaxAge);
     }
 
     /**
-     * Generate connection string for specified database type
+     * Generate connection string for specified database type. Optional sections are only built
+     * when listed in {@code sections} (formats, snippets, cloud, security, performance, test, or
+     * full for all of them)
      */
     @PostMapping("/generate")
-    public ResponseEntity<ConnectionStringResponse> generateConnectionString(
-            @RequestBody ConnectionStringRequest request) {
+    public ResponseEntity<?> generateConnectionString(
+            @RequestBody ConnectionStringRequest request,
+            @RequestParam(required = false) List<String> sections) {
         
-        ConnectionStringResponse response = connectionStringService.generateConnectionString(request);
-        return ResponseEntity.ok(response);
+        try {
+            ConnectionStringResponse response = connectionStringService.generateConnectionString(request,
+                    ConnectionSection.parse(sections));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Parse an existing connection string (URI, JDBC URL, key=value pairs, Oracle TNS
+     * descriptor or file path) back into builder fields. Strings that cannot be parsed get a 400
+     * with the error and its 0-based position in the string
+     */
+    @PostMapping("/parse")
+    public ResponseEntity<?> parseConnectionString(@RequestBody ConnectionParseRequest request) {
+        try {
+            return ResponseEntity.ok(connectionStringService.parseConnectionString(request));
+        } catch (ConnectionStringParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage(), "position", e.getPosition()));
+        }
     }
 
     /**
@@ -51,14 +120,44 @@ public class ConnectionBuilderController {
     }
 
     /**
-     * Test database connectivity (mock test for security)
+     * Test database connectivity from this server: DNS, TCP, TLS, protocol handshake and
+     * authentication, each timed. {@code warmup=true} also opens the pool's minimum number of
+     * connections at once and reports how long that takes
      */
     @PostMapping("/test")
-    public ResponseEntity<Map<String, Object>> testConnection(
-            @RequestBody ConnectionStringRequest request) {
-        
-        Map<String, Object> testResult = connectionStringService.testConnection(request);
-        return ResponseEntity.ok(testResult);
+    public ResponseEntity<?> testConnection(
+            @RequestBody ConnectionStringRequest request,
+            @RequestParam(defaultValue = "false") boolean warmup) {
+
+        try {
+            return ResponseEntity.ok(connectionStringService.testConnection(request, warmup));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Test many endpoints concurrently; results are in request order
+     */
+    @PostMapping("/test/batch")
+    public ResponseEntity<?> testConnections(@RequestBody List<ConnectionStringRequest> requests) {
+        try {
+            return ResponseEntity.ok(connectionStringService.testConnections(requests));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Recommend HikariCP pool settings for a workload, with predicted connection wait percentiles
+     */
+    @PostMapping("/pool-advisor")
+    public ResponseEntity<?> advisePoolSize(@RequestBody PoolSizingRequest request) {
+        try {
+            return ResponseEntity.ok(connectionStringService.advisePoolSize(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
     }
 
     /**
@@ -74,22 +173,45 @@ public class ConnectionBuilderController {
         return ResponseEntity.ok(exportResult);
     }
 
+    /**
+     * Export files for many configs at once (targets and an environment x database matrix, in
+     * several formats) as one ZIP, streamed as it is rendered. Identical files are stored once
+     * and mapped in the archive's manifest.json. Invalid requests get a 400 before anything is
+     * rendered
+     */
+    @PostMapping(value = "/export/bundle", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportBundle(@RequestBody ConnectionBundleRequest request) {
+        ConnectionBundle bundle;
+        try {
+            bundle = connectionStringService.planBundle(request);
+        } catch (IllegalArgumentException e) {
+            ErrorResponse error = new ErrorResponse(e.getMessage());
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> objectMapper.writeValue(out, error));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("connection-configs.zip").build().toString())
+                .header("X-Bundle-Files", String.valueOf(bundle.size()))
+                .body(bundle::writeZip);
+    }
+
     /**
      * Get database templates and presets
      */
     @GetMapping("/templates")
-    public ResponseEntity<Map<String, Object>> getTemplates() {
-        Map<String, Object> templates = connectionStringService.getTemplates();
-        return ResponseEntity.ok(templates);
+    public ResponseEntity<byte[]> getTemplates() {
+        return templates.response();
     }
 
     /**
      * Get supported databases and their default configurations
      */
     @GetMapping("/databases")
-    public ResponseEntity<Map<String, Object>> getSupportedDatabases() {
-        Map<String, Object> databases = connectionStringService.getSupportedDatabases();
-        return ResponseEntity.ok(databases);
+    public ResponseEntity<byte[]> getSupportedDatabases() {
+        return supportedDatabases.response();
     }
 
     /**
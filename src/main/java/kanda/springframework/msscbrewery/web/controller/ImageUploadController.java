@@ -1,21 +1,36 @@
 package kanda.springframework.msscbrewery.web.controller;
 
+import kanda.springframework.msscbrewery.web.model.ErrorResponse;
+import kanda.springframework.msscbrewery.web.model.ImageBatchEntry;
+import kanda.springframework.msscbrewery.web.model.ImageBatchSummary;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogQuery;
 import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
 import kanda.springframework.msscbrewery.web.model.ImageUploadResponse;
 import kanda.springframework.msscbrewery.web.services.ImageMetadataService;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import kanda.springframework.msscbrewery.web.services.image.BulkImageService;
+import kanda.springframework.msscbrewery.web.services.image.ImageCatalog;
+import kanda.springframework.msscbrewery.web.services.image.SidecarDownloads;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RestController
 @RequestMapping("/api/v1/images")
@@ -23,9 +38,16 @@ import java.nio.file.Paths;
 public class ImageUploadController {
 
     private final ImageMetadataService imageMetadataService;
+    private final BulkImageService bulkImageService;
+    private final ImageCatalog imageCatalog;
+    private final SidecarDownloads sidecarDownloads;
 
-    public ImageUploadController(ImageMetadataService imageMetadataService) {
+    public ImageUploadController(ImageMetadataService imageMetadataService, BulkImageService bulkImageService,
+                                 ImageCatalog imageCatalog, SidecarDownloads sidecarDownloads) {
         this.imageMetadataService = imageMetadataService;
+        this.bulkImageService = bulkImageService;
+        this.imageCatalog = imageCatalog;
+        this.sidecarDownloads = sidecarDownloads;
     }
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -53,13 +75,8 @@ public class ImageUploadController {
             // Extract metadata
             ImageMetadataDto metadata = imageMetadataService.extractMetadata(file);
 
-            // Generate XMP and text files
-            String xmpFilePath = imageMetadataService.generateXmpFile(metadata);
-            String textFilePath = imageMetadataService.generateTextFile(metadata);
-
-            // Update metadata with file paths
-            metadata.setXmpFilePath(xmpFilePath);
-            metadata.setTextFilePath(textFilePath);
+            // Generate XMP and text files (sets the file paths on the metadata)
+            imageMetadataService.generateSidecars(metadata).join();
 
             // Build response
             ImageUploadResponse response = ImageUploadResponse.builder()
@@ -68,8 +85,10 @@ public class ImageUploadController {
                     .fileName(file.getOriginalFilename())
                     .fileSize(file.getSize())
                     .metadata(metadata)
-                    .xmpDownloadUrl("/api/v1/images/download/xmp/" + getFileNameWithoutExtension(file.getOriginalFilename()) + ".xmp")
-                    .textDownloadUrl("/api/v1/images/download/text/" + getFileNameWithoutExtension(file.getOriginalFilename()) + "_metadata.txt")
+                    .xmpDownloadUrl("/api/v1/images/download/xmp/" + Paths.get(metadata.getXmpFilePath()).getFileName())
+                    .textDownloadUrl("/api/v1/images/download/text/" + Paths.get(metadata.getTextFilePath()).getFileName())
+                    .previewDownloadUrl(previewUrl("preview", metadata.getPreviewFilePath()))
+                    .thumbnailDownloadUrl(previewUrl("thumbnail", metadata.getThumbnailFilePath()))
                     .build();
 
             return ResponseEntity.ok(response);
@@ -83,62 +102,145 @@ public class ImageUploadController {
         }
     }
 
+    /**
+     * Download URL of a preview file, or null when the image has no preview.
+     */
+    private static String previewUrl(String kind, String filePath) {
+        return filePath == null ? null : "/api/v1/images/download/" + kind + "/" + Paths.get(filePath).getFileName();
+    }
+
+    /**
+     * Bulk upload of images and/or ZIP archives of images. Each file's result is sent as a
+     * "result" server-sent event as soon as it is processed, followed by a "complete" summary.
+     */
+    @PostMapping(value = "/upload/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> uploadImages(@RequestParam("files") List<MultipartFile> files) {
+        if (files.isEmpty() || files.stream().allMatch(MultipartFile::isEmpty)) {
+            return Flux.just(ServerSentEvent.builder(new ErrorResponse("Please select files to upload"))
+                    .event("error").build());
+        }
+        return toEvents(bulkImageService.processFiles(files));
+    }
+
+    /**
+     * Bulk upload of a ZIP archive sent as the raw request body. Entries are processed while the
+     * archive is still being received.
+     */
+    @PostMapping(value = "/upload/bulk", consumes = {"application/zip", "application/x-zip-compressed"},
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> uploadArchive(InputStream body) {
+        return toEvents(bulkImageService.processZip(body));
+    }
+
+    private Flux<ServerSentEvent<?>> toEvents(Flux<ImageBatchEntry> entries) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicInteger succeeded = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            Flux<ServerSentEvent<?>> results = entries.map(entry -> {
+                (entry.getResult().isSuccess() ? succeeded : failed).incrementAndGet();
+                return ServerSentEvent.builder(entry).id(String.valueOf(entry.getIndex())).event("result").build();
+            });
+            Mono<ServerSentEvent<?>> summary = Mono.fromSupplier(() -> ServerSentEvent.builder(ImageBatchSummary.builder()
+                    .total(succeeded.get() + failed.get())
+                    .succeeded(succeeded.get())
+                    .failed(failed.get())
+                    .elapsedMillis((System.nanoTime() - start) / 1_000_000)
+                    .build()).event("complete").build());
+            return results.concatWith(summary);
+        });
+    }
+
     @GetMapping("/download/xmp/{fileName}")
-    public ResponseEntity<Resource> downloadXmpFile(@PathVariable String fileName) {
+    public void downloadXmpFile(@PathVariable String fileName, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        download(SidecarDownloads.Kind.XMP, fileName, request, response);
+    }
+
+    @GetMapping("/download/text/{fileName}")
+    public void downloadTextFile(@PathVariable String fileName, HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        download(SidecarDownloads.Kind.TEXT, fileName, request, response);
+    }
+
+    @GetMapping("/download/preview/{fileName}")
+    public void downloadPreview(@PathVariable String fileName, HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        download(SidecarDownloads.Kind.PREVIEW, fileName, request, response);
+    }
+
+    @GetMapping("/download/thumbnail/{fileName}")
+    public void downloadThumbnail(@PathVariable String fileName, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        download(SidecarDownloads.Kind.THUMBNAIL, fileName, request, response);
+    }
+
+    /**
+     * Sends a sidecar with ETag/Last-Modified validation and byte-range support (see
+     * {@link SidecarDownloads}).
+     */
+    private void download(SidecarDownloads.Kind kind, String fileName, HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        Optional<SidecarDownloads.Sidecar> sidecar = sidecarDownloads.find(kind, fileName);
+        if (sidecar.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
         try {
-            Path filePath = Paths.get("xmp", fileName);
-            Resource resource = new FileSystemResource(filePath);
-
-            if (resource.exists() && resource.isReadable()) {
-                HttpHeaders headers = new HttpHeaders();
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
-                headers.add(HttpHeaders.CONTENT_TYPE, "application/rdf+xml");
-
-                return ResponseEntity.ok()
-                        .headers(headers)
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            sidecarDownloads.send(sidecar.get(), request, response);
+        } catch (NoSuchFileException e) {
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             }
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    @GetMapping("/download/text/{fileName}")
-    public ResponseEntity<Resource> downloadTextFile(@PathVariable String fileName) {
+    /**
+     * Several sidecars as one ZIP archive, streamed as it is written. The body is a JSON array of
+     * stored sidecar names, as in the download URLs (at most image.download.bulk.max-files);
+     * names that do not exist are skipped and counted in the X-Missing-Files header.
+     */
+    @PostMapping(value = "/download/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> downloadSidecars(@RequestBody List<String> fileNames) {
+        List<SidecarDownloads.Sidecar> sidecars;
         try {
-            Path filePath = Paths.get("text", fileName);
-            Resource resource = new FileSystemResource(filePath);
-
-            if (resource.exists() && resource.isReadable()) {
-                HttpHeaders headers = new HttpHeaders();
-                headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
-                headers.add(HttpHeaders.CONTENT_TYPE, "text/plain");
-
-                return ResponseEntity.ok()
-                        .headers(headers)
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
-            }
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            sidecars = sidecarDownloads.findAll(fileNames);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (sidecars.isEmpty()) {
+            return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sidecars.zip\"")
+                .header("X-Missing-Files", String.valueOf(new HashSet<>(fileNames).size() - sidecars.size()))
+                .body(out -> sidecarDownloads.writeZip(sidecars, out));
     }
 
+    /**
+     * Catalog entry of the most recently processed image with this file name.
+     */
     @GetMapping("/metadata/{fileName}")
-    public ResponseEntity<String> getImageMetadata(@PathVariable String fileName) {
-        // This endpoint could be used to retrieve previously processed metadata
-        // For now, it returns a placeholder response
-        return ResponseEntity.ok("Metadata retrieval endpoint for " + fileName + " - implementation depends on storage strategy");
+    public ResponseEntity<?> getImageMetadata(@PathVariable String fileName) {
+        return imageCatalog.findByFileName(fileName)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ErrorResponse("No processed image named " + fileName)));
     }
 
-    private String getFileNameWithoutExtension(String fileName) {
-        if (fileName == null || fileName.isEmpty()) {
-            return fileName;
+    /**
+     * Processed images matching the query parameters (see {@link ImageCatalogQuery}), one page at
+     * a time, e.g. {@code /catalog?make=Sony&minIso=800&minLat=48.8&maxLat=48.9&minLon=2.2&maxLon=2.4&sort=taken}.
+     */
+    @GetMapping("/catalog")
+    public ResponseEntity<?> queryCatalog(ImageCatalogQuery query) {
+        try {
+            return ResponseEntity.ok(imageCatalog.query(query));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
         }
-        int lastDotIndex = fileName.lastIndexOf('.');
-        return lastDotIndex == -1 ? fileName : fileName.substring(0, lastDotIndex);
     }
-}
\ No newline at end of file
+}
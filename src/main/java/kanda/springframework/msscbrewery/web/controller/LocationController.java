@@ -0,0 +1,38 @@
+package kanda.springframework.msscbrewery.web.controller;
+
+import kanda.springframework.msscbrewery.web.model.ErrorResponse;
+import kanda.springframework.msscbrewery.web.model.LocationMatch;
+import kanda.springframework.msscbrewery.web.services.gazetteer.GazetteerService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RequestMapping("/api/v1/locations")
+@RestController
+public class LocationController {
+
+    private final GazetteerService gazetteerService;
+
+    public LocationController(GazetteerService gazetteerService) {
+        this.gazetteerService = gazetteerService;
+    }
+
+    /**
+     * Typeahead: {@code ?q=san&limit=10}.
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<LocationMatch>> suggest(@RequestParam("q") String query,
+                                                       @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return new ResponseEntity<>(gazetteerService.suggest(query, limit), HttpStatus.OK);
+    }
+
+    @GetMapping("/resolve")
+    public ResponseEntity<?> resolve(@RequestParam("q") String query) {
+        return gazetteerService.resolve(query)
+                .<ResponseEntity<?>>map(match -> new ResponseEntity<>(match, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(
+                        new ErrorResponse("No location matches '" + query + "'"), HttpStatus.NOT_FOUND));
+    }
+}
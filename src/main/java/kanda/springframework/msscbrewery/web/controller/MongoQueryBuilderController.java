@@ -1,13 +1,16 @@
 package kanda.springframework.msscbrewery.web.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import kanda.springframework.msscbrewery.web.model.*;
 import kanda.springframework.msscbrewery.web.services.MongoQueryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -233,4 +236,43 @@ public class MongoQueryBuilderController {
                     .body(List.of());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Import documents into the embedded store: JSON lines or a JSON array, as written by
+     * mongoexport (Extended JSON such as {"$oid": ...} and {"$date": ...} is understood).
+     * The body is read as a stream; with replace=true the collection's documents are replaced.
+     */
+    @PostMapping(value = "/collections/{collection}/import", consumes = {
+            MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<Map<String, Object>> importCollection(
+            @PathVariable String collection,
+            @RequestParam(required = false) String database,
+            @RequestParam(defaultValue = "false") boolean replace,
+            HttpServletRequest request) {
+        try {
+            long imported = mongoQueryService.importCollection(database, collection, request.getInputStream(), replace);
+            return ResponseEntity.ok(Map.of("collection", collection, "imported", imported));
+        } catch (IllegalArgumentException | IOException e) {
+            log.warn("Error importing into collection {}: {}", collection, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Drop a collection of the embedded store
+     */
+    @DeleteMapping("/collections/{collection}")
+    public ResponseEntity<Map<String, Object>> dropCollection(
+            @PathVariable String collection,
+            @RequestParam(required = false) String database) {
+        try {
+            boolean dropped = mongoQueryService.dropCollection(database, collection);
+            return dropped ? ResponseEntity.ok(Map.of("collection", collection, "dropped", true))
+                    : ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Collection not found: " + collection));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+}
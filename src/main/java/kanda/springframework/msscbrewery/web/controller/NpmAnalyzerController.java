@@ -1,5 +1,6 @@
 package kanda.springframework.msscbrewery.web.controller;
 
+import kanda.springframework.msscbrewery.config.NpmSchedulers;
 import kanda.springframework.msscbrewery.web.model.npm.*;
 import kanda.springframework.msscbrewery.web.services.npm.PackageAnalysisService;
 import kanda.springframework.msscbrewery.web.services.npm.NpmRegistryService;
@@ -26,6 +27,7 @@ public class NpmAnalyzerController {
 
     private final PackageAnalysisService packageAnalysisService;
     private final NpmRegistryService npmRegistryService;
+    private final NpmSchedulers npmSchedulers;
 
     @GetMapping("/analyze/{packageName}")
     public Mono<ResponseEntity<PackageAnalysisDto>> analyzePackage(
@@ -60,17 +62,14 @@ public class NpmAnalyzerController {
         
         log.info("Analyzing uploaded package.json file: {}", file.getOriginalFilename());
         
-        try {
-            String content = new String(file.getBytes(), StandardCharsets.UTF_8);
-            return packageAnalysisService.analyzePackageJson(content)
-                    .map(analysis -> ResponseEntity.ok()
-                            .contentType(MediaType.APPLICATION_JSON)
-                            .body(analysis))
-                    .onErrorReturn(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
-        } catch (IOException e) {
-            log.error("Error reading uploaded file: {}", e.getMessage());
-            return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
-        }
+        return Mono.fromCallable(() -> new String(file.getBytes(), StandardCharsets.UTF_8))
+                .subscribeOn(npmSchedulers.blocking())
+                .doOnError(IOException.class, e -> log.error("Error reading uploaded file: {}", e.getMessage()))
+                .flatMap(packageAnalysisService::analyzePackageJson)
+                .map(analysis -> ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(analysis))
+                .onErrorReturn(ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
     }
 
     @PostMapping("/analyze/batch")
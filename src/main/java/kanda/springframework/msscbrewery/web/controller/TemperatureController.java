@@ -1,49 +1,118 @@
 package kanda.springframework.msscbrewery.web.controller;
 
+import kanda.springframework.msscbrewery.web.model.ErrorResponse;
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchEntry;
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchRequest;
 import kanda.springframework.msscbrewery.web.model.TemperatureDto;
-import kanda.springframework.msscbrewery.web.services.TemperatureService;
+import kanda.springframework.msscbrewery.web.services.ReactiveTemperatureService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
 
 @RequestMapping("/api/v1/temperature")
 @RestController
 public class TemperatureController {
 
-    private final TemperatureService temperatureService;
+    private final ReactiveTemperatureService temperatureService;
+    private final int maxBatchLocations;
+    private final Duration streamHeartbeat;
 
-    public TemperatureController(TemperatureService temperatureService) {
+    public TemperatureController(ReactiveTemperatureService temperatureService,
+                                 @Value("${weather.batch.max-locations:100}") int maxBatchLocations,
+                                 @Value("${weather.stream.heartbeat:15s}") Duration streamHeartbeat) {
         this.temperatureService = temperatureService;
+        this.maxBatchLocations = maxBatchLocations;
+        this.streamHeartbeat = streamHeartbeat;
     }
 
     @GetMapping
-    public ResponseEntity<TemperatureDto> getCurrentTemperature() {
-        return new ResponseEntity<>(temperatureService.getCurrentTemperature(), HttpStatus.OK);
+    public Mono<ResponseEntity<TemperatureDto>> getCurrentTemperature() {
+        return temperatureService.getCurrentTemperature()
+                .map(temperature -> new ResponseEntity<>(temperature, HttpStatus.OK));
     }
 
     @GetMapping("/{location}")
-    public ResponseEntity<?> getCurrentTemperature(@PathVariable("location") String location) {
-        try {
-            TemperatureDto temperature = temperatureService.getCurrentTemperature(location);
-            return new ResponseEntity<>(temperature, HttpStatus.OK);
-        } catch (IllegalArgumentException e) {
-            return new ResponseEntity<>(new ErrorResponse(e.getMessage()), HttpStatus.BAD_REQUEST);
+    public Mono<ResponseEntity<?>> getCurrentTemperature(@PathVariable("location") String location) {
+        return temperatureService.getCurrentTemperature(location)
+                .<ResponseEntity<?>>map(temperature -> new ResponseEntity<>(temperature, HttpStatus.OK))
+                .onErrorResume(IllegalArgumentException.class,
+                        e -> Mono.just(new ResponseEntity<>(new ErrorResponse(e.getMessage()), HttpStatus.BAD_REQUEST)));
+    }
+
+    /**
+     * Live temperature/AQI updates for a location as server-sent events. A comment line is sent
+     * every heartbeat interval so disconnected clients are detected and their subscription released.
+     */
+    @GetMapping(value = "/{location}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> streamTemperature(@PathVariable("location") String location) {
+        Flux<ServerSentEvent<?>> updates = temperatureService.streamTemperature(location)
+                .map(temperature -> ServerSentEvent.builder(temperature).event("temperature").build());
+        Flux<ServerSentEvent<?>> heartbeats = Flux.interval(streamHeartbeat, streamHeartbeat)
+                .map(tick -> ServerSentEvent.builder().comment("heartbeat").build());
+        return Flux.merge(updates, heartbeats)
+                .onErrorResume(IllegalArgumentException.class,
+                        e -> Flux.just(ServerSentEvent.builder(new ErrorResponse(e.getMessage())).event("error").build()));
+    }
+
+    /**
+     * Temperatures for several locations as one response, in request order.
+     */
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getCurrentTemperatures(@RequestBody TemperatureBatchRequest request) {
+        String error = validateBatch(request.getLocations());
+        if (error != null) {
+            return Mono.just(new ResponseEntity<>(new ErrorResponse(error), HttpStatus.BAD_REQUEST));
         }
+        return temperatureService.getCurrentTemperatures(request.getLocations())
+                .collectSortedList(Comparator.comparingInt(TemperatureBatchEntry::getIndex))
+                .map(entries -> new ResponseEntity<>(entries, HttpStatus.OK));
+    }
+
+    /**
+     * Temperatures for several locations as server-sent events, each sent as soon as it is available.
+     */
+    @PostMapping(value = "/batch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> streamCurrentTemperatures(@RequestBody TemperatureBatchRequest request) {
+        return streamBatch(request.getLocations());
+    }
+
+    /**
+     * Same as the streaming batch endpoint, for EventSource clients: {@code ?locations=Delhi,Paris}.
+     */
+    @GetMapping(value = "/batch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> streamCurrentTemperatures(@RequestParam("locations") List<String> locations) {
+        return streamBatch(locations);
     }
-    
-    public static class ErrorResponse {
-        private String error;
-        
-        public ErrorResponse(String error) {
-            this.error = error;
+
+    private Flux<ServerSentEvent<?>> streamBatch(List<String> locations) {
+        String error = validateBatch(locations);
+        if (error != null) {
+            return Flux.just(ServerSentEvent.builder(new ErrorResponse(error)).event("error").build());
         }
-        
-        public String getError() {
-            return error;
+        return temperatureService.getCurrentTemperatures(locations)
+                .<ServerSentEvent<?>>map(entry -> ServerSentEvent.builder(entry)
+                        .id(String.valueOf(entry.getIndex()))
+                        .event("temperature")
+                        .build())
+                .concatWith(Mono.just(ServerSentEvent.builder().event("complete").build()));
+    }
+
+    private String validateBatch(List<String> locations) {
+        if (locations == null || locations.isEmpty()) {
+            return "At least one location is required";
         }
-        
-        public void setError(String error) {
-            this.error = error;
+        if (locations.size() > maxBatchLocations) {
+            return "At most " + maxBatchLocations + " locations can be requested at once";
         }
+        return null;
     }
-}
\ No newline at end of file
+}
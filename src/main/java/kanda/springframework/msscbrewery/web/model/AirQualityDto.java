@@ -0,0 +1,35 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class AirQualityDto {
+    private String location;
+    private Instant timestamp;
+    private Integer aqi;
+    private String aqiCategory;
+    private String aqiDescription;
+    private Double average1h;
+    private Integer max1h;
+    private Double average24h;
+    private Integer max24h;
+    private String source; // "feed" or "simulated"
+    private List<Sample> history;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Sample {
+        private Instant timestamp;
+        private Integer aqi;
+    }
+}
@@ -0,0 +1,19 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CodeGenerationRequest {
+    private MongoQueryRequest query;
+    private String language;
+    private String framework;
+    private String database;
+    private Boolean includeComments;
+    private Boolean includeErrorHandling;
+}
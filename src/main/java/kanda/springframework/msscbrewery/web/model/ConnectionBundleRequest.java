@@ -0,0 +1,39 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many connection configs rendered into one ZIP archive. Each of the {@code targets} is rendered
+ * into {@code <name>/}, and each database of the matrix into {@code <environment>/<database>/}
+ * with the environment's non-null fields (host, password, SSL, ...) laid over the database's.
+ * Every config is rendered in each of the {@code formats} (export format values: env, yaml,
+ * k8s-secret, json, docker-compose, connection-string; env, yaml and k8s-secret by default).
+ * With {@code deduplicate} (the default), identical files are stored once and listed in the
+ * archive's manifest.json.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConnectionBundleRequest {
+    private List<Target> targets;
+    private Map<String, ConnectionStringRequest> environments;
+    private Map<String, ConnectionStringRequest> databases;
+    private List<String> formats;
+    private Boolean deduplicate;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Target {
+        private String name;
+        private ConnectionStringRequest connection;
+    }
+}
@@ -0,0 +1,19 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A connection string to parse back into builder fields. The database type is optional; when
+ * given it decides formats several databases share (key=value strings, host:port/name).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConnectionParseRequest {
+    private String connectionString;
+    private DatabaseType databaseType;
+}
@@ -0,0 +1,29 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed connection string: the builder fields it holds, the format it was written in
+ * (URI, JDBC, KEYWORD, TNS, EZCONNECT, PATH or HOST_PORT), warnings about anything not carried
+ * over exactly, and the same validation and security check the builder runs on its own input.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConnectionParseResponse {
+    private String format;
+    private ConnectionStringRequest request;
+    private String maskedConnectionString;
+    private List<String> warnings;
+    private Map<String, Object> validation;
+    private Map<String, Object> securityCheck;
+}
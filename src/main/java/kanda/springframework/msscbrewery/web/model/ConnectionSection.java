@@ -0,0 +1,65 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Optional sections of a generated connection response. The connection string, its masked form
+ * and the validation lists are always returned; everything else only when asked for.
+ */
+public enum ConnectionSection {
+    FORMATS("formats", "Export formats (env, JSON, YAML, properties)"),
+    SNIPPETS("snippets", "Code snippets (Java, Python, Node.js, C#, PHP)"),
+    CLOUD("cloud", "Cloud provider configurations"),
+    SECURITY("security", "Security recommendations"),
+    PERFORMANCE("performance", "Performance recommendations"),
+    TEST("test", "Connection test result (connects to the database)");
+
+    private final String value;
+    private final String description;
+
+    ConnectionSection(String value, String description) {
+        this.value = value;
+        this.description = description;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Sections named by their values; "full" (or "all") selects every section. Throws
+     * {@link IllegalArgumentException} for an unknown name.
+     */
+    public static Set<ConnectionSection> parse(Iterable<String> names) {
+        Set<ConnectionSection> sections = EnumSet.noneOf(ConnectionSection.class);
+        if (names == null) {
+            return sections;
+        }
+        for (String name : names) {
+            String value = name.trim().toLowerCase(Locale.ROOT);
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (value.equals("full") || value.equals("all")) {
+                return EnumSet.allOf(ConnectionSection.class);
+            }
+            sections.add(fromValue(value));
+        }
+        return sections;
+    }
+
+    private static ConnectionSection fromValue(String value) {
+        for (ConnectionSection section : values()) {
+            if (section.value.equals(value)) {
+                return section;
+            }
+        }
+        throw new IllegalArgumentException("Unknown section: " + value);
+    }
+}
@@ -1,5 +1,6 @@
 package kanda.springframework.msscbrewery.web.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -8,9 +9,11 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Response DTO for database connection string generation
+ * Response DTO for database connection string generation. Sections that were not requested are
+ * null and left out of the JSON.
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @AllArgsConstructor
 @NoArgsConstructor
 public class ConnectionStringResponse {
@@ -0,0 +1,59 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a real connection test. {@code timingsMs} holds the time spent in each phase that
+ * ran, in order (dns, tcp, tls, handshake, auth); on failure {@code failedPhase} names the phase
+ * that failed. {@code latencyMs} is the total. {@code warmup} is only present when a pool warmup
+ * was requested.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConnectionTestResult {
+    private boolean success;
+    private String message;
+    private DatabaseType databaseType;
+    private String host;
+    private Integer port;
+    private String address;
+    private String failedPhase;
+    private String serverVersion;
+    private String authMethod;
+    private String tls;
+    private Map<String, Double> timingsMs;
+    private long latencyMs;
+    private long timestamp;
+    private List<String> warnings;
+    private PoolWarmup warmup;
+
+    /**
+     * Opening {@code connections} connections at once, as a pool does to reach its minimum size.
+     * {@code wallMs} is the time until all were open; {@code sequentialMs} the sum of the
+     * individual times, i.e. what filling the pool one connection at a time would take.
+     */
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class PoolWarmup {
+        private int connections;
+        private int succeeded;
+        private double wallMs;
+        private double sequentialMs;
+        private double p50Ms;
+        private double maxMs;
+        private String firstError;
+    }
+}
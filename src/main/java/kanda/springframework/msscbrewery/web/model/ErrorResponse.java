@@ -0,0 +1,15 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Body of a 4xx response, or of an "error" server-sent event: {@code {"error": "..."}}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErrorResponse {
+    private String error;
+}
@@ -0,0 +1,16 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageBatchEntry {
+    private int index; // Position of the file in the upload (ZIP entries numbered in archive order)
+    private String path; // Original file name or path inside the archive
+    private ImageUploadResponse result;
+}
@@ -0,0 +1,17 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageBatchSummary {
+    private int total;
+    private int succeeded;
+    private int failed;
+    private long elapsedMillis;
+}
@@ -0,0 +1,38 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A processed image in the catalog: the searchable subset of its extracted metadata.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageCatalogEntry {
+    private String contentHash;
+    private String fileName;
+    private Long fileSize;
+    private String mimeType;
+    private Integer width;
+    private Integer height;
+    private String cameraMake;
+    private String cameraModel;
+    private String lensModel;
+    private Integer iso;
+    private String aperture;
+    private String shutterSpeed;
+    private Double focalLength; // mm
+    private LocalDateTime dateTimeTaken;
+    private Double latitude;
+    private Double longitude;
+    private Double altitude;
+    private LocalDateTime processedDateTime;
+    private String xmpDownloadUrl;
+    private String textDownloadUrl;
+}
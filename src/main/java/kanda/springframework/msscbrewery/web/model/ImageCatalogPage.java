@@ -0,0 +1,20 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageCatalogPage {
+    private List<ImageCatalogEntry> items;
+    private int page;
+    private int size;
+    private long total;
+    private long elapsedMicros;
+}
@@ -0,0 +1,40 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Catalog query. Every filter is optional; make, model and lens match case-insensitively, ranges
+ * are inclusive. The bounding box wraps across the antimeridian when minLon is greater than
+ * maxLon. Sort is one of processed (default), taken, iso, focalLength or fileName.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImageCatalogQuery {
+    private String make;
+    private String model;
+    private String lens;
+    private Integer minIso;
+    private Integer maxIso;
+    private Double minFocalLength;
+    private Double maxFocalLength;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime takenFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime takenTo;
+    private Double minLat;
+    private Double maxLat;
+    private Double minLon;
+    private Double maxLon;
+    private String sort;
+    private String direction; // asc or desc (default)
+    private Integer page;
+    private Integer size;
+}
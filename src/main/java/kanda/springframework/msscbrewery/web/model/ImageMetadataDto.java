@@ -45,10 +45,14 @@ public class ImageMetadataDto {
     
     // Processing information
     private LocalDateTime processedDateTime;
+    private String contentHash; // XXH64 of the file contents, hex
+    private boolean fromCache; // Metadata reused from an earlier upload of the same contents
     private String xmpFilePath;
     private String textFilePath;
+    private String previewFilePath; // JPEG preview and thumbnail, shared by uploads of the same contents
+    private String thumbnailFilePath;
     
-    // Additional metadata
+    // Additional metadata (every tag; only with image.metadata.additional-metadata=true)
     private Map<String, String> additionalMetadata;
     
     // Color and tone settings extracted from EXIF
@@ -16,5 +16,7 @@ public class ImageUploadResponse {
     private ImageMetadataDto metadata;
     private String xmpDownloadUrl;
     private String textDownloadUrl;
+    private String previewDownloadUrl;
+    private String thumbnailDownloadUrl;
     private boolean success;
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LocationMatch {
+    private String id; // Canonical ID, e.g. "geonames:1273294" or "builtin:delhi"
+    private String name;
+    private String countryCode;
+    private Long population;
+    private String matchType; // "exact", "alias", "prefix" or "fuzzy"
+    private Integer distance; // Edit distance for fuzzy matches
+
+    /**
+     * Query string for the weather API: the canonical name, qualified by country when known.
+     */
+    public String weatherQuery() {
+        return countryCode != null ? name + "," + countryCode : name;
+    }
+}
@@ -0,0 +1,18 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoCollectionInfo {
+    private String name;
+    private Long documentCount;
+    private Long avgObjSize;
+    private Long totalIndexSize;
+    private java.util.Map<String, Object> stats;
+}
@@ -0,0 +1,17 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoConnectionRequest {
+    private String connectionString;
+    private String database;
+    private String username;
+    private String password;
+}
@@ -0,0 +1,20 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoConnectionTest {
+    private Boolean success;
+    private String error;
+    private Long responseTime;
+    private String serverVersion;
+    private List<String> databases;
+}
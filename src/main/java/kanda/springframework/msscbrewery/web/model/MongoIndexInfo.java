@@ -0,0 +1,18 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoIndexInfo {
+    private String name;
+    private java.util.Map<String, Object> keys;
+    private Boolean unique;
+    private Boolean sparse;
+    private java.util.Map<String, Object> options;
+}
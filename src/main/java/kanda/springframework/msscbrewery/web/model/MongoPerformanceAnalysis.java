@@ -0,0 +1,31 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoPerformanceAnalysis {
+    private List<Recommendation> recommendations;
+    private Long estimatedExecutionTime;
+    private List<String> indexRecommendations;
+    private String error;
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Recommendation {
+        private String type;
+        private String severity;
+        private String title;
+        private String description;
+        private String suggestion;
+    }
+}
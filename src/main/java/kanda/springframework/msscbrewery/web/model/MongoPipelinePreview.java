@@ -0,0 +1,18 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoPipelinePreview {
+    private java.util.Map<String, List<java.util.Map<String, Object>>> stageResults;
+    private Long totalDocuments;
+    private String error;
+}
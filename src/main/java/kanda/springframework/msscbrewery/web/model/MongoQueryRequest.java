@@ -38,7 +38,7 @@ public class MongoQueryRequest {
     @AllArgsConstructor
     public static class MongoPipelineStage {
         private String stage; // $match, $group, etc.
-        private Map<String, Object> config;
+        private Object config; // a document for most stages; a number for $limit/$skip, a string for $count
         private Boolean enabled;
         private Integer order;
     }
@@ -0,0 +1,22 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoQueryTemplate {
+    private String id;
+    private String name;
+    private String category;
+    private String complexity;
+    private String description;
+    private MongoQueryRequest query;
+    private List<String> tags;
+}
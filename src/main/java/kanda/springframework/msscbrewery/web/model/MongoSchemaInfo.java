@@ -0,0 +1,34 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MongoSchemaInfo {
+    private String collection;
+    private List<FieldInfo> fields;
+    private Long documentCount;
+    private Long averageDocumentSize;
+    private String error;
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FieldInfo {
+        private String name;
+        private String type;
+        private Boolean required;
+        private Boolean unique;
+        private Boolean indexed;
+        private Object sampleValue;
+        private Double frequency;
+    }
+}
@@ -0,0 +1,19 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PipelinePreviewRequest {
+    private String collection;
+    private String database;
+    private List<MongoQueryRequest.MongoPipelineStage> pipeline;
+    private Integer maxDocuments;
+}
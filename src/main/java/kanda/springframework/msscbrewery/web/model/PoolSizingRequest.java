@@ -0,0 +1,33 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Workload description for the pool sizing advisor. Load is either {@code concurrency} threads
+ * per application instance, each issuing one query after another with {@code thinkTimeMs} in
+ * between, or {@code requestsPerSecond} queries arriving at random across all instances.
+ * Query latency is given as percentiles measured without contention (p50 required, p95 and/or
+ * p99 for the tail). {@code connection}, when given, supplies the current pool settings to
+ * compare against and receives the recommended ones.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PoolSizingRequest {
+    private ConnectionStringRequest connection;
+    private Integer concurrency;
+    private Double thinkTimeMs;
+    private Double requestsPerSecond;
+    private Double latencyP50Ms;
+    private Double latencyP95Ms;
+    private Double latencyP99Ms;
+    private Integer dbCores;
+    private Integer effectiveSpindles;
+    private Integer appInstances;
+    private Long seed;
+    private Integer simulatedQueries;
+}
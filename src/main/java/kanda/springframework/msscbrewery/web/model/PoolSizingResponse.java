@@ -0,0 +1,99 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Pool sizing advice: HikariCP settings per application instance, the workload as the models
+ * saw it, the queueing-model reference sizes, and simulated predictions for the recommended
+ * size and the alternatives it was compared with.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PoolSizingResponse {
+    private HikariSettings settings;
+    private ConnectionStringRequest connection;
+    private Workload workload;
+    private QueueingModel queueingModel;
+    private List<PoolPrediction> predictions;
+    private List<String> notes;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class HikariSettings {
+        private int maximumPoolSize;
+        private int minimumIdle;
+        private long connectionTimeoutMs;
+        private long idleTimeoutMs;
+        private long maxLifetimeMs;
+    }
+
+    /**
+     * Per application instance: query arrival rate, mean query time and the offered load in
+     * Erlangs (connections busy on average). {@code dbCapacity} is the number of queries the
+     * database runs without slowing down (cores * 2 + effective spindles), shared by all instances.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Workload {
+        private double arrivalRatePerSecond;
+        private double meanLatencyMs;
+        private double latencySigma;
+        private double offeredLoad;
+        private double dbCapacity;
+    }
+
+    /**
+     * M/M/c (Erlang C) view of one instance's pool: the smallest stable size, the smallest size
+     * whose p99 wait is within the median query time, and the cores formula share. The wait
+     * figures are the model's for the recommended size.
+     */
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class QueueingModel {
+        private int minimumStableSize;
+        private Integer erlangCSize;
+        private int coresFormulaSize;
+        private Double waitProbability;
+        private Double waitP99Ms;
+    }
+
+    /**
+     * Simulated behaviour of one pool size: connection wait percentiles, the share of requests
+     * that hit connectionTimeout, query time under database contention, and utilization.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class PoolPrediction {
+        private String label;
+        private int poolSize;
+        private double waitMeanMs;
+        private double waitP50Ms;
+        private double waitP95Ms;
+        private double waitP99Ms;
+        private double waitP999Ms;
+        private double queryP99Ms;
+        private double responseP99Ms;
+        private double timeoutRate;
+        private double connectionUtilization;
+        private double dbUtilization;
+        private double throughputPerSecond;
+    }
+}
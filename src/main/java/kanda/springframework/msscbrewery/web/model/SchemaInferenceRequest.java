@@ -0,0 +1,19 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SchemaInferenceRequest {
+    private String collection;
+    private Object sampleDocument;
+    private List<Object> sampleDocuments;
+    private String database;
+}
@@ -0,0 +1,17 @@
+package kanda.springframework.msscbrewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TemperatureBatchEntry {
+    private int index; // Position of the location in the request
+    private String location;
+    private TemperatureDto temperature;
+    private String error; // Validation message when the location was rejected
+}
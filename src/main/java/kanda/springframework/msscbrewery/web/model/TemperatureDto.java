@@ -21,5 +21,6 @@ public class TemperatureDto {
     private Integer aqi; // Air Quality Index (0-500)
     private String aqiCategory; // "Good", "Moderate", "Unhealthy for Sensitive Groups", etc.
     private String aqiDescription; // Detailed description of air quality
+    private String source; // "openweathermap" or "simulated" when the upstream failed
 
 }
\ No newline at end of file
@@ -1,55 +1,50 @@
 package kanda.springframework.msscbrewery.web.services;
 
+import kanda.springframework.msscbrewery.web.services.airquality.AqiAggregates;
+import kanda.springframework.msscbrewery.web.services.airquality.AqiTimeSeriesStore;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-
+/**
+ * Air quality lookups served from the per-location {@link AqiTimeSeriesStore}. Values are
+ * interpolated from the stored samples, so repeated calls for the same location and time agree.
+ */
 @Service
 public class AirQualityService {
 
-    private final Random random = new Random();
-    
-    // Typical AQI ranges for different cities/countries
-    private static final Map<String, int[]> CITY_AQI_RANGES = new HashMap<>();
-    
-    static {
-        // Format: {min, max} AQI values for different locations
-        CITY_AQI_RANGES.put("singapore", new int[]{15, 60});
-        CITY_AQI_RANGES.put("tokyo", new int[]{20, 80});
-        CITY_AQI_RANGES.put("london", new int[]{25, 75});
-        CITY_AQI_RANGES.put("paris", new int[]{30, 90});
-        CITY_AQI_RANGES.put("new york", new int[]{35, 95});
-        CITY_AQI_RANGES.put("delhi", new int[]{150, 400});
-        CITY_AQI_RANGES.put("mumbai", new int[]{120, 300});
-        CITY_AQI_RANGES.put("beijing", new int[]{100, 250});
-        CITY_AQI_RANGES.put("shanghai", new int[]{80, 180});
-        CITY_AQI_RANGES.put("bangkok", new int[]{60, 150});
-        CITY_AQI_RANGES.put("jakarta", new int[]{70, 160});
-        CITY_AQI_RANGES.put("mexico city", new int[]{90, 180});
-        CITY_AQI_RANGES.put("los angeles", new int[]{50, 120});
-        CITY_AQI_RANGES.put("sydney", new int[]{20, 70});
-        CITY_AQI_RANGES.put("melbourne", new int[]{25, 75});
-        CITY_AQI_RANGES.put("cairo", new int[]{80, 200});
-        CITY_AQI_RANGES.put("dubai", new int[]{40, 120});
-        CITY_AQI_RANGES.put("riyadh", new int[]{50, 150});
-        // Default range for other locations
-        CITY_AQI_RANGES.put("default", new int[]{30, 100});
+    private final AqiTimeSeriesStore timeSeriesStore;
+
+    public AirQualityService(AqiTimeSeriesStore timeSeriesStore) {
+        this.timeSeriesStore = timeSeriesStore;
     }
 
     public AirQualityInfo getAirQualityInfo(String location) {
-        String locationKey = location.toLowerCase().trim();
-        
-        // Remove "(simulated)" suffix if present
-        locationKey = locationKey.replace(" (simulated)", "");
-        
-        // Get AQI range for the location
-        int[] range = CITY_AQI_RANGES.getOrDefault(locationKey, CITY_AQI_RANGES.get("default"));
-        
-        // Generate random AQI within the range
-        int aqi = range[0] + random.nextInt(range[1] - range[0] + 1);
-        
+        return getAirQualityInfo(location, timeSeriesStore.now());
+    }
+
+    public AirQualityInfo getAirQualityInfo(String location, long timestamp) {
+        int aqi = timeSeriesStore.series(location).valueAt(timestamp);
+        return toInfo(aqi);
+    }
+
+    /**
+     * Rolling 1h/24h average and maximum for a location, precomputed when samples are added.
+     */
+    public AqiAggregates getAggregates(String location) {
+        return timeSeriesStore.series(location).aggregates();
+    }
+
+    /**
+     * Interpolated AQI values from {@code from} to {@code to} (epoch millis) every {@code step} millis.
+     */
+    public int[] getHistory(String location, long from, long to, long step) {
+        return timeSeriesStore.series(location).valuesBetween(from, to, step);
+    }
+
+    public boolean hasFeedData(String location) {
+        return timeSeriesStore.hasFeedData(location);
+    }
+
+    public AirQualityInfo toInfo(int aqi) {
         return new AirQualityInfo(aqi, getAqiCategory(aqi), getAqiDescription(aqi));
     }
     
@@ -1,9 +1,18 @@
 package kanda.springframework.msscbrewery.web.services;
 
+import kanda.springframework.msscbrewery.web.model.ConnectionBundleRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionParseRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionParseResponse;
+import kanda.springframework.msscbrewery.web.model.ConnectionSection;
 import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
 import kanda.springframework.msscbrewery.web.model.ConnectionStringResponse;
+import kanda.springframework.msscbrewery.web.model.ConnectionTestResult;
+import kanda.springframework.msscbrewery.web.model.PoolSizingRequest;
+import kanda.springframework.msscbrewery.web.model.PoolSizingResponse;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionBundle;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Service interface for database connection string generation and management
@@ -11,19 +20,44 @@ import java.util.Map;
 public interface ConnectionStringService {
 
     /**
-     * Generate connection string and related configurations
+     * Generate connection string, without any of the optional sections
      */
     ConnectionStringResponse generateConnectionString(ConnectionStringRequest request);
 
+    /**
+     * Generate connection string and the requested sections (formats, snippets, cloud configs,
+     * recommendations, test result); several sections are built in parallel
+     */
+    ConnectionStringResponse generateConnectionString(ConnectionStringRequest request, Set<ConnectionSection> sections);
+
+    /**
+     * Parse an existing connection string back into builder fields, then validate and
+     * security-check them. Throws ConnectionStringParseException, with the position of the
+     * error, for strings that cannot be parsed
+     */
+    ConnectionParseResponse parseConnectionString(ConnectionParseRequest request);
+
     /**
      * Validate connection parameters and format
      */
     Map<String, Object> validateConnection(ConnectionStringRequest request);
 
     /**
-     * Perform mock connection test for UI feedback
+     * Test the connection for real (DNS, TCP, TLS, protocol handshake and authentication, each
+     * timed). With {@code warmup}, also open the pool's minimum number of connections at once
      */
-    Map<String, Object> testConnection(ConnectionStringRequest request);
+    ConnectionTestResult testConnection(ConnectionStringRequest request, boolean warmup);
+
+    /**
+     * Test several connections concurrently; results are in request order
+     */
+    List<ConnectionTestResult> testConnections(List<ConnectionStringRequest> requests);
+
+    /**
+     * Recommend HikariCP pool settings for a workload, from a queueing model and a simulation
+     * of the pool and database, with the predicted connection wait percentiles
+     */
+    PoolSizingResponse advisePoolSize(PoolSizingRequest request);
 
     /**
      * Export connection string in specified format
@@ -31,12 +65,19 @@ public interface ConnectionStringService {
     Map<String, String> exportConnection(ConnectionStringRequest request, String format);
 
     /**
-     * Get database templates and presets
+     * Plan the export files of many configs (targets and an environment x database matrix, in
+     * several formats) for streaming as one ZIP. Throws IllegalArgumentException for invalid
+     * requests, before anything is rendered
+     */
+    ConnectionBundle planBundle(ConnectionBundleRequest request);
+
+    /**
+     * Get database templates and presets; constant, so the same immutable map on every call
      */
     Map<String, Object> getTemplates();
 
     /**
-     * Get supported databases configuration
+     * Get supported databases configuration; constant, so the same immutable map on every call
      */
     Map<String, Object> getSupportedDatabases();
 
@@ -1,9 +1,17 @@
 package kanda.springframework.msscbrewery.web.services;
 
 import kanda.springframework.msscbrewery.web.model.*;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionBundle;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionProbe;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionStringParser;
+import kanda.springframework.msscbrewery.web.services.connection.ConnectionTemplates;
+import kanda.springframework.msscbrewery.web.services.connection.PoolSizingAdvisor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /**
@@ -13,14 +21,40 @@ import java.util.stream.Collectors;
 @Service
 public class ConnectionStringServiceImpl implements ConnectionStringService {
 
+    private static final List<String> DEFAULT_LANGUAGES = List.of("java", "python", "nodejs", "csharp", "php");
+
+    // Constant for the life of the process: built once, in a fixed order, and never modified
+    private static final Map<String, Object> TEMPLATES = buildTemplates();
+    private static final Map<String, Object> SUPPORTED_DATABASES = buildSupportedDatabases();
+
+    private final ConnectionTemplates connectionTemplates;
+    private final ConnectionProbe connectionProbe;
+    private final PoolSizingAdvisor poolSizingAdvisor;
+    private final int maxBundleFiles;
+
+    public ConnectionStringServiceImpl(ConnectionTemplates connectionTemplates, ConnectionProbe connectionProbe,
+                                       PoolSizingAdvisor poolSizingAdvisor,
+                                       @Value("${connection.bundle.max-files:10000}") int maxBundleFiles) {
+        this.connectionTemplates = connectionTemplates;
+        this.connectionProbe = connectionProbe;
+        this.poolSizingAdvisor = poolSizingAdvisor;
+        this.maxBundleFiles = maxBundleFiles;
+    }
+
     @Override
     public ConnectionStringResponse generateConnectionString(ConnectionStringRequest request) {
+        return generateConnectionString(request, EnumSet.noneOf(ConnectionSection.class));
+    }
+
+    @Override
+    public ConnectionStringResponse generateConnectionString(ConnectionStringRequest request,
+                                                             Set<ConnectionSection> sections) {
         ConnectionStringResponse response = new ConnectionStringResponse();
         
         try {
-            // Generate connection string based on database type
+            // Render the compiled template of the database type, once in the clear and once masked
             String connectionString = buildConnectionString(request);
-            String maskedString = maskPassword(connectionString);
+            String maskedString = connectionTemplates.render(request, true);
             
             response.setConnectionString(connectionString);
             response.setMaskedConnectionString(maskedString);
@@ -29,22 +63,22 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
             response.setValidationErrors(new ArrayList<>());
             response.setWarnings(new ArrayList<>());
             
-            // Generate multiple output formats
-            response.setFormats(generateAllFormats(request));
-            
-            // Generate code snippets
-            List<String> defaultLanguages = Arrays.asList("java", "python", "nodejs", "csharp", "php");
-            response.setCodeSnippets(generateCodeSnippets(request, defaultLanguages));
-            
-            // Generate cloud configurations
-            response.setCloudConfigs(generateAllCloudConfigs(request));
-            
-            // Add security and performance recommendations
-            response.setSecurityRecommendations(generateSecurityRecommendations(request));
-            response.setPerformanceRecommendations(generatePerformanceRecommendations(request));
-            
-            // Mock test result
-            response.setTestResult(generateMockTestResult(request));
+            // The connection test waits on the network, so it runs on the probe's virtual threads
+            // while the other sections are built
+            CompletableFuture<ConnectionTestResult> test = sections.contains(ConnectionSection.TEST)
+                    ? connectionProbe.testAsync(request) : null;
+
+            // Only the requested sections are built. Several are split across the common
+            // fork-join pool, with the calling thread taking part, so on a single core they run inline
+            List<ConnectionSection> rendered = sections.stream()
+                    .filter(section -> section != ConnectionSection.TEST)
+                    .toList();
+            (rendered.size() > 1 ? rendered.parallelStream() : rendered.stream())
+                    .forEach(section -> addSection(response, section, request, connectionString));
+
+            if (test != null) {
+                response.setTestResult(toTestResult(await(test)));
+            }
             
         } catch (Exception e) {
             response.setValid(false);
@@ -54,6 +88,44 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         return response;
     }
 
+    /**
+     * Builds one optional section, other than the connection test, into the response. Each
+     * section sets a different field, so sections can be built concurrently.
+     */
+    private void addSection(ConnectionStringResponse response, ConnectionSection section,
+                            ConnectionStringRequest request, String connectionString) {
+        switch (section) {
+            case FORMATS -> response.setFormats(generateAllFormats(request, connectionString));
+            case SNIPPETS -> response.setCodeSnippets(generateCodeSnippets(request, connectionString, DEFAULT_LANGUAGES));
+            case CLOUD -> response.setCloudConfigs(generateAllCloudConfigs(request));
+            case SECURITY -> response.setSecurityRecommendations(generateSecurityRecommendations(request));
+            case PERFORMANCE -> response.setPerformanceRecommendations(generatePerformanceRecommendations(request));
+            case TEST -> {
+                // Runs on the probe's virtual threads, see generateConnectionString
+            }
+        }
+    }
+
+    @Override
+    public ConnectionParseResponse parseConnectionString(ConnectionParseRequest parseRequest) {
+        ConnectionStringParser.Result parsed = ConnectionStringParser.parse(
+                parseRequest.getConnectionString(), parseRequest.getDatabaseType());
+        ConnectionStringRequest request = parsed.request();
+        return ConnectionParseResponse.builder()
+                .format(parsed.format().name())
+                .request(request)
+                .maskedConnectionString(connectionTemplates.render(request, true))
+                .warnings(parsed.warnings())
+                .validation(validateConnection(request))
+                .securityCheck(performSecurityCheck(request))
+                .build();
+    }
+
+    @Override
+    public PoolSizingResponse advisePoolSize(PoolSizingRequest request) {
+        return poolSizingAdvisor.advise(request);
+    }
+
     @Override
     public Map<String, Object> validateConnection(ConnectionStringRequest request) {
         Map<String, Object> result = new HashMap<>();
@@ -105,49 +177,38 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
     }
 
     @Override
-    public Map<String, Object> testConnection(ConnectionStringRequest request) {
-        Map<String, Object> result = new HashMap<>();
-        
-        // Simulate connection test with random results
-        Random random = new Random();
-        boolean success = random.nextBoolean();
-        long latency = 50 + random.nextInt(500);
-        
-        result.put("success", success);
-        result.put("message", success ? 
-            "Connection test successful (simulated)" : 
-            "Connection test failed (simulated)");
-        result.put("latencyMs", latency);
-        result.put("timestamp", System.currentTimeMillis());
-        
-        Map<String, Object> details = new HashMap<>();
-        details.put("host", request.getHost());
-        details.put("port", request.getPort() != null ? request.getPort() : 
-                   request.getDatabaseType().getDefaultPort());
-        details.put("database", request.getDatabase());
-        details.put("ssl", request.getSslMode() != null ? request.getSslMode().getValue() : "none");
-        result.put("details", details);
-        
+    public ConnectionTestResult testConnection(ConnectionStringRequest request, boolean warmup) {
+        ConnectionTestResult result = connectionProbe.test(request);
+        if (warmup && result.isSuccess()) {
+            // A pool opens its minimum number of connections at startup (HikariCP defaults to 10)
+            int connections = request.getMinPoolSize() != null ? request.getMinPoolSize() : 10;
+            result.setWarmup(connectionProbe.warmUp(request, connections));
+        }
         return result;
     }
 
+    @Override
+    public List<ConnectionTestResult> testConnections(List<ConnectionStringRequest> requests) {
+        return connectionProbe.testAll(requests);
+    }
+
     @Override
     public Map<String, String> exportConnection(ConnectionStringRequest request, String format) {
         Map<String, String> result = new HashMap<>();
         
         switch (format.toLowerCase()) {
             case "env":
-                result.put("content", generateEnvFormat(request));
+                result.put("content", generateEnvFormat(request, buildConnectionString(request)));
                 result.put("filename", ".env");
                 result.put("mimeType", "text/plain");
                 break;
             case "json":
-                result.put("content", generateJsonFormat(request));
+                result.put("content", generateJsonFormat(request, buildConnectionString(request)));
                 result.put("filename", "database-config.json");
                 result.put("mimeType", "application/json");
                 break;
             case "yaml":
-                result.put("content", generateYamlFormat(request));
+                result.put("content", generateYamlFormat(request, buildConnectionString(request)));
                 result.put("filename", "database-config.yaml");
                 result.put("mimeType", "application/yaml");
                 break;
@@ -170,48 +231,61 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         return result;
     }
 
+    @Override
+    public ConnectionBundle planBundle(ConnectionBundleRequest request) {
+        return ConnectionBundle.plan(request, this::exportConnection, maxBundleFiles);
+    }
+
     @Override
     public Map<String, Object> getTemplates() {
-        Map<String, Object> templates = new HashMap<>();
+        return TEMPLATES;
+    }
+
+    @Override
+    public Map<String, Object> getSupportedDatabases() {
+        return SUPPORTED_DATABASES;
+    }
+
+    private static Map<String, Object> buildTemplates() {
+        Map<String, Object> templates = new LinkedHashMap<>();
         
         // Development templates
-        List<Map<String, Object>> devTemplates = new ArrayList<>();
-        devTemplates.add(createTemplate("Local PostgreSQL", DatabaseType.POSTGRESQL, 
-            "localhost", 5432, "myapp_dev", "postgres", "password", false));
-        devTemplates.add(createTemplate("Local MySQL", DatabaseType.MYSQL,
-            "localhost", 3306, "myapp_dev", "root", "password", false));
-        devTemplates.add(createTemplate("Local MongoDB", DatabaseType.MONGODB,
-            "localhost", 27017, "myapp_dev", "admin", "password", false));
+        List<Map<String, Object>> devTemplates = List.of(
+            createTemplate("Local PostgreSQL", DatabaseType.POSTGRESQL,
+                "localhost", 5432, "myapp_dev", "postgres", "password", false),
+            createTemplate("Local MySQL", DatabaseType.MYSQL,
+                "localhost", 3306, "myapp_dev", "root", "password", false),
+            createTemplate("Local MongoDB", DatabaseType.MONGODB,
+                "localhost", 27017, "myapp_dev", "admin", "password", false));
         
         // Production templates
-        List<Map<String, Object>> prodTemplates = new ArrayList<>();
-        prodTemplates.add(createTemplate("Production PostgreSQL", DatabaseType.POSTGRESQL,
-            "prod-db.company.com", 5432, "myapp_prod", "app_user", "secure_password", true));
-        prodTemplates.add(createTemplate("Production MySQL", DatabaseType.MYSQL,
-            "prod-db.company.com", 3306, "myapp_prod", "app_user", "secure_password", true));
+        List<Map<String, Object>> prodTemplates = List.of(
+            createTemplate("Production PostgreSQL", DatabaseType.POSTGRESQL,
+                "prod-db.company.com", 5432, "myapp_prod", "app_user", "secure_password", true),
+            createTemplate("Production MySQL", DatabaseType.MYSQL,
+                "prod-db.company.com", 3306, "myapp_prod", "app_user", "secure_password", true));
         
         // Cloud templates
-        List<Map<String, Object>> cloudTemplates = new ArrayList<>();
-        cloudTemplates.add(createCloudTemplate("AWS RDS PostgreSQL", DatabaseType.POSTGRESQL,
-            "mydb.cluster-xxx.us-east-1.rds.amazonaws.com", 5432));
-        cloudTemplates.add(createCloudTemplate("Azure SQL Database", DatabaseType.MSSQL,
-            "myserver.database.windows.net", 1433));
-        cloudTemplates.add(createCloudTemplate("Google Cloud SQL", DatabaseType.POSTGRESQL,
-            "google-cloud-sql-instance", 5432));
+        List<Map<String, Object>> cloudTemplates = List.of(
+            createCloudTemplate("AWS RDS PostgreSQL", DatabaseType.POSTGRESQL,
+                "mydb.cluster-xxx.us-east-1.rds.amazonaws.com", 5432),
+            createCloudTemplate("Azure SQL Database", DatabaseType.MSSQL,
+                "myserver.database.windows.net", 1433),
+            createCloudTemplate("Google Cloud SQL", DatabaseType.POSTGRESQL,
+                "google-cloud-sql-instance", 5432));
         
         templates.put("development", devTemplates);
         templates.put("production", prodTemplates);
         templates.put("cloud", cloudTemplates);
         
-        return templates;
+        return Collections.unmodifiableMap(templates);
     }
 
-    @Override
-    public Map<String, Object> getSupportedDatabases() {
-        Map<String, Object> databases = new HashMap<>();
+    private static Map<String, Object> buildSupportedDatabases() {
+        Map<String, Object> databases = new LinkedHashMap<>();
         
         for (DatabaseType dbType : DatabaseType.values()) {
-            Map<String, Object> dbConfig = new HashMap<>();
+            Map<String, Object> dbConfig = new LinkedHashMap<>();
             dbConfig.put("displayName", dbType.getDisplayName());
             dbConfig.put("protocol", dbType.getProtocol());
             dbConfig.put("defaultPort", dbType.getDefaultPort());
@@ -243,17 +317,21 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
                 parameters.add("connectionTimeout");
             }
             
-            dbConfig.put("parameters", parameters);
-            databases.put(dbType.name(), dbConfig);
+            dbConfig.put("parameters", List.copyOf(parameters));
+            databases.put(dbType.name(), Collections.unmodifiableMap(dbConfig));
         }
         
-        return databases;
+        return Collections.unmodifiableMap(databases);
     }
 
     @Override
     public Map<String, String> generateCodeSnippets(ConnectionStringRequest request, List<String> languages) {
+        return generateCodeSnippets(request, buildConnectionString(request), languages);
+    }
+
+    private Map<String, String> generateCodeSnippets(ConnectionStringRequest request, String connectionString,
+                                                     List<String> languages) {
         Map<String, String> snippets = new HashMap<>();
-        String connectionString = buildConnectionString(request);
         
         for (String language : languages) {
             switch (language.toLowerCase()) {
@@ -358,261 +436,20 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         return config;
     }
 
-    // Helper methods for connection string building
     private String buildConnectionString(ConnectionStringRequest request) {
-        DatabaseType dbType = request.getDatabaseType();
-        
-        switch (dbType) {
-            case POSTGRESQL:
-                return buildPostgreSQLConnectionString(request);
-            case MYSQL:
-            case MARIADB:
-                return buildMySQLConnectionString(request);
-            case MSSQL:
-                return buildMSSQLConnectionString(request);
-            case ORACLE:
-                return buildOracleConnectionString(request);
-            case SQLITE:
-                return buildSQLiteConnectionString(request);
-            case MONGODB:
-                return buildMongoDBConnectionString(request);
-            case REDIS:
-                return buildRedisConnectionString(request);
-            case CASSANDRA:
-                return buildCassandraConnectionString(request);
-            case ELASTICSEARCH:
-                return buildElasticsearchConnectionString(request);
-            default:
-                return buildGenericConnectionString(request);
-        }
-    }
-
-    private String buildPostgreSQLConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("postgresql://");
-        
-        if (request.getUsername() != null) {
-            sb.append(request.getUsername());
-            if (request.getPassword() != null) {
-                sb.append(":").append(request.getPassword());
-            }
-            sb.append("@");
-        }
-        
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 5432);
-        sb.append("/").append(request.getDatabase() != null ? request.getDatabase() : "postgres");
-        
-        List<String> params = new ArrayList<>();
-        if (request.getSslMode() != null) {
-            params.add("sslmode=" + request.getSslMode().getValue());
-        }
-        if (request.getApplicationName() != null) {
-            params.add("application_name=" + request.getApplicationName());
-        }
-        if (request.getConnectionTimeout() != null) {
-            params.add("connect_timeout=" + request.getConnectionTimeout());
-        }
-        
-        if (!params.isEmpty()) {
-            sb.append("?").append(String.join("&", params));
-        }
-        
-        return sb.toString();
+        return connectionTemplates.render(request, false);
     }
 
-    private String buildMySQLConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("mysql://");
-        
-        if (request.getUsername() != null) {
-            sb.append(request.getUsername());
-            if (request.getPassword() != null) {
-                sb.append(":").append(request.getPassword());
-            }
-            sb.append("@");
-        }
-        
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 3306);
-        sb.append("/").append(request.getDatabase() != null ? request.getDatabase() : "mysql");
-        
-        List<String> params = new ArrayList<>();
-        if (request.getUseEncryption() != null && request.getUseEncryption()) {
-            params.add("useSSL=true");
-        }
-        if (request.getCharset() != null) {
-            params.add("characterEncoding=" + request.getCharset());
-        }
-        if (request.getAutoReconnect() != null && request.getAutoReconnect()) {
-            params.add("autoReconnect=true");
-        }
-        
-        if (!params.isEmpty()) {
-            sb.append("?").append(String.join("&", params));
-        }
-        
-        return sb.toString();
-    }
-
-    private String buildMSSQLConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Server=").append(request.getHost() != null ? request.getHost() : "localhost");
-        
-        if (request.getPort() != null) {
-            sb.append(",").append(request.getPort());
-        }
-        
-        if (request.getInstanceName() != null) {
-            sb.append("\\").append(request.getInstanceName());
-        }
-        
-        sb.append(";Database=").append(request.getDatabase() != null ? request.getDatabase() : "master");
-        
-        if (request.getUsername() != null) {
-            sb.append(";User Id=").append(request.getUsername());
-        }
-        if (request.getPassword() != null) {
-            sb.append(";Password=").append(request.getPassword());
-        }
-        
-        if (request.getUseEncryption() != null && request.getUseEncryption()) {
-            sb.append(";Encrypt=true");
-        }
-        if (request.getConnectionTimeout() != null) {
-            sb.append(";Connection Timeout=").append(request.getConnectionTimeout());
-        }
-        
-        return sb.toString();
-    }
-
-    private String buildOracleConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("jdbc:oracle:thin:@");
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 1521);
-        sb.append(":").append(request.getServiceName() != null ? request.getServiceName() : request.getDatabase());
-        
-        return sb.toString();
-    }
-
-    private String buildSQLiteConnectionString(ConnectionStringRequest request) {
-        return request.getFilePath() != null ? request.getFilePath() : "database.db";
-    }
-
-    private String buildMongoDBConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("mongodb://");
-        
-        if (request.getUsername() != null) {
-            sb.append(request.getUsername());
-            if (request.getPassword() != null) {
-                sb.append(":").append(request.getPassword());
-            }
-            sb.append("@");
-        }
-        
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 27017);
-        sb.append("/").append(request.getDatabase() != null ? request.getDatabase() : "admin");
-        
-        List<String> params = new ArrayList<>();
-        if (request.getAuthSource() != null) {
-            params.add("authSource=" + request.getAuthSource());
-        }
-        if (request.getReplicaSet() != null) {
-            params.add("replicaSet=" + request.getReplicaSet());
-        }
-        if (request.getRetryWrites() != null && request.getRetryWrites()) {
-            params.add("retryWrites=true");
-        }
-        
-        if (!params.isEmpty()) {
-            sb.append("?").append(String.join("&", params));
-        }
-        
-        return sb.toString();
-    }
-
-    private String buildRedisConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("redis://");
-        
-        if (request.getPassword() != null) {
-            sb.append(":").append(request.getPassword()).append("@");
-        }
-        
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 6379);
-        
-        if (request.getDatabase() != null) {
-            sb.append("/").append(request.getDatabase());
-        }
-        
-        return sb.toString();
-    }
-
-    private String buildCassandraConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 9042);
-        
-        if (request.getKeyspace() != null) {
-            sb.append("/").append(request.getKeyspace());
-        }
-        
-        return sb.toString();
-    }
-
-    private String buildElasticsearchConnectionString(ConnectionStringRequest request) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("http");
-        if (request.getUseEncryption() != null && request.getUseEncryption()) {
-            sb.append("s");
-        }
-        sb.append("://");
-        
-        if (request.getUsername() != null) {
-            sb.append(request.getUsername());
-            if (request.getPassword() != null) {
-                sb.append(":").append(request.getPassword());
-            }
-            sb.append("@");
-        }
-        
-        sb.append(request.getHost() != null ? request.getHost() : "localhost");
-        sb.append(":").append(request.getPort() != null ? request.getPort() : 9200);
-        
-        return sb.toString();
-    }
-
-    private String buildGenericConnectionString(ConnectionStringRequest request) {
-        return String.format("%s://%s:%s/%s",
-            request.getDatabaseType().getProtocol(),
-            request.getHost() != null ? request.getHost() : "localhost",
-            request.getPort() != null ? request.getPort() : request.getDatabaseType().getDefaultPort(),
-            request.getDatabase() != null ? request.getDatabase() : "default"
-        );
-    }
-
-    // Additional helper methods for formatting and generation would continue here...
-    // For brevity, I'm including the key structure and a few examples
-    
-    private String maskPassword(String connectionString) {
-        if (connectionString == null) return null;
-        return connectionString.replaceAll("(password=|:)[^;&@]*", "$1***");
-    }
-    
-    private Map<String, String> generateAllFormats(ConnectionStringRequest request) {
+    private Map<String, String> generateAllFormats(ConnectionStringRequest request, String connectionString) {
         Map<String, String> formats = new HashMap<>();
-        formats.put("env", generateEnvFormat(request));
-        formats.put("json", generateJsonFormat(request));
-        formats.put("yaml", generateYamlFormat(request));
-        formats.put("properties", generatePropertiesFormat(request));
+        formats.put("env", generateEnvFormat(request, connectionString));
+        formats.put("json", generateJsonFormat(request, connectionString));
+        formats.put("yaml", generateYamlFormat(request, connectionString));
+        formats.put("properties", generatePropertiesFormat(request, connectionString));
         return formats;
     }
     
-    private String generateEnvFormat(ConnectionStringRequest request) {
+    private String generateEnvFormat(ConnectionStringRequest request, String connectionString) {
         StringBuilder sb = new StringBuilder();
         sb.append("# Database Configuration\n");
         sb.append("DB_TYPE=").append(request.getDatabaseType().name()).append("\n");
@@ -621,11 +458,11 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         if (request.getDatabase() != null) sb.append("DB_NAME=").append(request.getDatabase()).append("\n");
         if (request.getUsername() != null) sb.append("DB_USER=").append(request.getUsername()).append("\n");
         sb.append("DB_PASSWORD=").append(request.getPassword() != null ? request.getPassword() : "").append("\n");
-        sb.append("DB_CONNECTION_STRING=").append(buildConnectionString(request)).append("\n");
+        sb.append("DB_CONNECTION_STRING=").append(connectionString).append("\n");
         return sb.toString();
     }
     
-    private String generateJsonFormat(ConnectionStringRequest request) {
+    private String generateJsonFormat(ConnectionStringRequest request, String connectionString) {
         return String.format("""
             {
               "database": {
@@ -645,11 +482,11 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
             request.getDatabase() != null ? request.getDatabase() : "",
             request.getUsername() != null ? request.getUsername() : "",
             request.getPassword() != null ? request.getPassword() : "",
-            buildConnectionString(request)
+            connectionString
         );
     }
     
-    private String generateYamlFormat(ConnectionStringRequest request) {
+    private String generateYamlFormat(ConnectionStringRequest request, String connectionString) {
         return String.format("""
             database:
               type: %s
@@ -666,11 +503,11 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
             request.getDatabase() != null ? request.getDatabase() : "",
             request.getUsername() != null ? request.getUsername() : "",
             request.getPassword() != null ? request.getPassword() : "",
-            buildConnectionString(request)
+            connectionString
         );
     }
     
-    private String generatePropertiesFormat(ConnectionStringRequest request) {
+    private String generatePropertiesFormat(ConnectionStringRequest request, String connectionString) {
         StringBuilder sb = new StringBuilder();
         sb.append("# Database Configuration Properties\n");
         sb.append("database.type=").append(request.getDatabaseType().name()).append("\n");
@@ -679,13 +516,13 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         if (request.getDatabase() != null) sb.append("database.name=").append(request.getDatabase()).append("\n");
         if (request.getUsername() != null) sb.append("database.username=").append(request.getUsername()).append("\n");
         sb.append("database.password=").append(request.getPassword() != null ? request.getPassword() : "").append("\n");
-        sb.append("database.url=").append(buildConnectionString(request)).append("\n");
+        sb.append("database.url=").append(connectionString).append("\n");
         return sb.toString();
     }
     
     // Placeholder implementations for brevity - these would be fully implemented
-    private Map<String, Object> createTemplate(String name, DatabaseType type, String host, int port, String db, String user, String pass, boolean ssl) {
-        Map<String, Object> template = new HashMap<>();
+    private static Map<String, Object> createTemplate(String name, DatabaseType type, String host, int port, String db, String user, String pass, boolean ssl) {
+        Map<String, Object> template = new LinkedHashMap<>();
         template.put("name", name);
         template.put("databaseType", type);
         template.put("host", host);
@@ -694,10 +531,10 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
         template.put("username", user);
         template.put("password", pass);
         template.put("sslMode", ssl ? SslMode.REQUIRE : SslMode.DISABLE);
-        return template;
+        return Collections.unmodifiableMap(template);
     }
     
-    private Map<String, Object> createCloudTemplate(String name, DatabaseType type, String host, int port) {
+    private static Map<String, Object> createCloudTemplate(String name, DatabaseType type, String host, int port) {
         return createTemplate(name, type, host, port, "myapp", "user", "password", true);
     }
     
@@ -707,12 +544,83 @@ public class ConnectionStringServiceImpl implements ConnectionStringService {
     }
     
     private List<ConnectionStringResponse.PerformanceRecommendation> generatePerformanceRecommendations(ConnectionStringRequest request) {
-        // This would contain performance tuning suggestions
-        return new ArrayList<>();
+        List<ConnectionStringResponse.PerformanceRecommendation> recommendations = new ArrayList<>();
+        Integer min = request.getMinPoolSize();
+        Integer max = request.getMaxPoolSize();
+        String hikari = "https://github.com/brettwooldridge/HikariCP/wiki/About-Pool-Sizing";
+
+        if (max == null) {
+            recommendations.add(new ConnectionStringResponse.PerformanceRecommendation(
+                "POOL",
+                "No pool size set: size the pool from the workload with POST /api/v1/connection-builder/pool-advisor",
+                "MEDIUM",
+                hikari
+            ));
+        } else {
+            if (max > 50) {
+                recommendations.add(new ConnectionStringResponse.PerformanceRecommendation(
+                    "POOL",
+                    "A pool of " + max + " connections is larger than most databases can serve at once; "
+                        + "beyond (cores * 2 + spindles) connections, queries only queue inside the database",
+                    "HIGH",
+                    hikari
+                ));
+            }
+            if (min != null && min < max) {
+                recommendations.add(new ConnectionStringResponse.PerformanceRecommendation(
+                    "POOL",
+                    "Use a fixed-size pool (minimum idle = maximum pool size) so that load spikes do not wait for new connections",
+                    "MEDIUM",
+                    "https://github.com/brettwooldridge/HikariCP#gear-configuration-knobs-baby"
+                ));
+            }
+        }
+        if (request.getMaxLifetime() != null && request.getMaxLifetime() < 30000) {
+            recommendations.add(new ConnectionStringResponse.PerformanceRecommendation(
+                "TIMEOUT",
+                "maxLifetime below 30 seconds recycles connections constantly; use 30 minutes, a few seconds below any database or network idle limit",
+                "MEDIUM",
+                "https://github.com/brettwooldridge/HikariCP#gear-configuration-knobs-baby"
+            ));
+        }
+        if (request.getConnectionTimeout() != null && request.getConnectionTimeout() > 30000) {
+            recommendations.add(new ConnectionStringResponse.PerformanceRecommendation(
+                "TIMEOUT",
+                "A connect timeout above 30 seconds keeps requests hanging on an unreachable database; fail fast and retry instead",
+                "LOW",
+                null
+            ));
+        }
+        return recommendations;
     }
     
-    private ConnectionStringResponse.TestResult generateMockTestResult(ConnectionStringRequest request) {
-        return new ConnectionStringResponse.TestResult(true, "Mock test successful", 150L, new HashMap<>());
+    /**
+     * Waits for the connection test, passing on the exception it failed with.
+     */
+    private static ConnectionTestResult await(CompletableFuture<ConnectionTestResult> test) {
+        try {
+            return test.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private ConnectionStringResponse.TestResult toTestResult(ConnectionTestResult result) {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("timingsMs", result.getTimingsMs());
+        if (result.getFailedPhase() != null) {
+            details.put("failedPhase", result.getFailedPhase());
+        }
+        if (result.getServerVersion() != null) {
+            details.put("serverVersion", result.getServerVersion());
+        }
+        if (result.getTls() != null) {
+            details.put("tls", result.getTls());
+        }
+        return new ConnectionStringResponse.TestResult(result.isSuccess(), result.getMessage(), result.getLatencyMs(), details);
     }
     
     private Map<String, Object> generateAllCloudConfigs(ConnectionStringRequest request) {
@@ -3,8 +3,13 @@ package kanda.springframework.msscbrewery.web.services;
 import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
 public interface ImageMetadataService {
     ImageMetadataDto extractMetadata(MultipartFile file) throws Exception;
+    ImageMetadataDto extractMetadata(Path file, String fileName, String mimeType, String contentHash) throws Exception;
     String generateXmpFile(ImageMetadataDto metadata) throws Exception;
     String generateTextFile(ImageMetadataDto metadata) throws Exception;
+    CompletableFuture<ImageMetadataDto> generateSidecars(ImageMetadataDto metadata);
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package kanda.springframework.msscbrewery.web.services;
 
 import kanda.springframework.msscbrewery.web.model.*;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -66,4 +68,14 @@ public interface MongoQueryService {
      * Get indexes for a collection
      */
     List<MongoIndexInfo> getIndexes(String connectionString, String database, String collection);
+    
+    /**
+     * Import documents (JSON lines or a JSON array, as written by mongoexport) into a collection
+     */
+    long importCollection(String database, String collection, InputStream inputStream, boolean replace) throws IOException;
+    
+    /**
+     * Drop a collection; false if it did not exist
+     */
+    boolean dropCollection(String database, String collection);
 }
\ No newline at end of file
@@ -2,12 +2,16 @@ package kanda.springframework.msscbrewery.web.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import kanda.springframework.msscbrewery.web.model.*;
+import kanda.springframework.msscbrewery.web.services.mongo.Aggregation;
+import kanda.springframework.msscbrewery.web.services.mongo.DocumentCollection;
+import kanda.springframework.msscbrewery.web.services.mongo.DocumentStore;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -16,21 +20,28 @@ import java.util.stream.Collectors;
 public class MongoQueryServiceImpl implements MongoQueryService {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Rough size of one _id index entry, for collection statistics
+    private static final long ID_INDEX_ENTRY_BYTES = 32;
+    // Documents shown per stage in a pipeline preview when the request does not say
+    private static final int DEFAULT_PREVIEW_DOCUMENTS = 10;
+
+    private final DocumentStore documentStore;
 
     @Override
     public MongoQueryResult executeQuery(MongoQueryRequest request) {
         log.info("Executing MongoDB query: {} on collection: {}", request.getOperation(), request.getCollection());
         
-        // Since this is a demo implementation, we'll simulate query execution
         try {
-            Thread.sleep(ThreadLocalRandom.current().nextInt(500, 2000)); // Simulate execution time
-            
+            if (request.getOperation() == null) {
+                throw new IllegalArgumentException("Operation is required");
+            }
             return switch (request.getOperation().toLowerCase()) {
-                case "find" -> simulateFindQuery(request);
-                case "aggregate" -> simulateAggregateQuery(request);
-                case "insertone", "insertmany" -> simulateInsertQuery(request);
-                case "updateone", "updatemany" -> simulateUpdateQuery(request);
-                case "deleteone", "deletemany" -> simulateDeleteQuery(request);
+                case "find", "findone" -> executeFind(request);
+                case "countdocuments", "count" -> executeCount(request);
+                case "aggregate" -> executeAggregate(request);
+                case "insertone", "insertmany" -> executeInsert(request);
+                case "updateone", "updatemany", "replaceone" -> executeUpdate(request);
+                case "deleteone", "deletemany" -> executeDelete(request);
                 default -> MongoQueryResult.builder()
                         .success(false)
                         .error("Unsupported operation: " + request.getOperation())
@@ -45,182 +56,167 @@ public class MongoQueryServiceImpl implements MongoQueryService {
         }
     }
 
-    private MongoQueryResult simulateFindQuery(MongoQueryRequest request) {
-        // Generate sample documents based on collection name and filters
-        List<Map<String, Object>> documents = generateSampleDocuments(request.getCollection(), 
-                request.getOptions() != null ? request.getOptions().getLimit() : 10);
-        
+    private MongoQueryResult executeFind(MongoQueryRequest request) {
+        long start = System.nanoTime();
+        MongoQueryRequest.MongoQueryOptions options = options(request);
+        boolean findOne = request.getOperation().equalsIgnoreCase("findone");
+        int limit = findOne ? 1 : options.getLimit() != null ? options.getLimit() : 0;
+        DocumentCollection.FindResult result = documentStore.find(request.getDatabase(), request.getCollection(),
+                request.getFilter(), options.getSort(), options.getSkip() != null ? options.getSkip() : 0, limit,
+                options.getProjection(), DocumentStore.deadline(options.getMaxTimeMS()));
+        long collectionSize = documentStore.find(request.getDatabase(), request.getCollection())
+                .map(DocumentCollection::size).orElse(0L);
+        boolean idLookup = "IDHACK".equals(result.plan());
+
+        Map<String, Object> additionalStats = new LinkedHashMap<>();
+        additionalStats.put("truncated", result.truncated());
+        additionalStats.put("maxResults", documentStore.maxResults());
         return MongoQueryResult.builder()
                 .success(true)
-                .documents(documents)
+                .documents(result.documents())
                 .executionStats(MongoQueryResult.MongoExecutionStats.builder()
-                        .executionTimeMs((long) ThreadLocalRandom.current().nextInt(50, 500))
-                        .totalDocsExamined((long) documents.size() * 2)
-                        .totalDocsReturned((long) documents.size())
-                        .totalKeysExamined((long) documents.size())
-                        .indexUsed(true)
-                        .indexName("idx_sample")
-                        .docsExaminedPercent(50.0)
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
+                        .totalDocsExamined(result.examined())
+                        .totalDocsReturned((long) result.documents().size())
+                        .totalKeysExamined(idLookup ? result.examined() : 0L)
+                        .indexUsed(idLookup)
+                        .indexName(idLookup ? "_id_" : null)
+                        .docsExaminedPercent(collectionSize == 0 ? 0.0 : 100.0 * result.examined() / collectionSize)
+                        .stage(result.plan())
+                        .additionalStats(additionalStats)
                         .build())
                 .build();
     }
 
-    private MongoQueryResult simulateAggregateQuery(MongoQueryRequest request) {
-        List<Map<String, Object>> documents;
-        
-        if (request.getPipeline() != null && !request.getPipeline().isEmpty()) {
-            // Simulate pipeline processing
-            documents = generateAggregatedDocuments(request.getPipeline(), request.getCollection());
-        } else {
-            documents = generateSampleDocuments(request.getCollection(), 5);
-        }
-        
+    private MongoQueryResult executeCount(MongoQueryRequest request) {
+        long start = System.nanoTime();
+        long count = documentStore.count(request.getDatabase(), request.getCollection(), request.getFilter(),
+                DocumentStore.deadline(options(request).getMaxTimeMS()));
         return MongoQueryResult.builder()
                 .success(true)
-                .documents(documents)
+                .documents(List.of(Map.of("count", count)))
                 .executionStats(MongoQueryResult.MongoExecutionStats.builder()
-                        .executionTimeMs((long) ThreadLocalRandom.current().nextInt(100, 1000))
-                        .totalDocsExamined(1000L)
-                        .totalDocsReturned((long) documents.size())
-                        .totalKeysExamined(500L)
-                        .indexUsed(false)
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
+                        .stage("COUNT")
                         .build())
                 .build();
     }
 
-    private MongoQueryResult simulateInsertQuery(MongoQueryRequest request) {
+    private MongoQueryResult executeInsert(MongoQueryRequest request) {
+        long start = System.nanoTime();
         boolean isMany = request.getOperation().equalsIgnoreCase("insertmany");
-        long insertedCount = isMany ? 
-                (request.getDocuments() != null ? request.getDocuments().size() : 1) : 1;
-        
-        List<String> insertedIds = new ArrayList<>();
-        for (int i = 0; i < insertedCount; i++) {
-            insertedIds.add(generateObjectId());
-        }
+        List<Map<String, Object>> documents = isMany ? request.getDocuments()
+                : request.getDocument() != null ? Collections.singletonList(request.getDocument()) : null;
+        List<String> insertedIds = documentStore.insert(request.getDatabase(), request.getCollection(), documents)
+                .stream().map(DocumentStore::idString).toList();
         
         return MongoQueryResult.builder()
                 .success(true)
-                .insertedCount(insertedCount)
+                .insertedCount((long) insertedIds.size())
                 .insertedIds(insertedIds)
                 .executionStats(MongoQueryResult.MongoExecutionStats.builder()
-                        .executionTimeMs((long) ThreadLocalRandom.current().nextInt(10, 100))
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
                         .build())
                 .build();
     }
 
-    private MongoQueryResult simulateUpdateQuery(MongoQueryRequest request) {
-        boolean isMany = request.getOperation().equalsIgnoreCase("updatemany");
-        long matchedCount = ThreadLocalRandom.current().nextInt(1, isMany ? 10 : 2);
-        long modifiedCount = matchedCount;
+    private MongoQueryResult executeUpdate(MongoQueryRequest request) {
+        long start = System.nanoTime();
+        MongoQueryRequest.MongoQueryOptions options = options(request);
+        String operation = request.getOperation().toLowerCase();
+        boolean replace = operation.equals("replaceone");
+        Map<String, Object> update = replace && request.getUpdate() == null ? request.getDocument() : request.getUpdate();
+        DocumentCollection.UpdateResult result = documentStore.update(request.getDatabase(), request.getCollection(),
+                request.getFilter(), update, replace, operation.equals("updatemany"),
+                Boolean.TRUE.equals(options.getUpsert()), DocumentStore.deadline(options.getMaxTimeMS()));
+        boolean upserted = result.upsertedId() != null;
         
         return MongoQueryResult.builder()
                 .success(true)
-                .matchedCount(matchedCount)
-                .modifiedCount(modifiedCount)
+                .matchedCount(result.matched())
+                .modifiedCount(result.modified())
+                .upsertedCount(upserted ? 1L : 0L)
+                .upsertedIds(upserted ? List.of(DocumentStore.idString(result.upsertedId())) : List.of())
                 .executionStats(MongoQueryResult.MongoExecutionStats.builder()
-                        .executionTimeMs((long) ThreadLocalRandom.current().nextInt(20, 200))
-                        .totalDocsExamined(matchedCount * 2)
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
                         .build())
                 .build();
     }
 
-    private MongoQueryResult simulateDeleteQuery(MongoQueryRequest request) {
-        boolean isMany = request.getOperation().equalsIgnoreCase("deletemany");
-        long deletedCount = ThreadLocalRandom.current().nextInt(1, isMany ? 5 : 2);
+    private MongoQueryResult executeDelete(MongoQueryRequest request) {
+        long start = System.nanoTime();
+        long deletedCount = documentStore.delete(request.getDatabase(), request.getCollection(), request.getFilter(),
+                request.getOperation().equalsIgnoreCase("deletemany"),
+                DocumentStore.deadline(options(request).getMaxTimeMS()));
         
         return MongoQueryResult.builder()
                 .success(true)
                 .deletedCount(deletedCount)
                 .executionStats(MongoQueryResult.MongoExecutionStats.builder()
-                        .executionTimeMs((long) ThreadLocalRandom.current().nextInt(15, 150))
-                        .totalDocsExamined(deletedCount * 3)
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
                         .build())
                 .build();
     }
 
-    private List<Map<String, Object>> generateSampleDocuments(String collection, int count) {
-        List<Map<String, Object>> documents = new ArrayList<>();
-        
-        for (int i = 0; i < count; i++) {
-            Map<String, Object> doc = new HashMap<>();
-            doc.put("_id", generateObjectId());
-            
-            switch (collection.toLowerCase()) {
-                case "users" -> {
-                    doc.put("name", "User " + (i + 1));
-                    doc.put("email", "user" + (i + 1) + "@example.com");
-                    doc.put("age", ThreadLocalRandom.current().nextInt(18, 70));
-                    doc.put("status", i % 2 == 0 ? "active" : "inactive");
-                    doc.put("createdAt", new Date());
-                    doc.put("profile", Map.of(
-                            "bio", "This is user " + (i + 1),
-                            "location", "City " + (i + 1),
-                            "interests", List.of("tech", "music", "sports")
-                    ));
-                }
-                case "products" -> {
-                    doc.put("name", "Product " + (i + 1));
-                    doc.put("category", i % 3 == 0 ? "electronics" : i % 3 == 1 ? "books" : "clothing");
-                    doc.put("price", ThreadLocalRandom.current().nextDouble(10.0, 1000.0));
-                    doc.put("inStock", ThreadLocalRandom.current().nextBoolean());
-                    doc.put("tags", List.of("tag1", "tag2", "tag3"));
-                    doc.put("specs", Map.of(
-                            "weight", ThreadLocalRandom.current().nextDouble(0.5, 10.0),
-                            "dimensions", Map.of("width", 10, "height", 5, "depth", 2)
-                    ));
-                }
-                case "orders" -> {
-                    doc.put("orderId", "ORD-" + String.format("%06d", i + 1));
-                    doc.put("customerId", generateObjectId());
-                    doc.put("total", ThreadLocalRandom.current().nextDouble(50.0, 500.0));
-                    doc.put("status", i % 4 == 0 ? "pending" : i % 4 == 1 ? "processing" : i % 4 == 2 ? "shipped" : "delivered");
-                    doc.put("items", List.of(
-                            Map.of("productId", generateObjectId(), "quantity", 2, "price", 25.99),
-                            Map.of("productId", generateObjectId(), "quantity", 1, "price", 49.99)
-                    ));
-                    doc.put("orderDate", new Date());
-                }
-                default -> {
-                    doc.put("field1", "value" + (i + 1));
-                    doc.put("field2", ThreadLocalRandom.current().nextInt(1, 100));
-                    doc.put("field3", ThreadLocalRandom.current().nextBoolean());
-                    doc.put("nested", Map.of("subfield", "subvalue" + (i + 1)));
-                }
-            }
-            
-            documents.add(doc);
-        }
-        
-        return documents;
+    private static MongoQueryRequest.MongoQueryOptions options(MongoQueryRequest request) {
+        return request.getOptions() != null ? request.getOptions() : new MongoQueryRequest.MongoQueryOptions();
     }
 
-    private List<Map<String, Object>> generateAggregatedDocuments(List<MongoQueryRequest.MongoPipelineStage> pipeline, String collection) {
-        // Simulate aggregation results based on pipeline stages
-        boolean hasGroup = pipeline.stream().anyMatch(stage -> "$group".equals(stage.getStage()));
-        boolean hasMatch = pipeline.stream().anyMatch(stage -> "$match".equals(stage.getStage()));
-        
-        List<Map<String, Object>> results = new ArrayList<>();
-        
-        if (hasGroup) {
-            // Generate grouped results
-            for (int i = 0; i < 5; i++) {
-                Map<String, Object> result = new HashMap<>();
-                result.put("_id", "category" + (i + 1));
-                result.put("count", ThreadLocalRandom.current().nextInt(10, 100));
-                result.put("averagePrice", ThreadLocalRandom.current().nextDouble(20.0, 200.0));
-                result.put("totalRevenue", ThreadLocalRandom.current().nextDouble(1000.0, 10000.0));
-                results.add(result);
-            }
-        } else {
-            // Generate filtered/transformed results
-            results = generateSampleDocuments(collection, 8);
-        }
-        
-        return results;
+    private MongoQueryResult executeAggregate(MongoQueryRequest request) {
+        long start = System.nanoTime();
+        Aggregation.Result result = documentStore.aggregate(request.getDatabase(), request.getCollection(),
+                stages(request.getPipeline(), null), DocumentStore.deadline(options(request).getMaxTimeMS()));
+
+        Map<String, Object> additionalStats = new LinkedHashMap<>();
+        additionalStats.put("plan", result.plan());
+        additionalStats.put("spills", result.spills());
+        additionalStats.put("truncated", result.truncated());
+        additionalStats.put("maxResults", documentStore.maxResults());
+        return MongoQueryResult.builder()
+                .success(true)
+                .documents(result.documents())
+                .executionStats(MongoQueryResult.MongoExecutionStats.builder()
+                        .executionTimeMs((System.nanoTime() - start) / 1_000_000)
+                        .totalDocsExamined(result.examined())
+                        .totalDocsReturned((long) result.documents().size())
+                        .indexUsed(result.plan().get(0).startsWith("IDHACK"))
+                        .stage(result.plan().get(0))
+                        .additionalStats(additionalStats)
+                        .build())
+                .build();
     }
 
-    private String generateObjectId() {
-        return String.format("%024x", ThreadLocalRandom.current().nextLong(0, Long.MAX_VALUE));
+    /**
+     * The enabled stages as {@code {"$stage": config}} documents, in {@code order} (then list
+     * order). When {@code indexes} is given, it receives each stage's position in the request.
+     */
+    private static List<Map<String, Object>> stages(List<MongoQueryRequest.MongoPipelineStage> pipeline,
+                                                    List<Integer> indexes) {
+        if (pipeline == null) {
+            return List.of();
+        }
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < pipeline.size(); i++) {
+            MongoQueryRequest.MongoPipelineStage stage = pipeline.get(i);
+            if (stage != null && !Boolean.FALSE.equals(stage.getEnabled())) {
+                positions.add(i);
+            }
+        }
+        positions.sort(Comparator.comparing(i -> Optional.ofNullable(pipeline.get(i).getOrder()).orElse(i)));
+        List<Map<String, Object>> stages = new ArrayList<>(positions.size());
+        for (int i : positions) {
+            MongoQueryRequest.MongoPipelineStage stage = pipeline.get(i);
+            if (stage.getStage() == null || stage.getStage().isBlank()) {
+                throw new IllegalArgumentException("Pipeline stage " + i + " has no stage name");
+            }
+            Map<String, Object> document = new HashMap<>();
+            document.put(stage.getStage(), stage.getConfig());
+            stages.add(document);
+        }
+        if (indexes != null) {
+            indexes.addAll(positions);
+        }
+        return stages;
     }
 
     @Override
@@ -237,9 +233,29 @@ public class MongoQueryServiceImpl implements MongoQueryService {
             errors.add("Operation is required");
         }
         
-        if ("aggregate".equals(request.getOperation()) && 
-            (request.getPipeline() == null || request.getPipeline().isEmpty())) {
-            warnings.add("Empty aggregation pipeline");
+        if ("aggregate".equals(request.getOperation())) {
+            if (request.getPipeline() == null || request.getPipeline().isEmpty()) {
+                warnings.add("Empty aggregation pipeline");
+            } else {
+                try {
+                    errors.addAll(documentStore.validatePipeline(stages(request.getPipeline(), null)));
+                } catch (IllegalArgumentException e) {
+                    errors.add("Invalid pipeline: " + e.getMessage());
+                }
+            }
+        }
+        
+        if (request.getOperation() != null && !"aggregate".equals(request.getOperation())) {
+            String operation = request.getOperation().toLowerCase();
+            boolean replace = operation.equals("replaceone");
+            MongoQueryRequest.MongoQueryOptions options = options(request);
+            Map<String, Object> update = operation.startsWith("update") || replace
+                    ? (replace && request.getUpdate() == null ? request.getDocument() : request.getUpdate()) : null;
+            errors.addAll(documentStore.validate(request.getFilter(), options.getSort(), options.getProjection(),
+                    update, replace));
+            if ((operation.startsWith("update") || replace) && update == null) {
+                errors.add("Update document is required");
+            }
         }
         
         return MongoQueryValidation.builder()
@@ -412,19 +428,20 @@ public class MongoQueryServiceImpl implements MongoQueryService {
 
     @Override
     public MongoPipelinePreview previewPipeline(PipelinePreviewRequest request) {
-        Map<String, List<Map<String, Object>>> stageResults = new HashMap<>();
-        
-        if (request.getPipeline() != null) {
-            for (int i = 0; i < request.getPipeline().size(); i++) {
-                String stageId = "stage_" + i;
-                List<Map<String, Object>> results = generateSampleDocuments(request.getCollection(), 3);
-                stageResults.put(stageId, results);
-            }
+        List<Integer> indexes = new ArrayList<>();
+        List<Map<String, Object>> stages = stages(request.getPipeline(), indexes);
+        int perStage = request.getMaxDocuments() != null && request.getMaxDocuments() > 0
+                ? Math.min(request.getMaxDocuments(), documentStore.maxResults()) : DEFAULT_PREVIEW_DOCUMENTS;
+        Aggregation.Preview preview = documentStore.preview(request.getDatabase(), request.getCollection(), stages,
+                perStage, DocumentStore.deadline(null));
+
+        Map<String, List<Map<String, Object>>> stageResults = new LinkedHashMap<>();
+        for (Aggregation.StagePreview stage : preview.stages()) {
+            stageResults.put("stage_" + indexes.get(stage.index()), stage.documents());
         }
-        
         return MongoPipelinePreview.builder()
                 .stageResults(stageResults)
-                .totalDocuments(1000L)
+                .totalDocuments(preview.total())
                 .build();
     }
 
@@ -534,68 +551,49 @@ public class MongoQueryServiceImpl implements MongoQueryService {
 
     @Override
     public MongoConnectionTest testConnection(MongoConnectionRequest request) {
-        // Mock connection test
-        try {
-            Thread.sleep(1000); // Simulate connection time
-            
-            return MongoConnectionTest.builder()
-                    .success(true)
-                    .responseTime(150L)
-                    .serverVersion("6.0.3")
-                    .databases(List.of("admin", "test", "sampledb"))
-                    .build();
-        } catch (InterruptedException e) {
-            return MongoConnectionTest.builder()
-                    .success(false)
-                    .error("Connection timeout")
-                    .build();
-        }
+        // Queries run against the embedded document store, which is always reachable
+        long start = System.nanoTime();
+        List<String> databases = documentStore.databases();
+        return MongoConnectionTest.builder()
+                .success(true)
+                .responseTime((System.nanoTime() - start) / 1_000_000)
+                .serverVersion("embedded")
+                .databases(databases.isEmpty() ? List.of(DocumentStore.DEFAULT_DATABASE) : databases)
+                .build();
     }
 
     @Override
     public List<MongoCollectionInfo> getCollections(String connectionString, String database) {
-        // Mock collections
-        return List.of(
-                MongoCollectionInfo.builder()
-                        .name("users")
-                        .documentCount(1500L)
-                        .avgObjSize(2048L)
-                        .totalIndexSize(65536L)
-                        .build(),
-                MongoCollectionInfo.builder()
-                        .name("products")
-                        .documentCount(850L)
-                        .avgObjSize(1536L)
-                        .totalIndexSize(32768L)
-                        .build(),
-                MongoCollectionInfo.builder()
-                        .name("orders")
-                        .documentCount(5200L)
-                        .avgObjSize(3072L)
-                        .totalIndexSize(131072L)
-                        .build()
-        );
+        return documentStore.collections(database).stream()
+                .map(collection -> MongoCollectionInfo.builder()
+                        .name(collection.name())
+                        .documentCount(collection.size())
+                        .avgObjSize(collection.averageDocumentSize())
+                        .totalIndexSize(collection.size() * ID_INDEX_ENTRY_BYTES)
+                        .build())
+                .toList();
     }
 
     @Override
     public List<MongoIndexInfo> getIndexes(String connectionString, String database, String collection) {
-        // Mock indexes
+        // The embedded store keeps documents by _id and has no secondary indexes
         return List.of(
                 MongoIndexInfo.builder()
                         .name("_id_")
                         .keys(Map.of("_id", 1))
                         .unique(true)
-                        .build(),
-                MongoIndexInfo.builder()
-                        .name("email_1")
-                        .keys(Map.of("email", 1))
-                        .unique(true)
-                        .build(),
-                MongoIndexInfo.builder()
-                        .name("status_createdAt_1")
-                        .keys(Map.of("status", 1, "createdAt", -1))
-                        .unique(false)
                         .build()
         );
     }
-}
\ No newline at end of file
+
+    @Override
+    public long importCollection(String database, String collection, InputStream inputStream, boolean replace)
+            throws IOException {
+        return documentStore.importDocuments(database, collection, inputStream, replace);
+    }
+
+    @Override
+    public boolean dropCollection(String database, String collection) {
+        return documentStore.drop(database, collection);
+    }
+}
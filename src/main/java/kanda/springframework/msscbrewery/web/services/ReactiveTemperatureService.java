@@ -0,0 +1,24 @@
+package kanda.springframework.msscbrewery.web.services;
+
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchEntry;
+import kanda.springframework.msscbrewery.web.model.TemperatureDto;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ReactiveTemperatureService {
+    Mono<TemperatureDto> getCurrentTemperature();
+    Mono<TemperatureDto> getCurrentTemperature(String location);
+
+    /**
+     * Fetches several locations concurrently; entries are emitted in completion order.
+     */
+    Flux<TemperatureBatchEntry> getCurrentTemperatures(List<String> locations);
+
+    /**
+     * Live readings for a location, emitted when the temperature or AQI changes. Subscribers to
+     * the same location share one polling loop, which stops when the last subscriber cancels.
+     */
+    Flux<TemperatureDto> streamTemperature(String location);
+}
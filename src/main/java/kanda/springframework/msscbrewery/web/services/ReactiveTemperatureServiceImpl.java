@@ -0,0 +1,312 @@
+package kanda.springframework.msscbrewery.web.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import kanda.springframework.msscbrewery.web.model.LocationMatch;
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchEntry;
+import kanda.springframework.msscbrewery.web.model.TemperatureDto;
+import kanda.springframework.msscbrewery.web.model.WeatherApiResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking temperature lookups backed by a per-location cache.
+ *
+ * Entries are keyed by the canonical place resolved through {@link CountryValidationService}, so
+ * "NYC", "new york" and "New York" share one entry. Concurrent requests for a location that is
+ * not cached share a single upstream call. Once an entry is older than {@code weather.cache.ttl}
+ * the next request still gets the cached value while one background refresh runs
+ * (stale-while-revalidate); entries older than {@code weather.cache.max-stale} are dropped.
+ * When the upstream fails, a simulated reading is cached for {@code weather.cache.failure-ttl},
+ * so a failing or unconfigured upstream is not called on every request.
+ * Batch lookups go through the same cache with at most {@code weather.batch.concurrency}
+ * upstream calls in flight.
+ * Streams poll the cache every {@code weather.stream.refresh-interval}, one loop per location.
+ */
+@Service
+@Slf4j
+public class ReactiveTemperatureServiceImpl implements ReactiveTemperatureService {
+
+    private static final String DEFAULT_LOCATION = "Delhi";
+    private static final String SIMULATED = "simulated";
+    private static final long SIMULATED_BUCKET_MILLIS = Duration.ofHours(1).toMillis();
+
+    private final WebClient webClient;
+    private final CountryValidationService countryValidationService;
+    private final AirQualityService airQualityService;
+    private final AsyncLoadingCache<String, TemperatureDto> cache;
+    private final Duration upstreamTimeout;
+    private final int batchConcurrency;
+    private final Duration streamRefreshInterval;
+    private final Map<String, SharedStream> streams = new ConcurrentHashMap<>();
+
+    @Value("${weather.api.key:demo}")
+    private String apiKey;
+
+    public ReactiveTemperatureServiceImpl(WebClient.Builder webClientBuilder,
+                                          CountryValidationService countryValidationService,
+                                          AirQualityService airQualityService,
+                                          MeterRegistry meterRegistry,
+                                          @Value("${weather.cache.ttl:60s}") Duration ttl,
+                                          @Value("${weather.cache.max-stale:10m}") Duration maxStale,
+                                          @Value("${weather.cache.failure-ttl:15s}") Duration failureTtl,
+                                          @Value("${weather.cache.maximum-size:1000}") long maximumSize,
+                                          @Value("${weather.upstream.timeout:5s}") Duration upstreamTimeout,
+                                          @Value("${weather.batch.concurrency:8}") int batchConcurrency,
+                                          @Value("${weather.stream.refresh-interval:60s}") Duration streamRefreshInterval) {
+        this.webClient = webClientBuilder.baseUrl("https://api.openweathermap.org").build();
+        this.countryValidationService = countryValidationService;
+        this.airQualityService = airQualityService;
+        this.upstreamTimeout = upstreamTimeout;
+        this.batchConcurrency = batchConcurrency;
+        this.streamRefreshInterval = streamRefreshInterval;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .refreshAfterWrite(ttl)
+                .expireAfter(new ReadingExpiry(maxStale, failureTtl))
+                .recordStats()
+                .buildAsync(new ReadingLoader());
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "temperature");
+        Gauge.builder("weather.stream.locations", streams, Map::size)
+                .description("Locations with an active polling loop")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<TemperatureDto> getCurrentTemperature() {
+        return getCurrentTemperature(DEFAULT_LOCATION);
+    }
+
+    @Override
+    public Mono<TemperatureDto> getCurrentTemperature(String location) {
+        Optional<LocationMatch> match = countryValidationService.resolve(location);
+        if (match.isEmpty()) {
+            return Mono.error(new IllegalArgumentException(countryValidationService.getValidationMessage(location)));
+        }
+        String key = match.get().weatherQuery();
+        return Mono.defer(() -> reading(key));
+    }
+
+    private Mono<TemperatureDto> reading(String key) {
+        return Mono.fromFuture(cache.get(key), true);
+    }
+
+    /**
+     * Loads a reading from the upstream, or a simulated one when it fails. A failed refresh of a
+     * real reading keeps serving that reading until it expires.
+     */
+    private final class ReadingLoader implements AsyncCacheLoader<String, TemperatureDto> {
+
+        @Override
+        public CompletableFuture<TemperatureDto> asyncLoad(String location, Executor executor) {
+            return fetchOrSimulate(location).toFuture();
+        }
+
+        @Override
+        public CompletableFuture<TemperatureDto> asyncReload(String location, TemperatureDto oldValue, Executor executor) {
+            return (isSimulated(oldValue) ? fetchOrSimulate(location) : fetch(location)).toFuture();
+        }
+
+        private Mono<TemperatureDto> fetchOrSimulate(String location) {
+            return fetch(location).onErrorResume(e -> Mono.fromSupplier(() -> simulated(location)));
+        }
+    }
+
+    /**
+     * Real readings live for {@code max-stale}, simulated ones only for {@code failure-ttl}.
+     */
+    private static final class ReadingExpiry implements Expiry<String, TemperatureDto> {
+        private final long maxStaleNanos;
+        private final long failureTtlNanos;
+
+        ReadingExpiry(Duration maxStale, Duration failureTtl) {
+            this.maxStaleNanos = maxStale.toNanos();
+            this.failureTtlNanos = failureTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String location, TemperatureDto reading, long currentTime) {
+            return isSimulated(reading) ? failureTtlNanos : maxStaleNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String location, TemperatureDto reading, long currentTime, long currentDuration) {
+            return expireAfterCreate(location, reading, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String location, TemperatureDto reading, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static boolean isSimulated(TemperatureDto reading) {
+        return SIMULATED.equals(reading.getSource());
+    }
+
+    @Override
+    public Flux<TemperatureBatchEntry> getCurrentTemperatures(List<String> locations) {
+        return Flux.range(0, locations.size())
+                .flatMap(index -> toBatchEntry(index, locations.get(index)), batchConcurrency);
+    }
+
+    @Override
+    public Flux<TemperatureDto> streamTemperature(String location) {
+        Optional<LocationMatch> match = countryValidationService.resolve(location);
+        if (match.isEmpty()) {
+            return Flux.error(new IllegalArgumentException(countryValidationService.getValidationMessage(location)));
+        }
+        String key = match.get().weatherQuery();
+        return Flux.defer(() -> {
+            SharedStream stream = acquire(key);
+            return stream.readings.doFinally(signal -> release(key, stream));
+        });
+    }
+
+    /**
+     * One polling loop per location and the number of subscribers reading it. The count and the
+     * map entry only change inside {@code compute} for the key, so a subscriber either joins the
+     * running loop or starts a new one. It never joins a loop that is being stopped.
+     */
+    private static final class SharedStream {
+        final Flux<TemperatureDto> readings;
+        final Disposable connection;
+        int subscribers;
+
+        SharedStream(ConnectableFlux<TemperatureDto> readings) {
+            this.readings = readings;
+            this.connection = readings.connect();
+        }
+    }
+
+    private SharedStream acquire(String key) {
+        return streams.compute(key, (k, existing) -> {
+            SharedStream stream = existing != null ? existing : new SharedStream(createStream(k));
+            stream.subscribers++;
+            return stream;
+        });
+    }
+
+    private void release(String key, SharedStream stream) {
+        streams.computeIfPresent(key, (k, current) -> {
+            if (current != stream || --current.subscribers > 0) {
+                return current;
+            }
+            log.debug("Stopped polling loop for {}", key);
+            current.connection.dispose();
+            return null;
+        });
+    }
+
+    private ConnectableFlux<TemperatureDto> createStream(String key) {
+        log.debug("Started polling loop for {}", key);
+        return Flux.interval(Duration.ZERO, streamRefreshInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> reading(key))
+                .distinctUntilChanged(reading -> Arrays.asList(reading.getLocation(), reading.getTemperature(),
+                        reading.getAqi(), reading.getAqiCategory()))
+                .replay(1);
+    }
+
+    private Mono<TemperatureBatchEntry> toBatchEntry(int index, String location) {
+        return getCurrentTemperature(location)
+                .map(temperature -> TemperatureBatchEntry.builder()
+                        .index(index)
+                        .location(location)
+                        .temperature(temperature)
+                        .build())
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(TemperatureBatchEntry.builder()
+                        .index(index)
+                        .location(location)
+                        .error(e.getMessage())
+                        .build()));
+    }
+
+    private Mono<TemperatureDto> fetch(String location) {
+        return webClient.get()
+                .uri("/data/2.5/weather?q={location}&appid={apiKey}&units=metric", location, apiKey)
+                .retrieve()
+                .bodyToMono(WeatherApiResponse.class)
+                .timeout(upstreamTimeout)
+                .filter(response -> response.getMain() != null)
+                .map(response -> toDto(response.getMain().getTemp(), response.getName(), location, "openweathermap"))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No temperature in the response")))
+                .doOnError(e -> log.warn("Error fetching weather data for {}: {}", location, e.getMessage()));
+    }
+
+    /**
+     * Stand-in reading when the upstream fails, between 20 and 35 degrees. It is derived from a
+     * hash of the location and the hour, so repeated failures give the same temperature and a
+     * stream does not push a change every time the simulated reading is reloaded.
+     */
+    private TemperatureDto simulated(String location) {
+        long hour = System.currentTimeMillis() / SIMULATED_BUCKET_MILLIS;
+        double fraction = (mix(location.hashCode() ^ hour) & 0xFFFF) / 65535.0;
+        double fallbackTemp = 20.0 + fraction * 15.0;
+        return toDto(Math.round(fallbackTemp * 100.0) / 100.0, placeName(location) + " (simulated)", location, SIMULATED);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Place name without the country qualifier of the weather query.
+     */
+    private String placeName(String query) {
+        int comma = query.indexOf(',');
+        return comma < 0 ? query : query.substring(0, comma);
+    }
+
+    private TemperatureDto toDto(Double temperature, String name, String location, String source) {
+        LocalDateTime now = LocalDateTime.now();
+        AirQualityService.AirQualityInfo aqiInfo = airQualityService.getAirQualityInfo(placeName(location));
+        return TemperatureDto.builder()
+                .temperature(temperature)
+                .unit("Celsius")
+                .location(name)
+                .timestamp(now)
+                .timeOfDay(getTimeOfDay(now))
+                .aqi(aqiInfo.getAqi())
+                .aqiCategory(aqiInfo.getCategory())
+                .aqiDescription(aqiInfo.getDescription())
+                .source(source)
+                .build();
+    }
+
+    private String getTimeOfDay(LocalDateTime dateTime) {
+        int hour = dateTime.getHour();
+        if (hour >= 6 && hour < 12) {
+            return "Morning";
+        } else if (hour >= 12 && hour < 17) {
+            return "Day";
+        } else if (hour >= 17 && hour < 20) {
+            return "Evening";
+        } else {
+            return "Night";
+        }
+    }
+}
@@ -1,8 +0,0 @@
-package kanda.springframework.msscbrewery.web.services;
-
-import kanda.springframework.msscbrewery.web.model.TemperatureDto;
-
-public interface TemperatureService {
-    TemperatureDto getCurrentTemperature();
-    TemperatureDto getCurrentTemperature(String location);
-}
\ No newline at end of file
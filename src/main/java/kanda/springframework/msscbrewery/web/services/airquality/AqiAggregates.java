@@ -0,0 +1,20 @@
+package kanda.springframework.msscbrewery.web.services.airquality;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Rolling AQI aggregates over the hour and day ending at the newest sample.
+ */
+@Getter
+@AllArgsConstructor
+public class AqiAggregates {
+
+    static final AqiAggregates EMPTY = new AqiAggregates(Long.MIN_VALUE, 0, 0, 0, 0);
+
+    private final long asOf;
+    private final double average1h;
+    private final int max1h;
+    private final double average24h;
+    private final int max24h;
+}
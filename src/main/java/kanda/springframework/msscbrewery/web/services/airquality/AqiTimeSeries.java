@@ -0,0 +1,235 @@
+package kanda.springframework.msscbrewery.web.services.airquality;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fixed-capacity ring buffer of AQI samples for one location, ordered by timestamp.
+ *
+ * Samples are stored in parallel primitive arrays; once full, the oldest sample is overwritten.
+ * Reads use optimistic {@link StampedLock} stamps and only fall back to a read lock when a write
+ * raced with them. The 1h/24h aggregates are kept up to date on append: each window holds a
+ * running sum and count and a deque of maximum candidates, so a sample is added to and removed
+ * from each window once, and reading the aggregates is a single volatile load.
+ */
+public class AqiTimeSeries {
+
+    static final long HOUR_MILLIS = 3_600_000L;
+    static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final long[] timestamps;
+    private final int[] values;
+    private final StampedLock lock = new StampedLock();
+
+    private final Window hour;
+    private final Window day;
+
+    private int head; // physical index of the oldest sample
+    private int size;
+    private long appended; // samples stored so far; sample n is at physical index n % capacity
+    private volatile AqiAggregates aggregates = AqiAggregates.EMPTY;
+
+    public AqiTimeSeries(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.timestamps = new long[capacity];
+        this.values = new int[capacity];
+        this.hour = new Window(HOUR_MILLIS, capacity);
+        this.day = new Window(DAY_MILLIS, capacity);
+    }
+
+    /**
+     * Appends a sample. Samples must arrive in increasing timestamp order; older or duplicate
+     * timestamps are ignored.
+     *
+     * @return true if the sample was stored
+     */
+    public boolean append(long timestamp, int value) {
+        long stamp = lock.writeLock();
+        try {
+            if (size > 0 && timestamp <= timestamps[physical(size - 1)]) {
+                return false;
+            }
+            // Samples leave the windows before the slot of the oldest one is overwritten
+            long sequence = appended++;
+            long oldestKept = sequence + 1 - timestamps.length;
+            hour.evict(timestamp, oldestKept);
+            day.evict(timestamp, oldestKept);
+            if (size < timestamps.length) {
+                int index = physical(size);
+                timestamps[index] = timestamp;
+                values[index] = value;
+                size++;
+            } else {
+                timestamps[head] = timestamp;
+                values[head] = value;
+                head = (head + 1) % timestamps.length;
+            }
+            hour.add(sequence, value);
+            day.add(sequence, value);
+            aggregates = new AqiAggregates(timestamp, hour.average(), hour.max(), day.average(), day.max());
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Timestamp of the newest sample, or {@link Long#MIN_VALUE} when empty.
+     */
+    public long lastTimestamp() {
+        long stamp = lock.tryOptimisticRead();
+        long last = size == 0 ? Long.MIN_VALUE : timestamps[physical(size - 1)];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                last = size == 0 ? Long.MIN_VALUE : timestamps[physical(size - 1)];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return last;
+    }
+
+    public boolean isEmpty() {
+        return lastTimestamp() == Long.MIN_VALUE;
+    }
+
+    /**
+     * AQI at the given time, linearly interpolated between the surrounding samples and clamped to
+     * the first/last sample outside the stored range. Returns -1 when the series is empty.
+     */
+    public int valueAt(long timestamp) {
+        long stamp = lock.tryOptimisticRead();
+        int value = interpolate(timestamp, head, size);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = interpolate(timestamp, head, size);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Interpolated values at {@code from, from + step, ...} up to and including {@code to}.
+     */
+    public int[] valuesBetween(long from, long to, long step) {
+        int count = (int) ((to - from) / step) + 1;
+        int[] result = new int[count];
+        long stamp = lock.readLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                result[i] = interpolate(from + i * step, head, size);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return result;
+    }
+
+    public AqiAggregates aggregates() {
+        return aggregates;
+    }
+
+    private int interpolate(long timestamp, int head, int size) {
+        if (size == 0) {
+            return -1;
+        }
+        int capacity = timestamps.length;
+        // First logical index whose timestamp is >= the requested one
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[(head + mid) % capacity] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return values[head];
+        }
+        if (low == size) {
+            return values[(head + size - 1) % capacity];
+        }
+        int after = (head + low) % capacity;
+        int before = (head + low - 1) % capacity;
+        long t0 = timestamps[before];
+        long t1 = timestamps[after];
+        if (t1 == timestamp || t1 == t0) {
+            return values[after];
+        }
+        double fraction = (double) (timestamp - t0) / (t1 - t0);
+        return (int) Math.round(values[before] + fraction * (values[after] - values[before]));
+    }
+
+    private int physical(int logicalIndex) {
+        return (head + logicalIndex) % timestamps.length;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % timestamps.length);
+    }
+
+    /**
+     * The samples younger than {@code span} relative to the newest one, as a range of sequence
+     * numbers. The deque holds the sequence numbers of the samples that can still become the
+     * maximum, with decreasing values, so the front is the maximum of the window.
+     */
+    private final class Window {
+        private final long span;
+        private final long[] candidates;
+        private long first; // sequence number of the oldest sample in the window
+        private int count;
+        private long sum;
+        private int candidatesHead;
+        private int candidatesSize;
+
+        Window(long span, int capacity) {
+            this.span = span;
+            this.candidates = new long[capacity];
+        }
+
+        /**
+         * Drops the samples that are {@code span} or more older than {@code latest}, or whose
+         * slot is about to be reused.
+         */
+        void evict(long latest, long oldestKept) {
+            while (count > 0 && (first < oldestKept || latest - timestamps[slot(first)] >= span)) {
+                sum -= values[slot(first)];
+                count--;
+                if (candidatesSize > 0 && candidates[candidatesHead] == first) {
+                    candidatesHead = (candidatesHead + 1) % candidates.length;
+                    candidatesSize--;
+                }
+                first++;
+            }
+        }
+
+        void add(long sequence, int value) {
+            if (count == 0) {
+                first = sequence;
+            }
+            sum += value;
+            count++;
+            while (candidatesSize > 0
+                    && values[slot(candidates[(candidatesHead + candidatesSize - 1) % candidates.length])] <= value) {
+                candidatesSize--;
+            }
+            candidates[(candidatesHead + candidatesSize) % candidates.length] = sequence;
+            candidatesSize++;
+        }
+
+        double average() {
+            return (double) sum / count;
+        }
+
+        int max() {
+            return values[slot(candidates[candidatesHead])];
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package kanda.springframework.msscbrewery.web.services.airquality;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-location AQI time series.
+ *
+ * Series are loaded from a CSV feed ({@code air-quality.feed.path}, rows of
+ * {@code location,timestamp,aqi} where the timestamp is ISO-8601 or epoch millis). Locations
+ * without feed data get a synthetic series: a diurnal curve within the location's typical range
+ * plus noise derived from a hash of the location and time bucket, so every instance produces the
+ * same values for the same location and time. Synthetic series are extended lazily, one sample
+ * per step, and the number kept in memory is bounded.
+ */
+@Component
+@Slf4j
+public class AqiTimeSeriesStore {
+
+    // Typical AQI ranges for different cities/countries: {min, max}
+    private static final Map<String, int[]> CITY_AQI_RANGES = new HashMap<>();
+    private static final int[] DEFAULT_RANGE = {30, 100};
+
+    static {
+        CITY_AQI_RANGES.put("singapore", new int[]{15, 60});
+        CITY_AQI_RANGES.put("tokyo", new int[]{20, 80});
+        CITY_AQI_RANGES.put("london", new int[]{25, 75});
+        CITY_AQI_RANGES.put("paris", new int[]{30, 90});
+        CITY_AQI_RANGES.put("new york", new int[]{35, 95});
+        CITY_AQI_RANGES.put("delhi", new int[]{150, 400});
+        CITY_AQI_RANGES.put("mumbai", new int[]{120, 300});
+        CITY_AQI_RANGES.put("beijing", new int[]{100, 250});
+        CITY_AQI_RANGES.put("shanghai", new int[]{80, 180});
+        CITY_AQI_RANGES.put("bangkok", new int[]{60, 150});
+        CITY_AQI_RANGES.put("jakarta", new int[]{70, 160});
+        CITY_AQI_RANGES.put("mexico city", new int[]{90, 180});
+        CITY_AQI_RANGES.put("los angeles", new int[]{50, 120});
+        CITY_AQI_RANGES.put("sydney", new int[]{20, 70});
+        CITY_AQI_RANGES.put("melbourne", new int[]{25, 75});
+        CITY_AQI_RANGES.put("cairo", new int[]{80, 200});
+        CITY_AQI_RANGES.put("dubai", new int[]{40, 120});
+        CITY_AQI_RANGES.put("riyadh", new int[]{50, 150});
+    }
+
+    private final Map<String, AqiTimeSeries> feedSeries = new ConcurrentHashMap<>();
+    private final Cache<String, AqiTimeSeries> syntheticSeries;
+    private final String feedPath;
+    private final long stepMillis;
+    private final int capacity;
+    private final Clock clock;
+
+    public AqiTimeSeriesStore(@Value("${air-quality.feed.path:}") String feedPath,
+                              @Value("${air-quality.history.step:5m}") Duration step,
+                              @Value("${air-quality.history.retention:48h}") Duration retention,
+                              @Value("${air-quality.synthetic.max-locations:10000}") long maxSyntheticLocations) {
+        this.feedPath = feedPath;
+        this.stepMillis = step.toMillis();
+        this.capacity = (int) Math.max(2, retention.toMillis() / stepMillis);
+        this.clock = Clock.systemUTC();
+        this.syntheticSeries = Caffeine.newBuilder()
+                .maximumSize(maxSyntheticLocations)
+                .build();
+    }
+
+    @PostConstruct
+    void loadFeed() {
+        if (feedPath == null || feedPath.isBlank()) {
+            log.info("No air quality feed configured, using synthetic series");
+            return;
+        }
+        Path path = Path.of(feedPath);
+        if (!Files.isReadable(path)) {
+            log.warn("Air quality feed {} is not readable, using synthetic series", path);
+            return;
+        }
+        try {
+            int samples = load(path);
+            log.info("Loaded {} AQI samples for {} locations from {}", samples, feedSeries.size(), path);
+        } catch (IOException e) {
+            log.error("Error reading air quality feed {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Loads samples from a CSV feed, appending to any existing series. Returns the number of
+     * samples read.
+     */
+    public int load(Path path) throws IOException {
+        Map<String, List<long[]>> rows = new HashMap<>();
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long[] sample = parseSample(line);
+                if (sample == null) {
+                    continue;
+                }
+                String location = normalize(line.substring(0, line.indexOf(',')));
+                rows.computeIfAbsent(location, key -> new ArrayList<>()).add(sample);
+                count++;
+            }
+        }
+        rows.forEach((location, samples) -> {
+            samples.sort((a, b) -> Long.compare(a[0], b[0]));
+            AqiTimeSeries series = feedSeries.computeIfAbsent(location, key -> new AqiTimeSeries(capacity));
+            for (long[] sample : samples) {
+                series.append(sample[0], (int) sample[1]);
+            }
+        });
+        return count;
+    }
+
+    /**
+     * Series for a location: feed data when available, otherwise a synthetic series extended up
+     * to the current time.
+     */
+    public AqiTimeSeries series(String location) {
+        String key = normalize(location);
+        AqiTimeSeries series = feedSeries.get(key);
+        if (series != null) {
+            return series;
+        }
+        series = syntheticSeries.get(key, this::createSyntheticSeries);
+        extendSynthetic(key, series, clock.millis());
+        return series;
+    }
+
+    public boolean hasFeedData(String location) {
+        return feedSeries.containsKey(normalize(location));
+    }
+
+    public long now() {
+        return clock.millis();
+    }
+
+    private AqiTimeSeries createSyntheticSeries(String key) {
+        return new AqiTimeSeries(capacity);
+    }
+
+    private void extendSynthetic(String key, AqiTimeSeries series, long now) {
+        long last = series.lastTimestamp();
+        long latestBucket = Math.floorDiv(now, stepMillis) * stepMillis;
+        if (last >= latestBucket) {
+            return;
+        }
+        long start = last == Long.MIN_VALUE
+                ? latestBucket - (capacity - 1) * stepMillis
+                : Math.max(last + stepMillis, latestBucket - (capacity - 1) * stepMillis);
+        int[] range = CITY_AQI_RANGES.getOrDefault(key, DEFAULT_RANGE);
+        long seed = key.hashCode();
+        for (long timestamp = start; timestamp <= latestBucket; timestamp += stepMillis) {
+            series.append(timestamp, syntheticValue(range, seed, timestamp));
+        }
+    }
+
+    private int syntheticValue(int[] range, long seed, long timestamp) {
+        int span = range[1] - range[0];
+        // Pollution peaks in the morning and evening rush hours
+        double hourOfDay = (timestamp % AqiTimeSeries.DAY_MILLIS) / (double) AqiTimeSeries.HOUR_MILLIS;
+        double diurnal = 0.5 + 0.25 * Math.sin(2 * Math.PI * (hourOfDay - 4) / 12);
+        // Noise in [-0.15, 0.15] of the range, stable per location and time bucket
+        double noise = (mix(seed ^ (timestamp / stepMillis)) & 0xFFFF) / 65535.0 * 0.3 - 0.15;
+        int value = range[0] + (int) Math.round(span * (diurnal + noise));
+        return Math.max(range[0], Math.min(range[1], value));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static long[] parseSample(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 3 || parts[0].isBlank()) {
+            return null;
+        }
+        try {
+            String timestamp = parts[1].trim();
+            long millis = Character.isDigit(timestamp.charAt(timestamp.length() - 1)) && timestamp.indexOf('-') < 0
+                    ? Long.parseLong(timestamp)
+                    : Instant.parse(timestamp).toEpochMilli();
+            return new long[]{millis, Integer.parseInt(parts[2].trim())};
+        } catch (RuntimeException e) {
+            // Header or malformed row
+            return null;
+        }
+    }
+
+    static String normalize(String location) {
+        return location.toLowerCase(Locale.ROOT).trim().replace(" (simulated)", "");
+    }
+}
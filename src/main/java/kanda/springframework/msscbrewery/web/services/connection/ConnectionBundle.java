@@ -0,0 +1,246 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import kanda.springframework.msscbrewery.web.model.ConnectionBundleRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The files of a {@link ConnectionBundleRequest}, planned and checked up front so that problems
+ * are reported before any of the archive is sent, then rendered and streamed as a ZIP.
+ * <p>
+ * Files are rendered on virtual threads, at most {@value #WINDOW} ahead of the one being written,
+ * and written in plan order as they complete: memory holds a window of rendered files rather
+ * than the whole archive. With deduplication, a file whose contents (by SHA-256) were already
+ * written is not stored again; manifest.json, the last entry, maps every planned path to the
+ * entry holding its contents.
+ */
+public final class ConnectionBundle {
+
+    static final List<String> FORMATS = List.of("env", "yaml", "k8s-secret", "json", "docker-compose",
+            "connection-string");
+    private static final List<String> DEFAULT_FORMATS = List.of("env", "yaml", "k8s-secret");
+    private static final int WINDOW = 64;
+    private static final Pattern UNSAFE_NAME_CHARACTERS = Pattern.compile("[^A-Za-z0-9._-]");
+    private static final ObjectWriter MANIFEST_WRITER = JsonMapper.builder()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .build()
+            .writerWithDefaultPrettyPrinter();
+
+    /**
+     * One planned file: the directory it goes in and the config rendered into it.
+     */
+    record File(String directory, ConnectionStringRequest request, String format) {
+    }
+
+    private record Rendered(String path, byte[] content, String sha256) {
+    }
+
+    private final List<File> files;
+    private final BiFunction<ConnectionStringRequest, String, Map<String, String>> renderer;
+    private final boolean deduplicate;
+
+    private ConnectionBundle(List<File> files, BiFunction<ConnectionStringRequest, String, Map<String, String>> renderer,
+                             boolean deduplicate) {
+        this.files = files;
+        this.renderer = renderer;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Expands the targets and the environment x database matrix into files. {@code renderer}
+     * renders a config in an export format, returning its {@code content} and {@code filename}.
+     * Throws {@link IllegalArgumentException} for unknown formats, configs without a database
+     * type, names that collide, or more than {@code maxFiles} files.
+     */
+    public static ConnectionBundle plan(ConnectionBundleRequest request,
+                                        BiFunction<ConnectionStringRequest, String, Map<String, String>> renderer,
+                                        int maxFiles) {
+        List<String> formats = request.getFormats() == null || request.getFormats().isEmpty()
+                ? DEFAULT_FORMATS : request.getFormats().stream().distinct().toList();
+        for (String format : formats) {
+            if (!FORMATS.contains(format)) {
+                throw new IllegalArgumentException("Unknown format " + format + "; supported: " + String.join(", ", FORMATS));
+            }
+        }
+
+        Map<String, ConnectionStringRequest> configs = new LinkedHashMap<>();
+        if (request.getTargets() != null) {
+            for (ConnectionBundleRequest.Target target : request.getTargets()) {
+                add(configs, segment(target.getName()), target.getConnection());
+            }
+        }
+        Map<String, ConnectionStringRequest> databases = request.getDatabases() != null ? request.getDatabases() : Map.of();
+        Map<String, ConnectionStringRequest> environments = request.getEnvironments() != null ? request.getEnvironments() : Map.of();
+        if (!environments.isEmpty() && databases.isEmpty()) {
+            throw new IllegalArgumentException("Environments need databases to apply to");
+        }
+        if (environments.isEmpty()) {
+            databases.forEach((name, database) -> add(configs, segment(name), database));
+        }
+        environments.forEach((environment, overrides) -> databases.forEach((name, database) ->
+                add(configs, segment(environment) + "/" + segment(name), overlay(database, overrides))));
+
+        long total = (long) configs.size() * formats.size();
+        if (total == 0) {
+            throw new IllegalArgumentException("Nothing to generate: give targets or databases");
+        }
+        if (total > maxFiles) {
+            throw new IllegalArgumentException("At most " + maxFiles + " files can be generated at once, not " + total);
+        }
+        List<File> files = new ArrayList<>((int) total);
+        configs.forEach((directory, config) -> formats.forEach(format -> files.add(new File(directory, config, format))));
+        return new ConnectionBundle(files, renderer, request.getDeduplicate() == null || request.getDeduplicate());
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Renders the files and writes the archive; the stream is finished but not closed.
+     */
+    public void writeZip(OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        zip.setLevel(Deflater.BEST_SPEED);
+        Map<String, String> storedBySha256 = new HashMap<>();
+        Set<String> paths = new HashSet<>();
+        List<Map<String, Object>> manifest = new ArrayList<>(files.size());
+        int stored = 0;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            ArrayDeque<Future<Rendered>> pending = new ArrayDeque<>(WINDOW);
+            int next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                while (pending.size() < WINDOW && next < files.size()) {
+                    File file = files.get(next++);
+                    pending.add(executor.submit(() -> render(file)));
+                }
+                Rendered rendered = await(pending.poll());
+                if (!paths.add(rendered.path())) {
+                    throw new IOException("Two files render to " + rendered.path());
+                }
+                String storedAs = deduplicate ? storedBySha256.putIfAbsent(rendered.sha256(), rendered.path()) : null;
+                if (storedAs == null) {
+                    zip.putNextEntry(new ZipEntry(rendered.path()));
+                    zip.write(rendered.content());
+                    zip.closeEntry();
+                    stored++;
+                }
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("path", rendered.path());
+                if (storedAs != null) {
+                    entry.put("storedAs", storedAs);
+                }
+                entry.put("sha256", rendered.sha256());
+                entry.put("bytes", rendered.content().length);
+                manifest.add(entry);
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("files", manifest.size());
+        summary.put("stored", stored);
+        summary.put("entries", manifest);
+        zip.putNextEntry(new ZipEntry("manifest.json"));
+        MANIFEST_WRITER.writeValue(zip, summary);
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    private Rendered render(File file) {
+        Map<String, String> export = renderer.apply(file.request(), file.format());
+        byte[] content = export.get("content").getBytes(StandardCharsets.UTF_8);
+        try {
+            String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+            return new Rendered(file.directory() + "/" + export.get("filename"), content, sha256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Rendered await(Future<Rendered> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not render a connection config: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering connection configs");
+        }
+    }
+
+    private static void add(Map<String, ConnectionStringRequest> configs, String directory, ConnectionStringRequest config) {
+        if (config == null || config.getDatabaseType() == null) {
+            throw new IllegalArgumentException("Database type is required for " + directory);
+        }
+        if (configs.putIfAbsent(directory, config) != null) {
+            throw new IllegalArgumentException("Duplicate name " + directory);
+        }
+    }
+
+    /**
+     * A copy of the database's config with the environment's non-null fields laid over it.
+     */
+    private static ConnectionStringRequest overlay(ConnectionStringRequest database, ConnectionStringRequest overrides) {
+        ConnectionStringRequest merged = new ConnectionStringRequest();
+        if (database != null) {
+            BeanUtils.copyProperties(database, merged);
+        }
+        if (overrides != null) {
+            BeanWrapper source = new BeanWrapperImpl(overrides);
+            String[] unset = Arrays.stream(source.getPropertyDescriptors())
+                    .map(PropertyDescriptor::getName)
+                    .filter(name -> source.isReadableProperty(name) && source.getPropertyValue(name) == null)
+                    .toArray(String[]::new);
+            BeanUtils.copyProperties(overrides, merged, unset);
+        }
+        return merged;
+    }
+
+    /**
+     * A name as a single safe path segment in the archive.
+     */
+    private static String segment(String name) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Every target, environment and database needs a name");
+        }
+        String segment = UNSAFE_NAME_CHARACTERS.matcher(name.strip()).replaceAll("_");
+        if (segment.equals(".") || segment.equals("..")) {
+            throw new IllegalArgumentException("Invalid name " + name);
+        }
+        return segment;
+    }
+}
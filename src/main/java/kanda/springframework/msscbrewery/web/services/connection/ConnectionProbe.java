@@ -0,0 +1,284 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionTestResult;
+import kanda.springframework.msscbrewery.web.model.DatabaseType;
+import kanda.springframework.msscbrewery.web.services.connection.ProbeSession.Phase;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests connections for real: resolves the host, opens a TCP connection, negotiates TLS when the
+ * request asks for it and runs the protocol's opening exchange and authentication (see
+ * {@link ProtocolHandshakes}; other databases get the TCP connection only). Each test has one
+ * deadline of {@code connection.tester.timeout} covering every phase, and reports the time spent
+ * in each.
+ * <p>
+ * Tests run on virtual threads, so a batch of endpoints, or the connections of a pool warmup,
+ * are all tested at once and take about as long as the slowest one. The connections are made
+ * from this server, so it tests what this server can reach: resolved addresses are checked
+ * against {@code connection.tester.allowed-networks} (loopback only by default) and
+ * {@code connection.tester.denied-networks} (link-local by default, which covers cloud metadata
+ * endpoints) before connecting.
+ */
+@Component
+public class ConnectionProbe implements DisposableBean {
+
+    private final Duration timeout;
+    private final int maxBatch;
+    private final int maxWarmupConnections;
+    private final DestinationPolicy destinations;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ConnectionProbe(@Value("${connection.tester.timeout:3s}") Duration timeout,
+                           @Value("${connection.tester.max-batch:50}") int maxBatch,
+                           @Value("${connection.tester.max-warmup-connections:20}") int maxWarmupConnections,
+                           @Value("${connection.tester.allowed-networks:127.0.0.0/8,::1}") List<String> allowedNetworks,
+                           @Value("${connection.tester.denied-networks:169.254.0.0/16,fe80::/10}") List<String> deniedNetworks) {
+        this.timeout = timeout;
+        this.maxBatch = maxBatch;
+        this.maxWarmupConnections = maxWarmupConnections;
+        this.destinations = new DestinationPolicy(allowedNetworks, deniedNetworks);
+    }
+
+    public ConnectionTestResult test(ConnectionStringRequest request) {
+        return test(request, timeout);
+    }
+
+    /**
+     * Starts a test on a virtual thread, for callers that have other work to do meanwhile.
+     */
+    public CompletableFuture<ConnectionTestResult> testAsync(ConnectionStringRequest request) {
+        return CompletableFuture.supplyAsync(() -> test(request), executor);
+    }
+
+    /**
+     * Tests all endpoints at once; results are in the order of the requests.
+     */
+    public List<ConnectionTestResult> testAll(List<ConnectionStringRequest> requests) {
+        if (requests.size() > maxBatch) {
+            throw new IllegalArgumentException("At most " + maxBatch + " connections can be tested at once");
+        }
+        List<Future<ConnectionTestResult>> futures = new ArrayList<>(requests.size());
+        for (ConnectionStringRequest request : requests) {
+            futures.add(executor.submit(() -> test(request)));
+        }
+        List<ConnectionTestResult> results = new ArrayList<>(futures.size());
+        for (Future<ConnectionTestResult> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    /**
+     * Opens {@code connections} connections at once (at most
+     * {@code connection.tester.max-warmup-connections}), as a pool does when it starts, and
+     * summarises how long they took.
+     */
+    public ConnectionTestResult.PoolWarmup warmUp(ConnectionStringRequest request, int connections) {
+        int count = Math.max(1, Math.min(connections, maxWarmupConnections));
+        long start = System.nanoTime();
+        List<Future<ConnectionTestResult>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(() -> test(request)));
+        }
+        double[] latencies = new double[count];
+        int succeeded = 0;
+        String firstError = null;
+        for (Future<ConnectionTestResult> future : futures) {
+            ConnectionTestResult result = await(future);
+            if (result.isSuccess()) {
+                latencies[succeeded++] = total(result);
+            } else if (firstError == null) {
+                firstError = result.getMessage();
+            }
+        }
+        double[] sorted = Arrays.copyOf(latencies, succeeded);
+        Arrays.sort(sorted);
+        return ConnectionTestResult.PoolWarmup.builder()
+                .connections(count)
+                .succeeded(succeeded)
+                .wallMs(millis(System.nanoTime() - start))
+                .sequentialMs(round(Arrays.stream(sorted).sum()))
+                .p50Ms(succeeded > 0 ? sorted[(succeeded - 1) / 2] : 0)
+                .maxMs(succeeded > 0 ? sorted[succeeded - 1] : 0)
+                .firstError(firstError)
+                .build();
+    }
+
+    ConnectionTestResult test(ConnectionStringRequest request, Duration timeout) {
+        if (request == null || request.getDatabaseType() == null) {
+            throw new IllegalArgumentException("Database type is required");
+        }
+        DatabaseType type = request.getDatabaseType();
+        String host = request.getHost() != null ? request.getHost() : "localhost";
+        Integer port = request.getPort() != null ? request.getPort() : type.getDefaultPort();
+        ConnectionTestResult.ConnectionTestResultBuilder result = ConnectionTestResult.builder()
+                .databaseType(type)
+                .timestamp(System.currentTimeMillis());
+        long start = System.nanoTime();
+
+        if (type == DatabaseType.SQLITE || ((type == DatabaseType.H2 || type == DatabaseType.HSQLDB) && request.getHost() == null)) {
+            return embedded(request, result, start);
+        }
+        if (port == null) {
+            throw new IllegalArgumentException("Port is required for " + type.getDisplayName());
+        }
+        result.host(host).port(port);
+
+        ProbeSession session = new ProbeSession(start + timeout.toNanos());
+        try (session) {
+            session.enter(Phase.DNS);
+            InetAddress address = resolve(host, session);
+            result.address(address.getHostAddress());
+            session.enter(Phase.TCP);
+            destinations.check(address);
+            session.connect(new InetSocketAddress(address, port));
+            switch (type) {
+                case POSTGRESQL -> ProtocolHandshakes.postgres(session, request, host, port);
+                case MYSQL, MARIADB -> ProtocolHandshakes.mysql(session, request, host, port);
+                case REDIS -> ProtocolHandshakes.redis(session, request, host, port);
+                case MONGODB -> ProtocolHandshakes.mongo(session, request, host, port);
+                case ELASTICSEARCH -> ProtocolHandshakes.http(session, request, host, port);
+                default -> session.warn("No protocol handshake for " + type.getDisplayName()
+                        + "; only the TCP connection was checked");
+            }
+            result.success(true).message("Connected to " + (session.serverVersion() != null
+                    ? session.serverVersion() : type.getDisplayName()) + " at " + host + ":" + port);
+        } catch (ProbeException e) {
+            fail(result, e.getPhase(), e.getMessage());
+        } catch (SocketTimeoutException e) {
+            fail(result, session.phase(), "Timed out after " + timeout.toMillis() + " ms");
+        } catch (UnknownHostException e) {
+            fail(result, Phase.DNS, "Unknown host " + host);
+        } catch (ConnectException | NoRouteToHostException e) {
+            fail(result, Phase.TCP, e.getMessage() != null ? e.getMessage() : "Connection refused");
+        } catch (SSLException e) {
+            fail(result, Phase.TLS, e.getMessage());
+        } catch (IOException e) {
+            fail(result, session.phase(), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+
+        Map<String, Double> timings = new LinkedHashMap<>();
+        session.timings().forEach((phase, nanos) -> timings.put(phase.name().toLowerCase(Locale.ROOT), millis(nanos)));
+        long elapsed = System.nanoTime() - start;
+        timings.put("total", millis(elapsed));
+        return result.timingsMs(timings)
+                .latencyMs(TimeUnit.NANOSECONDS.toMillis(elapsed))
+                .serverVersion(session.serverVersion())
+                .authMethod(session.authMethod())
+                .tls(session.tls())
+                .warnings(session.warnings().isEmpty() ? null : session.warnings())
+                .build();
+    }
+
+    /**
+     * Resolves the host on a virtual thread so the lookup is bounded by the deadline too.
+     */
+    private InetAddress resolve(String host, ProbeSession session) throws IOException {
+        Future<InetAddress> lookup = executor.submit(() -> InetAddress.getByName(host));
+        try {
+            return lookup.get(session.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            lookup.cancel(true);
+            throw new SocketTimeoutException("DNS lookup timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * SQLite, and H2/HSQLDB without a host, open a file in-process: check that it is there.
+     */
+    private ConnectionTestResult embedded(ConnectionStringRequest request,
+                                          ConnectionTestResult.ConnectionTestResultBuilder result, long start) {
+        String file = request.getFilePath() != null ? request.getFilePath() : request.getDatabase();
+        if (request.getDatabaseType() != DatabaseType.SQLITE) {
+            result.success(true).message(request.getDatabaseType().getDisplayName()
+                    + " runs in-process; there is no server to connect to");
+        } else if (file == null) {
+            result.success(false).failedPhase("file").message("No database file given");
+        } else if (Files.isRegularFile(Path.of(file)) && Files.isReadable(Path.of(file))) {
+            result.success(true).message("Database file " + file + " is readable");
+        } else {
+            result.success(false).failedPhase("file").message("Database file " + file + " not found or not readable");
+        }
+        long elapsed = System.nanoTime() - start;
+        return result.latencyMs(TimeUnit.NANOSECONDS.toMillis(elapsed))
+                .timingsMs(Map.of("total", millis(elapsed)))
+                .build();
+    }
+
+    private ConnectionTestResult await(Future<ConnectionTestResult> future) {
+        try {
+            // Every test is bounded by its own deadline; the extra second only covers scheduling
+            return future.get(timeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            return ConnectionTestResult.builder().success(false).message(message)
+                    .timestamp(System.currentTimeMillis()).build();
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return ConnectionTestResult.builder().success(false).message("Timed out")
+                    .timestamp(System.currentTimeMillis()).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while testing connections", e);
+        }
+    }
+
+    private static void fail(ConnectionTestResult.ConnectionTestResultBuilder result, Phase phase, String message) {
+        result.success(false)
+                .failedPhase(phase.name().toLowerCase(Locale.ROOT))
+                .message(message);
+    }
+
+    private static double total(ConnectionTestResult result) {
+        return result.getTimingsMs().get("total");
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1_000_000.0);
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 100) / 100.0;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,21 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+/**
+ * A connection string that could not be parsed, with the offset (0-based, in the string as
+ * given) of the character where parsing failed.
+ */
+public class ConnectionStringParseException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public ConnectionStringParseException(String message, int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,902 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.DatabaseType;
+import kanda.springframework.msscbrewery.web.model.SslMode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses connection strings back into a {@link ConnectionStringRequest}: URIs
+ * ({@code postgresql://}, {@code mongodb+srv://}, {@code rediss://}, ...), JDBC URLs for every
+ * {@link DatabaseType}, ADO.NET-style {@code key=value;} strings, Oracle TNS descriptors and
+ * EZConnect, SQLite paths, and {@code host:port/keyspace} when the type is given.
+ * <p>
+ * Each format is read in one left-to-right pass over the string, by index; substrings are only
+ * taken for the values kept, and values are only percent-decoded when they contain a {@code %}.
+ * Parameters without a request field go to {@code additionalParams}. Malformed input raises a
+ * {@link ConnectionStringParseException} with the offset of the offending character.
+ */
+public final class ConnectionStringParser {
+
+    public enum Format { URI, JDBC, KEYWORD, TNS, EZCONNECT, PATH, HOST_PORT }
+
+    /**
+     * The parsed request (its database type always set), the format it was written in, and
+     * notes about anything that could not be carried over exactly.
+     */
+    public record Result(ConnectionStringRequest request, Format format, List<String> warnings) {
+    }
+
+    private ConnectionStringParser() {
+    }
+
+    /**
+     * Parses the string. {@code hint}, when not null, is the database type the user selected:
+     * it decides between formats that several databases share (key=value strings,
+     * {@code host:port/name}), and a string that turns out to be for another type produces a
+     * warning.
+     */
+    public static Result parse(String connectionString, DatabaseType hint) {
+        if (connectionString == null) {
+            throw new ConnectionStringParseException("Connection string is empty", 0);
+        }
+        return new Parse(connectionString, hint).run();
+    }
+
+    private static DatabaseType schemeType(String scheme) {
+        return switch (scheme) {
+            case "postgresql", "postgres", "pgsql" -> DatabaseType.POSTGRESQL;
+            case "mysql", "mysqlx" -> DatabaseType.MYSQL;
+            case "mariadb" -> DatabaseType.MARIADB;
+            case "sqlserver", "mssql" -> DatabaseType.MSSQL;
+            case "oracle" -> DatabaseType.ORACLE;
+            case "sqlite" -> DatabaseType.SQLITE;
+            case "mongodb", "mongodb+srv" -> DatabaseType.MONGODB;
+            case "redis", "rediss" -> DatabaseType.REDIS;
+            case "cassandra" -> DatabaseType.CASSANDRA;
+            case "elasticsearch", "http", "https" -> DatabaseType.ELASTICSEARCH;
+            case "h2" -> DatabaseType.H2;
+            case "hsqldb", "hsql", "hsqls" -> DatabaseType.HSQLDB;
+            case "firebird", "firebirdsql" -> DatabaseType.FIREBIRD;
+            case "informix", "informix-sqli" -> DatabaseType.INFORMIX;
+            case "db2" -> DatabaseType.DB2;
+            default -> null;
+        };
+    }
+
+    /**
+     * State of one parse: the input, the request being filled in and the warnings.
+     */
+    private static final class Parse {
+
+        private final String s;
+        private final DatabaseType hint;
+        private final int start;
+        private final int end;
+        private final ConnectionStringRequest request = new ConnectionStringRequest();
+        private final List<String> warnings = new ArrayList<>(0);
+        private Format format;
+
+        Parse(String s, DatabaseType hint) {
+            this.s = s;
+            this.hint = hint;
+            int from = 0;
+            int to = s.length();
+            while (from < to && Character.isWhitespace(s.charAt(from))) {
+                from++;
+            }
+            while (to > from && Character.isWhitespace(s.charAt(to - 1))) {
+                to--;
+            }
+            this.start = from;
+            this.end = to;
+        }
+
+        Result run() {
+            if (start == end) {
+                throw new ConnectionStringParseException("Connection string is empty", start);
+            }
+            if (s.regionMatches(true, start, "jdbc:", 0, 5)) {
+                format = Format.JDBC;
+                jdbc(start + 5);
+            } else if (s.charAt(start) == '(') {
+                format = Format.TNS;
+                type(DatabaseType.ORACLE);
+                tns(start);
+            } else {
+                int schemeEnd = schemeEnd(start);
+                if (schemeEnd > start) {
+                    format = Format.URI;
+                    uri(start, schemeEnd);
+                } else if (looksLikeKeywords()) {
+                    format = Format.KEYWORD;
+                    type(hint != null ? hint : DatabaseType.MSSQL);
+                    keywords(start, end, false);
+                } else {
+                    bare();
+                }
+            }
+            if (hint != null && hint != request.getDatabaseType()
+                    && !(hint == DatabaseType.MARIADB && request.getDatabaseType() == DatabaseType.MYSQL)) {
+                warnings.add("Parsed as a " + request.getDatabaseType().getDisplayName() + " connection string, not "
+                        + hint.getDisplayName());
+            }
+            return new Result(request, format, warnings);
+        }
+
+        // ----------------------------------------------------------------------------------
+        // Format detection
+
+        /**
+         * End of {@code scheme} when the string starts with {@code scheme://}, else {@code from}.
+         */
+        private int schemeEnd(int from) {
+            int i = from;
+            while (i < end) {
+                char c = s.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '+' || c == '-' || c == '.')) {
+                    break;
+                }
+                i++;
+            }
+            return i > from && s.startsWith("://", i) ? i : from;
+        }
+
+        /**
+         * {@code Key=...}: the string starts with a key made of letters, digits and spaces
+         * followed by '='.
+         */
+        private boolean looksLikeKeywords() {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == '=') {
+                    return i > start;
+                }
+                if (!(Character.isLetterOrDigit(c) || c == ' ' || c == '_' || c == '.')) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Strings without a scheme: a SQLite path, Oracle EZConnect or {@code user/pass@...},
+         * or {@code host:port/name} for the hinted type.
+         */
+        private void bare() {
+            if (s.regionMatches(true, start, "sqlite:", 0, 7)) {
+                format = Format.PATH;
+                type(DatabaseType.SQLITE);
+                request.setFilePath(s.substring(start + 7, end));
+                return;
+            }
+            if (hint == DatabaseType.SQLITE || looksLikePath()) {
+                format = Format.PATH;
+                type(DatabaseType.SQLITE);
+                request.setFilePath(s.substring(start, end));
+                return;
+            }
+            if (hint == DatabaseType.ORACLE) {
+                format = Format.EZCONNECT;
+                type(DatabaseType.ORACLE);
+                oracle(start);
+                return;
+            }
+            if (hint == null) {
+                throw new ConnectionStringParseException(
+                        "Unrecognised connection string: expected a URI, a JDBC URL or key=value pairs", start);
+            }
+            format = Format.HOST_PORT;
+            type(hint);
+            int pathStart = hosts(start, indexOf('/', start, end), hint == DatabaseType.MSSQL ? ',' : ':');
+            if (pathStart < end) {
+                String name = decode(pathStart + 1, end);
+                if (hint == DatabaseType.CASSANDRA) {
+                    request.setKeyspace(name);
+                } else {
+                    request.setDatabase(name);
+                }
+            }
+        }
+
+        private boolean looksLikePath() {
+            char first = s.charAt(start);
+            if (first == '/' || first == '.' || first == '~' || first == '\\'
+                    || (end - start > 2 && Character.isLetter(first) && s.charAt(start + 1) == ':'
+                    && (s.charAt(start + 2) == '\\' || s.charAt(start + 2) == '/'))) {
+                return true;
+            }
+            String lower = s.substring(Math.max(start, end - 8), end).toLowerCase(Locale.ROOT);
+            return lower.endsWith(".db") || lower.endsWith(".sqlite") || lower.endsWith(".sqlite3") || lower.endsWith(".db3");
+        }
+
+        // ----------------------------------------------------------------------------------
+        // URIs: scheme://[user[:password]@]host[:port][,host[:port]...][/path][?query][#fragment]
+
+        private void uri(int from, int schemeEnd) {
+            String scheme = s.substring(from, schemeEnd).toLowerCase(Locale.ROOT);
+            DatabaseType type = schemeType(scheme);
+            if (type == null) {
+                throw new ConnectionStringParseException("Unsupported scheme '" + scheme + "'", from);
+            }
+            type(type);
+            if (scheme.equals("rediss") || scheme.equals("https")) {
+                request.setUseEncryption(true);
+            }
+            if (scheme.equals("mongodb+srv")) {
+                extra("srv", "true");
+                warnings.add("mongodb+srv: hosts are looked up in DNS; the generated string uses mongodb://");
+            }
+            hierarchical(schemeEnd + 3, type == DatabaseType.MSSQL ? ',' : ':');
+        }
+
+        /**
+         * Everything after {@code //}: authority, path and query.
+         */
+        private void hierarchical(int from, char portSeparator) {
+            int query = indexOf('?', from, end);
+            int fragment = indexOf('#', from, end);
+            if (fragment < query) {
+                query = fragment;
+            }
+            // Passwords often contain unencoded '@', so the user info ends at the last one
+            int at = lastIndexOf('@', from, query);
+            int hostStart = from;
+            if (at >= 0) {
+                userInfo(from, at);
+                hostStart = at + 1;
+            }
+            int pathStart = indexOf('/', hostStart, query);
+            hosts(hostStart, pathStart, portSeparator);
+            if (pathStart < query) {
+                path(pathStart + 1, query);
+            }
+            if (query < end && s.charAt(query) == '?') {
+                int queryEnd = Math.min(fragment, end);
+                parameters(query + 1, queryEnd, '&');
+                query = queryEnd;
+            }
+            if (query < end) {
+                warnings.add("Fragment '" + s.substring(query, end) + "' ignored");
+            }
+        }
+
+        private void userInfo(int from, int to) {
+            int colon = indexOf(':', from, to);
+            if (colon > from) {
+                request.setUsername(decode(from, colon));
+            }
+            if (colon < to) {
+                request.setPassword(decode(colon + 1, to));
+            }
+        }
+
+        /**
+         * One or more comma-separated hosts with optional ports in {@code [from, to)}. The first
+         * is kept; the full list goes to {@code additionalParams.hosts}. Returns {@code to}.
+         */
+        private int hosts(int from, int to, char portSeparator) {
+            int comma = portSeparator == ',' ? to : indexOf(',', from, to);
+            host(from, comma, portSeparator);
+            if (comma < to) {
+                extra("hosts", s.substring(from, to));
+                warnings.add("Only the first of several hosts is kept; all are listed in additionalParams.hosts");
+            }
+            return to;
+        }
+
+        private void host(int from, int to, char portSeparator) {
+            int hostEnd = afterBracket(from, to);
+            if (hostEnd > from) {
+                if (hostEnd < to && s.charAt(hostEnd) != portSeparator) {
+                    throw new ConnectionStringParseException("Expected '" + portSeparator + "' after IPv6 address", hostEnd);
+                }
+            } else {
+                hostEnd = indexOf(portSeparator, from, to);
+            }
+            if (hostEnd > from) {
+                request.setHost(decode(from, hostEnd));
+            }
+            if (hostEnd < to) {
+                request.setPort(port(hostEnd + 1, to));
+            }
+        }
+
+        private Integer port(int from, int to) {
+            if (from == to) {
+                throw new ConnectionStringParseException("Missing port number", from);
+            }
+            int port = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new ConnectionStringParseException("Invalid character '" + c + "' in port", i);
+                }
+                port = port * 10 + (c - '0');
+                if (port > 65535) {
+                    throw new ConnectionStringParseException("Port must be between 1 and 65535", from);
+                }
+            }
+            if (port == 0) {
+                throw new ConnectionStringParseException("Port must be between 1 and 65535", from);
+            }
+            return port;
+        }
+
+        /**
+         * The path: the database name, except for DB2 and Informix whose properties follow it
+         * after a ':' ({@code /db:user=x;password=y;}).
+         */
+        private void path(int from, int to) {
+            DatabaseType type = request.getDatabaseType();
+            int nameEnd = to;
+            if (type == DatabaseType.DB2 || type == DatabaseType.INFORMIX) {
+                nameEnd = indexOf(':', from, to);
+            }
+            if (nameEnd > from) {
+                String name = decode(from, nameEnd);
+                if (type == DatabaseType.CASSANDRA) {
+                    request.setKeyspace(name);
+                } else {
+                    request.setDatabase(name);
+                }
+            }
+            if (nameEnd < to) {
+                keywords(nameEnd + 1, to, true);
+            }
+        }
+
+        /**
+         * Query parameters {@code key=value} separated by {@code separator}.
+         */
+        private void parameters(int from, int to, char separator) {
+            int i = from;
+            while (i < to) {
+                int next = indexOf(separator, i, to);
+                if (next > i) {
+                    int equals = indexOf('=', i, next);
+                    if (equals == i) {
+                        throw new ConnectionStringParseException("Parameter without a name", i);
+                    }
+                    String key = decode(i, equals);
+                    String value = equals < next ? decode(equals + 1, next) : "";
+                    parameter(key, value, equals < next ? equals + 1 : next);
+                }
+                i = next + 1;
+            }
+        }
+
+        // ----------------------------------------------------------------------------------
+        // JDBC URLs
+
+        private void jdbc(int from) {
+            int colon = indexOf(':', from, end);
+            if (colon == end || colon == from) {
+                throw new ConnectionStringParseException("Expected a JDBC subprotocol followed by ':'", from);
+            }
+            String subprotocol = s.substring(from, colon).toLowerCase(Locale.ROOT);
+            int rest = colon + 1;
+            switch (subprotocol) {
+                case "sqlserver" -> {
+                    type(DatabaseType.MSSQL);
+                    sqlServerJdbc(expectSlashes(rest));
+                }
+                case "oracle" -> {
+                    type(DatabaseType.ORACLE);
+                    int driver = indexOf(':', rest, end);
+                    if (driver == end) {
+                        throw new ConnectionStringParseException("Expected 'thin:' or 'oci:' after jdbc:oracle:", rest);
+                    }
+                    oracle(driver + 1);
+                }
+                case "sqlite" -> {
+                    type(DatabaseType.SQLITE);
+                    int path = s.regionMatches(true, rest, "file:", 0, 5) ? rest + 5 : rest;
+                    request.setFilePath(s.substring(path, end));
+                }
+                case "h2", "hsqldb" -> embedded(subprotocol.equals("h2") ? DatabaseType.H2 : DatabaseType.HSQLDB, rest);
+                case "firebirdsql", "firebird" -> {
+                    type(DatabaseType.FIREBIRD);
+                    if (s.startsWith("//", rest)) {
+                        hierarchical(rest + 2, ':');
+                    } else {
+                        // host[/port]:path
+                        int pathColon = indexOf(':', rest, end);
+                        int slash = indexOf('/', rest, pathColon);
+                        host(rest, slash, '/');
+                        if (slash < pathColon) {
+                            request.setPort(port(slash + 1, pathColon));
+                        }
+                        if (pathColon < end) {
+                            request.setDatabase(s.substring(pathColon + 1, end));
+                        }
+                    }
+                }
+                default -> {
+                    DatabaseType type = schemeType(subprotocol);
+                    if (type == null) {
+                        throw new ConnectionStringParseException("Unsupported JDBC subprotocol '" + subprotocol + "'", from);
+                    }
+                    type(type);
+                    hierarchical(expectSlashes(rest), ':');
+                }
+            }
+        }
+
+        private int expectSlashes(int from) {
+            if (!s.startsWith("//", from)) {
+                throw new ConnectionStringParseException("Expected '//'", from);
+            }
+            return from + 2;
+        }
+
+        /**
+         * {@code jdbc:sqlserver://host[\instance][:port][;key=value]...}
+         */
+        private void sqlServerJdbc(int from) {
+            int semicolon = indexOf(';', from, end);
+            int backslash = indexOf('\\', from, semicolon);
+            int colon = indexOf(':', backslash < semicolon ? backslash : afterBracket(from, semicolon), semicolon);
+            int hostEnd = Math.min(backslash, colon);
+            if (hostEnd > from) {
+                request.setHost(s.substring(from, hostEnd));
+            }
+            if (backslash < semicolon) {
+                request.setInstanceName(s.substring(backslash + 1, colon));
+            }
+            if (colon < semicolon) {
+                request.setPort(port(colon + 1, semicolon));
+            }
+            if (semicolon < end) {
+                keywords(semicolon + 1, end, true);
+            }
+        }
+
+        /**
+         * H2 and HSQLDB: {@code mem:name}, {@code file:path} or a bare path, or a server URL
+         * ({@code tcp://}, {@code ssl://}, {@code hsql://}, {@code hsqls://}). Settings follow
+         * after ';'.
+         */
+        private void embedded(DatabaseType type, int from) {
+            type(type);
+            int semicolon = indexOf(';', from, end);
+            int schemeEnd = schemeEnd(from);
+            if (schemeEnd > from) {
+                String scheme = s.substring(from, schemeEnd).toLowerCase(Locale.ROOT);
+                if (scheme.equals("ssl") || scheme.equals("hsqls")) {
+                    request.setUseEncryption(true);
+                }
+                int hostStart = schemeEnd + 3;
+                int pathStart = indexOf('/', hostStart, semicolon);
+                host(hostStart, pathStart, ':');
+                if (pathStart < semicolon) {
+                    request.setDatabase(s.substring(pathStart + 1, semicolon));
+                }
+            } else if (s.regionMatches(true, from, "mem:", 0, 4)) {
+                request.setDatabase(s.substring(from + 4, semicolon));
+                extra("mode", "mem");
+            } else {
+                int path = s.regionMatches(true, from, "file:", 0, 5) ? from + 5 : from;
+                request.setFilePath(s.substring(path, semicolon));
+                int name = Math.max(s.lastIndexOf('/', semicolon - 1), s.lastIndexOf('\\', semicolon - 1));
+                request.setDatabase(s.substring(Math.max(name + 1, path), semicolon));
+            }
+            if (semicolon < end) {
+                keywords(semicolon + 1, end, true);
+            }
+        }
+
+        // ----------------------------------------------------------------------------------
+        // Oracle: [user/password]@ followed by a TNS descriptor, //host:port/service,
+        // host:port/service or host:port:SID
+
+        private void oracle(int from) {
+            int at = s.charAt(from) == '(' ? -1 : lastIndexOf('@', from, end);
+            int target = from;
+            if (at >= 0) {
+                int slash = indexOf('/', from, at);
+                if (slash > from) {
+                    request.setUsername(s.substring(from, slash));
+                }
+                if (slash < at) {
+                    request.setPassword(s.substring(slash + 1, at));
+                }
+                target = at + 1;
+            }
+            if (target < end && s.charAt(target) == '(') {
+                format = Format.TNS;
+                tns(target);
+                return;
+            }
+            boolean ezConnect = s.startsWith("//", target);
+            if (ezConnect) {
+                target += 2;
+            }
+            int slash = indexOf('/', target, end);
+            int colon = indexOf(':', afterBracket(target, slash), slash);
+            if (colon > target) {
+                request.setHost(s.substring(target, colon));
+            } else if (colon == end && slash > target) {
+                request.setHost(s.substring(target, slash));
+            } else if (colon == target) {
+                throw new ConnectionStringParseException("Missing host", target);
+            }
+            if (colon < slash) {
+                // host:port:SID, or host:port/service
+                int sidColon = indexOf(':', colon + 1, slash);
+                request.setPort(port(colon + 1, sidColon));
+                if (sidColon < slash) {
+                    request.setDatabase(s.substring(sidColon + 1, slash));
+                }
+            }
+            if (slash < end) {
+                request.setServiceName(s.substring(slash + 1, end));
+            }
+            if (request.getHost() == null && request.getServiceName() == null && request.getDatabase() == null) {
+                throw new ConnectionStringParseException("Expected host:port:SID, host:port/service or a TNS descriptor", target);
+            }
+        }
+
+        /**
+         * {@code (DESCRIPTION=(ADDRESS=(PROTOCOL=TCP)(HOST=h)(PORT=1521))(CONNECT_DATA=(SERVICE_NAME=s)))}:
+         * the first HOST, PORT and PROTOCOL, and SERVICE_NAME or SID.
+         */
+        private void tns(int from) {
+            int[] addresses = new int[1];
+            int next = tnsNode(from, addresses);
+            next = skipSpaces(next, end);
+            if (next < end) {
+                throw new ConnectionStringParseException("Unexpected text after TNS descriptor", next);
+            }
+            if (addresses[0] > 1) {
+                extra("addresses", String.valueOf(addresses[0]));
+                warnings.add("Only the first of " + addresses[0] + " TNS addresses is kept");
+            }
+        }
+
+        /**
+         * One {@code (KEY=value)} or {@code (KEY=(...)(...))} node; returns the index after its
+         * closing parenthesis.
+         */
+        private int tnsNode(int from, int[] addresses) {
+            int i = skipSpaces(from, end);
+            if (i >= end || s.charAt(i) != '(') {
+                throw new ConnectionStringParseException("Expected '('", i);
+            }
+            int keyStart = skipSpaces(i + 1, end);
+            int equals = keyStart;
+            while (equals < end && s.charAt(equals) != '=' && s.charAt(equals) != '(' && s.charAt(equals) != ')') {
+                equals++;
+            }
+            if (equals >= end || s.charAt(equals) != '=') {
+                throw new ConnectionStringParseException("Expected '=' in TNS descriptor", equals);
+            }
+            String key = s.substring(keyStart, equals).trim().toUpperCase(Locale.ROOT);
+            if (key.isEmpty()) {
+                throw new ConnectionStringParseException("Missing key in TNS descriptor", keyStart);
+            }
+            if (key.equals("ADDRESS")) {
+                addresses[0]++;
+            }
+            i = skipSpaces(equals + 1, end);
+            if (i < end && s.charAt(i) == '(') {
+                while (i < end && s.charAt(i) == '(') {
+                    i = skipSpaces(tnsNode(i, addresses), end);
+                }
+            } else {
+                int valueStart = i;
+                while (i < end && s.charAt(i) != ')' && s.charAt(i) != '(') {
+                    i++;
+                }
+                if (addresses[0] <= 1) {
+                    tnsValue(key, s.substring(valueStart, i).trim(), valueStart);
+                }
+            }
+            if (i >= end || s.charAt(i) != ')') {
+                throw new ConnectionStringParseException("Expected ')'", i);
+            }
+            return i + 1;
+        }
+
+        private void tnsValue(String key, String value, int position) {
+            switch (key) {
+                case "HOST" -> request.setHost(value);
+                case "PORT" -> request.setPort(port(position, position + value.length()));
+                case "PROTOCOL" -> {
+                    if (value.equalsIgnoreCase("TCPS")) {
+                        request.setUseEncryption(true);
+                    }
+                }
+                case "SERVICE_NAME" -> request.setServiceName(value);
+                case "SID" -> request.setDatabase(value);
+                default -> {
+                }
+            }
+        }
+
+        // ----------------------------------------------------------------------------------
+        // key=value; strings (ADO.NET, Npgsql, MySQL Connector/NET, JDBC properties)
+
+        /**
+         * {@code key=value} pairs separated by ';'. Values may be quoted with '"' or '\'' (a
+         * doubled quote inside stands for one); keys are matched without case or spaces. With
+         * {@code properties}, the pairs are JDBC properties after the URL.
+         */
+        private void keywords(int from, int to, boolean properties) {
+            int i = from;
+            while (i < to) {
+                i = skipSpaces(i, to);
+                if (i < to && s.charAt(i) == ';') {
+                    i++;
+                    continue;
+                }
+                if (i >= to) {
+                    break;
+                }
+                int keyStart = i;
+                while (i < to && s.charAt(i) != '=' && s.charAt(i) != ';') {
+                    i++;
+                }
+                if (i >= to || s.charAt(i) != '=') {
+                    throw new ConnectionStringParseException("Expected '=' after '" + s.substring(keyStart, i).trim() + "'", i);
+                }
+                String key = s.substring(keyStart, i).trim();
+                i = skipSpaces(i + 1, to);
+                String value;
+                int valueStart = i;
+                if (i < to && (s.charAt(i) == '"' || s.charAt(i) == '\'')) {
+                    char quote = s.charAt(i);
+                    StringBuilder quoted = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= to) {
+                            throw new ConnectionStringParseException("Unterminated quoted value", valueStart);
+                        }
+                        char c = s.charAt(i++);
+                        if (c == quote) {
+                            if (i < to && s.charAt(i) == quote) {
+                                quoted.append(quote);
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        quoted.append(c);
+                    }
+                    value = quoted.toString();
+                    i = skipSpaces(i, to);
+                    if (i < to && s.charAt(i) != ';') {
+                        throw new ConnectionStringParseException("Expected ';' after quoted value", i);
+                    }
+                } else {
+                    int valueEnd = indexOf(';', i, to);
+                    value = s.substring(i, valueEnd).trim();
+                    i = valueEnd;
+                }
+                keyword(key, value, valueStart, properties);
+            }
+        }
+
+        private void keyword(String key, String value, int position, boolean properties) {
+            String normalized = normalize(key);
+            switch (normalized) {
+                case "server", "datasource", "address", "addr", "networkaddress", "servername" -> {
+                    if (properties) {
+                        request.setHost(value);
+                    } else {
+                        server(value, position);
+                    }
+                }
+                case "host" -> request.setHost(value);
+                case "port", "portnumber" -> request.setPort(port(position, position + value.length()));
+                case "database", "initialcatalog", "databasename", "db" -> request.setDatabase(value);
+                case "instancename" -> request.setInstanceName(value);
+                case "informixserver" -> request.setServiceName(value);
+                case "encrypt" -> request.setUseEncryption(switch (value.toLowerCase(Locale.ROOT)) {
+                    case "true", "yes", "mandatory", "strict" -> true;
+                    case "false", "no", "optional" -> false;
+                    default -> throw new ConnectionStringParseException("Invalid Encrypt value '" + value + "'", position);
+                });
+                case "trustservercertificate" -> request.setVerifyServerCertificate(!bool(value, position));
+                case "commandtimeout", "defaultcommandtimeout" -> request.setCommandTimeout(integer(value, position));
+                case "minpoolsize", "minimumpoolsize" -> request.setMinPoolSize(integer(value, position));
+                case "maxpoolsize", "maximumpoolsize" -> request.setMaxPoolSize(integer(value, position));
+                case "workstationid", "wsid" -> request.setWorkstation(value);
+                case "sslrootcert" -> request.setSslRootCert(value);
+                case "sslcert" -> request.setSslCert(value);
+                case "sslkey" -> request.setSslKey(value);
+                default -> parameter(key, value, position);
+            }
+        }
+
+        /**
+         * ADO.NET {@code Server}: {@code [tcp:]host[\instance][,port]}.
+         */
+        private void server(String value, int position) {
+            int from = value.regionMatches(true, 0, "tcp:", 0, 4) ? 4 : 0;
+            int comma = value.indexOf(',', from);
+            int hostEnd = comma < 0 ? value.length() : comma;
+            int backslash = value.indexOf('\\', from);
+            if (backslash >= 0 && backslash < hostEnd) {
+                request.setInstanceName(value.substring(backslash + 1, hostEnd));
+                hostEnd = backslash;
+            }
+            if (hostEnd > from) {
+                request.setHost(value.substring(from, hostEnd));
+            }
+            if (comma >= 0) {
+                int portStart = position + comma + 1;
+                request.setPort(port(portStart, portStart + value.length() - comma - 1));
+            }
+        }
+
+        // ----------------------------------------------------------------------------------
+        // Parameters shared by the URI, JDBC and key=value formats
+
+        private void parameter(String key, String value, int position) {
+            switch (normalize(key)) {
+                case "user", "username", "userid", "uid" -> request.setUsername(value);
+                case "password", "pwd" -> request.setPassword(value);
+                case "sslmode" -> request.setSslMode(sslMode(value, position));
+                case "ssl", "tls", "usessl", "usesslencryption" -> request.setUseEncryption(bool(value, position));
+                case "applicationname", "appname", "app" -> request.setApplicationName(value);
+                case "connecttimeout", "connectiontimeout", "logintimeout", "connecttimeoutms", "timeout" ->
+                        request.setConnectionTimeout(integer(value, position));
+                case "currentschema", "searchpath", "schema" -> request.setSchema(value);
+                case "characterencoding", "charset", "encoding", "clientencoding" -> request.setCharset(value);
+                case "servertimezone", "connectiontimezone", "timezone" -> request.setTimezone(value);
+                case "autoreconnect" -> request.setAutoReconnect(bool(value, position));
+                case "allowmultiqueries", "allowmultiplequeries" -> request.setAllowMultipleQueries(bool(value, position));
+                case "authsource" -> request.setAuthSource(value);
+                case "replicaset" -> request.setReplicaSet(value);
+                case "retrywrites" -> request.setRetryWrites(bool(value, position));
+                case "authmechanism" -> request.setAuthMechanism(value);
+                case "maxpoolsize" -> request.setMaxPoolSize(integer(value, position));
+                case "minpoolsize" -> request.setMinPoolSize(integer(value, position));
+                case "localdatacenter", "datacenter" -> request.setDatacenter(value);
+                case "keyspace" -> request.setKeyspace(value);
+                default -> extra(key, value);
+            }
+        }
+
+        /**
+         * PostgreSQL/libpq values, and MySQL Connector/J's ({@code REQUIRED}, {@code VERIFY_IDENTITY}, ...).
+         */
+        private SslMode sslMode(String value, int position) {
+            return switch (value.toLowerCase(Locale.ROOT).replace('_', '-')) {
+                case "disable", "disabled" -> SslMode.DISABLE;
+                case "allow" -> SslMode.ALLOW;
+                case "prefer", "preferred" -> SslMode.PREFER;
+                case "require", "required" -> SslMode.REQUIRE;
+                case "verify-ca" -> SslMode.VERIFY_CA;
+                case "verify-full", "verify-identity" -> SslMode.VERIFY_FULL;
+                default -> throw new ConnectionStringParseException("Invalid sslmode '" + value + "'", position);
+            };
+        }
+
+        private boolean bool(String value, int position) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "true", "yes", "1", "on" -> true;
+                case "false", "no", "0", "off" -> false;
+                default -> throw new ConnectionStringParseException("Expected true or false, not '" + value + "'", position);
+            };
+        }
+
+        private Integer integer(String value, int position) {
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new ConnectionStringParseException("Expected a number, not '" + value + "'", position);
+            }
+        }
+
+        // ----------------------------------------------------------------------------------
+        // Helpers
+
+        private void type(DatabaseType type) {
+            request.setDatabaseType(hint == DatabaseType.MARIADB && type == DatabaseType.MYSQL ? DatabaseType.MARIADB : type);
+        }
+
+        private void extra(String key, String value) {
+            if (request.getAdditionalParams() == null) {
+                request.setAdditionalParams(new HashMap<>());
+            }
+            request.getAdditionalParams().put(key, value);
+        }
+
+        /**
+         * Lower-case key without spaces, dashes and underscores: "Initial Catalog",
+         * "application_name" and "ApplicationName" all match.
+         */
+        private static String normalize(String key) {
+            StringBuilder normalized = null;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                boolean skip = c == ' ' || c == '_' || c == '-';
+                if (normalized == null && (skip || Character.isUpperCase(c))) {
+                    normalized = new StringBuilder(key.length()).append(key, 0, i);
+                }
+                if (normalized != null && !skip) {
+                    normalized.append(Character.toLowerCase(c));
+                }
+            }
+            return normalized == null ? key : normalized.toString();
+        }
+
+        private int indexOf(char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (s.charAt(i) == c) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        private int lastIndexOf(char c, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (s.charAt(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * The index after a bracketed IPv6 address at {@code from}, so its colons are not taken
+         * for the port separator; {@code from} when there is none.
+         */
+        private int afterBracket(int from, int to) {
+            if (from < to && s.charAt(from) == '[') {
+                int close = indexOf(']', from, to);
+                if (close == to) {
+                    throw new ConnectionStringParseException("Unclosed '[' in IPv6 address", from);
+                }
+                return close + 1;
+            }
+            return from;
+        }
+
+        private int skipSpaces(int from, int to) {
+            while (from < to && Character.isWhitespace(s.charAt(from))) {
+                from++;
+            }
+            return from;
+        }
+
+        /**
+         * The substring, percent-decoded as UTF-8 when it contains '%'.
+         */
+        private String decode(int from, int to) {
+            int percent = indexOf('%', from, to);
+            if (percent == to) {
+                return s.substring(from, to);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(to - from);
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c != '%') {
+                    if (c < 0x80) {
+                        bytes.write(c);
+                    } else {
+                        bytes.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+                    }
+                    continue;
+                }
+                int high = i + 2 < to ? Character.digit(s.charAt(i + 1), 16) : -1;
+                int low = i + 2 < to ? Character.digit(s.charAt(i + 2), 16) : -1;
+                if (high < 0 || low < 0) {
+                    throw new ConnectionStringParseException("Invalid percent-encoding", i);
+                }
+                bytes.write(high << 4 | low);
+                i += 2;
+            }
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A connection-string template compiled into a render plan: a flat list of literal and value
+ * nodes, with optional groups and query parameters.
+ * <p>
+ * Syntax:
+ * <ul>
+ *     <li>{@code {host|localhost}} - a request field, with a default when it is null. Several
+ *     fields separated by commas are tried in order: {@code {serviceName,database}}. An encoding
+ *     goes after a colon, before the default: {@code {database:path|postgres}} (see
+ *     {@link Encoding}); {@code :flag} renders nothing and only requires a Boolean field to be
+ *     true.</li>
+ *     <li>{@code [...]} - an optional group, left out unless every value directly inside it is
+ *     present. Groups nest.</li>
+ *     <li>{@code {?sslmode=sslMode&connect_timeout=connectionTimeout}} - query parameters: the
+ *     present ones, joined with {@code &} after a {@code ?}. Boolean fields are present when
+ *     true and render {@code true}.</li>
+ * </ul>
+ * Rendering walks the plan once into a single {@link StringBuilder}; a group that turns out to be
+ * incomplete is cut off again. The password slot is known from the plan, so the masked string is
+ * rendered directly instead of being recovered from the plain one with a regular expression.
+ */
+public final class ConnectionTemplate {
+
+    static final String MASK = "***";
+
+    /**
+     * The request fields a template can refer to. Secret fields are masked.
+     */
+    private static final Map<String, Function<ConnectionStringRequest, Object>> FIELDS = Map.ofEntries(
+            Map.entry("host", ConnectionStringRequest::getHost),
+            Map.entry("port", ConnectionStringRequest::getPort),
+            Map.entry("database", ConnectionStringRequest::getDatabase),
+            Map.entry("schema", ConnectionStringRequest::getSchema),
+            Map.entry("username", ConnectionStringRequest::getUsername),
+            Map.entry("password", ConnectionStringRequest::getPassword),
+            Map.entry("serviceName", ConnectionStringRequest::getServiceName),
+            Map.entry("instanceName", ConnectionStringRequest::getInstanceName),
+            Map.entry("authSource", ConnectionStringRequest::getAuthSource),
+            Map.entry("filePath", ConnectionStringRequest::getFilePath),
+            Map.entry("sslMode", request -> request.getSslMode() == null ? null : request.getSslMode().getValue()),
+            Map.entry("useEncryption", ConnectionStringRequest::getUseEncryption),
+            Map.entry("connectionTimeout", ConnectionStringRequest::getConnectionTimeout),
+            Map.entry("charset", ConnectionStringRequest::getCharset),
+            Map.entry("timezone", ConnectionStringRequest::getTimezone),
+            Map.entry("autoReconnect", ConnectionStringRequest::getAutoReconnect),
+            Map.entry("applicationName", ConnectionStringRequest::getApplicationName),
+            Map.entry("replicaSet", ConnectionStringRequest::getReplicaSet),
+            Map.entry("retryWrites", ConnectionStringRequest::getRetryWrites),
+            Map.entry("keyspace", ConnectionStringRequest::getKeyspace),
+            Map.entry("datacenter", ConnectionStringRequest::getDatacenter));
+
+    private static final String SECRET_FIELD = "password";
+
+    /**
+     * How a value is escaped for its position in the connection string.
+     */
+    enum Encoding {
+        /** As is. */
+        RAW(null),
+        /** URI host, or host before a {@code :port}: an IPv6 address goes in brackets. */
+        HOST(null),
+        /** URI user or password: percent-encoded except unreserved characters and sub-delimiters. */
+        USERINFO("!$&'()*+,;="),
+        /** URI path segment. */
+        PATH("!$&'()*+,;=:@"),
+        /** URI query parameter value: {@code &}, {@code =} and {@code +} are encoded. */
+        QUERY("!$'()*,;:@/?"),
+        /** Key=value;... strings (ADO.NET): quoted when the value contains a separator or quote. */
+        KEYWORD(null);
+
+        private final boolean[] allowed;
+
+        Encoding(String extra) {
+            if (extra == null) {
+                this.allowed = null;
+                return;
+            }
+            this.allowed = new boolean[128];
+            for (char c = 'a'; c <= 'z'; c++) {
+                allowed[c] = true;
+                allowed[Character.toUpperCase(c)] = true;
+            }
+            for (char c = '0'; c <= '9'; c++) {
+                allowed[c] = true;
+            }
+            for (char c : ("-._~" + extra).toCharArray()) {
+                allowed[c] = true;
+            }
+        }
+
+        void append(StringBuilder out, String value) {
+            if (this == KEYWORD) {
+                appendKeywordValue(out, value);
+                return;
+            }
+            if (this == HOST) {
+                boolean bracket = value.indexOf(':') >= 0 && !value.startsWith("[");
+                out.append(bracket ? "[" + value + "]" : value);
+                return;
+            }
+            if (allowed == null || isAllowed(value)) {
+                out.append(value);
+                return;
+            }
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xFF;
+                if (c < 128 && allowed[c]) {
+                    out.append((char) c);
+                } else {
+                    out.append('%').append(HEX[c >>> 4]).append(HEX[c & 0xF]);
+                }
+            }
+        }
+
+        private boolean isAllowed(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 128 || !allowed[c]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void appendKeywordValue(StringBuilder out, String value) {
+            boolean quote = !value.isEmpty() && (Character.isWhitespace(value.charAt(0))
+                    || Character.isWhitespace(value.charAt(value.length() - 1)));
+            for (int i = 0; !quote && i < value.length(); i++) {
+                char c = value.charAt(i);
+                quote = c == ';' || c == '"' || c == '\'';
+            }
+            if (!quote) {
+                out.append(value);
+                return;
+            }
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                out.append(c);
+                if (c == '"') {
+                    out.append('"');
+                }
+            }
+            out.append('"');
+        }
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String source;
+    private final Node[] plan;
+    private final int estimatedLength;
+
+    private ConnectionTemplate(String source, Node[] plan) {
+        this.source = source;
+        this.plan = plan;
+        this.estimatedLength = source.length() + 32;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * The connection string for this request; with {@code masked}, the password is replaced
+     * by {@value #MASK}.
+     */
+    public String render(ConnectionStringRequest request, boolean masked) {
+        StringBuilder out = new StringBuilder(estimatedLength);
+        for (Node node : plan) {
+            node.render(request, masked, out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Compiles a template. Throws {@link IllegalArgumentException} for a syntax error or an
+     * unknown field.
+     */
+    public static ConnectionTemplate compile(String template) {
+        Parser parser = new Parser(template);
+        List<Node> nodes = parser.sequence(false);
+        if (parser.position < template.length()) {
+            throw parser.error("unexpected ']'");
+        }
+        return new ConnectionTemplate(template, nodes.toArray(new Node[0]));
+    }
+
+    private interface Node {
+        /**
+         * Appends this node; false when a value it needs is absent (the node appended nothing).
+         */
+        boolean render(ConnectionStringRequest request, boolean masked, StringBuilder out);
+    }
+
+    private record Literal(String text) implements Node {
+        @Override
+        public boolean render(ConnectionStringRequest request, boolean masked, StringBuilder out) {
+            out.append(text);
+            return true;
+        }
+    }
+
+    private record Value(List<Function<ConnectionStringRequest, Object>> fields, String defaultValue,
+                         Encoding encoding, boolean flag, boolean secret) implements Node {
+        @Override
+        public boolean render(ConnectionStringRequest request, boolean masked, StringBuilder out) {
+            Object value = null;
+            for (int i = 0; value == null && i < fields.size(); i++) {
+                value = fields.get(i).apply(request);
+            }
+            if (flag) {
+                return Boolean.TRUE.equals(value);
+            }
+            if (value == null) {
+                if (defaultValue == null) {
+                    return false;
+                }
+                out.append(defaultValue);
+            } else if (secret && masked) {
+                out.append(MASK);
+            } else {
+                encoding.append(out, value.toString());
+            }
+            return true;
+        }
+    }
+
+    private record Group(Node[] nodes) implements Node {
+        @Override
+        public boolean render(ConnectionStringRequest request, boolean masked, StringBuilder out) {
+            int mark = out.length();
+            for (Node node : nodes) {
+                if (!node.render(request, masked, out)) {
+                    out.setLength(mark);
+                    break;
+                }
+            }
+            return true;
+        }
+    }
+
+    private record Params(String[] names, List<Function<ConnectionStringRequest, Object>> fields, boolean[] secret)
+            implements Node {
+        @Override
+        public boolean render(ConnectionStringRequest request, boolean masked, StringBuilder out) {
+            char separator = '?';
+            for (int i = 0; i < names.length; i++) {
+                Object value = fields.get(i).apply(request);
+                if (value == null || Boolean.FALSE.equals(value)) {
+                    continue;
+                }
+                out.append(separator).append(names[i]).append('=');
+                if (secret[i] && masked) {
+                    out.append(MASK);
+                } else {
+                    Encoding.QUERY.append(out, value.toString());
+                }
+                separator = '&';
+            }
+            return true;
+        }
+    }
+
+    private static final class Parser {
+        private final String template;
+        private int position;
+
+        Parser(String template) {
+            this.template = template;
+        }
+
+        List<Node> sequence(boolean inGroup) {
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            while (position < template.length()) {
+                char c = template.charAt(position);
+                if (c == ']') {
+                    if (!inGroup) {
+                        break;
+                    }
+                    flush(literal, nodes);
+                    return nodes;
+                }
+                if (c == '[' || c == '{') {
+                    flush(literal, nodes);
+                    position++;
+                    if (c == '[') {
+                        List<Node> group = sequence(true);
+                        if (position >= template.length()) {
+                            throw error("unclosed '['");
+                        }
+                        position++;
+                        nodes.add(new Group(group.toArray(new Node[0])));
+                    } else {
+                        nodes.add(placeholder());
+                    }
+                    continue;
+                }
+                if (c == '\\' && position + 1 < template.length()) {
+                    c = template.charAt(++position);
+                }
+                literal.append(c);
+                position++;
+            }
+            if (inGroup) {
+                throw error("unclosed '['");
+            }
+            flush(literal, nodes);
+            return nodes;
+        }
+
+        private Node placeholder() {
+            int end = template.indexOf('}', position);
+            if (end < 0) {
+                throw error("unclosed '{'");
+            }
+            String body = template.substring(position, end);
+            position = end + 1;
+            return body.startsWith("?") ? params(body.substring(1)) : value(body);
+        }
+
+        private Node value(String body) {
+            // fields[:encoding][|default]
+            String defaultValue = null;
+            int bar = body.indexOf('|');
+            if (bar >= 0) {
+                defaultValue = body.substring(bar + 1);
+                body = body.substring(0, bar);
+            }
+            Encoding encoding = Encoding.RAW;
+            boolean flag = false;
+            int colon = body.indexOf(':');
+            if (colon >= 0) {
+                String modifier = body.substring(colon + 1);
+                body = body.substring(0, colon);
+                if (modifier.equals("flag")) {
+                    flag = true;
+                } else {
+                    encoding = encoding(modifier);
+                }
+            }
+            String[] names = body.split(",");
+            List<Function<ConnectionStringRequest, Object>> fields = new ArrayList<>(names.length);
+            boolean secret = false;
+            for (String name : names) {
+                fields.add(field(name.trim()));
+                secret |= SECRET_FIELD.equals(name.trim());
+            }
+            return new Value(List.copyOf(fields), defaultValue, encoding, flag, secret);
+        }
+
+        private Node params(String body) {
+            String[] pairs = body.split("&");
+            String[] names = new String[pairs.length];
+            List<Function<ConnectionStringRequest, Object>> fields = new ArrayList<>(pairs.length);
+            boolean[] secret = new boolean[pairs.length];
+            for (int i = 0; i < pairs.length; i++) {
+                int equals = pairs[i].indexOf('=');
+                if (equals <= 0) {
+                    throw error("query parameter without '=': " + pairs[i]);
+                }
+                names[i] = pairs[i].substring(0, equals);
+                String field = pairs[i].substring(equals + 1);
+                fields.add(field(field));
+                secret[i] = SECRET_FIELD.equals(field);
+            }
+            return new Params(names, List.copyOf(fields), secret);
+        }
+
+        private Function<ConnectionStringRequest, Object> field(String name) {
+            Function<ConnectionStringRequest, Object> field = FIELDS.get(name);
+            if (field == null) {
+                throw error("unknown field '" + name + "'");
+            }
+            return field;
+        }
+
+        private Encoding encoding(String name) {
+            for (Encoding encoding : Encoding.values()) {
+                if (encoding.name().equalsIgnoreCase(name)) {
+                    return encoding;
+                }
+            }
+            throw error("unknown encoding '" + name + "'");
+        }
+
+        private static void flush(StringBuilder literal, List<Node> nodes) {
+            if (!literal.isEmpty()) {
+                nodes.add(new Literal(literal.toString()));
+                literal.setLength(0);
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid connection template at " + position + ": " + message
+                    + " in " + template);
+        }
+    }
+}
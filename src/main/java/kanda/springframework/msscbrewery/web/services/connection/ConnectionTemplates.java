@@ -0,0 +1,70 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.DatabaseType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * One compiled {@link ConnectionTemplate} per {@link DatabaseType}, built at startup. URI-style
+ * strings percent-encode the user, password, database and query values and put IPv6 hosts in
+ * brackets; SQL Server's keyword=value string quotes values that contain separators.
+ */
+@Component
+@Slf4j
+public class ConnectionTemplates {
+
+    private static final String USERINFO = "[{username:userinfo}[:{password:userinfo}]@]";
+
+    private static final Map<DatabaseType, String> TEMPLATES = Map.of(
+            DatabaseType.POSTGRESQL, "postgresql://" + USERINFO + "{host:host|localhost}:{port|5432}/{database:path|postgres}"
+                    + "{?sslmode=sslMode&application_name=applicationName&connect_timeout=connectionTimeout}",
+            DatabaseType.MYSQL, "mysql://" + USERINFO + "{host:host|localhost}:{port|3306}/{database:path|mysql}"
+                    + "{?useSSL=useEncryption&characterEncoding=charset&autoReconnect=autoReconnect}",
+            DatabaseType.MSSQL, "Server={host|localhost}[,{port}][\\\\{instanceName}];Database={database:keyword|master}"
+                    + "[;User Id={username:keyword}][;Password={password:keyword}][{useEncryption:flag};Encrypt=true]"
+                    + "[;Connection Timeout={connectionTimeout}]",
+            DatabaseType.ORACLE, "jdbc:oracle:thin:@{host:host|localhost}:{port|1521}:{serviceName,database}",
+            DatabaseType.SQLITE, "{filePath|database.db}",
+            DatabaseType.MONGODB, "mongodb://" + USERINFO + "{host:host|localhost}:{port|27017}/{database:path|admin}"
+                    + "{?authSource=authSource&replicaSet=replicaSet&retryWrites=retryWrites}",
+            DatabaseType.REDIS, "redis://[:{password:userinfo}@]{host:host|localhost}:{port|6379}[/{database:path}]",
+            DatabaseType.CASSANDRA, "{host:host|localhost}:{port|9042}[/{keyspace}]",
+            DatabaseType.ELASTICSEARCH, "http[{useEncryption:flag}s]://" + USERINFO + "{host:host|localhost}:{port|9200}");
+
+    private final Map<DatabaseType, ConnectionTemplate> templates = new EnumMap<>(DatabaseType.class);
+
+    public ConnectionTemplates() {
+        for (DatabaseType type : DatabaseType.values()) {
+            String template = type == DatabaseType.MARIADB ? TEMPLATES.get(DatabaseType.MYSQL) : TEMPLATES.get(type);
+            templates.put(type, ConnectionTemplate.compile(template != null ? template : generic(type)));
+        }
+        log.info("Compiled {} connection string templates", templates.size());
+    }
+
+    /**
+     * {@code protocol://host:port/database} for the types without a template of their own.
+     */
+    private static String generic(DatabaseType type) {
+        String port = type.getDefaultPort() != null ? ":{port|" + type.getDefaultPort() + "}" : "[:{port}]";
+        return type.getProtocol() + "://{host:host|localhost}" + port + "/{database:path|default}";
+    }
+
+    public ConnectionTemplate get(DatabaseType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Database type is required");
+        }
+        return templates.get(type);
+    }
+
+    /**
+     * The connection string for the request; with {@code masked}, the password is replaced by
+     * {@code ***}.
+     */
+    public String render(ConnectionStringRequest request, boolean masked) {
+        return get(request.getDatabaseType()).render(request, masked);
+    }
+}
@@ -0,0 +1,90 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * The addresses the connection tester may connect to. It is checked against the resolved address,
+ * so a host name cannot lead the tester somewhere the policy forbids. Networks are CIDR blocks
+ * ({@code 10.0.0.0/8}, {@code fe80::/10}) or single addresses. An address must be in an allowed
+ * network when any are configured, and in no denied network. Wildcard and multicast addresses
+ * are never allowed.
+ */
+final class DestinationPolicy {
+
+    private final List<Network> allowed;
+    private final List<Network> denied;
+
+    DestinationPolicy(List<String> allowed, List<String> denied) {
+        this.allowed = parse(allowed);
+        this.denied = parse(denied);
+    }
+
+    void check(InetAddress address) throws ProbeException {
+        boolean permitted = !address.isAnyLocalAddress() && !address.isMulticastAddress()
+                && (allowed.isEmpty() || allowed.stream().anyMatch(network -> network.contains(address)))
+                && denied.stream().noneMatch(network -> network.contains(address));
+        if (!permitted) {
+            throw new ProbeException(ProbeSession.Phase.TCP,
+                    "Connections to " + address.getHostAddress() + " are not allowed from this server");
+        }
+    }
+
+    private static List<Network> parse(List<String> networks) {
+        return networks == null ? List.of() : networks.stream()
+                .map(String::trim)
+                .filter(network -> !network.isEmpty())
+                .map(Network::parse)
+                .toList();
+    }
+
+    private record Network(byte[] address, int prefix) {
+
+        static Network parse(String cidr) {
+            int slash = cidr.indexOf('/');
+            String literal = slash < 0 ? cidr : cidr.substring(0, slash);
+            // Only address literals: a host name here would be looked up, once, at startup
+            if (literal.isEmpty() || !literal.chars().allMatch(c -> c == '.' || c == ':' || Character.digit(c, 16) >= 0)) {
+                throw new IllegalArgumentException("Not a network address: " + cidr);
+            }
+            byte[] address;
+            try {
+                address = InetAddress.getByName(literal).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Not a network address: " + cidr, e);
+            }
+            int prefix = address.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(cidr.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid prefix length in " + cidr, e);
+                }
+                if (prefix < 0 || prefix > address.length * 8) {
+                    throw new IllegalArgumentException("Invalid prefix length in " + cidr);
+                }
+            }
+            return new Network(address, prefix);
+        }
+
+        boolean contains(InetAddress candidate) {
+            byte[] bytes = candidate.getAddress();
+            if (bytes.length != address.length) {
+                return false;
+            }
+            int whole = prefix / 8;
+            for (int i = 0; i < whole; i++) {
+                if (bytes[i] != address[i]) {
+                    return false;
+                }
+            }
+            int bits = prefix % 8;
+            if (bits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - bits) & 0xFF;
+            return (bytes[whole] & mask) == (address[whole] & mask);
+        }
+    }
+}
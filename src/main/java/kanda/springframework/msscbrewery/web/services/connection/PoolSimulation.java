@@ -0,0 +1,254 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete-event simulation of application instances, each with a connection pool, sharing one
+ * database. A request waits (FIFO) for a connection of its instance, gives up after the
+ * connection timeout, and otherwise holds the connection while its query runs. The database runs
+ * up to {@code dbCapacity} queries at full speed; beyond that they share it equally (processor
+ * sharing), so queries slow down instead of queueing. Times are in milliseconds.
+ * <p>
+ * Processor sharing uses a virtual clock that advances at the per-query service rate: a query
+ * finishes when the clock passes its start reading plus its work, so the next completion is the
+ * head of a priority queue rather than a scan of every running query. The first tenth of the
+ * queries warm the system up and are not measured.
+ */
+final class PoolSimulation {
+
+    @FunctionalInterface
+    interface ServiceTime {
+        double sample(Random random);
+    }
+
+    /**
+     * {@code clientsPerInstance} clients thinking {@code thinkTimeMs} (exponential) between
+     * queries, or, when it is 0, queries arriving at {@code arrivalsPerMs} in total.
+     */
+    record Config(int instances, int poolSize, int clientsPerInstance, double thinkTimeMs, double arrivalsPerMs,
+                  double dbCapacity, double connectionTimeoutMs, int queries, long seed) {
+    }
+
+    /**
+     * Measured requests: sorted connection waits and query times of completed queries, sorted
+     * response times (wait plus query, or the timeout) of all requests, and time averages.
+     */
+    record Outcome(double[] waits, double[] queryTimes, double[] responseTimes, long timeouts, double elapsedMs,
+                   double connectionUtilization, double dbUtilization) {
+
+        double throughputPerSecond() {
+            return queryTimes.length / elapsedMs * 1000;
+        }
+
+        double timeoutRate() {
+            return responseTimes.length == 0 ? 0 : (double) timeouts / responseTimes.length;
+        }
+
+        static double percentile(double[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+
+        static double mean(double[] values) {
+            return values.length == 0 ? 0 : Arrays.stream(values).sum() / values.length;
+        }
+    }
+
+    private record Event(double time, int instance, int client) {
+    }
+
+    private record Waiter(double since, int client) {
+    }
+
+    private record Query(double finish, double start, double waited, int instance, int client) {
+    }
+
+    private final Config config;
+    private final ServiceTime serviceTime;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>((a, b) -> Double.compare(a.time, b.time));
+    private final PriorityQueue<Query> running = new PriorityQueue<>((a, b) -> Double.compare(a.finish, b.finish));
+    private final ArrayDeque<Waiter>[] waiting;
+    private final int[] free;
+
+    private double now;
+    private double virtualClock;
+    private int completed;
+    private boolean measuring;
+    private double measureStart;
+    private double busyArea;
+    private double dbArea;
+    private long timeouts;
+    private int busy;
+    private final DoubleList waits = new DoubleList();
+    private final DoubleList queryTimes = new DoubleList();
+    private final DoubleList responseTimes = new DoubleList();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private PoolSimulation(Config config, ServiceTime serviceTime) {
+        this.config = config;
+        this.serviceTime = serviceTime;
+        this.random = new Random(config.seed());
+        this.waiting = new ArrayDeque[config.instances()];
+        this.free = new int[config.instances()];
+        for (int i = 0; i < config.instances(); i++) {
+            waiting[i] = new ArrayDeque<>();
+            free[i] = config.poolSize();
+        }
+    }
+
+    static Outcome run(Config config, ServiceTime serviceTime) {
+        return new PoolSimulation(config, serviceTime).run();
+    }
+
+    private Outcome run() {
+        boolean closed = config.clientsPerInstance() > 0;
+        if (closed) {
+            for (int instance = 0; instance < config.instances(); instance++) {
+                for (int client = 0; client < config.clientsPerInstance(); client++) {
+                    events.add(new Event(think(), instance, client));
+                }
+            }
+        } else {
+            events.add(new Event(exponential(1 / config.arrivalsPerMs()), random.nextInt(config.instances()), -1));
+        }
+        int warmup = config.queries() / 10;
+        int target = warmup + config.queries();
+
+        while (completed < target) {
+            double nextEvent = events.isEmpty() ? Double.POSITIVE_INFINITY : events.peek().time;
+            double nextCompletion = running.isEmpty() ? Double.POSITIVE_INFINITY
+                    : now + (running.peek().finish - virtualClock) / rate();
+            if (nextEvent == Double.POSITIVE_INFINITY && nextCompletion == Double.POSITIVE_INFINITY) {
+                break;
+            }
+            if (nextCompletion <= nextEvent) {
+                advance(nextCompletion);
+                complete(running.poll(), closed);
+                if (!measuring && completed >= warmup) {
+                    measuring = true;
+                    measureStart = now;
+                }
+            } else {
+                advance(nextEvent);
+                Event event = events.poll();
+                if (!closed) {
+                    events.add(new Event(now + exponential(1 / config.arrivalsPerMs()), random.nextInt(config.instances()), -1));
+                }
+                request(event.instance(), event.client());
+            }
+        }
+
+        double elapsed = Math.max(now - measureStart, 1e-9);
+        return new Outcome(waits.sorted(), queryTimes.sorted(), responseTimes.sorted(), timeouts, elapsed,
+                busyArea / elapsed / ((double) config.poolSize() * config.instances()), dbArea / elapsed);
+    }
+
+    private void request(int instance, int client) {
+        if (free[instance] > 0) {
+            free[instance]--;
+            start(instance, client, 0);
+        } else {
+            waiting[instance].add(new Waiter(now, client));
+        }
+    }
+
+    private void complete(Query query, boolean closed) {
+        completed++;
+        if (measuring) {
+            queryTimes.add(now - query.start());
+            responseTimes.add(query.waited() + now - query.start());
+        }
+        if (closed) {
+            events.add(new Event(now + think(), query.instance(), query.client()));
+        }
+        // Hand the connection to the first waiter that has not given up yet
+        ArrayDeque<Waiter> queue = waiting[query.instance()];
+        while (!queue.isEmpty()) {
+            Waiter waiter = queue.poll();
+            double waited = now - waiter.since();
+            if (waited <= config.connectionTimeoutMs()) {
+                start(query.instance(), waiter.client(), waited);
+                busy--;
+                return;
+            }
+            timedOut(query.instance(), waiter, closed);
+        }
+        free[query.instance()]++;
+        busy--;
+    }
+
+    /**
+     * A waiter found to have given up. Give-ups are noticed when a connection is released, so a
+     * client that timed out starts thinking about its next query from then.
+     */
+    private void timedOut(int instance, Waiter waiter, boolean closed) {
+        if (measuring) {
+            timeouts++;
+            responseTimes.add(config.connectionTimeoutMs());
+        }
+        if (closed) {
+            events.add(new Event(now + think(), instance, waiter.client()));
+        }
+    }
+
+    private void start(int instance, int client, double wait) {
+        busy++;
+        if (measuring) {
+            waits.add(wait);
+        }
+        running.add(new Query(virtualClock + serviceTime.sample(random), now, wait, instance, client));
+    }
+
+    private void advance(double time) {
+        double dt = time - now;
+        if (measuring) {
+            busyArea += busy * dt;
+            dbArea += Math.min(running.size(), config.dbCapacity()) / config.dbCapacity() * dt;
+        }
+        virtualClock += dt * rate();
+        now = time;
+    }
+
+    /**
+     * Speed of each running query: full speed up to the database capacity, an equal share beyond.
+     */
+    private double rate() {
+        int active = running.size();
+        return active <= config.dbCapacity() ? 1 : config.dbCapacity() / active;
+    }
+
+    private double think() {
+        return config.thinkTimeMs() > 0 ? exponential(config.thinkTimeMs()) : 0;
+    }
+
+    private double exponential(double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    /**
+     * Growable primitive array, to keep a million samples out of boxed lists.
+     */
+    private static final class DoubleList {
+        private double[] values = new double[1024];
+        private int size;
+
+        void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        double[] sorted() {
+            double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
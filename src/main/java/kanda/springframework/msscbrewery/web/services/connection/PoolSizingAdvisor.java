@@ -0,0 +1,364 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.PoolSizingRequest;
+import kanda.springframework.msscbrewery.web.model.PoolSizingResponse;
+import kanda.springframework.msscbrewery.web.model.PoolSizingResponse.PoolPrediction;
+import kanda.springframework.msscbrewery.web.services.connection.PoolSimulation.Outcome;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recommends HikariCP pool settings for a described workload.
+ * <p>
+ * Query times are modelled as log-normal, fitted to the given percentiles. The database runs
+ * {@code cores * 2 + effective spindles} queries at full speed (the HikariCP sizing formula) and
+ * slows them all down beyond that. Two models look at the pool of each application instance:
+ * <ul>
+ *   <li>Erlang C (M/M/c) gives the smallest stable size and the size whose p99 wait stays within
+ *   the median query time; it assumes exponential query times and an unlimited database, so it
+ *   is a reference point only.</li>
+ *   <li>A seeded discrete-event simulation ({@link PoolSimulation}) with the fitted distribution,
+ *   all instances sharing the database, and connection timeouts. The recommended size is the
+ *   smallest one whose p99 response time (connection wait plus query) is within 5% of the best
+ *   any size achieves: adding connections beyond it only moves the queue into the database.</li>
+ * </ul>
+ * Sizes are searched on a geometric grid and refined by bisection, all with the same seed so
+ * that sizes are compared on identical arrivals and query times.
+ */
+@Component
+public class PoolSizingAdvisor {
+
+    private static final double Z95 = 1.6448536;
+    private static final double Z99 = 2.3263479;
+    private static final double DEFAULT_SIGMA = 0.6;
+    private static final double KNEE_TOLERANCE = 1.05;
+    private static final int SEARCH_QUERIES = 20_000;
+    private static final int DEFAULT_QUERIES = 100_000;
+    private static final int MAX_QUERIES = 1_000_000;
+    private static final int MAX_POOL_SIZE = 500;
+    // Input caps: the simulation allocates per instance and seeds one event per client
+    private static final int MAX_CONCURRENCY = 10_000;
+    private static final int MAX_APP_INSTANCES = 1_000;
+    private static final int MAX_SIMULATED_CLIENTS = 100_000;
+    private static final int MAX_DB_CORES = 1_024;
+    private static final int MAX_EFFECTIVE_SPINDLES = 10_000;
+    private static final long HIKARI_CONNECTION_TIMEOUT = 30_000;
+    private static final long HIKARI_IDLE_TIMEOUT = 600_000;
+    private static final long HIKARI_MAX_LIFETIME = 1_800_000;
+
+    public PoolSizingResponse advise(PoolSizingRequest request) {
+        Workload workload = Workload.of(request);
+        List<String> notes = new ArrayList<>(workload.notes);
+
+        // Queueing model, per instance
+        double meanMs = workload.meanMs;
+        double arrivalsPerMs = workload.arrivalsPerMsPerInstance();
+        double offeredLoad = arrivalsPerMs * meanMs;
+        int stable = (int) Math.floor(offeredLoad) + 1;
+        Integer erlangSize = null;
+        for (int c = stable; c <= MAX_POOL_SIZE; c++) {
+            if (erlangWaitPercentile(c, arrivalsPerMs, meanMs, 0.99) <= workload.p50) {
+                erlangSize = c;
+                break;
+            }
+        }
+        int coresFormula = Math.max(1, (int) Math.floor(workload.dbCapacity / workload.instances));
+
+        // Simulated search for the knee of p99 response time
+        int maxSize = workload.closed() ? workload.concurrency : Math.min(MAX_POOL_SIZE,
+                Math.max(Math.max(2 * stable, 2 * coresFormula), 8));
+        Map<Integer, Double> response = new LinkedHashMap<>();
+        List<Integer> grid = grid(maxSize);
+        double best = Double.POSITIVE_INFINITY;
+        for (int size : grid) {
+            best = Math.min(best, response.computeIfAbsent(size, s -> responseP99(workload, s)));
+        }
+        double threshold = best * KNEE_TOLERANCE;
+        int knee = grid.stream().filter(s -> response.get(s) <= threshold).findFirst().orElse(maxSize);
+        int low = grid.stream().filter(s -> s < knee).reduce((a, b) -> b).orElse(0);
+        int high = knee;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (response.computeIfAbsent(mid, s -> responseP99(workload, s)) <= threshold) {
+                high = mid;
+            } else {
+                low = mid;
+            }
+        }
+        int recommended = high;
+
+        // Detailed predictions for the recommended size and the alternatives
+        Map<Integer, String> labels = new LinkedHashMap<>();
+        labels.put(recommended, "recommended");
+        Integer current = request.getConnection() != null ? request.getConnection().getMaxPoolSize() : null;
+        if (current != null && current > 0) {
+            labels.merge(current, "current", (a, b) -> a + ", " + b);
+        }
+        labels.merge(coresFormula, "cores formula", (a, b) -> a + ", " + b);
+        if (erlangSize != null) {
+            labels.merge(erlangSize, "erlang c", (a, b) -> a + ", " + b);
+        }
+        List<PoolPrediction> predictions = new ArrayList<>();
+        Outcome recommendedOutcome = null;
+        for (Map.Entry<Integer, String> entry : labels.entrySet()) {
+            Outcome outcome = simulate(workload, entry.getKey(), workload.queries);
+            if (entry.getKey() == recommended) {
+                recommendedOutcome = outcome;
+            }
+            predictions.add(prediction(entry.getValue(), entry.getKey(), outcome));
+        }
+
+        double totalLoad = offeredLoad * workload.instances;
+        if (totalLoad > workload.dbCapacity) {
+            notes.add(workload.closed()
+                    ? String.format("The clients would keep %.0f queries running but the database serves %.0f at full "
+                            + "speed: requests queue whatever the pool size, and a pool near the database capacity "
+                            + "keeps that queue in the pool instead of in the database", totalLoad, workload.dbCapacity)
+                    : String.format("Queries arrive faster (%.0f/s) than the database completes them (%.0f/s): waits "
+                            + "grow until connectionTimeout at any pool size, so the predictions only describe the "
+                            + "simulated period", workload.requestsPerSecond, workload.dbCapacity / meanMs * 1000));
+        }
+        if (recommendedOutcome.timeoutRate() > 0) {
+            notes.add(String.format("%.2f%% of requests still time out at the recommended size: the database "
+                    + "cannot keep up with this load, so a bigger pool will not help", 100 * recommendedOutcome.timeoutRate()));
+        }
+        if (recommended * workload.instances > workload.dbCapacity) {
+            notes.add(String.format("%d instances x %d connections exceed the database's %d-query capacity; "
+                            + "queries will slow down under peak load", workload.instances, recommended,
+                    (int) workload.dbCapacity));
+        }
+        if (current != null && current > 2 * recommended) {
+            notes.add("The current pool (" + current + ") is much larger than needed; the extra connections only "
+                    + "add database contention and memory");
+        }
+        notes.add("minimumIdle equals maximumPoolSize: a fixed-size pool avoids opening connections under load "
+                + "(idleTimeout then has no effect)");
+        notes.add("Set maxLifetime a few seconds below any idle-connection limit of the database or network");
+
+        long connectionTimeout = Math.min(HIKARI_CONNECTION_TIMEOUT, Math.max(250,
+                (long) Math.ceil(3 * Outcome.percentile(recommendedOutcome.responseTimes(), 0.999) / 100) * 100));
+        PoolSizingResponse.HikariSettings settings = PoolSizingResponse.HikariSettings.builder()
+                .maximumPoolSize(recommended)
+                .minimumIdle(recommended)
+                .connectionTimeoutMs(connectionTimeout)
+                .idleTimeoutMs(HIKARI_IDLE_TIMEOUT)
+                .maxLifetimeMs(HIKARI_MAX_LIFETIME)
+                .build();
+
+        ConnectionStringRequest connection = null;
+        if (request.getConnection() != null) {
+            connection = new ConnectionStringRequest();
+            BeanUtils.copyProperties(request.getConnection(), connection);
+            connection.setMinPoolSize(recommended);
+            connection.setMaxPoolSize(recommended);
+            connection.setIdleTimeout((int) HIKARI_IDLE_TIMEOUT);
+            connection.setMaxLifetime((int) HIKARI_MAX_LIFETIME);
+        }
+
+        return PoolSizingResponse.builder()
+                .settings(settings)
+                .connection(connection)
+                .workload(PoolSizingResponse.Workload.builder()
+                        .arrivalRatePerSecond(round(arrivalsPerMs * 1000))
+                        .meanLatencyMs(round(meanMs))
+                        .latencySigma(round(workload.sigma))
+                        .offeredLoad(round(offeredLoad))
+                        .dbCapacity(workload.dbCapacity)
+                        .build())
+                .queueingModel(PoolSizingResponse.QueueingModel.builder()
+                        .minimumStableSize(stable)
+                        .erlangCSize(erlangSize)
+                        .coresFormulaSize(coresFormula)
+                        .waitProbability(recommended > offeredLoad ? round(erlangC(recommended, offeredLoad)) : null)
+                        .waitP99Ms(recommended > offeredLoad
+                                ? round(erlangWaitPercentile(recommended, arrivalsPerMs, meanMs, 0.99)) : null)
+                        .build())
+                .predictions(predictions)
+                .notes(notes)
+                .build();
+    }
+
+    /**
+     * Erlang C: probability that a request waits, for {@code servers} servers and an offered
+     * load of {@code load} Erlangs (less than {@code servers}). Computed through the Erlang B
+     * recursion, which stays stable for large pools.
+     */
+    static double erlangC(int servers, double load) {
+        double b = 1;
+        for (int k = 1; k <= servers; k++) {
+            b = load * b / (k + load * b);
+        }
+        double rho = load / servers;
+        return b / (1 - rho * (1 - b));
+    }
+
+    /**
+     * M/M/c wait percentile: {@code P(W > t) = C * exp(-(c * mu - lambda) * t)}.
+     */
+    static double erlangWaitPercentile(int servers, double arrivalsPerMs, double meanMs, double p) {
+        double load = arrivalsPerMs * meanMs;
+        if (servers <= load) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double waitProbability = erlangC(servers, load);
+        if (waitProbability <= 1 - p) {
+            return 0;
+        }
+        return Math.log(waitProbability / (1 - p)) / (servers / meanMs - arrivalsPerMs);
+    }
+
+    private static double responseP99(Workload workload, int size) {
+        return Outcome.percentile(simulate(workload, size, SEARCH_QUERIES).responseTimes(), 0.99);
+    }
+
+    private static Outcome simulate(Workload workload, int size, int queries) {
+        double mu = Math.log(workload.p50);
+        double sigma = workload.sigma;
+        return PoolSimulation.run(new PoolSimulation.Config(workload.instances, size,
+                        workload.closed() ? workload.concurrency : 0, workload.thinkTimeMs,
+                        workload.closed() ? 0 : workload.requestsPerSecond / 1000, workload.dbCapacity,
+                        HIKARI_CONNECTION_TIMEOUT, queries, workload.seed),
+                random -> Math.exp(mu + sigma * random.nextGaussian()));
+    }
+
+    /**
+     * 1, 2, 3, 4, 6, 8, 12, 16, ... up to and including {@code max}.
+     */
+    private static List<Integer> grid(int max) {
+        List<Integer> grid = new ArrayList<>();
+        for (int power = 1; power <= max; power *= 2) {
+            grid.add(power);
+            int between = power + power / 2;
+            if (power >= 2 && between <= max) {
+                grid.add(between);
+            }
+        }
+        if (grid.get(grid.size() - 1) != max) {
+            grid.add(max);
+        }
+        return grid;
+    }
+
+    private static PoolPrediction prediction(String label, int size, Outcome outcome) {
+        return PoolPrediction.builder()
+                .label(label)
+                .poolSize(size)
+                .waitMeanMs(round(Outcome.mean(outcome.waits())))
+                .waitP50Ms(round(Outcome.percentile(outcome.waits(), 0.5)))
+                .waitP95Ms(round(Outcome.percentile(outcome.waits(), 0.95)))
+                .waitP99Ms(round(Outcome.percentile(outcome.waits(), 0.99)))
+                .waitP999Ms(round(Outcome.percentile(outcome.waits(), 0.999)))
+                .queryP99Ms(round(Outcome.percentile(outcome.queryTimes(), 0.99)))
+                .responseP99Ms(round(Outcome.percentile(outcome.responseTimes(), 0.99)))
+                .timeoutRate(round(outcome.timeoutRate() * 10000) / 10000)
+                .connectionUtilization(round(outcome.connectionUtilization()))
+                .dbUtilization(round(outcome.dbUtilization()))
+                .throughputPerSecond(round(outcome.throughputPerSecond()))
+                .build();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * The validated workload, with the log-normal fit of the query times.
+     */
+    private static final class Workload {
+        final int concurrency;
+        final double thinkTimeMs;
+        final double requestsPerSecond;
+        final double p50;
+        final double sigma;
+        final double meanMs;
+        final double dbCapacity;
+        final int instances;
+        final long seed;
+        final int queries;
+        final List<String> notes = new ArrayList<>();
+
+        private Workload(PoolSizingRequest request) {
+            if (request.getLatencyP50Ms() == null || request.getLatencyP50Ms() <= 0) {
+                throw new IllegalArgumentException("latencyP50Ms must be positive");
+            }
+            if (request.getDbCores() == null || request.getDbCores() <= 0) {
+                throw new IllegalArgumentException("dbCores must be positive");
+            }
+            boolean open = request.getRequestsPerSecond() != null;
+            if (open && request.getRequestsPerSecond() <= 0) {
+                throw new IllegalArgumentException("requestsPerSecond must be positive");
+            }
+            if (!open && (request.getConcurrency() == null || request.getConcurrency() <= 0)) {
+                throw new IllegalArgumentException("Either concurrency or requestsPerSecond is required");
+            }
+            if (!open && request.getConcurrency() > MAX_CONCURRENCY) {
+                throw new IllegalArgumentException("concurrency must be at most " + MAX_CONCURRENCY);
+            }
+            if (request.getAppInstances() != null && request.getAppInstances() > MAX_APP_INSTANCES) {
+                throw new IllegalArgumentException("appInstances must be at most " + MAX_APP_INSTANCES);
+            }
+            if (request.getDbCores() > MAX_DB_CORES) {
+                throw new IllegalArgumentException("dbCores must be at most " + MAX_DB_CORES);
+            }
+            if (request.getEffectiveSpindles() != null && request.getEffectiveSpindles() > MAX_EFFECTIVE_SPINDLES) {
+                throw new IllegalArgumentException("effectiveSpindles must be at most " + MAX_EFFECTIVE_SPINDLES);
+            }
+            concurrency = open ? 0 : request.getConcurrency();
+            requestsPerSecond = open ? request.getRequestsPerSecond() : 0;
+            thinkTimeMs = request.getThinkTimeMs() != null ? Math.max(0, request.getThinkTimeMs()) : 0;
+            instances = request.getAppInstances() != null ? Math.max(1, request.getAppInstances()) : 1;
+            if ((long) concurrency * instances > MAX_SIMULATED_CLIENTS) {
+                throw new IllegalArgumentException("concurrency x appInstances must be at most " + MAX_SIMULATED_CLIENTS);
+            }
+            dbCapacity = 2.0 * request.getDbCores()
+                    + (request.getEffectiveSpindles() != null ? Math.max(0, request.getEffectiveSpindles()) : 0);
+            seed = request.getSeed() != null ? request.getSeed() : 42L;
+            queries = request.getSimulatedQueries() != null
+                    ? Math.max(SEARCH_QUERIES, Math.min(MAX_QUERIES, request.getSimulatedQueries())) : DEFAULT_QUERIES;
+
+            p50 = request.getLatencyP50Ms();
+            Double p95 = request.getLatencyP95Ms();
+            Double p99 = request.getLatencyP99Ms();
+            if ((p95 != null && p95 < p50) || (p99 != null && p99 < p50) || (p95 != null && p99 != null && p99 < p95)) {
+                throw new IllegalArgumentException("Latency percentiles must not decrease");
+            }
+            Double fromP95 = p95 != null && p95 > p50 ? Math.log(p95 / p50) / Z95 : null;
+            Double fromP99 = p99 != null && p99 > p50 ? Math.log(p99 / p50) / Z99 : null;
+            if (fromP95 != null && fromP99 != null) {
+                sigma = (fromP95 + fromP99) / 2;
+                if (fromP99 > 1.3 * fromP95) {
+                    notes.add("p99 is further out than a log-normal through p50 and p95 predicts; the tail is "
+                            + "heavier than modelled, so treat tail predictions as optimistic");
+                }
+            } else if (fromP95 != null || fromP99 != null) {
+                sigma = fromP95 != null ? fromP95 : fromP99;
+            } else {
+                sigma = DEFAULT_SIGMA;
+                notes.add("No latency tail given; assumed p95 of " + Math.round(p50 * Math.exp(DEFAULT_SIGMA * Z95) * 100) / 100.0
+                        + " ms (log-normal sigma " + DEFAULT_SIGMA + ")");
+            }
+            meanMs = Math.exp(Math.log(p50) + sigma * sigma / 2);
+        }
+
+        static Workload of(PoolSizingRequest request) {
+            return new Workload(request);
+        }
+
+        boolean closed() {
+            return concurrency > 0;
+        }
+
+        /**
+         * Arrival rate per instance; for clients, the rate they reach when never kept waiting.
+         */
+        double arrivalsPerMsPerInstance() {
+            return closed() ? concurrency / (thinkTimeMs + meanMs) : requestsPerSecond / 1000 / instances;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import java.io.IOException;
+
+/**
+ * A connection test that the server rejected or answered unexpectedly, with the phase it failed in.
+ */
+class ProbeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ProbeSession.Phase phase;
+
+    ProbeException(ProbeSession.Phase phase, String message) {
+        super(message);
+        this.phase = phase;
+    }
+
+    ProbeSession.Phase getPhase() {
+        return phase;
+    }
+}
@@ -0,0 +1,251 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One socket to the server under test, with a single deadline for the whole test: every connect,
+ * TLS handshake and read gets only the time that is left. Time is booked to the current
+ * {@link Phase}; {@link #enter} starts the next one.
+ */
+class ProbeSession implements Closeable {
+
+    enum Phase { DNS, TCP, TLS, HANDSHAKE, AUTH }
+
+    private static final SSLContext TRUST_ALL = trustAll();
+
+    private final long deadline;
+    private final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+    private Phase phase;
+    private long phaseStart;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private String tls;
+    private String serverVersion;
+    private String authMethod;
+    private final List<String> warnings = new ArrayList<>(0);
+
+    ProbeSession(long deadline) {
+        this.deadline = deadline;
+    }
+
+    void enter(Phase next) {
+        long now = System.nanoTime();
+        if (phase != null) {
+            nanos.merge(phase, now - phaseStart, Long::sum);
+        }
+        phase = next;
+        phaseStart = now;
+    }
+
+    Phase phase() {
+        return phase;
+    }
+
+    /**
+     * Time spent per phase so far, the current one included.
+     */
+    Map<Phase, Long> timings() {
+        enter(phase);
+        return nanos;
+    }
+
+    String tls() {
+        return tls;
+    }
+
+    String serverVersion() {
+        return serverVersion;
+    }
+
+    void serverVersion(String serverVersion) {
+        this.serverVersion = serverVersion;
+    }
+
+    String authMethod() {
+        return authMethod;
+    }
+
+    void authMethod(String authMethod) {
+        this.authMethod = authMethod;
+    }
+
+    List<String> warnings() {
+        return warnings;
+    }
+
+    void warn(String warning) {
+        warnings.add(warning);
+    }
+
+    int remainingMillis() throws SocketTimeoutException {
+        long remaining = (deadline - System.nanoTime()) / 1_000_000;
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timed out");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    void connect(InetSocketAddress address) throws IOException {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address, remainingMillis());
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Wraps the connection in TLS and completes the handshake. With {@code verify}, the server
+     * certificate must chain to a trusted CA and match {@code host}; without, any certificate is
+     * accepted, as with libpq's {@code sslmode=require}.
+     */
+    void startTls(String host, int port, boolean verify) throws IOException {
+        enter(Phase.TLS);
+        SSLContext context;
+        try {
+            context = verify ? SSLContext.getDefault() : TRUST_ALL;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, host, port, true);
+        if (verify) {
+            SSLParameters parameters = ssl.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            ssl.setSSLParameters(parameters);
+        }
+        ssl.setSoTimeout(remainingMillis());
+        ssl.startHandshake();
+        tls = ssl.getSession().getProtocol() + " " + ssl.getSession().getCipherSuite();
+        socket = ssl;
+        in = new BufferedInputStream(ssl.getInputStream());
+        out = new BufferedOutputStream(ssl.getOutputStream());
+    }
+
+    void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.flush();
+    }
+
+    int read() throws IOException {
+        socket.setSoTimeout(remainingMillis());
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed by server");
+        }
+        return b;
+    }
+
+    byte[] readFully(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            socket.setSoTimeout(remainingMillis());
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    int readInt() throws IOException {
+        byte[] b = readFully(4);
+        return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | (b[3] & 0xFF);
+    }
+
+    int readIntLittleEndian() throws IOException {
+        byte[] b = readFully(4);
+        return (b[3] & 0xFF) << 24 | (b[2] & 0xFF) << 16 | (b[1] & 0xFF) << 8 | (b[0] & 0xFF);
+    }
+
+    /**
+     * Everything up to the end of the stream, or the first {@code max} bytes.
+     */
+    byte[] readToEnd(int max) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (bytes.size() < max) {
+            socket.setSoTimeout(remainingMillis());
+            int n = in.read(buffer, 0, Math.min(buffer.length, max - bytes.size()));
+            if (n < 0) {
+                break;
+            }
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A CRLF-terminated line, without the terminator, of at most {@code max} characters.
+     */
+    String readLine(int max) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = read()) != '\n') {
+            if (line.size() >= max) {
+                throw new ProbeException(phase, "Response line too long");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing left to clean up
+            }
+        }
+    }
+
+    private static SSLContext trustAll() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,730 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.SslMode;
+import kanda.springframework.msscbrewery.web.services.connection.ProbeSession.Phase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The opening exchange of each wire protocol, far enough to prove the server is what it claims
+ * and, when credentials are given, that they are accepted: PostgreSQL startup (with SSLRequest,
+ * cleartext, MD5 and SCRAM-SHA-256), the MySQL/MariaDB greeting (with SSL,
+ * mysql_native_password and the caching_sha2_password fast path), Redis PING/AUTH/INFO, MongoDB
+ * hello/buildInfo (with SCRAM-SHA-256 and SCRAM-SHA-1) and an HTTP GET for Elasticsearch. Each
+ * ends the session politely (Terminate, COM_QUIT, QUIT) and runs no queries.
+ */
+final class ProtocolHandshakes {
+
+    private static final String APPLICATION_NAME = "connection-tester";
+    private static final int MAX_MESSAGE = 1 << 20;
+    private static final Pattern ES_VERSION = Pattern.compile("\"number\"\\s*:\\s*\"([^\"]+)\"");
+
+    private ProtocolHandshakes() {
+    }
+
+    /**
+     * Whether the request asks for TLS at all ({@code sslmode} other than disable, or
+     * {@code useEncryption}).
+     */
+    static boolean wantsTls(ConnectionStringRequest request) {
+        return request.getSslMode() != null ? request.getSslMode() != SslMode.DISABLE
+                : Boolean.TRUE.equals(request.getUseEncryption());
+    }
+
+    /**
+     * Whether the connection must fail without TLS; {@code prefer} and {@code allow} fall back.
+     */
+    static boolean requiresTls(ConnectionStringRequest request) {
+        return request.getSslMode() != null
+                ? request.getSslMode().ordinal() >= SslMode.REQUIRE.ordinal()
+                : Boolean.TRUE.equals(request.getUseEncryption());
+    }
+
+    static boolean verifiesCertificate(ConnectionStringRequest request) {
+        return request.getSslMode() == SslMode.VERIFY_CA || request.getSslMode() == SslMode.VERIFY_FULL
+                || Boolean.TRUE.equals(request.getVerifyServerCertificate());
+    }
+
+    // --------------------------------------------------------------------------------------
+    // PostgreSQL (frontend/backend protocol 3.0)
+
+    static void postgres(ProbeSession session, ConnectionStringRequest request, String host, int port) throws IOException {
+        if (wantsTls(request)) {
+            session.enter(Phase.TLS);
+            session.write(new byte[]{0, 0, 0, 8, 0x04, (byte) 0xD2, 0x16, 0x2F});
+            int answer = session.read();
+            if (answer == 'S') {
+                session.startTls(host, port, verifiesCertificate(request));
+            } else if (requiresTls(request)) {
+                throw new ProbeException(Phase.TLS, "Server does not accept SSL connections");
+            } else {
+                session.warn("Server does not accept SSL connections; connected without encryption");
+            }
+        }
+        session.enter(Phase.HANDSHAKE);
+        String user = request.getUsername() != null ? request.getUsername() : "postgres";
+        Message startup = new Message(ByteOrder.BIG_ENDIAN).int32(196608).cstring("user").cstring(user);
+        if (request.getDatabase() != null) {
+            startup.cstring("database").cstring(request.getDatabase());
+        }
+        session.write(startup.cstring("application_name").cstring(APPLICATION_NAME).int8(0).withLength(-1));
+
+        Scram scram = null;
+        while (true) {
+            int type = session.read();
+            int length = session.readInt();
+            if (length < 4 || length > MAX_MESSAGE) {
+                throw new ProbeException(session.phase(), "Not a PostgreSQL server (unexpected reply)");
+            }
+            ByteBuffer body = ByteBuffer.wrap(session.readFully(length - 4));
+            switch (type) {
+                case 'R' -> {
+                    int code = body.getInt();
+                    switch (code) {
+                        case 0 -> {
+                            if (session.authMethod() == null) {
+                                session.authMethod("trust");
+                            }
+                        }
+                        case 3 -> {
+                            session.enter(Phase.AUTH);
+                            session.authMethod("password");
+                            session.write(new Message(ByteOrder.BIG_ENDIAN).cstring(password(request)).withLength('p'));
+                        }
+                        case 5 -> {
+                            session.enter(Phase.AUTH);
+                            session.authMethod("md5");
+                            byte[] salt = new byte[4];
+                            body.get(salt);
+                            String inner = hex(md5((password(request) + user).getBytes(StandardCharsets.UTF_8)));
+                            ByteArrayOutputStream outer = new ByteArrayOutputStream();
+                            outer.writeBytes(inner.getBytes(StandardCharsets.US_ASCII));
+                            outer.writeBytes(salt);
+                            session.write(new Message(ByteOrder.BIG_ENDIAN)
+                                    .cstring("md5" + hex(md5(outer.toByteArray()))).withLength('p'));
+                        }
+                        case 10 -> {
+                            session.enter(Phase.AUTH);
+                            List<String> mechanisms = new ArrayList<>();
+                            for (String mechanism = cstring(body); !mechanism.isEmpty(); mechanism = cstring(body)) {
+                                mechanisms.add(mechanism);
+                            }
+                            if (!mechanisms.contains("SCRAM-SHA-256")) {
+                                throw new ProbeException(Phase.AUTH, "Unsupported SASL mechanisms " + mechanisms);
+                            }
+                            session.authMethod("SCRAM-SHA-256");
+                            scram = new Scram("SHA-256", "", password(request));
+                            byte[] first = scram.clientFirst().getBytes(StandardCharsets.UTF_8);
+                            session.write(new Message(ByteOrder.BIG_ENDIAN).cstring("SCRAM-SHA-256")
+                                    .int32(first.length).bytes(first).withLength('p'));
+                        }
+                        case 11, 12 -> {
+                            if (scram == null) {
+                                throw new ProbeException(Phase.AUTH, "Unexpected SASL message");
+                            }
+                            String message = remaining(body);
+                            try {
+                                if (code == 11) {
+                                    session.write(new Message(ByteOrder.BIG_ENDIAN)
+                                            .bytes(scram.clientFinal(message).getBytes(StandardCharsets.UTF_8)).withLength('p'));
+                                } else {
+                                    scram.verifyServerFinal(message);
+                                }
+                            } catch (GeneralSecurityException e) {
+                                throw new ProbeException(Phase.AUTH, e.getMessage());
+                            }
+                        }
+                        default -> throw new ProbeException(Phase.AUTH, "Unsupported authentication request " + code);
+                    }
+                }
+                case 'E' -> {
+                    Map<Character, String> fields = new LinkedHashMap<>();
+                    for (int field = body.get(); field != 0; field = body.get()) {
+                        fields.put((char) field, cstring(body));
+                    }
+                    String code = fields.getOrDefault('C', "");
+                    throw new ProbeException(code.startsWith("28") ? Phase.AUTH : session.phase(),
+                            fields.getOrDefault('M', "Server error") + " (SQLSTATE " + code + ")");
+                }
+                case 'S' -> {
+                    if (cstring(body).equals("server_version")) {
+                        session.serverVersion("PostgreSQL " + cstring(body));
+                    }
+                }
+                case 'Z' -> {
+                    session.write(new Message(ByteOrder.BIG_ENDIAN).withLength('X'));
+                    return;
+                }
+                default -> {
+                    // BackendKeyData, NoticeResponse: nothing to check
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------------------
+    // MySQL / MariaDB (client/server protocol 10)
+
+    private static final int CLIENT_LONG_PASSWORD = 0x1;
+    private static final int CLIENT_CONNECT_WITH_DB = 0x8;
+    private static final int CLIENT_PROTOCOL_41 = 0x200;
+    private static final int CLIENT_SSL = 0x800;
+    private static final int CLIENT_SECURE_CONNECTION = 0x8000;
+    private static final int CLIENT_PLUGIN_AUTH = 0x80000;
+    private static final int UTF8MB4_GENERAL_CI = 45;
+
+    static void mysql(ProbeSession session, ConnectionStringRequest request, String host, int port) throws IOException {
+        session.enter(Phase.HANDSHAKE);
+        MySqlPackets packets = new MySqlPackets(session);
+        ByteBuffer greeting = ByteBuffer.wrap(packets.read()).order(ByteOrder.LITTLE_ENDIAN);
+        int protocol = greeting.get() & 0xFF;
+        if (protocol == 0xFF) {
+            throw mysqlError(session, greeting);
+        }
+        if (protocol != 10) {
+            throw new ProbeException(Phase.HANDSHAKE, "Not a MySQL server (protocol version " + protocol + ")");
+        }
+        String version = cstring(greeting);
+        session.serverVersion(version.startsWith("5.5.5-") ? version.substring(6) : version);
+        greeting.getInt();
+        byte[] scramble = new byte[20];
+        greeting.get(scramble, 0, 8);
+        greeting.get();
+        int capabilities = greeting.getShort() & 0xFFFF;
+        String plugin = "mysql_native_password";
+        if (greeting.remaining() >= 16) {
+            greeting.get();
+            greeting.getShort();
+            capabilities |= (greeting.getShort() & 0xFFFF) << 16;
+            int authDataLength = greeting.get() & 0xFF;
+            greeting.position(greeting.position() + 10);
+            int rest = Math.max(13, authDataLength - 8);
+            byte[] part2 = new byte[Math.min(rest, greeting.remaining())];
+            greeting.get(part2);
+            System.arraycopy(part2, 0, scramble, 8, Math.min(12, part2.length));
+            if ((capabilities & CLIENT_PLUGIN_AUTH) != 0 && greeting.hasRemaining()) {
+                plugin = cstring(greeting);
+            }
+        }
+
+        int flags = CLIENT_LONG_PASSWORD | CLIENT_PROTOCOL_41 | CLIENT_SECURE_CONNECTION | CLIENT_PLUGIN_AUTH;
+        if (request.getDatabase() != null) {
+            flags |= CLIENT_CONNECT_WITH_DB;
+        }
+        boolean tls = false;
+        if (wantsTls(request)) {
+            if ((capabilities & CLIENT_SSL) != 0) {
+                session.enter(Phase.TLS);
+                flags |= CLIENT_SSL;
+                packets.write(new Message(ByteOrder.LITTLE_ENDIAN).int32(flags).int32(1 << 24)
+                        .int8(UTF8MB4_GENERAL_CI).bytes(new byte[23]).array());
+                session.startTls(host, port, verifiesCertificate(request));
+                tls = true;
+            } else if (requiresTls(request)) {
+                throw new ProbeException(Phase.TLS, "Server does not accept SSL connections");
+            } else {
+                session.warn("Server does not accept SSL connections; connected without encryption");
+            }
+        }
+
+        session.enter(Phase.AUTH);
+        String password = request.getPassword() != null ? request.getPassword() : "";
+        byte[] response = mysqlScramble(plugin, password, scramble);
+        Message login = new Message(ByteOrder.LITTLE_ENDIAN).int32(flags).int32(1 << 24).int8(UTF8MB4_GENERAL_CI)
+                .bytes(new byte[23]).cstring(request.getUsername() != null ? request.getUsername() : "root")
+                .int8(response.length).bytes(response);
+        if (request.getDatabase() != null) {
+            login.cstring(request.getDatabase());
+        }
+        packets.write(login.cstring(plugin).array());
+
+        while (true) {
+            ByteBuffer reply = ByteBuffer.wrap(packets.read()).order(ByteOrder.LITTLE_ENDIAN);
+            int status = reply.get() & 0xFF;
+            if (status == 0x00) {
+                session.authMethod(plugin);
+                break;
+            }
+            if (status == 0xFF) {
+                throw mysqlError(session, reply);
+            }
+            if (status == 0xFE) {
+                plugin = cstring(reply);
+                byte[] data = new byte[Math.min(20, reply.remaining())];
+                reply.get(data);
+                packets.write(mysqlScramble(plugin, password, data));
+            } else if (status == 0x01 && reply.hasRemaining() && plugin.equals("caching_sha2_password")) {
+                int step = reply.get();
+                if (step == 4) {
+                    if (!tls) {
+                        throw new ProbeException(Phase.AUTH, "caching_sha2_password needs full authentication, "
+                                + "which this tester only does over TLS (useSSL=true)");
+                    }
+                    packets.write(new Message(ByteOrder.LITTLE_ENDIAN).cstring(password).array());
+                }
+            } else {
+                throw new ProbeException(Phase.AUTH, "Unexpected authentication reply 0x" + Integer.toHexString(status));
+            }
+        }
+        packets.reset();
+        packets.write(new byte[]{0x01});
+    }
+
+    private static ProbeException mysqlError(ProbeSession session, ByteBuffer error) {
+        int code = error.getShort() & 0xFFFF;
+        if (error.hasRemaining() && error.get(error.position()) == '#') {
+            error.position(Math.min(error.limit(), error.position() + 6));
+        }
+        return new ProbeException(code == 1045 || code == 1044 ? Phase.AUTH : session.phase(),
+                remaining(error) + " (error " + code + ")");
+    }
+
+    private static byte[] mysqlScramble(String plugin, String password, byte[] scramble) throws ProbeException {
+        if (password.isEmpty()) {
+            return new byte[0];
+        }
+        byte[] pw = password.getBytes(StandardCharsets.UTF_8);
+        try {
+            return switch (plugin) {
+                case "mysql_native_password" -> {
+                    MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                    byte[] stage1 = sha1.digest(pw);
+                    byte[] stage2 = sha1.digest(stage1);
+                    sha1.update(scramble, 0, 20);
+                    yield xor(stage1, sha1.digest(stage2));
+                }
+                case "caching_sha2_password" -> {
+                    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+                    byte[] stage1 = sha256.digest(pw);
+                    byte[] stage2 = sha256.digest(stage1);
+                    sha256.update(sha256.digest(stage2));
+                    sha256.update(scramble, 0, 20);
+                    yield xor(stage1, sha256.digest());
+                }
+                default -> throw new ProbeException(Phase.AUTH, "Unsupported authentication plugin " + plugin);
+            };
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * MySQL packets: 3-byte little-endian length and a sequence number that each side increments.
+     */
+    private static final class MySqlPackets {
+        private final ProbeSession session;
+        private int sequence;
+
+        MySqlPackets(ProbeSession session) {
+            this.session = session;
+        }
+
+        byte[] read() throws IOException {
+            byte[] header = session.readFully(4);
+            int length = (header[0] & 0xFF) | (header[1] & 0xFF) << 8 | (header[2] & 0xFF) << 16;
+            if (length > MAX_MESSAGE) {
+                throw new ProbeException(session.phase(), "Not a MySQL server (unexpected reply)");
+            }
+            sequence = (header[3] & 0xFF) + 1;
+            return session.readFully(length);
+        }
+
+        void write(byte[] payload) throws IOException {
+            byte[] packet = new byte[payload.length + 4];
+            packet[0] = (byte) payload.length;
+            packet[1] = (byte) (payload.length >> 8);
+            packet[2] = (byte) (payload.length >> 16);
+            packet[3] = (byte) sequence++;
+            System.arraycopy(payload, 0, packet, 4, payload.length);
+            session.write(packet);
+        }
+
+        /**
+         * Commands start a new sequence.
+         */
+        void reset() {
+            sequence = 0;
+        }
+    }
+
+    // --------------------------------------------------------------------------------------
+    // Redis (RESP)
+
+    static void redis(ProbeSession session, ConnectionStringRequest request, String host, int port) throws IOException {
+        if (Boolean.TRUE.equals(request.getUseEncryption())) {
+            session.startTls(host, port, verifiesCertificate(request));
+        }
+        session.enter(Phase.HANDSHAKE);
+        session.write(resp("PING"));
+        String pong = session.readLine(4096);
+        boolean needsAuth = pong.startsWith("-NOAUTH") || pong.startsWith("-NOPERM");
+        if (!needsAuth && !pong.equals("+PONG")) {
+            throw new ProbeException(Phase.HANDSHAKE, pong.startsWith("-") ? pong.substring(1) : "Not a Redis server");
+        }
+        if (needsAuth && request.getPassword() == null) {
+            throw new ProbeException(Phase.AUTH, "Server requires a password");
+        }
+        if (request.getPassword() != null) {
+            session.enter(Phase.AUTH);
+            session.write(request.getUsername() != null
+                    ? resp("AUTH", request.getUsername(), request.getPassword())
+                    : resp("AUTH", request.getPassword()));
+            String reply = session.readLine(4096);
+            if (!reply.equals("+OK")) {
+                throw new ProbeException(Phase.AUTH, reply.startsWith("-") ? reply.substring(1) : reply);
+            }
+            session.authMethod(request.getUsername() != null ? "AUTH (ACL user)" : "AUTH");
+            session.enter(Phase.HANDSHAKE);
+        }
+        session.write(resp("INFO", "server"));
+        String header = session.readLine(4096);
+        if (header.startsWith("$")) {
+            int length = Integer.parseInt(header.substring(1));
+            if (length > 0 && length <= MAX_MESSAGE) {
+                String info = new String(session.readFully(length + 2), StandardCharsets.UTF_8);
+                for (String line : info.split("\r\n")) {
+                    if (line.startsWith("redis_version:")) {
+                        session.serverVersion("Redis " + line.substring(14));
+                    }
+                }
+            }
+        }
+        session.write(resp("QUIT"));
+    }
+
+    private static byte[] resp(String... command) {
+        StringBuilder out = new StringBuilder().append('*').append(command.length).append("\r\n");
+        for (String part : command) {
+            out.append('$').append(part.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(part).append("\r\n");
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // --------------------------------------------------------------------------------------
+    // MongoDB (OP_MSG)
+
+    static void mongo(ProbeSession session, ConnectionStringRequest request, String host, int port) throws IOException {
+        if (Boolean.TRUE.equals(request.getUseEncryption())) {
+            session.startTls(host, port, verifiesCertificate(request));
+        }
+        session.enter(Phase.HANDSHAKE);
+        String user = request.getUsername();
+        String authDb = request.getAuthSource() != null ? request.getAuthSource()
+                : request.getDatabase() != null ? request.getDatabase() : "admin";
+        Map<String, Object> hello = user != null
+                ? mongoCommand(session, "hello", 1, "saslSupportedMechs", authDb + "." + user, "$db", "admin")
+                : mongoCommand(session, "hello", 1, "$db", "admin");
+        Map<String, Object> buildInfo = mongoCommand(session, "buildInfo", 1, "$db", "admin");
+        session.serverVersion("MongoDB " + buildInfo.get("version"));
+        if (user == null || request.getPassword() == null) {
+            return;
+        }
+
+        session.enter(Phase.AUTH);
+        String mechanism = request.getAuthMechanism();
+        if (mechanism == null) {
+            Object supported = hello.get("saslSupportedMechs");
+            mechanism = supported instanceof Map<?, ?> mechs && !mechs.containsValue("SCRAM-SHA-256")
+                    ? "SCRAM-SHA-1" : "SCRAM-SHA-256";
+        }
+        Scram scram = switch (mechanism) {
+            case "SCRAM-SHA-256" -> new Scram("SHA-256", user, request.getPassword());
+            case "SCRAM-SHA-1" -> new Scram("SHA-1", user,
+                    hex(md5((user + ":mongo:" + request.getPassword()).getBytes(StandardCharsets.UTF_8))));
+            default -> throw new ProbeException(Phase.AUTH, "Unsupported authentication mechanism " + mechanism);
+        };
+        session.authMethod(mechanism);
+        try {
+            Map<String, Object> reply = mongoCommand(session, "saslStart", 1, "mechanism", mechanism,
+                    "payload", scram.clientFirst().getBytes(StandardCharsets.UTF_8), "autoAuthorize", 1, "$db", authDb);
+            Object conversationId = reply.get("conversationId");
+            String serverFirst = new String((byte[]) reply.get("payload"), StandardCharsets.UTF_8);
+            reply = mongoCommand(session, "saslContinue", 1, "conversationId", conversationId,
+                    "payload", scram.clientFinal(serverFirst).getBytes(StandardCharsets.UTF_8), "$db", authDb);
+            scram.verifyServerFinal(new String((byte[]) reply.get("payload"), StandardCharsets.UTF_8));
+            while (!Boolean.TRUE.equals(reply.get("done"))) {
+                reply = mongoCommand(session, "saslContinue", 1, "conversationId", conversationId,
+                        "payload", new byte[0], "$db", authDb);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new ProbeException(Phase.AUTH, e.getMessage());
+        }
+    }
+
+    private static final AtomicInteger MONGO_REQUEST_ID = new AtomicInteger();
+
+    /**
+     * Sends one command as an OP_MSG and returns the reply document; {@code ok: 0} replies
+     * become a ProbeException.
+     */
+    private static Map<String, Object> mongoCommand(ProbeSession session, Object... keyValues) throws IOException {
+        byte[] document = Bson.document(keyValues);
+        Message message = new Message(ByteOrder.LITTLE_ENDIAN).int32(21 + document.length)
+                .int32(MONGO_REQUEST_ID.incrementAndGet()).int32(0).int32(2013).int32(0).int8(0).bytes(document);
+        session.write(message.array());
+        int length = session.readIntLittleEndian();
+        if (length < 21 || length > 48 * MAX_MESSAGE) {
+            throw new ProbeException(session.phase(), "Not a MongoDB server (unexpected reply)");
+        }
+        ByteBuffer reply = ByteBuffer.wrap(session.readFully(length - 4)).order(ByteOrder.LITTLE_ENDIAN);
+        if (reply.getInt(8) != 2013 || reply.get(16) != 0) {
+            throw new ProbeException(session.phase(), "Not a MongoDB server (unexpected reply)");
+        }
+        reply.position(17);
+        Map<String, Object> result = Bson.read(reply);
+        if (!(result.get("ok") instanceof Number ok) || ok.doubleValue() != 1.0) {
+            Object code = result.get("code");
+            throw new ProbeException(Integer.valueOf(18).equals(code) ? Phase.AUTH : session.phase(),
+                    result.getOrDefault("errmsg", "Command failed") + (code != null ? " (code " + code + ")" : ""));
+        }
+        return result;
+    }
+
+    // --------------------------------------------------------------------------------------
+    // HTTP (Elasticsearch)
+
+    static void http(ProbeSession session, ConnectionStringRequest request, String host, int port) throws IOException {
+        if (Boolean.TRUE.equals(request.getUseEncryption())) {
+            session.startTls(host, port, verifiesCertificate(request));
+        }
+        session.enter(request.getUsername() != null ? Phase.AUTH : Phase.HANDSHAKE);
+        StringBuilder get = new StringBuilder("GET / HTTP/1.1\r\nHost: ").append(host).append(':').append(port)
+                .append("\r\nUser-Agent: ").append(APPLICATION_NAME).append("\r\nAccept: application/json\r\n");
+        if (request.getUsername() != null) {
+            String credentials = request.getUsername() + ":" + (request.getPassword() != null ? request.getPassword() : "");
+            get.append("Authorization: Basic ")
+                    .append(Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8))).append("\r\n");
+            session.authMethod("basic");
+        }
+        session.write(get.append("Connection: close\r\n\r\n").toString().getBytes(StandardCharsets.UTF_8));
+        String status = session.readLine(8192);
+        String[] parts = status.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new ProbeException(session.phase(), "Not an HTTP server");
+        }
+        int code = Integer.parseInt(parts[1]);
+        if (code == 401 || code == 403) {
+            throw new ProbeException(Phase.AUTH, request.getUsername() != null ? "Credentials rejected (HTTP " + code + ")"
+                    : "Server requires credentials (HTTP " + code + ")");
+        }
+        if (code < 200 || code >= 300) {
+            throw new ProbeException(session.phase(), "HTTP " + status.substring(parts[0].length() + 1));
+        }
+        while (!session.readLine(8192).isEmpty()) {
+            // headers
+        }
+        Matcher version = ES_VERSION.matcher(new String(session.readToEnd(64 * 1024), StandardCharsets.UTF_8));
+        if (version.find()) {
+            session.serverVersion("Elasticsearch " + version.group(1));
+        }
+    }
+
+    // --------------------------------------------------------------------------------------
+    // Helpers
+
+    private static String password(ConnectionStringRequest request) throws ProbeException {
+        if (request.getPassword() == null) {
+            throw new ProbeException(Phase.AUTH, "Server requires a password");
+        }
+        return request.getPassword();
+    }
+
+    private static String cstring(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start;
+        while (end < buffer.limit() && buffer.get(end) != 0) {
+            end++;
+        }
+        String value = new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+        buffer.position(Math.min(buffer.limit(), end + 1));
+        return value;
+    }
+
+    private static String remaining(ByteBuffer buffer) {
+        return new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] md5(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static byte[] xor(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = (byte) (a[i] ^ b[i]);
+        }
+        return result;
+    }
+
+    /**
+     * A protocol message being assembled.
+     */
+    private static final class Message {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteOrder order;
+
+        Message(ByteOrder order) {
+            this.order = order;
+        }
+
+        Message int8(int value) {
+            out.write(value);
+            return this;
+        }
+
+        Message int32(int value) {
+            out.writeBytes(ByteBuffer.allocate(4).order(order).putInt(value).array());
+            return this;
+        }
+
+        Message cstring(String value) {
+            out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            out.write(0);
+            return this;
+        }
+
+        Message bytes(byte[] value) {
+            out.writeBytes(value);
+            return this;
+        }
+
+        byte[] array() {
+            return out.toByteArray();
+        }
+
+        /**
+         * PostgreSQL framing: the type byte ({@code -1} for the untyped startup message) and a
+         * length that counts itself.
+         */
+        byte[] withLength(int type) {
+            byte[] body = out.toByteArray();
+            ByteBuffer message = ByteBuffer.allocate(body.length + (type >= 0 ? 5 : 4));
+            if (type >= 0) {
+                message.put((byte) type);
+            }
+            return message.putInt(body.length + 4).put(body).array();
+        }
+    }
+
+    /**
+     * The subset of BSON the handshake commands use.
+     */
+    static final class Bson {
+
+        private Bson() {
+        }
+
+        /**
+         * A document from alternating keys and values (Integer, Long, Double, String, Boolean,
+         * byte[] as generic binary).
+         */
+        static byte[] document(Object... keyValues) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(new byte[4]);
+            for (int i = 0; i < keyValues.length; i += 2) {
+                Object value = keyValues[i + 1];
+                byte[] name = (keyValues[i] + "\0").getBytes(StandardCharsets.UTF_8);
+                ByteBuffer element = switch (value) {
+                    case Integer v -> ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(v);
+                    case Long v -> ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(v);
+                    case Double v -> ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(v);
+                    case Boolean v -> ByteBuffer.allocate(1).put((byte) (v ? 1 : 0));
+                    case String v -> {
+                        byte[] bytes = (v + "\0").getBytes(StandardCharsets.UTF_8);
+                        yield ByteBuffer.allocate(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).put(bytes);
+                    }
+                    case byte[] v -> ByteBuffer.allocate(5 + v.length).order(ByteOrder.LITTLE_ENDIAN).putInt(v.length).put((byte) 0).put(v);
+                    default -> throw new IllegalArgumentException("Unsupported BSON value " + value.getClass());
+                };
+                out.write(switch (value) {
+                    case Integer v -> 0x10;
+                    case Long v -> 0x12;
+                    case Double v -> 0x01;
+                    case Boolean v -> 0x08;
+                    case String v -> 0x02;
+                    default -> 0x05;
+                });
+                out.writeBytes(name);
+                out.writeBytes(element.array());
+            }
+            out.write(0);
+            byte[] document = out.toByteArray();
+            ByteBuffer.wrap(document).order(ByteOrder.LITTLE_ENDIAN).putInt(0, document.length);
+            return document;
+        }
+
+        /**
+         * Reads the document at the buffer's position; nested documents and arrays become maps.
+         */
+        static Map<String, Object> read(ByteBuffer buffer) throws IOException {
+            int start = buffer.position();
+            int end = start + buffer.getInt();
+            if (end > buffer.limit()) {
+                throw new IOException("Truncated BSON document");
+            }
+            Map<String, Object> document = new LinkedHashMap<>();
+            while (buffer.position() < end - 1) {
+                int type = buffer.get();
+                String name = cstring(buffer);
+                Object value = switch (type) {
+                    case 0x01 -> buffer.getDouble();
+                    case 0x02 -> {
+                        int length = buffer.getInt();
+                        String string = new String(buffer.array(), buffer.position(), length - 1, StandardCharsets.UTF_8);
+                        buffer.position(buffer.position() + length);
+                        yield string;
+                    }
+                    case 0x03, 0x04 -> read(buffer);
+                    case 0x05 -> {
+                        int length = buffer.getInt();
+                        buffer.get();
+                        byte[] bytes = new byte[length];
+                        buffer.get(bytes);
+                        yield bytes;
+                    }
+                    case 0x07 -> skip(buffer, 12);
+                    case 0x08 -> buffer.get() != 0;
+                    case 0x09, 0x11 -> skip(buffer, 8);
+                    case 0x0A -> null;
+                    case 0x10 -> buffer.getInt();
+                    case 0x12 -> buffer.getLong();
+                    case 0x13 -> skip(buffer, 16);
+                    default -> throw new IOException("Unsupported BSON type " + type);
+                };
+                document.put(name, value);
+            }
+            buffer.position(end);
+            return document;
+        }
+
+        private static Object skip(ByteBuffer buffer, int length) {
+            buffer.position(buffer.position() + length);
+            return null;
+        }
+    }
+}
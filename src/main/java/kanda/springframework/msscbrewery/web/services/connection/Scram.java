@@ -0,0 +1,116 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Client side of SCRAM (RFC 5802 / RFC 7677) without channel binding, as used by PostgreSQL and
+ * MongoDB. Passwords are used as given, without SASLprep.
+ */
+final class Scram {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String digest;
+    private final String hmac;
+    private final String clientFirstBare;
+    private final String nonce;
+    private final byte[] password;
+    private byte[] serverSignature;
+
+    /**
+     * @param digest {@code SHA-256} or {@code SHA-1}
+     */
+    Scram(String digest, String username, String password) {
+        this(digest, username, password, randomNonce());
+    }
+
+    Scram(String digest, String username, String password, String nonce) {
+        this.digest = digest;
+        this.hmac = "Hmac" + digest.replace("-", "");
+        this.password = password.getBytes(StandardCharsets.UTF_8);
+        this.nonce = nonce;
+        this.clientFirstBare = "n=" + username.replace("=", "=3D").replace(",", "=2C") + ",r=" + nonce;
+    }
+
+    String clientFirst() {
+        return "n,," + clientFirstBare;
+    }
+
+    String clientFinal(String serverFirst) throws GeneralSecurityException {
+        String serverNonce = attribute(serverFirst, 'r');
+        String salt = attribute(serverFirst, 's');
+        String iterations = attribute(serverFirst, 'i');
+        if (serverNonce == null || salt == null || iterations == null || !serverNonce.startsWith(nonce)) {
+            throw new GeneralSecurityException("Invalid SCRAM server-first message");
+        }
+        byte[] saltedPassword = hi(Base64.getDecoder().decode(salt), Integer.parseInt(iterations));
+        String withoutProof = "c=biws,r=" + serverNonce;
+        byte[] authMessage = (clientFirstBare + "," + serverFirst + "," + withoutProof).getBytes(StandardCharsets.UTF_8);
+        byte[] clientKey = hmac(saltedPassword, "Client Key".getBytes(StandardCharsets.US_ASCII));
+        byte[] storedKey = MessageDigest.getInstance(digest).digest(clientKey);
+        byte[] clientSignature = hmac(storedKey, authMessage);
+        byte[] proof = new byte[clientKey.length];
+        for (int i = 0; i < proof.length; i++) {
+            proof[i] = (byte) (clientKey[i] ^ clientSignature[i]);
+        }
+        serverSignature = hmac(hmac(saltedPassword, "Server Key".getBytes(StandardCharsets.US_ASCII)), authMessage);
+        return withoutProof + ",p=" + Base64.getEncoder().encodeToString(proof);
+    }
+
+    /**
+     * Checks the server's signature, proving it knows the password too.
+     */
+    void verifyServerFinal(String serverFinal) throws GeneralSecurityException {
+        String error = attribute(serverFinal, 'e');
+        if (error != null) {
+            throw new GeneralSecurityException("SCRAM authentication failed: " + error);
+        }
+        String verifier = attribute(serverFinal, 'v');
+        if (verifier == null || serverSignature == null
+                || !MessageDigest.isEqual(serverSignature, Base64.getDecoder().decode(verifier))) {
+            throw new GeneralSecurityException("SCRAM server signature does not match");
+        }
+    }
+
+    private static String randomNonce() {
+        byte[] random = new byte[18];
+        RANDOM.nextBytes(random);
+        return Base64.getEncoder().encodeToString(random);
+    }
+
+    private byte[] hi(byte[] salt, int iterations) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmac);
+        mac.init(new SecretKeySpec(password, hmac));
+        mac.update(salt);
+        byte[] u = mac.doFinal(new byte[]{0, 0, 0, 1});
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            u = mac.doFinal(u);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        return result;
+    }
+
+    private byte[] hmac(byte[] key, byte[] message) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(hmac);
+        mac.init(new SecretKeySpec(key, hmac));
+        return mac.doFinal(message);
+    }
+
+    private static String attribute(String message, char name) {
+        for (String part : message.split(",")) {
+            if (part.length() > 1 && part.charAt(0) == name && part.charAt(1) == '=') {
+                return part.substring(2);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package kanda.springframework.msscbrewery.web.services.gazetteer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Countries and major cities that are always resolvable, with or without a GeoNames dump, with
+ * their country codes, plus common abbreviations and former names.
+ */
+final class BuiltInPlaces {
+
+    // Name -> ISO 3166-1 alpha-2 code
+    static final Map<String, String> COUNTRIES = places(
+            "afghanistan", "AF", "albania", "AL", "algeria", "DZ", "argentina", "AR", "armenia", "AM", "australia", "AU", "austria", "AT", "azerbaijan", "AZ",
+            "bangladesh", "BD", "belarus", "BY", "belgium", "BE", "bolivia", "BO", "brazil", "BR", "bulgaria", "BG",
+            "cambodia", "KH", "cameroon", "CM", "canada", "CA", "chile", "CL", "china", "CN", "colombia", "CO", "croatia", "HR", "cuba", "CU", "cyprus", "CY", "czech republic", "CZ",
+            "denmark", "DK", "dominican republic", "DO", "ecuador", "EC", "egypt", "EG", "estonia", "EE", "ethiopia", "ET",
+            "finland", "FI", "france", "FR", "georgia", "GE", "germany", "DE", "ghana", "GH", "greece", "GR", "guatemala", "GT",
+            "haiti", "HT", "honduras", "HN", "hungary", "HU", "iceland", "IS", "india", "IN", "indonesia", "ID", "iran", "IR", "iraq", "IQ", "ireland", "IE", "israel", "IL", "italy", "IT",
+            "jamaica", "JM", "japan", "JP", "jordan", "JO", "kazakhstan", "KZ", "kenya", "KE", "kuwait", "KW",
+            "latvia", "LV", "lebanon", "LB", "libya", "LY", "lithuania", "LT", "luxembourg", "LU",
+            "madagascar", "MG", "malaysia", "MY", "maldives", "MV", "malta", "MT", "mexico", "MX", "moldova", "MD", "mongolia", "MN", "morocco", "MA",
+            "nepal", "NP", "netherlands", "NL", "new zealand", "NZ", "nicaragua", "NI", "nigeria", "NG", "norway", "NO",
+            "pakistan", "PK", "panama", "PA", "peru", "PE", "philippines", "PH", "poland", "PL", "portugal", "PT",
+            "qatar", "QA", "romania", "RO", "russia", "RU", "saudi arabia", "SA", "senegal", "SN", "serbia", "RS", "singapore", "SG", "slovakia", "SK", "slovenia", "SI",
+            "south africa", "ZA", "south korea", "KR", "spain", "ES", "sri lanka", "LK", "sweden", "SE", "switzerland", "CH",
+            "taiwan", "TW", "thailand", "TH", "tunisia", "TN", "turkey", "TR", "ukraine", "UA", "united arab emirates", "AE", "united kingdom", "GB", "united states", "US",
+            "uruguay", "UY", "uzbekistan", "UZ", "venezuela", "VE", "vietnam", "VN", "yemen", "YE", "zimbabwe", "ZW"
+    );
+
+    static final Map<String, String> CITIES = places(
+            "london", "GB", "paris", "FR", "berlin", "DE", "madrid", "ES", "rome", "IT", "amsterdam", "NL", "vienna", "AT", "prague", "CZ", "budapest", "HU", "warsaw", "PL",
+            "moscow", "RU", "istanbul", "TR", "athens", "GR", "stockholm", "SE", "oslo", "NO", "copenhagen", "DK", "helsinki", "FI", "dublin", "IE", "lisbon", "PT",
+            "tokyo", "JP", "beijing", "CN", "shanghai", "CN", "mumbai", "IN", "delhi", "IN", "bangalore", "IN", "chennai", "IN", "kolkata", "IN", "hyderabad", "IN", "pune", "IN",
+            "new york", "US", "los angeles", "US", "chicago", "US", "houston", "US", "philadelphia", "US", "phoenix", "US", "san antonio", "US", "san diego", "US", "dallas", "US", "san jose", "US",
+            "toronto", "CA", "vancouver", "CA", "montreal", "CA", "calgary", "CA", "ottawa", "CA", "sydney", "AU", "melbourne", "AU", "brisbane", "AU", "perth", "AU", "adelaide", "AU",
+            "cairo", "EG", "cape town", "ZA", "johannesburg", "ZA", "lagos", "NG", "nairobi", "KE", "casablanca", "MA", "tunis", "TN", "algiers", "DZ",
+            "bangkok", "TH", "jakarta", "ID", "manila", "PH", "kuala lumpur", "MY", "singapore", "SG", "ho chi minh city", "VN", "hanoi", "VN",
+            "seoul", "KR", "busan", "KR", "pyongyang", "KP", "taipei", "TW", "hong kong", "HK", "macau", "MO",
+            "riyadh", "SA", "jeddah", "SA", "mecca", "SA", "medina", "SA", "dubai", "AE", "abu dhabi", "AE", "doha", "QA", "kuwait city", "KW", "manama", "BH",
+            "tehran", "IR", "isfahan", "IR", "mashhad", "IR", "baghdad", "IQ", "basra", "IQ", "damascus", "SY", "aleppo", "SY", "beirut", "LB", "amman", "JO",
+            "karachi", "PK", "lahore", "PK", "islamabad", "PK", "dhaka", "BD", "chittagong", "BD", "kathmandu", "NP", "colombo", "LK", "male", "MV",
+            "mexico city", "MX", "guadalajara", "MX", "monterrey", "MX", "puebla", "MX", "tijuana", "MX", "leon", "MX", "juarez", "MX",
+            "sao paulo", "BR", "rio de janeiro", "BR", "brasilia", "BR", "salvador", "BR", "fortaleza", "BR", "belo horizonte", "BR",
+            "buenos aires", "AR", "cordoba", "AR", "rosario", "AR", "mendoza", "AR", "la plata", "AR", "santiago", "CL", "valparaiso", "CL",
+            "lima", "PE", "arequipa", "PE", "trujillo", "PE", "bogota", "CO", "medellin", "CO", "cali", "CO", "barranquilla", "CO",
+            "caracas", "VE", "maracaibo", "VE", "valencia", "VE", "barquisimeto", "VE", "quito", "EC", "guayaquil", "EC", "cuenca", "EC"
+    );
+
+    // Alias -> built-in name
+    static final Map<String, String> ALIASES = Map.ofEntries(
+            Map.entry("usa", "united states"),
+            Map.entry("us", "united states"),
+            Map.entry("united states of america", "united states"),
+            Map.entry("uk", "united kingdom"),
+            Map.entry("great britain", "united kingdom"),
+            Map.entry("uae", "united arab emirates"),
+            Map.entry("holland", "netherlands"),
+            Map.entry("czechia", "czech republic"),
+            Map.entry("turkiye", "turkey"),
+            Map.entry("korea", "south korea"),
+            Map.entry("nyc", "new york"),
+            Map.entry("new york city", "new york"),
+            Map.entry("la", "los angeles"),
+            Map.entry("new delhi", "delhi"),
+            Map.entry("bombay", "mumbai"),
+            Map.entry("calcutta", "kolkata"),
+            Map.entry("madras", "chennai"),
+            Map.entry("bengaluru", "bangalore"),
+            Map.entry("peking", "beijing"),
+            Map.entry("saigon", "ho chi minh city"),
+            Map.entry("hcmc", "ho chi minh city"),
+            Map.entry("rio", "rio de janeiro"),
+            Map.entry("cdmx", "mexico city"),
+            Map.entry("kl", "kuala lumpur"),
+            Map.entry("makkah", "mecca")
+    );
+
+    private BuiltInPlaces() {
+    }
+
+    private static Map<String, String> places(String... namesAndCodes) {
+        Map<String, String> places = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndCodes.length; i += 2) {
+            places.put(namesAndCodes[i], namesAndCodes[i + 1]);
+        }
+        return Collections.unmodifiableMap(places);
+    }
+}
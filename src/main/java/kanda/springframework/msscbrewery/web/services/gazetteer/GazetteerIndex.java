@@ -0,0 +1,637 @@
+package kanda.springframework.msscbrewery.web.services.gazetteer;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, compact lookup index over place names and aliases.
+ *
+ * Every name and alias is normalised to ASCII ({@code [a-z0-9 ]}) and stored once in a single
+ * sorted byte array, so exact and prefix lookups are binary searches without per-key objects.
+ * Fuzzy lookups use a trigram inverted index (posting lists of key ids) to find candidates, which
+ * are then checked with a bounded edit distance. The most populous places for one- and
+ * two-character prefixes are precomputed, since those ranges are too large to scan per keystroke.
+ */
+public final class GazetteerIndex {
+
+    /** Symbols of the normalised alphabet: space, a-z, 0-9. */
+    private static final int ALPHABET = 37;
+    private static final int SHORT_PREFIX_TOP = 10;
+    private static final int MAX_PREFIX_SCAN = 50_000;
+    private static final int MAX_FUZZY_CANDIDATES = 200;
+    /**
+     * Trigrams of the query one edit can destroy: three for a substitution or insertion, four for
+     * a transposition of adjacent characters ("dehli" / "delhi").
+     */
+    private static final int TRIGRAMS_PER_EDIT = 4;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    // Places
+    private final String[] ids;
+    private final String[] names;
+    private final String[] countryCodes;
+    private final long[] populations;
+
+    // Sorted keys: bytes of key i are keyBytes[keyOffsets[i] .. keyOffsets[i + 1])
+    private final byte[] keyBytes;
+    private final int[] keyOffsets;
+    private final int[] keyPlaces;
+    private final boolean[] keyIsAlias;
+
+    private final int[][] trigramPostings;
+    private final int[][] shortPrefixTop;
+
+    private GazetteerIndex(String[] ids, String[] names, String[] countryCodes, long[] populations,
+                           byte[] keyBytes, int[] keyOffsets, int[] keyPlaces, boolean[] keyIsAlias,
+                           int[][] trigramPostings, int[][] shortPrefixTop) {
+        this.ids = ids;
+        this.names = names;
+        this.countryCodes = countryCodes;
+        this.populations = populations;
+        this.keyBytes = keyBytes;
+        this.keyOffsets = keyOffsets;
+        this.keyPlaces = keyPlaces;
+        this.keyIsAlias = keyIsAlias;
+        this.trigramPostings = trigramPostings;
+        this.shortPrefixTop = shortPrefixTop;
+    }
+
+    /**
+     * A matching key: the place it belongs to, whether it matched through an alias, and the edit
+     * distance for fuzzy matches (0 otherwise).
+     */
+    public record Hit(int place, boolean alias, int distance) {
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Lowercases, strips diacritics and maps everything except {@code [a-z0-9]} to single spaces.
+     * Returns an empty string when nothing usable remains (e.g. non-Latin scripts).
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = isAscii(text) ? text
+                : MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            String mapped = mapChar(Character.toLowerCase(decomposed.charAt(i)));
+            if (mapped == null) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(mapped);
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String mapChar(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+            return String.valueOf(c);
+        }
+        return switch (c) {
+            case 'ß' -> "ss";
+            case 'æ' -> "ae";
+            case 'œ' -> "oe";
+            case 'ø' -> "o";
+            case 'ł' -> "l";
+            case 'đ', 'ð' -> "d";
+            case 'ı' -> "i";
+            case 'þ' -> "th";
+            default -> null;
+        };
+    }
+
+    public int placeCount() {
+        return ids.length;
+    }
+
+    public int keyCount() {
+        return keyPlaces.length;
+    }
+
+    public String id(int place) {
+        return ids[place];
+    }
+
+    public String name(int place) {
+        return names[place];
+    }
+
+    public String countryCode(int place) {
+        return countryCodes[place];
+    }
+
+    public long population(int place) {
+        return populations[place];
+    }
+
+    /**
+     * Places whose name or alias equals the normalised key, most populous first.
+     */
+    public List<Hit> exact(String key, String countryCode, int limit) {
+        byte[] query = key.getBytes(StandardCharsets.US_ASCII);
+        List<Hit> hits = new ArrayList<>();
+        for (int i = lowerBound(query); i < keyPlaces.length && compare(i, query, false) == 0; i++) {
+            if (matchesCountry(keyPlaces[i], countryCode) && !containsPlace(hits, keyPlaces[i])) {
+                hits.add(new Hit(keyPlaces[i], keyIsAlias[i], 0));
+                if (hits.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * The most populous places with a name or alias starting with the normalised prefix.
+     */
+    public List<Hit> prefix(String prefix, String countryCode, int limit) {
+        if (prefix.isEmpty()) {
+            return List.of();
+        }
+        if (countryCode == null && limit <= SHORT_PREFIX_TOP && prefix.length() <= 2) {
+            int code = shortPrefixCode(prefix);
+            if (code >= 0) {
+                List<Hit> hits = new ArrayList<>();
+                for (int place : shortPrefixTop[code]) {
+                    if (hits.size() == limit) {
+                        break;
+                    }
+                    hits.add(new Hit(place, false, 0));
+                }
+                return hits;
+            }
+        }
+
+        byte[] query = prefix.getBytes(StandardCharsets.US_ASCII);
+        int[] top = new int[limit];
+        boolean[] topAlias = new boolean[limit];
+        int topSize = 0;
+        int start = lowerBound(query);
+        int end = Math.min(keyPlaces.length, start + MAX_PREFIX_SCAN);
+        for (int i = start; i < end && compare(i, query, true) == 0; i++) {
+            int place = keyPlaces[i];
+            if (!matchesCountry(place, countryCode) || indexOf(top, topSize, place) >= 0) {
+                continue;
+            }
+            // Insertion into a small array ordered by population, descending
+            if (topSize < limit) {
+                topSize++;
+            } else if (populations[place] <= populations[top[limit - 1]]) {
+                continue;
+            }
+            int position = topSize - 1;
+            while (position > 0 && populations[top[position - 1]] < populations[place]) {
+                top[position] = top[position - 1];
+                topAlias[position] = topAlias[position - 1];
+                position--;
+            }
+            top[position] = place;
+            topAlias[position] = keyIsAlias[i];
+        }
+        List<Hit> hits = new ArrayList<>(topSize);
+        for (int i = 0; i < topSize; i++) {
+            hits.add(new Hit(top[i], topAlias[i], 0));
+        }
+        return hits;
+    }
+
+    /**
+     * Places with a name or alias within {@code maxDistance} edits (insert, delete, substitute or
+     * transpose) of the normalised query, closest first, then most populous.
+     */
+    public List<Hit> fuzzy(String query, String countryCode, int maxDistance, int limit) {
+        if (query.isEmpty() || maxDistance <= 0) {
+            return List.of();
+        }
+        int[][] lists = Arrays.stream(trigrams(query))
+                .mapToObj(trigram -> trigramPostings[trigram])
+                .sorted(Comparator.comparingInt(postings -> postings.length))
+                .toArray(int[][]::new);
+        // An edit removes at most TRIGRAMS_PER_EDIT of the query's trigrams, so a match shares at
+        // least minShared of them. When that bound drops to zero (short queries), a match may share
+        // none and the candidates are every key of a compatible length instead.
+        int minShared = lists.length - TRIGRAMS_PER_EDIT * maxDistance;
+        int[] candidates = minShared > 0 ? trigramCandidates(lists, minShared) : lengthCandidates(query.length(), maxDistance);
+
+        List<Hit> hits = new ArrayList<>();
+        for (int key : candidates) {
+            int place = keyPlaces[key];
+            if (!matchesCountry(place, countryCode)) {
+                continue;
+            }
+            int distance = editDistance(query, keyString(key), maxDistance);
+            if (distance <= maxDistance) {
+                hits.add(new Hit(place, keyIsAlias[key], distance));
+            }
+        }
+        hits.sort((a, b) -> a.distance() != b.distance()
+                ? Integer.compare(a.distance(), b.distance())
+                : Long.compare(populations[b.place()], populations[a.place()]));
+        List<Hit> distinct = new ArrayList<>(Math.min(limit, hits.size()));
+        for (Hit hit : hits) {
+            if (!containsPlace(distinct, hit.place())) {
+                distinct.add(hit);
+                if (distinct.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Keys sharing at least {@code minShared} trigrams with the query, probing only the
+     * {@code lists - minShared + 1} shortest posting lists and looking keys up in the rest.
+     */
+    private static int[] trigramCandidates(int[][] lists, int minShared) {
+        int probeLists = lists.length - minShared + 1;
+        int probeSize = 0;
+        for (int i = 0; i < probeLists; i++) {
+            probeSize += lists[i].length;
+        }
+        int[] probed = new int[probeSize];
+        int offset = 0;
+        for (int i = 0; i < probeLists; i++) {
+            System.arraycopy(lists[i], 0, probed, offset, lists[i].length);
+            offset += lists[i].length;
+        }
+        Arrays.sort(probed);
+
+        // Count each probed key's occurrences, then look it up in the remaining (sorted) lists
+        int[] candidateKeys = new int[probeSize];
+        int[] candidateShared = new int[candidateKeys.length];
+        int candidateCount = 0;
+        for (int i = 0; i < probeSize; ) {
+            int key = probed[i];
+            int shared = 0;
+            while (i < probeSize && probed[i] == key) {
+                shared++;
+                i++;
+            }
+            for (int list = probeLists; list < lists.length && shared + lists.length - list >= minShared; list++) {
+                if (Arrays.binarySearch(lists[list], key) >= 0) {
+                    shared++;
+                }
+            }
+            if (shared >= minShared) {
+                candidateKeys[candidateCount] = key;
+                candidateShared[candidateCount] = shared;
+                candidateCount++;
+            }
+        }
+        return candidateCount <= MAX_FUZZY_CANDIDATES
+                ? Arrays.copyOf(candidateKeys, candidateCount)
+                : mostShared(candidateKeys, candidateShared, candidateCount);
+    }
+
+    /**
+     * Keys whose length is within {@code maxDistance} of the query's: a linear pass over the key
+     * offsets, used only for queries too short for the trigram bound.
+     */
+    private int[] lengthCandidates(int length, int maxDistance) {
+        int[] candidates = new int[keyPlaces.length];
+        int count = 0;
+        for (int key = 0; key < keyPlaces.length; key++) {
+            if (Math.abs(keyOffsets[key + 1] - keyOffsets[key] - length) <= maxDistance) {
+                candidates[count++] = key;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    private static int[] mostShared(int[] keys, int[] shared, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(shared[b], shared[a]));
+        int[] top = new int[MAX_FUZZY_CANDIDATES];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = keys[order[i]];
+        }
+        return top;
+    }
+
+    /**
+     * Approximate heap footprint of the index arrays, excluding the place name strings.
+     */
+    public long estimatedBytes() {
+        long bytes = keyBytes.length + 4L * keyOffsets.length + 4L * keyPlaces.length + keyIsAlias.length
+                + 8L * populations.length + 4L * 4 * ids.length;
+        for (int[] postings : trigramPostings) {
+            bytes += 16 + 4L * postings.length;
+        }
+        return bytes;
+    }
+
+    private boolean matchesCountry(int place, String countryCode) {
+        // A place without a country code never matches a qualified query
+        return countryCode == null || countryCode.equals(countryCodes[place]);
+    }
+
+    private static boolean containsPlace(List<Hit> hits, int place) {
+        for (Hit hit : hits) {
+            if (hit.place() == place) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lowerBound(byte[] query) {
+        int low = 0;
+        int high = keyPlaces.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, query, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares key {@code key} with {@code query}; with {@code prefixOnly} a key that starts with
+     * the query compares equal.
+     */
+    private int compare(int key, byte[] query, boolean prefixOnly) {
+        int start = keyOffsets[key];
+        int length = keyOffsets[key + 1] - start;
+        int common = Math.min(length, query.length);
+        for (int i = 0; i < common; i++) {
+            int diff = keyBytes[start + i] - query[i];
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        if (prefixOnly && length >= query.length) {
+            return 0;
+        }
+        return Integer.compare(length, query.length);
+    }
+
+    private String keyString(int key) {
+        return new String(keyBytes, keyOffsets[key], keyOffsets[key + 1] - keyOffsets[key], StandardCharsets.US_ASCII);
+    }
+
+    private static int symbol(char c) {
+        if (c == ' ') {
+            return 0;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return 1 + c - 'a';
+        }
+        return 27 + c - '0';
+    }
+
+    private static int shortPrefixCode(String prefix) {
+        if (prefix.length() == 1) {
+            return symbol(prefix.charAt(0));
+        }
+        return ALPHABET + symbol(prefix.charAt(0)) * ALPHABET + symbol(prefix.charAt(1));
+    }
+
+    /**
+     * Distinct trigram codes of the key padded with one space on each side.
+     */
+    private static int[] trigrams(String key) {
+        String padded = " " + key + " ";
+        int[] codes = new int[padded.length() - 2];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = (symbol(padded.charAt(i)) * ALPHABET + symbol(padded.charAt(i + 1))) * ALPHABET
+                    + symbol(padded.charAt(i + 2));
+        }
+        return Arrays.stream(codes).distinct().toArray();
+    }
+
+    /**
+     * Optimal string alignment distance, giving up once it exceeds {@code max}.
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Collects places and their keys; {@link #build()} sorts and packs them.
+     */
+    public static final class Builder {
+
+        private final List<String> ids = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<String> countryCodes = new ArrayList<>();
+        private final List<Long> populations = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private final List<int[]> keyRefs = new ArrayList<>(); // {place, alias ? 1 : 0}
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a place and indexes its name. Returns the place number used for aliases, or -1 when
+         * the name has no indexable characters.
+         */
+        public int addPlace(String id, String name, String countryCode, long population) {
+            String key = normalize(name);
+            if (key.isEmpty()) {
+                return -1;
+            }
+            int place = ids.size();
+            ids.add(id);
+            names.add(name);
+            countryCodes.add(countryCode == null || countryCode.isBlank() ? null
+                    : countryCode.toUpperCase(Locale.ROOT).intern());
+            populations.add(population);
+            keys.add(key);
+            keyRefs.add(new int[]{place, 0});
+            return place;
+        }
+
+        public void addAlias(int place, String alias) {
+            String key = normalize(alias);
+            if (!key.isEmpty()) {
+                keys.add(key);
+                keyRefs.add(new int[]{place, 1});
+            }
+        }
+
+        public int size() {
+            return ids.size();
+        }
+
+        public GazetteerIndex build() {
+            int placeCount = ids.size();
+            long[] populationArray = populations.stream().mapToLong(Long::longValue).toArray();
+
+            // Sort keys by text, then most populous place first; drop duplicate key/place pairs
+            Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int byKey = keys.get(a).compareTo(keys.get(b));
+                if (byKey != 0) {
+                    return byKey;
+                }
+                int byPopulation = Long.compare(populationArray[keyRefs.get(b)[0]], populationArray[keyRefs.get(a)[0]]);
+                return byPopulation != 0 ? byPopulation : Integer.compare(keyRefs.get(a)[1], keyRefs.get(b)[1]);
+            });
+
+            List<Integer> unique = new ArrayList<>(order.length);
+            int totalBytes = 0;
+            for (int i = 0; i < order.length; i++) {
+                int current = order[i];
+                if (i > 0) {
+                    int previous = order[i - 1];
+                    if (keys.get(current).equals(keys.get(previous)) && keyRefs.get(current)[0] == keyRefs.get(previous)[0]) {
+                        continue;
+                    }
+                }
+                unique.add(current);
+                totalBytes += keys.get(current).length();
+            }
+
+            int keyCount = unique.size();
+            byte[] keyBytes = new byte[totalBytes];
+            int[] keyOffsets = new int[keyCount + 1];
+            int[] keyPlaces = new int[keyCount];
+            boolean[] keyIsAlias = new boolean[keyCount];
+            int[] postingSizes = new int[ALPHABET * ALPHABET * ALPHABET];
+            int[][] keyTrigrams = new int[keyCount][];
+            int offset = 0;
+            for (int i = 0; i < keyCount; i++) {
+                String key = keys.get(unique.get(i));
+                byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(bytes, 0, keyBytes, offset, bytes.length);
+                keyOffsets[i] = offset;
+                offset += bytes.length;
+                keyPlaces[i] = keyRefs.get(unique.get(i))[0];
+                keyIsAlias[i] = keyRefs.get(unique.get(i))[1] == 1;
+                keyTrigrams[i] = trigrams(key);
+                for (int trigram : keyTrigrams[i]) {
+                    postingSizes[trigram]++;
+                }
+            }
+            keyOffsets[keyCount] = offset;
+
+            int[][] trigramPostings = new int[postingSizes.length][];
+            for (int trigram = 0; trigram < postingSizes.length; trigram++) {
+                trigramPostings[trigram] = new int[postingSizes[trigram]];
+                postingSizes[trigram] = 0;
+            }
+            for (int key = 0; key < keyCount; key++) {
+                for (int trigram : keyTrigrams[key]) {
+                    trigramPostings[trigram][postingSizes[trigram]++] = key;
+                }
+            }
+
+            int[][] shortPrefixTop = buildShortPrefixTop(keys, unique, keyPlaces, populationArray);
+
+            return new GazetteerIndex(ids.toArray(new String[0]), names.toArray(new String[0]),
+                    countryCodes.toArray(new String[0]), populationArray,
+                    keyBytes, keyOffsets, keyPlaces, keyIsAlias, trigramPostings, shortPrefixTop);
+        }
+
+        private static int[][] buildShortPrefixTop(List<String> keys, List<Integer> unique, int[] keyPlaces,
+                                                   long[] populations) {
+            int codes = ALPHABET + ALPHABET * ALPHABET;
+            int[][] top = new int[codes][SHORT_PREFIX_TOP];
+            int[] sizes = new int[codes];
+            for (int i = 0; i < unique.size(); i++) {
+                String key = keys.get(unique.get(i));
+                offerTop(top, sizes, shortPrefixCode(key.substring(0, 1)), keyPlaces[i], populations);
+                if (key.length() > 1) {
+                    offerTop(top, sizes, shortPrefixCode(key.substring(0, 2)), keyPlaces[i], populations);
+                }
+            }
+            for (int code = 0; code < codes; code++) {
+                top[code] = Arrays.copyOf(top[code], sizes[code]);
+            }
+            return top;
+        }
+
+        /**
+         * Keeps the most populous distinct places per prefix code, ordered by population.
+         */
+        private static void offerTop(int[][] top, int[] sizes, int code, int place, long[] populations) {
+            int[] places = top[code];
+            int size = sizes[code];
+            if (indexOf(places, size, place) >= 0
+                    || (size == places.length && populations[place] <= populations[places[size - 1]])) {
+                return;
+            }
+            int position = size < places.length ? size++ : size - 1;
+            while (position > 0 && populations[places[position - 1]] < populations[place]) {
+                places[position] = places[position - 1];
+                position--;
+            }
+            places[position] = place;
+            sizes[code] = size;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package kanda.springframework.msscbrewery.web.services.gazetteer;
+
+import jakarta.annotation.PostConstruct;
+import kanda.springframework.msscbrewery.web.model.LocationMatch;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves free-text locations ("New Delhi", "NYC", "Sao Paulo, BR", "Dehli") to canonical places.
+ *
+ * The index always contains the built-in countries and cities. When {@code gazetteer.geonames.path}
+ * points to a GeoNames dump (tab-separated, e.g. cities15000.txt or allCountries.txt), its populated
+ * places and countries are added with their ASCII and alternate names as aliases. A trailing
+ * {@code ", XX"} or {@code ", Country"} restricts matches to that country.
+ */
+@Service
+@Slf4j
+public class GazetteerService {
+
+    private static final int MAX_SUGGESTIONS = 50;
+
+    private final String geonamesPath;
+    private final long minPopulation;
+    private final int maxAliases;
+    private final Map<String, String> countryCodesByName = new HashMap<>();
+
+    private volatile GazetteerIndex index;
+
+    public GazetteerService(@Value("${gazetteer.geonames.path:}") String geonamesPath,
+                            @Value("${gazetteer.geonames.min-population:0}") long minPopulation,
+                            @Value("${gazetteer.geonames.max-aliases:10}") int maxAliases) {
+        this.geonamesPath = geonamesPath;
+        this.minPopulation = minPopulation;
+        this.maxAliases = maxAliases;
+        for (String code : Locale.getISOCountries()) {
+            countryCodesByName.put(GazetteerIndex.normalize(Locale.of("", code).getDisplayCountry(Locale.ENGLISH)), code);
+        }
+        countryCodesByName.putAll(BuiltInPlaces.COUNTRIES);
+        BuiltInPlaces.ALIASES.forEach((alias, name) -> {
+            String code = countryCodesByName.get(name);
+            if (code != null) {
+                countryCodesByName.put(alias, code);
+            }
+        });
+    }
+
+    @PostConstruct
+    void buildIndex() {
+        long start = System.nanoTime();
+        GazetteerIndex.Builder builder = GazetteerIndex.builder();
+        addBuiltInPlaces(builder);
+        int builtIn = builder.size();
+
+        if (StringUtils.hasText(geonamesPath)) {
+            Path path = Path.of(geonamesPath);
+            try {
+                loadGeoNames(path, builder);
+            } catch (IOException e) {
+                log.error("Error reading GeoNames dump {}: {}", path, e.getMessage());
+            }
+        }
+
+        GazetteerIndex built = builder.build();
+        this.index = built;
+        log.info("Gazetteer index built in {} ms: {} places ({} built-in), {} keys, ~{} KB",
+                (System.nanoTime() - start) / 1_000_000, built.placeCount(), builtIn, built.keyCount(),
+                built.estimatedBytes() / 1024);
+    }
+
+    /**
+     * Best canonical match for a location: exact name or alias first, then the closest fuzzy match
+     * (reported with {@code matchType} "fuzzy" and its edit distance).
+     */
+    public Optional<LocationMatch> resolve(String location) {
+        Query query = parse(location);
+        if (query.key().isEmpty()) {
+            return Optional.empty();
+        }
+        GazetteerIndex current = index;
+        List<GazetteerIndex.Hit> hits = current.exact(query.key(), query.countryCode(), 1);
+        if (hits.isEmpty()) {
+            hits = current.fuzzy(query.key(), query.countryCode(), maxEdits(query.key()), 1);
+        }
+        return hits.stream().findFirst().map(hit -> toMatch(current, hit, hit.distance() > 0 ? "fuzzy" : null));
+    }
+
+    /**
+     * Typeahead suggestions: most populous places whose name or alias starts with the input,
+     * topped up with fuzzy matches when there are fewer than {@code limit}.
+     */
+    public List<LocationMatch> suggest(String input, int limit) {
+        Query query = parse(input);
+        int size = Math.max(1, Math.min(limit, MAX_SUGGESTIONS));
+        if (query.key().isEmpty()) {
+            return List.of();
+        }
+        GazetteerIndex current = index;
+        List<LocationMatch> matches = new ArrayList<>(size);
+        for (GazetteerIndex.Hit hit : current.prefix(query.key(), query.countryCode(), size)) {
+            matches.add(toMatch(current, hit, "prefix"));
+        }
+        if (matches.size() < size) {
+            for (GazetteerIndex.Hit hit : current.fuzzy(query.key(), query.countryCode(), maxEdits(query.key()), size)) {
+                String id = current.id(hit.place());
+                if (matches.size() < size && matches.stream().noneMatch(match -> match.getId().equals(id))) {
+                    matches.add(toMatch(current, hit, "fuzzy"));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private LocationMatch toMatch(GazetteerIndex current, GazetteerIndex.Hit hit, String matchType) {
+        return LocationMatch.builder()
+                .id(current.id(hit.place()))
+                .name(current.name(hit.place()))
+                .countryCode(current.countryCode(hit.place()))
+                .population(current.population(hit.place()))
+                .matchType(matchType != null ? matchType : hit.alias() ? "alias" : "exact")
+                .distance(hit.distance())
+                .build();
+    }
+
+    private static int maxEdits(String key) {
+        if (key.length() < 4) {
+            return 0;
+        }
+        return key.length() <= 7 ? 1 : key.length() <= 12 ? 2 : 3;
+    }
+
+    private record Query(String key, String countryCode) {
+    }
+
+    /**
+     * Splits an optional trailing country qualifier ("Sao Paulo, BR", "Paris, France").
+     */
+    private Query parse(String location) {
+        if (location == null) {
+            return new Query("", null);
+        }
+        int comma = location.lastIndexOf(',');
+        if (comma > 0) {
+            String qualifier = GazetteerIndex.normalize(location.substring(comma + 1));
+            String code = qualifier.length() == 2 ? qualifier.toUpperCase(Locale.ROOT) : countryCodesByName.get(qualifier);
+            if (code != null) {
+                return new Query(GazetteerIndex.normalize(location.substring(0, comma)), code);
+            }
+        }
+        return new Query(GazetteerIndex.normalize(location), null);
+    }
+
+    private void addBuiltInPlaces(GazetteerIndex.Builder builder) {
+        Map<String, Integer> places = new HashMap<>();
+        for (Map<String, String> names : List.of(BuiltInPlaces.COUNTRIES, BuiltInPlaces.CITIES)) {
+            names.forEach((name, countryCode) -> places.computeIfAbsent(name,
+                    key -> builder.addPlace("builtin:" + name.replace(' ', '-'), displayName(name), countryCode, 0)));
+        }
+        BuiltInPlaces.ALIASES.forEach((alias, name) -> builder.addAlias(places.get(name), alias));
+    }
+
+    private static String displayName(String name) {
+        return Arrays.stream(name.split(" "))
+                .map(StringUtils::capitalize)
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Reads populated places (feature class P) and countries (feature codes PCL*) from a GeoNames
+     * dump: geonameid, name, asciiname, alternatenames, ..., feature class (6), feature code (7),
+     * country code (8), ..., population (14).
+     */
+    private void loadGeoNames(Path path, GazetteerIndex.Builder builder) throws IOException {
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 15) {
+                    continue;
+                }
+                boolean populatedPlace = "P".equals(fields[6]);
+                boolean country = "A".equals(fields[6]) && fields[7].startsWith("PCL");
+                long population = parsePopulation(fields[14]);
+                if (!(populatedPlace || country) || population < minPopulation) {
+                    continue;
+                }
+                int place = builder.addPlace("geonames:" + fields[0], fields[1], fields[8], population);
+                if (place < 0) {
+                    continue;
+                }
+                builder.addAlias(place, fields[2]);
+                if (!fields[3].isEmpty()) {
+                    Arrays.stream(fields[3].split(","))
+                            .filter(alias -> alias.length() >= 2 && alias.length() <= 40)
+                            .filter(alias -> !GazetteerIndex.normalize(alias).isEmpty())
+                            .limit(maxAliases)
+                            .forEach(alias -> builder.addAlias(place, alias));
+                }
+                loaded++;
+            }
+        }
+        log.info("Loaded {} places from GeoNames dump {}", loaded, path);
+    }
+
+    private static long parsePopulation(String value) {
+        try {
+            return value.isEmpty() ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.web.model.ImageBatchEntry;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+
+import java.io.InputStream;
+import java.util.List;
+
+public interface BulkImageService {
+    /**
+     * Processes uploaded images and ZIP archives of images, emitting each result as soon as its
+     * metadata has been extracted and its sidecars written.
+     */
+    Flux<ImageBatchEntry> processFiles(List<MultipartFile> files);
+
+    /**
+     * Processes the images in a ZIP archive read from the given stream, entry by entry.
+     */
+    Flux<ImageBatchEntry> processZip(InputStream zip);
+}
@@ -0,0 +1,363 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.util.XxHash64;
+import kanda.springframework.msscbrewery.web.model.ImageBatchEntry;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import kanda.springframework.msscbrewery.web.model.ImageUploadResponse;
+import kanda.springframework.msscbrewery.web.services.ImageMetadataService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk image processing for whole shoots uploaded as many files or as ZIP archives.
+ *
+ * Each upload is read sequentially on its own virtual thread: every image (or ZIP entry) is
+ * staged to a temporary file and handed to a fixed pool of {@code image.bulk.workers} threads
+ * that extract its metadata. The XMP and text sidecars are then queued to the
+ * {@link SidecarWriter}, so the workers go straight back to parsing. At most {@code image.bulk.max-in-flight} files are
+ * staged at once across all uploads; when that limit is reached the reader waits, which in turn
+ * stops reading the request body. Results are emitted in completion order, and cancelling the
+ * returned {@link Flux} (e.g. the client disconnecting) stops reading further entries.
+ */
+@Service
+@Slf4j
+public class BulkImageServiceImpl implements BulkImageService, DisposableBean {
+
+    private static final Map<String, String> IMAGE_TYPES = Map.ofEntries(
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("png", "image/png"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("bmp", "image/bmp"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("tif", "image/tiff"),
+            Map.entry("tiff", "image/tiff"),
+            Map.entry("heic", "image/heic"),
+            Map.entry("heif", "image/heif"),
+            Map.entry("cr2", "image/x-canon-cr2"),
+            Map.entry("cr3", "image/x-canon-cr3"),
+            Map.entry("nef", "image/x-nikon-nef"),
+            Map.entry("arw", "image/x-sony-arw"),
+            Map.entry("dng", "image/x-adobe-dng"),
+            Map.entry("orf", "image/x-olympus-orf"),
+            Map.entry("rw2", "image/x-panasonic-rw2"),
+            Map.entry("raf", "image/x-fuji-raf"),
+            Map.entry("pef", "image/x-pentax-pef"));
+
+    private final ImageMetadataService imageMetadataService;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore inFlight;
+    private final Path stagingDir;
+    private final long maxEntrySize;
+
+    public BulkImageServiceImpl(ImageMetadataService imageMetadataService,
+                                @Value("${image.bulk.workers:0}") int workers,
+                                @Value("${image.bulk.max-in-flight:32}") int maxInFlight,
+                                @Value("${image.upload.staging-dir:${image.data-dir:${user.home}/.image-metadata}/staging}") String stagingDir,
+                                @Value("${image.bulk.max-entry-size:200MB}") DataSize maxEntrySize) {
+        this.imageMetadataService = imageMetadataService;
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        // The queue never holds more than maxInFlight tasks, since each task owns a permit
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "image-worker-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.inFlight = new Semaphore(maxInFlight);
+        this.stagingDir = Path.of(stagingDir);
+        this.maxEntrySize = maxEntrySize.toBytes();
+        log.info("Bulk image processing initialised: {} workers, {} files in flight", threads, maxInFlight);
+    }
+
+    @Override
+    public Flux<ImageBatchEntry> processFiles(List<MultipartFile> files) {
+        return process(batch -> {
+            for (MultipartFile file : files) {
+                if (batch.isCancelled()) {
+                    return;
+                }
+                String name = file.getOriginalFilename();
+                if (isZip(name, file.getContentType())) {
+                    try (InputStream inputStream = file.getInputStream()) {
+                        readZip(inputStream, batch);
+                    }
+                } else {
+                    batch.submit(name, contentType(name, file.getContentType()), file.getSize(), target -> {
+                        try (InputStream inputStream = file.getInputStream()) {
+                            return copy(inputStream, target);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    @Override
+    public Flux<ImageBatchEntry> processZip(InputStream zip) {
+        return process(batch -> readZip(zip, batch));
+    }
+
+    private void readZip(InputStream inputStream, Batch batch) throws IOException, InterruptedException {
+        ZipInputStream zip = new ZipInputStream(inputStream);
+        ZipEntry entry;
+        while (!batch.isCancelled() && (entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory() || isHidden(name)) {
+                continue;
+            }
+            batch.submit(name, contentType(name, null), entry.getSize(), target -> copy(zip, target));
+        }
+    }
+
+    private Flux<ImageBatchEntry> process(Ingest ingest) {
+        return Flux.create(sink -> {
+            Batch batch = new Batch(sink);
+            Thread reader = Thread.ofVirtual().name("image-ingest").start(() -> {
+                try {
+                    ingest.read(batch);
+                    batch.finish(null);
+                } catch (Exception e) {
+                    batch.finish(e);
+                }
+            });
+            sink.onDispose(() -> {
+                if (batch.cancel()) {
+                    reader.interrupt();
+                }
+            });
+        });
+    }
+
+    private void process(Batch batch, int index, String path, String mimeType, Path staged, String contentHash) {
+        String fileName = fileName(path);
+        ImageMetadataDto metadata;
+        try {
+            metadata = imageMetadataService.extractMetadata(staged, fileName, mimeType, contentHash);
+        } catch (Exception e) {
+            batch.emit(index, path, failure(fileName, "Error processing image: " + e.getMessage()));
+            return;
+        } finally {
+            deleteQuietly(staged);
+            inFlight.release();
+        }
+
+        imageMetadataService.generateSidecars(metadata)
+                .whenComplete((ignored, e) -> batch.emit(index, path, e == null
+                        ? success(fileName, metadata)
+                        : failure(fileName, "Error writing sidecar files: " + rootCause(e).getMessage())));
+    }
+
+    private ImageUploadResponse success(String fileName, ImageMetadataDto metadata) {
+        return ImageUploadResponse.builder()
+                .success(true)
+                .message("Image processed successfully")
+                .fileName(fileName)
+                .fileSize(metadata.getFileSize())
+                .metadata(metadata)
+                .xmpDownloadUrl("/api/v1/images/download/xmp/" + Path.of(metadata.getXmpFilePath()).getFileName())
+                .textDownloadUrl("/api/v1/images/download/text/" + Path.of(metadata.getTextFilePath()).getFileName())
+                .previewDownloadUrl(metadata.getPreviewFilePath() == null ? null
+                        : "/api/v1/images/download/preview/" + Path.of(metadata.getPreviewFilePath()).getFileName())
+                .thumbnailDownloadUrl(metadata.getThumbnailFilePath() == null ? null
+                        : "/api/v1/images/download/thumbnail/" + Path.of(metadata.getThumbnailFilePath()).getFileName())
+                .build();
+    }
+
+    private static ImageUploadResponse failure(String fileName, String message) {
+        return ImageUploadResponse.builder()
+                .success(false)
+                .fileName(fileName)
+                .message(message)
+                .build();
+    }
+
+    /**
+     * Copies one file to the staging file, hashing it on the way, and returns the content hash.
+     * Fails once the file exceeds the maximum entry size (the declared size is not trusted, and is
+     * often absent for streamed archives).
+     */
+    private String copy(InputStream inputStream, Path target) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(target)) {
+            return XxHash64.copy(inputStream, outputStream, maxEntrySize).toHex();
+        }
+    }
+
+    private static boolean isZip(String name, String contentType) {
+        return "application/zip".equals(contentType) || "application/x-zip-compressed".equals(contentType)
+                || (name != null && name.toLowerCase(Locale.ROOT).endsWith(".zip"));
+    }
+
+    /**
+     * macOS resource forks and dot-files that archivers add alongside the images.
+     */
+    private static boolean isHidden(String path) {
+        return path.startsWith("__MACOSX/") || fileName(path).startsWith(".");
+    }
+
+    private static String contentType(String name, String declared) {
+        if (declared != null && declared.startsWith("image/")) {
+            return declared;
+        }
+        if (name == null) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : IMAGE_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String fileName(String path) {
+        if (path == null) {
+            return "unnamed";
+        }
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(slash + 1);
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete staged file {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface Ingest {
+        void read(Batch batch) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Stager {
+        /**
+         * Writes the file to the target and returns its content hash.
+         */
+        String stage(Path target) throws IOException;
+    }
+
+    /**
+     * State of one upload: numbers the files as they are read, and completes the sink once reading
+     * has finished and every submitted file has been emitted.
+     */
+    private final class Batch {
+
+        private final FluxSink<ImageBatchEntry> sink;
+        private final AtomicInteger pending = new AtomicInteger(1); // the reader itself
+        private int nextIndex;
+        private volatile boolean cancelled;
+
+        Batch(FluxSink<ImageBatchEntry> sink) {
+            this.sink = sink;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        boolean cancel() {
+            boolean wasRunning = !cancelled;
+            cancelled = true;
+            return wasRunning;
+        }
+
+        /**
+         * Stages one file and queues it for extraction. Blocks while the in-flight limit is reached.
+         */
+        void submit(String path, String mimeType, long size, Stager stager) throws InterruptedException {
+            int index = nextIndex++;
+            String fileName = fileName(path);
+            if (mimeType == null) {
+                emitNow(index, path, failure(fileName, "Skipped: not a supported image file"));
+                return;
+            }
+            if (size > maxEntrySize) {
+                emitNow(index, path, failure(fileName, "Skipped: file exceeds the maximum size of " + maxEntrySize + " bytes"));
+                return;
+            }
+
+            inFlight.acquire();
+            Path staged;
+            try {
+                Files.createDirectories(stagingDir);
+                staged = Files.createTempFile(stagingDir, "bulk-", ".tmp");
+            } catch (IOException e) {
+                inFlight.release();
+                emitNow(index, path, failure(fileName, "Error staging file: " + e.getMessage()));
+                return;
+            }
+            String contentHash;
+            try {
+                contentHash = stager.stage(staged);
+            } catch (IOException e) {
+                deleteQuietly(staged);
+                inFlight.release();
+                emitNow(index, path, failure(fileName, "Error reading file: " + e.getMessage()));
+                return;
+            }
+
+            pending.incrementAndGet();
+            try {
+                workers.execute(() -> process(this, index, path, mimeType, staged, contentHash));
+            } catch (RejectedExecutionException e) {
+                deleteQuietly(staged);
+                inFlight.release();
+                emit(index, path, failure(fileName, "Error processing image: service is shutting down"));
+            }
+        }
+
+        private void emitNow(int index, String path, ImageUploadResponse result) {
+            sink.next(new ImageBatchEntry(index, path, result));
+        }
+
+        void emit(int index, String path, ImageUploadResponse result) {
+            emitNow(index, path, result);
+            if (pending.decrementAndGet() == 0) {
+                sink.complete();
+            }
+        }
+
+        void finish(Exception error) {
+            if (error != null && !cancelled) {
+                log.warn("Bulk image upload aborted after {} files: {}", nextIndex, error.getMessage());
+                emitNow(nextIndex, null, failure(null, "Upload aborted: " + error.getMessage()));
+            }
+            if (pending.decrementAndGet() == 0) {
+                sink.complete();
+            }
+        }
+    }
+}
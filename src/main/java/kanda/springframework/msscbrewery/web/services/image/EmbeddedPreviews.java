@@ -0,0 +1,373 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the JPEG images embedded in an image file, without decoding anything.
+ *
+ * Cameras store ready-made previews next to the main image: the EXIF thumbnail (IFD1) and, in
+ * JPEGs, the Multi-Picture Format (APP2 "MPF") large thumbnail; in TIFF-based RAW files (CR2,
+ * NEF, ARW, DNG, ORF, RW2), JPEG-compressed IFDs and SubIFDs and the RW2 JpgFromRaw tag; in RAF,
+ * the JPEG named in the header. Only baseline and progressive JPEGs are reported, which leaves out
+ * the lossless JPEG that some RAW formats use for the sensor data. Reading walks the markers and
+ * IFDs only, so on a memory-mapped file just the pages holding them are touched.
+ */
+public final class EmbeddedPreviews {
+
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+    private static final int TAG_SUB_IFDS = 0x014A;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    private static final int TAG_JPG_FROM_RAW = 0x002E;
+    private static final int TAG_MP_ENTRY = 0xB002;
+    private static final int MAX_IFDS = 64;
+    private static final byte[] RAF_MAGIC = "FUJIFILMCCD-RAW".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Format { JPEG, TIFF, RAF, OTHER }
+
+    /**
+     * An embedded JPEG: its byte range in the file and its dimensions.
+     */
+    public record Preview(int offset, int length, int width, int height) {
+        public int longSide() {
+            return Math.max(width, height);
+        }
+    }
+
+    /**
+     * What was found in a file: its container format, the EXIF orientation of the main image
+     * (1 when absent), the main image's dimensions for a JPEG (0 otherwise), and the embedded
+     * previews.
+     */
+    public record Result(Format format, int orientation, int width, int height, List<Preview> previews) {
+
+        /**
+         * The smallest preview with a long side of at least {@code size}, or null.
+         */
+        public Preview smallestAtLeast(int size) {
+            Preview best = null;
+            for (Preview preview : previews) {
+                if (preview.longSide() >= size && (best == null || preview.longSide() < best.longSide())) {
+                    best = preview;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * The largest preview, or null when there is none.
+         */
+        public Preview largest() {
+            Preview best = null;
+            for (Preview preview : previews) {
+                if (best == null || preview.longSide() > best.longSide()) {
+                    best = preview;
+                }
+            }
+            return best;
+        }
+    }
+
+    private EmbeddedPreviews() {
+    }
+
+    public static Result find(ByteBuffer file) {
+        ByteBuffer buffer = file.duplicate().order(ByteOrder.BIG_ENDIAN);
+        Scan scan = new Scan(buffer);
+        try {
+            if (buffer.limit() >= 4 && u16(buffer, 0) == 0xFFD8) {
+                scan.format = Format.JPEG;
+                scanJpeg(scan);
+            } else if (startsWith(buffer, 0, RAF_MAGIC)) {
+                scan.format = Format.RAF;
+                scanRaf(scan);
+            } else if (isTiffHeader(buffer, 0)) {
+                scan.format = Format.TIFF;
+                scanTiff(scan, 0, buffer.limit());
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | ArithmeticException e) {
+            // Truncated or corrupt structure: keep what was found before it
+        }
+        return new Result(scan.format, scan.orientation, scan.width, scan.height, scan.previews);
+    }
+
+    private static final class Scan {
+        final ByteBuffer buffer;
+        final List<Preview> previews = new ArrayList<>();
+        final Set<Integer> offsets = new HashSet<>();
+        Format format = Format.OTHER;
+        int orientation = 1;
+        int width;
+        int height;
+
+        Scan(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Records the JPEG at this range if it is one we can decode.
+         */
+        void candidate(long offset, long length) {
+            if (offset <= 0 || length < 4 || offset + length > buffer.limit() || !offsets.add((int) offset)) {
+                return;
+            }
+            int[] frame = frame(buffer, (int) offset, (int) (offset + length));
+            if (frame != null) {
+                previews.add(new Preview((int) offset, (int) length, frame[0], frame[1]));
+            }
+        }
+    }
+
+    /**
+     * JPEG segments up to the start of scan: the frame header of the main image, APP1 EXIF and
+     * APP2 MPF.
+     */
+    private static void scanJpeg(Scan scan) {
+        ByteBuffer buffer = scan.buffer;
+        int position = 2;
+        while (position + 4 <= buffer.limit()) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                return;
+            }
+            int marker = buffer.get(position + 1) & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                return;
+            }
+            int length = u16(buffer, position + 2);
+            int data = position + 4;
+            int end = position + 2 + length;
+            if (isFrameMarker(marker) && scan.width == 0) {
+                scan.height = u16(buffer, data + 1);
+                scan.width = u16(buffer, data + 3);
+            } else if (marker == 0xE1 && startsWith(buffer, data, "Exif\0\0".getBytes(StandardCharsets.US_ASCII))) {
+                scanTiff(scan, data + 6, end);
+            } else if (marker == 0xE2 && startsWith(buffer, data, "MPF\0".getBytes(StandardCharsets.US_ASCII))) {
+                scanMpf(scan, data + 4, end);
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * TIFF structure starting at {@code base}; offsets are relative to it. Follows the IFD chain
+     * and SubIFDs, collecting JPEG thumbnails and JPEG-compressed strips.
+     */
+    private static void scanTiff(Scan scan, int base, int end) {
+        if (!isTiffHeader(scan.buffer, base)) {
+            return;
+        }
+        ByteBuffer tiff = tiffView(scan.buffer, base, end);
+        Deque<Long> pending = new ArrayDeque<>();
+        Set<Long> visited = new HashSet<>();
+        pending.add(u32(tiff, 4));
+        boolean first = true;
+        while (!pending.isEmpty() && visited.size() < MAX_IFDS) {
+            long ifd = pending.poll();
+            if (ifd < 8 || ifd + 2 > tiff.limit() || !visited.add(ifd)) {
+                continue;
+            }
+            int entries = u16(tiff, (int) ifd);
+            long jpegOffset = -1;
+            long jpegLength = -1;
+            long stripOffset = -1;
+            long stripLength = -1;
+            long strips = 0;
+            int compression = 0;
+            for (int i = 0; i < entries; i++) {
+                int entry = (int) ifd + 2 + 12 * i;
+                int tag = u16(tiff, entry);
+                switch (tag) {
+                    case TAG_COMPRESSION -> compression = (int) value(tiff, entry);
+                    case TAG_ORIENTATION -> {
+                        if (first) {
+                            scan.orientation = (int) value(tiff, entry);
+                        }
+                    }
+                    case TAG_STRIP_OFFSETS -> {
+                        strips = u32(tiff, entry + 4);
+                        stripOffset = value(tiff, entry);
+                    }
+                    case TAG_STRIP_BYTE_COUNTS -> stripLength = value(tiff, entry);
+                    case TAG_JPEG_OFFSET -> jpegOffset = value(tiff, entry);
+                    case TAG_JPEG_LENGTH -> jpegLength = value(tiff, entry);
+                    case TAG_JPG_FROM_RAW -> scan.candidate(base + u32(tiff, entry + 8), u32(tiff, entry + 4));
+                    case TAG_SUB_IFDS -> {
+                        long count = u32(tiff, entry + 4);
+                        long values = count == 1 ? entry + 8 : u32(tiff, entry + 8);
+                        for (long j = 0; j < Math.min(count, MAX_IFDS); j++) {
+                            pending.add(u32(tiff, (int) (values + 4 * j)));
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+            if (jpegOffset > 0 && jpegLength > 0) {
+                scan.candidate(base + jpegOffset, jpegLength);
+            }
+            if ((compression == 6 || compression == 7) && strips == 1 && stripOffset > 0) {
+                scan.candidate(base + stripOffset, stripLength);
+            }
+            first = false;
+            int next = (int) ifd + 2 + 12 * entries;
+            if (next + 4 <= tiff.limit()) {
+                pending.add(u32(tiff, next));
+            }
+        }
+    }
+
+    /**
+     * Multi-Picture Format index: one 16-byte entry per image (attributes, size, offset relative
+     * to the MPF header). The first entry is the primary image itself.
+     */
+    private static void scanMpf(Scan scan, int base, int end) {
+        if (!isTiffHeader(scan.buffer, base)) {
+            return;
+        }
+        ByteBuffer tiff = tiffView(scan.buffer, base, end);
+        long ifd = u32(tiff, 4);
+        int entries = u16(tiff, (int) ifd);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd + 2 + 12 * i;
+            if (u16(tiff, entry) != TAG_MP_ENTRY) {
+                continue;
+            }
+            long count = u32(tiff, entry + 4) / 16;
+            long values = u32(tiff, entry + 8);
+            for (long j = 0; j < count; j++) {
+                int image = (int) (values + 16 * j);
+                long size = u32(tiff, image + 4);
+                long offset = u32(tiff, image + 8);
+                if (offset != 0) {
+                    scan.candidate(base + offset, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * RAF header: big-endian offset and length of the embedded JPEG at bytes 84 and 88.
+     */
+    private static void scanRaf(Scan scan) {
+        long offset = Integer.toUnsignedLong(scan.buffer.getInt(84));
+        long length = Integer.toUnsignedLong(scan.buffer.getInt(88));
+        scan.candidate(offset, length);
+        if (offset > 0 && offset + length <= scan.buffer.limit()) {
+            // The embedded JPEG carries the EXIF data, including the orientation
+            Scan exif = new Scan(scan.buffer.slice((int) offset, (int) length).order(ByteOrder.BIG_ENDIAN));
+            scanJpeg(exif);
+            scan.orientation = exif.orientation;
+        }
+    }
+
+    /**
+     * Width and height from the frame header of a baseline, extended or progressive JPEG in
+     * {@code [start, end)}; null for anything else.
+     */
+    private static int[] frame(ByteBuffer buffer, int start, int end) {
+        if (u16(buffer, start) != 0xFFD8) {
+            return null;
+        }
+        int position = start + 2;
+        while (position + 9 < end) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = buffer.get(position + 1) & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+                continue;
+            }
+            if (isFrameMarker(marker)) {
+                if (marker > 0xC2) {
+                    return null;
+                }
+                int height = u16(buffer, position + 5);
+                int width = u16(buffer, position + 7);
+                return width > 0 && height > 0 ? new int[]{width, height} : null;
+            }
+            if (marker == 0xDA || marker == 0xD9) {
+                return null;
+            }
+            position += 2 + u16(buffer, position + 2);
+        }
+        return null;
+    }
+
+    private static boolean isFrameMarker(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * "II" or "MM" followed by 42 in that byte order, or by the ORF ("RO", "RS") and RW2 (0x55)
+     * variants.
+     */
+    private static boolean isTiffHeader(ByteBuffer buffer, int base) {
+        if (base + 8 > buffer.limit()) {
+            return false;
+        }
+        int order = u16(buffer, base);
+        if (order != 0x4949 && order != 0x4D4D) {
+            return false;
+        }
+        int magic = order == 0x4949 ? Short.toUnsignedInt(Short.reverseBytes(buffer.getShort(base + 2))) : u16(buffer, base + 2);
+        return magic == 42 || magic == 0x4F52 || magic == 0x5352 || magic == 0x55;
+    }
+
+    private static ByteBuffer tiffView(ByteBuffer buffer, int base, int end) {
+        ByteOrder order = u16(buffer, base) == 0x4949 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        return buffer.slice(base, Math.min(end, buffer.limit()) - base).order(order);
+    }
+
+    /**
+     * First value of an IFD entry holding SHORT or LONG values (inline, or at the offset when
+     * they do not fit in four bytes).
+     */
+    private static long value(ByteBuffer tiff, int entry) {
+        int type = u16(tiff, entry + 2);
+        long count = u32(tiff, entry + 4);
+        if (type == 3) {
+            return count <= 2 ? u16(tiff, entry + 8) : u16(tiff, (int) u32(tiff, entry + 8));
+        }
+        return count <= 1 ? u32(tiff, entry + 8) : u32(tiff, (int) u32(tiff, entry + 8));
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return Short.toUnsignedInt(buffer.getShort(index));
+    }
+
+    private static long u32(ByteBuffer buffer, int index) {
+        return Integer.toUnsignedLong(buffer.getInt(index));
+    }
+
+    private static long u32(ByteBuffer buffer, long index) {
+        return u32(buffer, Math.toIntExact(index));
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int index, byte[] prefix) {
+        if (index + prefix.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(index + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
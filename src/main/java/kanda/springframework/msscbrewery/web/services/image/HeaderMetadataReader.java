@@ -0,0 +1,70 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.drew.imaging.FileType;
+import com.drew.imaging.FileTypeDetector;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.tiff.TiffMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.file.FileTypeDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reads image metadata without reading the image data.
+ *
+ * {@link ImageMetadataReader} chooses a reader by file type but, for TIFF-based files read from a
+ * stream, buffers every byte up to the furthest IFD it visits - for a RAW file whose IFDs or
+ * makernote sit after the sensor data that is the whole file, on the heap. Here:
+ * <ul>
+ *     <li>JPEG is read segment by segment and reading stops at the start of scan, so the
+ *     compressed image data is never read</li>
+ *     <li>TIFF and TIFF-based RAW (CR2, NEF, ARW, ORF, RW2, DNG) files are read a page at a time
+ *     through a {@link PagedFileReader}, so only the pages holding the header, IFDs and tag values
+ *     are read</li>
+ *     <li>everything else goes through {@link ImageMetadataReader}</li>
+ * </ul>
+ * The file is closed when this returns and can be deleted.
+ */
+public final class HeaderMetadataReader {
+
+    private static final Set<FileType> TIFF_TYPES = EnumSet.of(
+            FileType.Tiff, FileType.Cr2, FileType.Nef, FileType.Arw, FileType.Orf, FileType.Rw2);
+
+    private HeaderMetadataReader() {
+    }
+
+    /**
+     * Metadata of an image file, reading only the byte ranges that hold it.
+     */
+    public static Metadata readMetadata(Path file) throws ImageProcessingException, IOException {
+        FileType fileType;
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+            fileType = FileTypeDetector.detectFileType(inputStream);
+            if (!TIFF_TYPES.contains(fileType)) {
+                return read(inputStream, fileType, Files.size(file));
+            }
+        }
+        try (PagedFileReader reader = new PagedFileReader(file)) {
+            Metadata metadata = TiffMetadataReader.readMetadata(reader);
+            metadata.addDirectory(new FileTypeDirectory(fileType));
+            return metadata;
+        }
+    }
+
+    private static Metadata read(InputStream inputStream, FileType fileType, long length)
+            throws ImageProcessingException, IOException {
+        Metadata metadata = fileType == FileType.Jpeg
+                ? JpegMetadataReader.readMetadata(inputStream)
+                : ImageMetadataReader.readMetadata(inputStream, length, fileType);
+        metadata.addDirectory(new FileTypeDirectory(fileType));
+        return metadata;
+    }
+}
@@ -0,0 +1,1015 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogEntry;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogPage;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogQuery;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Catalog of processed images, queryable by camera, lens, exposure, capture date and location.
+ *
+ * Entries are keyed by content hash and held in memory column by column: make, model and lens
+ * are dictionary-encoded, with a list of rows per value; ISO, focal length, capture time,
+ * latitude and longitude are numeric columns, each with an index of its rows sorted by value. A
+ * query starts from its most selective indexed filter, checks the others against the columns, and
+ * keeps only the rows up to the requested page in a bounded heap, so results are never fully
+ * sorted.
+ *
+ * Rows are only appended (a repeated upload updates the name and processing time of its row).
+ * New rows go to an unsorted tail of each sorted index, which queries scan directly and which is
+ * merged into the sorted part once it grows past a fraction of the catalog. The rows of each file
+ * name are listed as well, for lookups by name. Every entry is also
+ * appended to a JSON lines file ({@code image.catalog.file}) that is replayed on startup and
+ * rewritten without superseded lines when they make up more than half of it.
+ */
+@Component
+@Slf4j
+public class ImageCatalog {
+
+    private static final String DOWNLOAD_URL = "/api/v1/images/download/";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MIN_TAIL = 4096;
+
+    private final ObjectReader entryReader;
+    private final ObjectWriter entryWriter;
+    private final Path file;
+    private final boolean enabled;
+    private final int maxPageSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private BufferedWriter journal;
+
+    // Columns, one slot per row
+    private int rows;
+    private long[] hash = new long[0];
+    private String[] fileName = new String[0];
+    private long[] fileSize = new long[0];
+    private int[] width = new int[0];
+    private int[] height = new int[0];
+    private double[] altitude = new double[0];
+    private long[] processed = new long[0];
+    private int[] mimeType = new int[0];
+    private int[] aperture = new int[0];
+    private int[] shutterSpeed = new int[0];
+    private int[] make = new int[0];
+    private int[] model = new int[0];
+    private int[] lens = new int[0];
+    private final Dictionary mimeTypes = new Dictionary(false);
+    private final Dictionary apertures = new Dictionary(false);
+    private final Dictionary shutterSpeeds = new Dictionary(false);
+    private final Dictionary makes = new Dictionary(true);
+    private final Dictionary models = new Dictionary(true);
+    private final Dictionary lenses = new Dictionary(true);
+    private final SortedColumn iso = new SortedColumn();
+    private final SortedColumn focalLength = new SortedColumn();
+    private final SortedColumn taken = new SortedColumn();
+    private final SortedColumn latitude = new SortedColumn();
+    private final SortedColumn longitude = new SortedColumn();
+    private final LongIntMap rowsByHash = new LongIntMap();
+    private final Map<String, IntList> rowsByFileName = new HashMap<>();
+
+    public ImageCatalog(ObjectMapper objectMapper,
+                        @Value("${image.catalog.enabled:true}") boolean enabled,
+                        @Value("${image.catalog.file:${image.data-dir:${user.home}/.image-metadata}/catalog/images.jsonl}") String file,
+                        @Value("${image.catalog.max-page-size:500}") int maxPageSize) {
+        this.entryReader = objectMapper.readerFor(ImageCatalogEntry.class);
+        this.entryWriter = objectMapper.copy()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .writerFor(ImageCatalogEntry.class);
+        this.enabled = enabled;
+        this.file = Path.of(file);
+        this.maxPageSize = maxPageSize;
+    }
+
+    @PostConstruct
+    void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            int lines = 0;
+            if (Files.exists(file)) {
+                lines = replay();
+                if (lines > 2 * rows && lines > MIN_TAIL) {
+                    compact();
+                }
+            }
+            journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log.info("Image catalog loaded: {} images from {} ({} lines)", rows, file, lines);
+        } catch (IOException e) {
+            log.error("Error loading image catalog from {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } catch (IOException e) {
+            log.warn("Error closing image catalog {}: {}", file, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a processed image, or updates the name and processing time of the row for its content.
+     */
+    public void add(ImageMetadataDto metadata) {
+        if (!enabled || metadata.getContentHash() == null) {
+            return;
+        }
+        ImageCatalogEntry entry = toEntry(metadata);
+        lock.writeLock().lock();
+        try {
+            put(entry);
+            iso.mergeIfNeeded(rows);
+            focalLength.mergeIfNeeded(rows);
+            taken.mergeIfNeeded(rows);
+            latitude.mergeIfNeeded(rows);
+            longitude.mergeIfNeeded(rows);
+            if (journal != null) {
+                journal.write(entryWriter.writeValueAsString(entry));
+                journal.newLine();
+                journal.flush();
+            }
+        } catch (IOException e) {
+            log.warn("Could not append {} to image catalog: {}", entry.getFileName(), e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Most recently processed image with this file name.
+     */
+    public Optional<ImageCatalogEntry> findByFileName(String name) {
+        lock.readLock().lock();
+        try {
+            IntList candidates = rowsByFileName.get(name);
+            if (candidates == null) {
+                return Optional.empty();
+            }
+            int latest = candidates.values[0];
+            for (int i = 1; i < candidates.size; i++) {
+                int row = candidates.values[i];
+                if (processed[row] >= processed[latest]) {
+                    latest = row;
+                }
+            }
+            return Optional.of(entry(latest));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of the images matching the query. Throws {@link IllegalArgumentException} for an
+     * invalid query.
+     */
+    public ImageCatalogPage query(ImageCatalogQuery query) {
+        long start = System.nanoTime();
+        int size = query.getSize() == null ? DEFAULT_PAGE_SIZE : query.getSize();
+        int page = query.getPage() == null ? 0 : query.getPage();
+        if (size < 1 || size > maxPageSize) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxPageSize);
+        }
+        if (page < 0 || (long) page * size + size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid page: " + page);
+        }
+        boolean descending = query.getDirection() == null || query.getDirection().equalsIgnoreCase("desc");
+        if (!descending && !query.getDirection().equalsIgnoreCase("asc")) {
+            throw new IllegalArgumentException("Direction must be asc or desc");
+        }
+        validate(query);
+
+        lock.readLock().lock();
+        try {
+            IntBinaryOperator order = order(query.getSort(), descending);
+            List<Filter> filters = filters(query);
+            int[] matches = filters == null ? new int[0] : matches(filters);
+            int offset = page * size;
+            int[] top = top(matches, offset + size, order, descending);
+            List<ImageCatalogEntry> items = new ArrayList<>(Math.max(0, Math.min(size, top.length - offset)));
+            for (int i = offset; i < top.length; i++) {
+                items.add(entry(top[i]));
+            }
+            return ImageCatalogPage.builder()
+                    .items(items)
+                    .page(page)
+                    .size(size)
+                    .total(matches.length)
+                    .elapsedMicros((System.nanoTime() - start) / 1000)
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void validate(ImageCatalogQuery query) {
+        checkRange("ISO", query.getMinIso(), query.getMaxIso());
+        checkRange("focal length", query.getMinFocalLength(), query.getMaxFocalLength());
+        checkRange("capture date", query.getTakenFrom(), query.getTakenTo());
+        checkRange("latitude", query.getMinLat(), query.getMaxLat());
+        checkCoordinate("minLat", query.getMinLat(), 90);
+        checkCoordinate("maxLat", query.getMaxLat(), 90);
+        checkCoordinate("minLon", query.getMinLon(), 180);
+        checkCoordinate("maxLon", query.getMaxLon(), 180);
+    }
+
+    private static <T extends Comparable<T>> void checkRange(String name, T min, T max) {
+        if (min != null && max != null && min.compareTo(max) > 0) {
+            throw new IllegalArgumentException("Empty " + name + " range: " + min + " > " + max);
+        }
+    }
+
+    private static void checkCoordinate(String name, Double value, double limit) {
+        if (value != null && !(Math.abs(value) <= limit)) {
+            throw new IllegalArgumentException(name + " must be between -" + (int) limit + " and " + (int) limit);
+        }
+    }
+
+    // Query execution
+
+    /**
+     * An indexed filter: an estimate of the rows it matches, those rows (in any order), and a test
+     * for a single row.
+     */
+    private interface Filter {
+        int estimate();
+
+        int[] candidates();
+
+        boolean test(int row);
+    }
+
+    /**
+     * Filters for the query, or null when one of them can match nothing (an unknown make, model
+     * or lens).
+     */
+    private List<Filter> filters(ImageCatalogQuery query) {
+        List<Filter> filters = new ArrayList<>();
+        if (!addEquals(filters, makes, make, query.getMake())
+                || !addEquals(filters, models, model, query.getModel())
+                || !addEquals(filters, lenses, lens, query.getLens())) {
+            return null;
+        }
+        addRange(filters, iso, query.getMinIso() == null ? null : (long) query.getMinIso(),
+                query.getMaxIso() == null ? null : (long) query.getMaxIso());
+        addRange(filters, focalLength, query.getMinFocalLength() == null ? null : sortable(query.getMinFocalLength()),
+                query.getMaxFocalLength() == null ? null : sortable(query.getMaxFocalLength()));
+        addRange(filters, taken, query.getTakenFrom() == null ? null : epochSecond(query.getTakenFrom()),
+                query.getTakenTo() == null ? null : epochSecond(query.getTakenTo()));
+        addRange(filters, latitude, query.getMinLat() == null ? null : sortable(query.getMinLat()),
+                query.getMaxLat() == null ? null : sortable(query.getMaxLat()));
+        Double minLon = query.getMinLon();
+        Double maxLon = query.getMaxLon();
+        if (minLon != null && maxLon != null && minLon > maxLon) {
+            // Box across the antimeridian: [minLon, 180] or [-180, maxLon]
+            filters.add(new RangeFilter(longitude, sortable(minLon), sortable(180.0), sortable(-180.0), sortable(maxLon)));
+        } else {
+            addRange(filters, longitude, minLon == null ? null : sortable(minLon), maxLon == null ? null : sortable(maxLon));
+        }
+        return filters;
+    }
+
+    private boolean addEquals(List<Filter> filters, Dictionary dictionary, int[] column, String value) {
+        if (value == null || value.isBlank()) {
+            return true;
+        }
+        int id = dictionary.find(value);
+        if (id < 0) {
+            return false;
+        }
+        filters.add(new Filter() {
+            @Override
+            public int estimate() {
+                return dictionary.postings.get(id).size;
+            }
+
+            @Override
+            public int[] candidates() {
+                IntList postings = dictionary.postings.get(id);
+                return Arrays.copyOf(postings.values, postings.size);
+            }
+
+            @Override
+            public boolean test(int row) {
+                return column[row] == id;
+            }
+        });
+        return true;
+    }
+
+    private void addRange(List<Filter> filters, SortedColumn column, Long min, Long max) {
+        if (min != null || max != null) {
+            filters.add(new RangeFilter(column, min == null ? Long.MIN_VALUE + 1 : min, max == null ? Long.MAX_VALUE : max));
+        }
+    }
+
+    /**
+     * Rows whose key lies in any of the inclusive ranges, given as (from, to) pairs.
+     */
+    private final class RangeFilter implements Filter {
+        private final SortedColumn column;
+        private final long[] ranges;
+
+        RangeFilter(SortedColumn column, long... ranges) {
+            this.column = column;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public int estimate() {
+            int estimate = rows - column.merged;
+            for (int i = 0; i < ranges.length; i += 2) {
+                estimate += column.upper(ranges[i + 1]) - column.lower(ranges[i]);
+            }
+            return estimate;
+        }
+
+        @Override
+        public int[] candidates() {
+            IntList candidates = new IntList();
+            for (int i = 0; i < ranges.length; i += 2) {
+                int from = column.lower(ranges[i]);
+                candidates.addAll(column.sorted, from, column.upper(ranges[i + 1]) - from);
+            }
+            for (int row = column.merged; row < rows; row++) {
+                if (test(row)) {
+                    candidates.add(row);
+                }
+            }
+            return Arrays.copyOf(candidates.values, candidates.size);
+        }
+
+        @Override
+        public boolean test(int row) {
+            long key = column.keys[row];
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (key >= ranges[i] && key <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private int[] matches(List<Filter> filters) {
+        Filter driver = null;
+        for (Filter filter : filters) {
+            if (driver == null || filter.estimate() < driver.estimate()) {
+                driver = filter;
+            }
+        }
+        if (driver == null) {
+            int[] all = new int[rows];
+            Arrays.setAll(all, row -> row);
+            return all;
+        }
+        List<Filter> rest = new ArrayList<>(filters);
+        rest.remove(driver);
+        Filter[] others = rest.toArray(new Filter[0]);
+        int[] candidates = driver.candidates();
+        int count = 0;
+        candidates:
+        for (int row : candidates) {
+            for (Filter filter : others) {
+                if (!filter.test(row)) {
+                    continue candidates;
+                }
+            }
+            candidates[count++] = row;
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Row comparator for a sort field; rows without a value come last in either direction, ties
+     * are broken by insertion order.
+     */
+    private IntBinaryOperator order(String sort, boolean descending) {
+        int sign = descending ? -1 : 1;
+        if ("fileName".equals(sort)) {
+            return (a, b) -> {
+                int cmp = compareNullsLast(fileName[a], fileName[b], sign);
+                return cmp != 0 ? cmp : sign * Integer.compare(a, b);
+            };
+        }
+        long[] keys = switch (sort == null ? "processed" : sort) {
+            case "processed" -> processed;
+            case "taken" -> taken.keys;
+            case "iso" -> iso.keys;
+            case "focalLength" -> focalLength.keys;
+            default -> throw new IllegalArgumentException(
+                    "Sort must be one of processed, taken, iso, focalLength, fileName");
+        };
+        return (a, b) -> {
+            long ka = keys[a];
+            long kb = keys[b];
+            if (ka != kb) {
+                if (ka == SortedColumn.NONE || kb == SortedColumn.NONE) {
+                    return ka == SortedColumn.NONE ? 1 : -1;
+                }
+                return sign * Long.compare(ka, kb);
+            }
+            return sign * Integer.compare(a, b);
+        };
+    }
+
+    private static int compareNullsLast(String a, String b, int sign) {
+        if (a == null || b == null) {
+            return a == b ? 0 : a == null ? 1 : -1;
+        }
+        return sign * a.compareTo(b);
+    }
+
+    /**
+     * The first {@code limit} rows in order: a max-heap of the best rows seen so far, then sorted.
+     * Matches are mostly in insertion order, which correlates with the processing time, so they
+     * are fed newest first for descending sorts; the heap then rarely changes.
+     */
+    private static int[] top(int[] rows, int limit, IntBinaryOperator order, boolean descending) {
+        int[] heap = new int[Math.min(limit, rows.length)];
+        if (heap.length == 0) {
+            return heap;
+        }
+        int size = 0;
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[descending ? rows.length - 1 - i : i];
+            if (size < heap.length) {
+                heap[size] = row;
+                siftUp(heap, size++, order);
+            } else if (order.applyAsInt(row, heap[0]) < 0) {
+                heap[0] = row;
+                siftDown(heap, size, order);
+            }
+        }
+        // Pop the worst row to the end until the heap is empty
+        for (int end = size - 1; end > 0; end--) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end, order);
+        }
+        return heap;
+    }
+
+    private static void siftUp(int[] heap, int index, IntBinaryOperator order) {
+        int row = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (order.applyAsInt(row, heap[parent]) <= 0) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = row;
+    }
+
+    private static void siftDown(int[] heap, int size, IntBinaryOperator order) {
+        int row = heap[0];
+        int index = 0;
+        int child;
+        while ((child = 2 * index + 1) < size) {
+            if (child + 1 < size && order.applyAsInt(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (order.applyAsInt(row, heap[child]) >= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = row;
+    }
+
+    // Storage
+
+    private ImageCatalogEntry toEntry(ImageMetadataDto metadata) {
+        return ImageCatalogEntry.builder()
+                .contentHash(metadata.getContentHash())
+                .fileName(metadata.getFileName())
+                .fileSize(metadata.getFileSize())
+                .mimeType(metadata.getMimeType())
+                .width(metadata.getWidth())
+                .height(metadata.getHeight())
+                .cameraMake(metadata.getCameraMake())
+                .cameraModel(metadata.getCameraModel())
+                .lensModel(metadata.getLensModel())
+                .iso(parseIso(metadata.getIso()))
+                .aperture(metadata.getAperture())
+                .shutterSpeed(metadata.getShutterSpeed())
+                .focalLength(parseLeadingNumber(metadata.getFocalLength()))
+                .dateTimeTaken(metadata.getDateTimeTaken())
+                .latitude(metadata.getLatitude())
+                .longitude(metadata.getLongitude())
+                .altitude(metadata.getAltitude())
+                .processedDateTime(metadata.getProcessedDateTime() == null
+                        ? LocalDateTime.now() : metadata.getProcessedDateTime())
+                .build();
+    }
+
+    private void put(ImageCatalogEntry entry) {
+        long key = Long.parseUnsignedLong(entry.getContentHash(), 16);
+        int row = rowsByHash.get(key);
+        if (row >= 0) {
+            rename(row, entry.getFileName());
+            mimeType[row] = mimeTypes.id(entry.getMimeType());
+            processed[row] = epochMilli(entry.getProcessedDateTime());
+            return;
+        }
+        row = rows;
+        if (row == hash.length) {
+            grow(Math.max(1024, row * 2));
+        }
+        hash[row] = key;
+        rename(row, entry.getFileName());
+        fileSize[row] = entry.getFileSize() == null ? -1 : entry.getFileSize();
+        width[row] = entry.getWidth() == null ? -1 : entry.getWidth();
+        height[row] = entry.getHeight() == null ? -1 : entry.getHeight();
+        altitude[row] = entry.getAltitude() == null ? Double.NaN : entry.getAltitude();
+        processed[row] = epochMilli(entry.getProcessedDateTime());
+        mimeType[row] = mimeTypes.id(entry.getMimeType());
+        aperture[row] = apertures.id(entry.getAperture());
+        shutterSpeed[row] = shutterSpeeds.id(entry.getShutterSpeed());
+        make[row] = makes.add(entry.getCameraMake(), row);
+        model[row] = models.add(entry.getCameraModel(), row);
+        lens[row] = lenses.add(entry.getLensModel(), row);
+        iso.keys[row] = entry.getIso() == null ? SortedColumn.NONE : entry.getIso();
+        focalLength.keys[row] = sortable(entry.getFocalLength());
+        taken.keys[row] = entry.getDateTimeTaken() == null ? SortedColumn.NONE : epochSecond(entry.getDateTimeTaken());
+        latitude.keys[row] = sortable(entry.getLatitude());
+        longitude.keys[row] = sortable(entry.getLongitude());
+        rowsByHash.put(key, row);
+        rows++;
+    }
+
+    /**
+     * Sets the file name of a row, moving it between the rows-by-name lists.
+     */
+    private void rename(int row, String name) {
+        String previous = fileName[row];
+        if (previous != null) {
+            if (previous.equals(name)) {
+                return;
+            }
+            IntList named = rowsByFileName.get(previous);
+            if (named.remove(row) && named.size == 0) {
+                rowsByFileName.remove(previous);
+            }
+        }
+        fileName[row] = name;
+        if (name != null) {
+            rowsByFileName.computeIfAbsent(name, key -> new IntList()).add(row);
+        }
+    }
+
+    private void grow(int capacity) {
+        hash = Arrays.copyOf(hash, capacity);
+        fileName = Arrays.copyOf(fileName, capacity);
+        fileSize = Arrays.copyOf(fileSize, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        altitude = Arrays.copyOf(altitude, capacity);
+        processed = Arrays.copyOf(processed, capacity);
+        mimeType = Arrays.copyOf(mimeType, capacity);
+        aperture = Arrays.copyOf(aperture, capacity);
+        shutterSpeed = Arrays.copyOf(shutterSpeed, capacity);
+        make = Arrays.copyOf(make, capacity);
+        model = Arrays.copyOf(model, capacity);
+        lens = Arrays.copyOf(lens, capacity);
+        iso.grow(capacity);
+        focalLength.grow(capacity);
+        taken.grow(capacity);
+        latitude.grow(capacity);
+        longitude.grow(capacity);
+    }
+
+    private ImageCatalogEntry entry(int row) {
+        String contentHash = String.format("%016x", hash[row]);
+        return ImageCatalogEntry.builder()
+                .contentHash(contentHash)
+                .fileName(fileName[row])
+                .fileSize(fileSize[row] < 0 ? null : fileSize[row])
+                .mimeType(mimeTypes.value(mimeType[row]))
+                .width(width[row] < 0 ? null : width[row])
+                .height(height[row] < 0 ? null : height[row])
+                .cameraMake(makes.value(make[row]))
+                .cameraModel(models.value(model[row]))
+                .lensModel(lenses.value(lens[row]))
+                .iso(iso.keys[row] == SortedColumn.NONE ? null : (int) iso.keys[row])
+                .aperture(apertures.value(aperture[row]))
+                .shutterSpeed(shutterSpeeds.value(shutterSpeed[row]))
+                .focalLength(fromSortable(focalLength.keys[row]))
+                .dateTimeTaken(taken.keys[row] == SortedColumn.NONE
+                        ? null : LocalDateTime.ofEpochSecond(taken.keys[row], 0, ZoneOffset.UTC))
+                .latitude(fromSortable(latitude.keys[row]))
+                .longitude(fromSortable(longitude.keys[row]))
+                .altitude(Double.isNaN(altitude[row]) ? null : altitude[row])
+                .processedDateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(processed[row]), ZoneOffset.UTC))
+                .xmpDownloadUrl(DOWNLOAD_URL + "xmp/" + SidecarWriter.fileName(fileName[row], contentHash, ".xmp"))
+                .textDownloadUrl(DOWNLOAD_URL + "text/" + SidecarWriter.fileName(fileName[row], contentHash, "_metadata.txt"))
+                .build();
+    }
+
+    /**
+     * Loads the entries in the catalog file, later lines replacing earlier ones for the same
+     * content. Returns the number of lines read.
+     */
+    private int replay() throws IOException {
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                lines++;
+                try {
+                    ImageCatalogEntry entry = entryReader.readValue(line);
+                    if (entry.getContentHash() != null) {
+                        put(entry);
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    log.warn("Skipping unreadable image catalog line {}: {}", lines, e.getMessage());
+                }
+            }
+        }
+        iso.merge(rows);
+        focalLength.merge(rows);
+        taken.merge(rows);
+        latitude.merge(rows);
+        longitude.merge(rows);
+        return lines;
+    }
+
+    /**
+     * Rewrites the catalog file with one line per image.
+     */
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (int row = 0; row < rows; row++) {
+                    ImageCatalogEntry entry = entry(row);
+                    entry.setXmpDownloadUrl(null);
+                    entry.setTextDownloadUrl(null);
+                    writer.write(entryWriter.writeValueAsString(entry));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Integer parseIso(String iso) {
+        Double value = parseLeadingNumber(iso);
+        return value == null || value > Integer.MAX_VALUE ? null : value.intValue();
+    }
+
+    /**
+     * The number at the start of a value such as "85.0 mm"; null when there is none.
+     */
+    private static Double parseLeadingNumber(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        int end = 0;
+        while (end < trimmed.length() && (Character.isDigit(trimmed.charAt(end)) || trimmed.charAt(end) == '.')) {
+            end++;
+        }
+        try {
+            return end == 0 ? null : Double.valueOf(trimmed.substring(0, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static long epochMilli(LocalDateTime dateTime) {
+        return dateTime == null ? 0 : dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * A long that orders like the double: the sign bit is kept and the other bits are flipped for
+     * negative values.
+     */
+    private static long sortable(Double value) {
+        if (value == null || value.isNaN()) {
+            return SortedColumn.NONE;
+        }
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static Double fromSortable(long key) {
+        return key == SortedColumn.NONE ? null : Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+    }
+
+    /**
+     * Numeric column with the rows that have a value sorted by (value, row). Rows below
+     * {@code merged} are in the sorted part; the rest form the tail.
+     */
+    private static final class SortedColumn {
+        static final long NONE = Long.MIN_VALUE;
+
+        long[] keys = new long[0];
+        int[] sorted = new int[0];
+        int sortedSize;
+        int merged;
+
+        void grow(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+
+        void mergeIfNeeded(int rows) {
+            if (rows - merged > Math.max(MIN_TAIL, merged / 32)) {
+                merge(rows);
+            }
+        }
+
+        /**
+         * First position in the sorted part with a key of at least {@code key}.
+         */
+        int lower(long key) {
+            int low = 0;
+            int high = sortedSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[sorted[mid]] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * First position in the sorted part with a key greater than {@code key}.
+         */
+        int upper(long key) {
+            int low = 0;
+            int high = sortedSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[sorted[mid]] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Sorts the tail and merges it into the sorted part. Tail rows come after every sorted
+         * row, so on equal keys the sorted row goes first.
+         */
+        void merge(int rows) {
+            int[] tail = sortedTail(rows);
+            int[] result = new int[sortedSize + tail.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < sortedSize && j < tail.length) {
+                result[k++] = keys[sorted[i]] <= keys[tail[j]] ? sorted[i++] : tail[j++];
+            }
+            while (i < sortedSize) {
+                result[k++] = sorted[i++];
+            }
+            while (j < tail.length) {
+                result[k++] = tail[j++];
+            }
+            sorted = result;
+            sortedSize = result.length;
+            merged = rows;
+        }
+
+        /**
+         * Tail rows with a value, sorted by (key, row): each key is replaced by its rank among the
+         * distinct tail keys, so (rank, row) pairs pack into longs and sort as primitives.
+         */
+        private int[] sortedTail(int rows) {
+            int count = 0;
+            for (int row = merged; row < rows; row++) {
+                if (keys[row] != NONE) {
+                    count++;
+                }
+            }
+            long[] distinct = new long[count];
+            count = 0;
+            for (int row = merged; row < rows; row++) {
+                if (keys[row] != NONE) {
+                    distinct[count++] = keys[row];
+                }
+            }
+            Arrays.sort(distinct);
+            int unique = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[unique - 1]) {
+                    distinct[unique++] = distinct[i];
+                }
+            }
+            long[] pairs = new long[count];
+            count = 0;
+            for (int row = merged; row < rows; row++) {
+                if (keys[row] != NONE) {
+                    long rank = Arrays.binarySearch(distinct, 0, unique, keys[row]);
+                    pairs[count++] = rank << 32 | row;
+                }
+            }
+            Arrays.sort(pairs);
+            int[] tail = new int[count];
+            for (int i = 0; i < count; i++) {
+                tail[i] = (int) pairs[i];
+            }
+            return tail;
+        }
+    }
+
+    /**
+     * Dictionary encoding of a string column, matched case-insensitively. The first spelling
+     * seen is the one returned. Indexed dictionaries keep the rows of each value.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final List<IntList> postings;
+
+        Dictionary(boolean indexed) {
+            this.postings = indexed ? new ArrayList<>() : null;
+        }
+
+        /**
+         * Id of the value, added if new; -1 for null.
+         */
+        int id(String value) {
+            if (value == null || value.isBlank()) {
+                return -1;
+            }
+            return ids.computeIfAbsent(normalize(value), key -> {
+                values.add(value.trim());
+                if (postings != null) {
+                    postings.add(new IntList());
+                }
+                return values.size() - 1;
+            });
+        }
+
+        int add(String value, int row) {
+            int id = id(value);
+            if (id >= 0) {
+                postings.get(id).add(row);
+            }
+            return id;
+        }
+
+        int find(String value) {
+            return ids.getOrDefault(normalize(value), -1);
+        }
+
+        String value(int id) {
+            return id < 0 ? null : values.get(id);
+        }
+
+        private static String normalize(String value) {
+            return value.trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(int[] source, int from, int count) {
+            if (size + count > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + count, size * 2));
+            }
+            System.arraycopy(source, from, values, size, count);
+            size += count;
+        }
+
+        /**
+         * Removes the first occurrence of the value, if any.
+         */
+        boolean remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, --size - i);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Open-addressing map from content hash to row.
+     */
+    private static final class LongIntMap {
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024]; // row + 1, 0 for an empty slot
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); values[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int row) {
+            if (2 * (size + 1) > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new int[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] != 0) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, row + 1);
+            size++;
+        }
+
+        private void insert(long key, int value) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (values[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private static int slot(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Extracted metadata of previously uploaded files, keyed by content hash and size.
+ *
+ * Each entry is a JSON file in {@code image.metadata.cache.dir}, so the cache survives restarts.
+ * An in-memory Caffeine index over those files bounds their total size
+ * ({@code image.metadata.cache.max-size}) and deletes the files it evicts. On startup the index
+ * is rebuilt from the directory, least recently used first; hits refresh the file's modification
+ * time so that order is kept across restarts.
+ */
+@Component
+@Slf4j
+public class MetadataCache {
+
+    private static final String SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final boolean enabled;
+    private final Cache<String, Long> entries;
+
+    public MetadataCache(ObjectMapper objectMapper,
+                         @Value("${image.metadata.cache.enabled:true}") boolean enabled,
+                         @Value("${image.metadata.cache.dir:${image.data-dir:${user.home}/.image-metadata}/cache/metadata}") String directory,
+                         @Value("${image.metadata.cache.max-size:256MB}") DataSize maxSize) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.entries = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .<String, Long>weigher((key, size) -> (int) Math.min(size, Integer.MAX_VALUE))
+                .removalListener((key, size, cause) -> {
+                    if (cause.wasEvicted()) {
+                        delete(file(key));
+                    }
+                })
+                .executor(Runnable::run)
+                .build();
+    }
+
+    @PostConstruct
+    void loadIndex() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                        .sorted(Comparator.comparing(MetadataCache::lastModified))
+                        .toList();
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), Files.size(file));
+            }
+            entries.cleanUp();
+            log.info("Metadata cache loaded: {} entries from {}", entries.estimatedSize(), directory);
+        } catch (IOException e) {
+            log.error("Error loading metadata cache from {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Metadata previously stored for content with this hash and size.
+     */
+    public Optional<ImageMetadataDto> get(String contentHash, long size) {
+        if (!enabled || contentHash == null) {
+            return Optional.empty();
+        }
+        String key = key(contentHash, size);
+        if (entries.getIfPresent(key) == null) {
+            return Optional.empty();
+        }
+        Path file = file(key);
+        try {
+            ImageMetadataDto metadata = objectMapper.readValue(file.toFile(), ImageMetadataDto.class);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(metadata);
+        } catch (IOException e) {
+            log.warn("Dropping unreadable metadata cache entry {}: {}", file, e.getMessage());
+            entries.invalidate(key);
+            delete(file);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores (or replaces) the entry for the metadata's content hash. The file is written to a
+     * temporary name and moved into place, so readers never see a partial entry.
+     */
+    public void put(ImageMetadataDto metadata) {
+        if (!enabled || metadata.getContentHash() == null || metadata.getFileSize() == null) {
+            return;
+        }
+        String key = key(metadata.getContentHash(), metadata.getFileSize());
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                objectMapper.writeValue(temp.toFile(), metadata);
+                Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            entries.put(key, Files.size(file(key)));
+        } catch (IOException e) {
+            log.warn("Could not write metadata cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static String key(String contentHash, long size) {
+        return contentHash + "-" + size;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete metadata cache entry {}: {}", file, e.getMessage());
+        }
+    }
+}
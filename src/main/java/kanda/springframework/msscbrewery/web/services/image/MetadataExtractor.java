@@ -0,0 +1,275 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.drew.lang.GeoLocation;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.MetadataException;
+import com.drew.metadata.Tag;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.GpsDirectory;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fills an {@link ImageMetadataDto} from parsed metadata in a single pass over its directories.
+ *
+ * Every directory class gets a dispatch table of (tag ID, handler) rules, compiled the first time
+ * that class is seen: the image-info tags checked in every directory, the EXIF IFD0/SubIFD/GPS
+ * fields, and for makernote directories the vendor tags (Canon, Nikon, Sony, other makernotes)
+ * found by matching the vendor's tag names once, at compile time. Extracting an image is then a
+ * lookup of each rule's tag per directory, with no tag-name string comparisons.
+ * <p>
+ * The per-tag dump in {@code additionalMetadata} ("Directory - Tag" to description) is only built
+ * with {@code image.metadata.additional-metadata=true}.
+ */
+@Component
+@Slf4j
+public class MetadataExtractor {
+
+    // Tag IDs are 16-bit; synthetic sub-tags (e.g. Canon camera settings) stay in that range too
+    private static final int MAX_TAG_ID = 0xFFFF;
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private static final List<Rule> IMAGE_INFO = List.of(
+            new Rule(256, false, (directory, tag, pass) -> pass.builder.width(directory.getInt(tag))),
+            new Rule(257, false, (directory, tag, pass) -> pass.builder.height(directory.getInt(tag))),
+            new Rule(258, false, (directory, tag, pass) -> pass.builder.bitDepth(directory.getInt(tag))),
+            // Photometric interpretation; the EXIF colour space takes precedence when present
+            new Rule(262, false, (directory, tag, pass) -> pass.builder.colorSpace(directory.getDescription(tag))));
+
+    private static final Map<Class<? extends Directory>, List<Rule>> EXIF_RULES = Map.of(
+            ExifIFD0Directory.class, List.of(
+                    new Rule(ExifIFD0Directory.TAG_MAKE, true, (directory, tag, pass) -> pass.builder.cameraMake(directory.getString(tag))),
+                    new Rule(ExifIFD0Directory.TAG_MODEL, true, (directory, tag, pass) -> pass.builder.cameraModel(directory.getString(tag))),
+                    new Rule(ExifIFD0Directory.TAG_COLOR_SPACE, true, (directory, tag, pass) -> pass.builder.iccProfile(directory.getDescription(tag)))),
+            ExifSubIFDDirectory.class, List.of(
+                    new Rule(ExifSubIFDDirectory.TAG_ISO_EQUIVALENT, true, (directory, tag, pass) -> pass.builder.iso(String.valueOf(directory.getInt(tag)))),
+                    new Rule(ExifSubIFDDirectory.TAG_FNUMBER, true, MetadataExtractor::aperture),
+                    new Rule(ExifSubIFDDirectory.TAG_EXPOSURE_TIME, true, (directory, tag, pass) -> pass.builder.shutterSpeed(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_FOCAL_LENGTH, true, MetadataExtractor::focalLength),
+                    new Rule(ExifSubIFDDirectory.TAG_EXPOSURE_MODE, true, (directory, tag, pass) -> pass.builder.exposureMode(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_WHITE_BALANCE, true, (directory, tag, pass) -> pass.builder.whiteBalance(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_WHITE_BALANCE, true, (directory, tag, pass) -> pass.builder.whiteBalanceMode(directory.getInt(tag) == 0 ? "Auto" : "Manual")),
+                    new Rule(ExifSubIFDDirectory.TAG_FLASH, true, (directory, tag, pass) -> pass.builder.flash(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_LENS_MODEL, true, (directory, tag, pass) -> pass.builder.lensModel(directory.getString(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL, true, (directory, tag, pass) -> pass.builder.dateTimeTaken(LocalDateTime.parse(directory.getString(tag), EXIF_DATE_TIME))),
+                    new Rule(ExifSubIFDDirectory.TAG_COLOR_SPACE, true, MetadataExtractor::colorSpace),
+                    new Rule(ExifSubIFDDirectory.TAG_SATURATION, true, (directory, tag, pass) -> pass.builder.saturation(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_CONTRAST, true, (directory, tag, pass) -> pass.builder.contrast(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_SHARPNESS, true, (directory, tag, pass) -> pass.builder.sharpness(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_SCENE_CAPTURE_TYPE, true, (directory, tag, pass) -> pass.builder.sceneMode(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_METERING_MODE, true, (directory, tag, pass) -> pass.builder.meteringMode(directory.getDescription(tag))),
+                    new Rule(ExifSubIFDDirectory.TAG_DIGITAL_ZOOM_RATIO, true, (directory, tag, pass) -> pass.builder.digitalZoom(directory.getDescription(tag)))),
+            GpsDirectory.class, List.of(
+                    new Rule(GpsDirectory.TAG_LATITUDE, true, MetadataExtractor::geoLocation),
+                    new Rule(GpsDirectory.TAG_LATITUDE_REF, true, (directory, tag, pass) -> pass.builder.gpsLatitudeRef(directory.getString(tag))),
+                    new Rule(GpsDirectory.TAG_LONGITUDE_REF, true, (directory, tag, pass) -> pass.builder.gpsLongitudeRef(directory.getString(tag))),
+                    new Rule(GpsDirectory.TAG_ALTITUDE, true, (directory, tag, pass) -> pass.builder.altitude(directory.getDouble(tag)))));
+
+    private final boolean additionalMetadata;
+    private final Map<Class<? extends Directory>, Rule[]> tables = new ConcurrentHashMap<>();
+
+    public MetadataExtractor(@Value("${image.metadata.additional-metadata:false}") boolean additionalMetadata) {
+        this.additionalMetadata = additionalMetadata;
+    }
+
+    public boolean isAdditionalMetadata() {
+        return additionalMetadata;
+    }
+
+    public void extract(Metadata metadata, ImageMetadataDto.ImageMetadataDtoBuilder builder) {
+        Pass pass = new Pass(builder);
+        Map<String, String> additional = additionalMetadata ? new HashMap<>() : null;
+        for (Directory directory : metadata.getDirectories()) {
+            // EXIF fields come from the first directory of each type only
+            boolean first = pass.seen.add(directory.getClass());
+            for (Rule rule : tables.computeIfAbsent(directory.getClass(), type -> compile(directory))) {
+                if ((first || !rule.firstOnly()) && directory.containsTag(rule.tag())) {
+                    try {
+                        rule.handler().apply(directory, rule.tag(), pass);
+                    } catch (MetadataException | RuntimeException e) {
+                        log.debug("Skipping {} tag {}: {}", directory.getName(), rule.tag(), e.getMessage());
+                    }
+                }
+            }
+            if (additional != null) {
+                for (Tag tag : directory.getTags()) {
+                    try {
+                        additional.put(directory.getName() + " - " + tag.getTagName(), tag.getDescription());
+                    } catch (RuntimeException e) {
+                        // Some vendor descriptors fail on malformed values; leave the tag out
+                        log.debug("Skipping {}: {}", tag, e.getMessage());
+                    }
+                }
+            }
+        }
+        pass.finish();
+        builder.additionalMetadata(additional != null ? additional : Map.of());
+    }
+
+    private static Rule[] compile(Directory directory) {
+        List<Rule> rules = new ArrayList<>(IMAGE_INFO);
+        rules.addAll(EXIF_RULES.getOrDefault(directory.getClass(), List.of()));
+        Vendor vendor = Vendor.of(directory.getName());
+        if (vendor != null) {
+            for (int tag = 0; tag <= MAX_TAG_ID; tag++) {
+                if (directory.hasTagName(tag)) {
+                    vendor.addRules(directory.getTagName(tag).toLowerCase(), tag, rules);
+                }
+            }
+        }
+        log.debug("Compiled {} extraction rules for {}", rules.size(), directory.getName());
+        return rules.toArray(Rule[]::new);
+    }
+
+    private static void aperture(Directory directory, int tag, Pass pass) {
+        try {
+            pass.builder.aperture("f/" + String.format("%.1f", directory.getDouble(tag)));
+        } catch (MetadataException e) {
+            pass.builder.aperture(directory.getDescription(tag));
+        }
+    }
+
+    private static void focalLength(Directory directory, int tag, Pass pass) {
+        try {
+            pass.builder.focalLength(String.format("%.1f mm", directory.getDouble(tag)));
+        } catch (MetadataException e) {
+            pass.builder.focalLength(directory.getDescription(tag));
+        }
+    }
+
+    private static void colorSpace(Directory directory, int tag, Pass pass) throws MetadataException {
+        int colorSpace = directory.getInt(tag);
+        pass.exifColorSpace = colorSpace == 1 ? "sRGB" : colorSpace == 2 ? "Adobe RGB" : "Uncalibrated";
+    }
+
+    private static void geoLocation(Directory directory, int tag, Pass pass) {
+        GeoLocation location = ((GpsDirectory) directory).getGeoLocation();
+        if (location != null) {
+            pass.builder.latitude(location.getLatitude()).longitude(location.getLongitude());
+        }
+    }
+
+    /**
+     * Makernote settings matched by tag name, per vendor. Applied to a directory's tag names once,
+     * when its dispatch table is compiled.
+     */
+    private enum Vendor {
+        CANON("canon") {
+            @Override
+            void addRules(String tagName, int tag, List<Rule> rules) {
+                if (tagName.contains("picture style") || tagName.contains("color mode")) {
+                    rules.add(new Rule(tag, false, Vendor::pictureStyle));
+                }
+                if (tagName.contains("white balance")) {
+                    rules.add(new Rule(tag, false, Vendor::whiteBalanceMode));
+                }
+            }
+        },
+        NIKON("nikon") {
+            @Override
+            void addRules(String tagName, int tag, List<Rule> rules) {
+                if (tagName.contains("color mode") || tagName.contains("picture control")) {
+                    rules.add(new Rule(tag, false, Vendor::pictureStyle));
+                }
+            }
+        },
+        SONY("sony") {
+            @Override
+            void addRules(String tagName, int tag, List<Rule> rules) {
+                if (tagName.contains("creative style") || tagName.contains("color mode")) {
+                    rules.add(new Rule(tag, false, Vendor::pictureStyle));
+                }
+            }
+        },
+        GENERIC("makernote") {
+            @Override
+            void addRules(String tagName, int tag, List<Rule> rules) {
+                if (tagName.contains("color")
+                        && (tagName.contains("mode") || tagName.contains("style") || tagName.contains("setting"))) {
+                    rules.add(new Rule(tag, false, Vendor::pictureStyle));
+                }
+                if (tagName.contains("white balance") && !tagName.contains("fine")) {
+                    rules.add(new Rule(tag, false, Vendor::whiteBalanceMode));
+                }
+            }
+        };
+
+        private final String directoryName;
+
+        Vendor(String directoryName) {
+            this.directoryName = directoryName;
+        }
+
+        abstract void addRules(String tagName, int tag, List<Rule> rules);
+
+        static Vendor of(String directoryName) {
+            String lowerName = directoryName.toLowerCase();
+            for (Vendor vendor : values()) {
+                if (lowerName.contains(vendor.directoryName)) {
+                    return vendor;
+                }
+            }
+            return null;
+        }
+
+        private static void pictureStyle(Directory directory, int tag, Pass pass) {
+            String description = directory.getDescription(tag);
+            if (description != null) {
+                pass.builder.pictureStyle(description);
+            }
+        }
+
+        private static void whiteBalanceMode(Directory directory, int tag, Pass pass) {
+            String description = directory.getDescription(tag);
+            if (description != null) {
+                pass.makernoteWhiteBalanceMode = description;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface TagHandler {
+        void apply(Directory directory, int tag, Pass pass) throws MetadataException;
+    }
+
+    private record Rule(int tag, boolean firstOnly, TagHandler handler) {
+    }
+
+    /**
+     * State of one extraction. Values that another source overrides regardless of directory order
+     * are held back until {@link #finish}.
+     */
+    private static final class Pass {
+        private final ImageMetadataDto.ImageMetadataDtoBuilder builder;
+        private final Set<Class<?>> seen = new HashSet<>();
+        private String exifColorSpace;
+        private String makernoteWhiteBalanceMode;
+
+        private Pass(ImageMetadataDto.ImageMetadataDtoBuilder builder) {
+            this.builder = builder;
+        }
+
+        private void finish() {
+            if (exifColorSpace != null) {
+                builder.colorSpace(exifColorSpace);
+            }
+            if (makernoteWhiteBalanceMode != null) {
+                builder.whiteBalanceMode(makernoteWhiteBalanceMode);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+
+import java.util.Map;
+
+import static kanda.springframework.msscbrewery.web.services.image.Utf8Buffer.fragment;
+
+/**
+ * Renders the plain-text metadata report for an image into a {@link Utf8Buffer}, with the same
+ * pre-encoded labels approach as {@link XmpWriter}.
+ */
+public final class MetadataReportWriter {
+
+    private static final byte[] HEADER = fragment("IMAGE METADATA REPORT\nGenerated: ");
+    private static final byte[] FILE_NAME = fragment("\n" + "=".repeat(50) + "\n\nFILE INFORMATION:\nFile Name: ");
+    private static final byte[] FILE_SIZE = fragment("\nFile Size: ");
+    private static final byte[] MIME_TYPE = fragment("\nMIME Type: ");
+    private static final byte[] DIMENSIONS = fragment("Dimensions: ");
+    private static final byte[] BY = fragment(" x ");
+    private static final byte[] PIXELS = fragment(" pixels\n");
+    private static final byte[] COLOR_SPACE = fragment("Color Space: ");
+    private static final byte[] BIT_DEPTH = fragment("Bit Depth: ");
+    private static final byte[] BITS = fragment(" bits\n");
+    private static final byte[] CAMERA_INFORMATION = fragment("\nCAMERA INFORMATION:\n");
+    private static final byte[] MAKE = fragment("Make: ");
+    private static final byte[] MODEL = fragment("Model: ");
+    private static final byte[] LENS = fragment("Lens: ");
+    private static final byte[] DATE_TAKEN = fragment("Date Taken: ");
+    private static final byte[] CAMERA_SETTINGS = fragment("\nCAMERA SETTINGS:\n");
+    private static final byte[] ISO = fragment("ISO: ");
+    private static final byte[] APERTURE = fragment("Aperture: ");
+    private static final byte[] SHUTTER_SPEED = fragment("Shutter Speed: ");
+    private static final byte[] FOCAL_LENGTH = fragment("Focal Length: ");
+    private static final byte[] EXPOSURE_MODE = fragment("Exposure Mode: ");
+    private static final byte[] WHITE_BALANCE = fragment("White Balance: ");
+    private static final byte[] FLASH = fragment("Flash: ");
+    private static final byte[] GPS_INFORMATION = fragment("GPS INFORMATION:\n");
+    private static final byte[] LATITUDE = fragment("Latitude: ");
+    private static final byte[] LONGITUDE = fragment("Longitude: ");
+    private static final byte[] DEGREES = fragment("°");
+    private static final byte[] ALTITUDE = fragment("Altitude: ");
+    private static final byte[] METRES = fragment(" m\n");
+    private static final byte[] ADDITIONAL_METADATA = fragment("ADDITIONAL METADATA:\n");
+    private static final byte[] SEPARATOR = fragment(": ");
+    private static final byte[] SPACE = fragment(" ");
+    private static final byte[] NEWLINE = fragment("\n");
+    private static final String[] UNITS = {"B", "KB", "MB", "GB", "TB"};
+
+    private MetadataReportWriter() {
+    }
+
+    public static void write(ImageMetadataDto metadata, Utf8Buffer out) {
+        out.raw(HEADER).text(String.valueOf(metadata.getProcessedDateTime()));
+
+        // File Information
+        out.raw(FILE_NAME).text(metadata.getFileName())
+                .raw(FILE_SIZE).text(formatFileSize(metadata.getFileSize()))
+                .raw(MIME_TYPE).text(metadata.getMimeType())
+                .raw(NEWLINE);
+        if (metadata.getWidth() != null && metadata.getHeight() != null) {
+            out.raw(DIMENSIONS).number(metadata.getWidth()).raw(BY).number(metadata.getHeight()).raw(PIXELS);
+        }
+        line(out, COLOR_SPACE, metadata.getColorSpace());
+        if (metadata.getBitDepth() != null) {
+            out.raw(BIT_DEPTH).number(metadata.getBitDepth()).raw(BITS);
+        }
+
+        // Camera Information
+        out.raw(CAMERA_INFORMATION);
+        line(out, MAKE, metadata.getCameraMake());
+        line(out, MODEL, metadata.getCameraModel());
+        line(out, LENS, metadata.getLensModel());
+        if (metadata.getDateTimeTaken() != null) {
+            line(out, DATE_TAKEN, metadata.getDateTimeTaken().toString());
+        }
+
+        // Camera Settings
+        out.raw(CAMERA_SETTINGS);
+        line(out, ISO, metadata.getIso());
+        line(out, APERTURE, metadata.getAperture());
+        line(out, SHUTTER_SPEED, metadata.getShutterSpeed());
+        line(out, FOCAL_LENGTH, metadata.getFocalLength());
+        line(out, EXPOSURE_MODE, metadata.getExposureMode());
+        line(out, WHITE_BALANCE, metadata.getWhiteBalance());
+        line(out, FLASH, metadata.getFlash());
+        out.raw(NEWLINE);
+
+        // GPS Information
+        if (metadata.getLatitude() != null || metadata.getLongitude() != null) {
+            out.raw(GPS_INFORMATION);
+            if (metadata.getLatitude() != null) {
+                coordinate(out, LATITUDE, metadata.getLatitude(), metadata.getGpsLatitudeRef());
+            }
+            if (metadata.getLongitude() != null) {
+                coordinate(out, LONGITUDE, metadata.getLongitude(), metadata.getGpsLongitudeRef());
+            }
+            if (metadata.getAltitude() != null) {
+                out.raw(ALTITUDE).text(metadata.getAltitude().toString()).raw(METRES);
+            }
+            out.raw(NEWLINE);
+        }
+
+        // Additional metadata (for debugging)
+        if (metadata.getAdditionalMetadata() != null && !metadata.getAdditionalMetadata().isEmpty()) {
+            out.raw(ADDITIONAL_METADATA);
+            metadata.getAdditionalMetadata().entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(entry -> out.text(entry.getKey()).raw(SEPARATOR).text(entry.getValue()).raw(NEWLINE));
+        }
+    }
+
+    private static void line(Utf8Buffer out, byte[] label, String value) {
+        if (value != null) {
+            out.raw(label).text(value).raw(NEWLINE);
+        }
+    }
+
+    private static void coordinate(Utf8Buffer out, byte[] label, Double value, String ref) {
+        out.raw(label).text(value.toString()).raw(DEGREES);
+        if (ref != null) {
+            out.raw(SPACE).text(ref);
+        }
+        out.raw(NEWLINE);
+    }
+
+    private static String formatFileSize(Long bytes) {
+        if (bytes == null) return "Unknown";
+
+        int unitIndex = 0;
+        double size = bytes.doubleValue();
+
+        while (size >= 1024 && unitIndex < UNITS.length - 1) {
+            size /= 1024;
+            unitIndex++;
+        }
+
+        return String.format("%.2f %s", size, UNITS[unitIndex]);
+    }
+}
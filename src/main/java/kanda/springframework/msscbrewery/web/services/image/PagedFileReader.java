@@ -0,0 +1,108 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.drew.lang.BufferBoundsException;
+import com.drew.lang.RandomAccessReader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link RandomAccessReader} over a file that reads it one page at a time as offsets are requested.
+ * Only the pages holding the offsets that are actually read (TIFF header, IFDs, tag values) are
+ * read; strip and tile data is never touched. Pages are kept on the heap until the reader is
+ * closed, which also closes the file, so nothing refers to the file once the metadata has been read
+ * and it can be deleted straight away. Files larger than 2 GB are read up to the first 2 GB, the
+ * limit of the reader's int offsets.
+ */
+final class PagedFileReader extends RandomAccessReader implements Closeable {
+
+    static final int PAGE_SIZE = 4096;
+
+    private final FileChannel channel;
+    private final int length;
+    private final Map<Integer, byte[]> pages = new HashMap<>();
+
+    PagedFileReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.length = (int) Math.min(channel.size(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int toUnshiftedOffset(int localOffset) {
+        return localOffset;
+    }
+
+    @Override
+    public byte getByte(int index) throws IOException {
+        validateIndex(index, 1);
+        return page(index / PAGE_SIZE)[index % PAGE_SIZE];
+    }
+
+    @Override
+    public byte[] getBytes(int index, int count) throws IOException {
+        validateIndex(index, count);
+        byte[] bytes = new byte[count];
+        int copied = 0;
+        while (copied < count) {
+            int position = index + copied;
+            int offset = position % PAGE_SIZE;
+            int chunk = Math.min(count - copied, PAGE_SIZE - offset);
+            System.arraycopy(page(position / PAGE_SIZE), offset, bytes, copied, chunk);
+            copied += chunk;
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of bytes read from the file so far.
+     */
+    long bytesRead() {
+        return pages.values().stream().mapToLong(page -> page.length).sum();
+    }
+
+    private byte[] page(int number) throws IOException {
+        byte[] page = pages.get(number);
+        if (page == null) {
+            long start = (long) number * PAGE_SIZE;
+            page = new byte[(int) Math.min(PAGE_SIZE, length - start)];
+            ByteBuffer buffer = ByteBuffer.wrap(page);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new EOFException("File ended at " + (start + buffer.position()) + " of " + length + " bytes");
+                }
+            }
+            pages.put(number, page);
+        }
+        return page;
+    }
+
+    @Override
+    protected void validateIndex(int index, int bytesRequested) throws IOException {
+        if (!isValidIndex(index, bytesRequested)) {
+            throw new BufferBoundsException(index, bytesRequested, length);
+        }
+    }
+
+    @Override
+    protected boolean isValidIndex(int index, int bytesRequested) {
+        return bytesRequested >= 0 && index >= 0 && (long) index + bytesRequested <= length;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pages.clear();
+        channel.close();
+    }
+}
@@ -0,0 +1,326 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a JPEG preview ({@code image.preview.size} on the long side) and a thumbnail
+ * ({@code image.preview.thumbnail-size}) for each uploaded image, keyed by content hash.
+ *
+ * The source is the smallest JPEG embedded in the file that is at least as large as the preview
+ * (see {@link EmbeddedPreviews}), so RAW files and JPEGs with an MPF preview are never fully
+ * decoded. Otherwise the image itself is decoded with ImageIO, subsampled while reading to no less
+ * than twice the preview size; RAW files ImageIO cannot read use their largest embedded JPEG. The
+ * image is then halved with bilinear filtering until it is within a factor of two of the target
+ * and scaled once more, which looks like an area-averaged resize at a fraction of the cost, and
+ * the EXIF orientation is applied. The thumbnail is scaled from the preview.
+ * <p>
+ * Work runs on a bounded pool of {@code image.preview.threads} threads so that it overlaps with
+ * metadata extraction; when its queue is full the caller generates the preview itself. Files go
+ * to {@code previews/<hash>_preview.jpg} and {@code previews/<hash>_thumb.jpg}, written to a
+ * temporary file and renamed into place. Contents seen before reuse the files on disk, and
+ * concurrent requests for the same contents share one generation. Failures are logged and leave
+ * the image without a preview.
+ */
+@Component
+@Slf4j
+public class PreviewGenerator implements DisposableBean {
+
+    private static final Path PREVIEW_DIR = Path.of("previews");
+    private static final String PREVIEW_SUFFIX = "_preview.jpg";
+    private static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+
+    /**
+     * Stored names of an image's preview files, relative to the working directory.
+     */
+    public record Previews(String previewFilePath, String thumbnailFilePath) {
+    }
+
+    @FunctionalInterface
+    private interface Source {
+        Previews generate(String contentHash) throws IOException;
+    }
+
+    private final boolean enabled;
+    private final int previewSize;
+    private final int thumbnailSize;
+    private final float quality;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<Previews>> inProgress = new ConcurrentHashMap<>();
+
+    public PreviewGenerator(@Value("${image.preview.enabled:true}") boolean enabled,
+                            @Value("${image.preview.size:1280}") int previewSize,
+                            @Value("${image.preview.thumbnail-size:256}") int thumbnailSize,
+                            @Value("${image.preview.quality:0.85}") float quality,
+                            @Value("${image.preview.threads:0}") int threads,
+                            @Value("${image.preview.queue-capacity:64}") int queueCapacity) {
+        this.enabled = enabled;
+        this.previewSize = previewSize;
+        this.thumbnailSize = Math.min(thumbnailSize, previewSize);
+        this.quality = quality;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                task -> {
+                    Thread thread = new Thread(task, "image-preview-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        log.info("Preview generation {}: {} threads, {}px previews, {}px thumbnails",
+                enabled ? "enabled" : "disabled", poolSize, previewSize, this.thumbnailSize);
+    }
+
+    /**
+     * Starts generating the previews of a file. The future completes with null when previews are
+     * disabled or the image could not be decoded; the file must stay in place until it completes.
+     */
+    public CompletableFuture<Previews> generate(String contentHash, Path file) {
+        return submit(contentHash, hash -> generateFrom(hash, file));
+    }
+
+    private CompletableFuture<Previews> submit(String contentHash, Source source) {
+        if (!enabled || contentHash == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Previews existing = existing(contentHash);
+        if (existing != null) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        CompletableFuture<Previews> future = new CompletableFuture<>();
+        CompletableFuture<Previews> running = inProgress.putIfAbsent(contentHash, future);
+        if (running != null) {
+            return running;
+        }
+        try {
+            executor.execute(() -> {
+                Previews previews = null;
+                try {
+                    previews = source.generate(contentHash);
+                } catch (Exception | OutOfMemoryError e) {
+                    log.warn("Could not generate a preview for {}: {}", contentHash, e.toString());
+                } finally {
+                    inProgress.remove(contentHash);
+                    future.complete(previews);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(contentHash);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private static Previews existing(String contentHash) {
+        Previews previews = previews(contentHash);
+        return Files.exists(Path.of(previews.previewFilePath())) && Files.exists(Path.of(previews.thumbnailFilePath()))
+                ? previews : null;
+    }
+
+    private static Previews previews(String contentHash) {
+        return new Previews(PREVIEW_DIR.resolve(contentHash + PREVIEW_SUFFIX).toString(),
+                PREVIEW_DIR.resolve(contentHash + THUMBNAIL_SUFFIX).toString());
+    }
+
+    private Previews generateFrom(String contentHash, Path file) throws IOException {
+        BufferedImage preview = decode(file);
+        if (preview == null) {
+            log.debug("No decodable image for preview of {}", contentHash);
+            return null;
+        }
+        BufferedImage thumbnail = downscale(preview, thumbnailSize);
+        Previews previews = previews(contentHash);
+        Files.createDirectories(PREVIEW_DIR);
+        writeJpeg(preview, Path.of(previews.previewFilePath()));
+        writeJpeg(thumbnail, Path.of(previews.thumbnailFilePath()));
+        return previews;
+    }
+
+    /**
+     * The oriented image at preview size (or smaller when the source is), or null if nothing in
+     * the file can be decoded.
+     * <p>
+     * The file is memory-mapped to find its embedded previews, and the mapping stays until the
+     * buffer is garbage collected, after the channel is closed. On Linux and macOS the caller can
+     * still delete the file straight away (its pages are freed with the mapping); on Windows the
+     * delete fails while the mapping is live and the staged file is left behind.
+     */
+    BufferedImage decode(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            EmbeddedPreviews.Result found = EmbeddedPreviews.find(mapped);
+
+            BufferedImage image = null;
+            EmbeddedPreviews.Preview embedded = found.smallestAtLeast(previewSize);
+            if (embedded != null) {
+                image = read(embedded(mapped, embedded), embedded.longSide());
+            }
+            if (image == null && (found.format() != EmbeddedPreviews.Format.TIFF || found.largest() == null)) {
+                image = read(new FileImageInputStream(file.toFile()), found.width() > 0 ? Math.max(found.width(), found.height()) : 0);
+            }
+            if (image == null && found.largest() != null) {
+                image = read(embedded(mapped, found.largest()), found.largest().longSide());
+            }
+            return image == null ? null : orient(downscale(image, previewSize), found.orientation());
+        }
+    }
+
+    private static ImageInputStream embedded(ByteBuffer mapped, EmbeddedPreviews.Preview preview) {
+        byte[] bytes = new byte[preview.length()];
+        mapped.get(preview.offset(), bytes);
+        return new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Decodes the first image of the stream. When its long side is known, every n-th pixel is
+     * read so that the result is still at least twice the preview size.
+     */
+    private BufferedImage read(ImageInputStream input, int longSide) throws IOException {
+        try (input) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (longSide == 0) {
+                    longSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longSide / (2 * previewSize));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales the image so that its long side is at most {@code size}: repeated halving with
+     * bilinear filtering, then one final bilinear step. Smaller images are only converted to RGB.
+     */
+    static BufferedImage downscale(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, (double) size / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        BufferedImage current = image;
+        while (width / 2 >= targetWidth * 2 || height / 2 >= targetHeight * 2) {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = scale(current, width, height);
+        }
+        if (current.getType() != BufferedImage.TYPE_INT_RGB || width != targetWidth || height != targetHeight) {
+            current = scale(current, targetWidth, targetHeight);
+        }
+        return current;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Applies an EXIF orientation (1-8) so that the image displays upright.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean transposed = orientation >= 5;
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            default -> new AffineTransform(0, -1, 1, 0, 0, width);
+        };
+        BufferedImage oriented = new BufferedImage(transposed ? height : width, transposed ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
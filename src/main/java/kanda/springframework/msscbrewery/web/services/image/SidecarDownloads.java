@@ -0,0 +1,323 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import kanda.springframework.msscbrewery.util.XxHash64;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Serves sidecar files (XMP, metadata text) and image previews for download.
+ *
+ * Sidecars are written once and never rewritten, so the resolved path, size, modification time
+ * and a strong ETag (XXH64 of the contents) are cached per file name for
+ * {@code image.download.cache.ttl}. Responses honour {@code If-None-Match}/{@code If-Modified-Since}
+ * (304) and single byte ranges ({@code Range}, {@code If-Range}); requests for several ranges get
+ * the whole file. Bodies of at least {@code image.download.sendfile-threshold} are handed to
+ * Tomcat's sendfile support, which copies them from the page cache to the socket without passing
+ * through the JVM; smaller bodies are written with {@link FileChannel#transferTo}.
+ */
+@Component
+@Slf4j
+public class SidecarDownloads {
+
+    // Tomcat request attributes for sendfile (NIO connector, set when the connector supports it)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    public enum Kind {
+        XMP("xmp", "application/rdf+xml", ".xmp", false),
+        TEXT("text", "text/plain", "_metadata.txt", false),
+        PREVIEW("previews", "image/jpeg", "_preview.jpg", true),
+        THUMBNAIL("previews", "image/jpeg", "_thumb.jpg", true);
+
+        private final Path directory;
+        private final String contentType;
+        private final String suffix;
+        private final boolean inline;
+
+        Kind(String directory, String contentType, String suffix, boolean inline) {
+            this.directory = Path.of(directory);
+            this.contentType = contentType;
+            this.suffix = suffix;
+            this.inline = inline;
+        }
+
+        /**
+         * Kind of a stored sidecar name, from its suffix.
+         */
+        public static Optional<Kind> of(String fileName) {
+            for (Kind kind : values()) {
+                if (fileName.endsWith(kind.suffix)) {
+                    return Optional.of(kind);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A sidecar file as last seen on disk.
+     */
+    public record Sidecar(Kind kind, String name, Path path, long size, long lastModified, String etag) {
+    }
+
+    private final Path baseDirectory;
+    private final Cache<String, Sidecar> sidecars;
+    private final long sendfileThreshold;
+    private final String cacheControl;
+    private final int maxBulkFiles;
+
+    @Autowired
+    public SidecarDownloads(@Value("${image.download.cache.max-entries:10000}") long maxEntries,
+                            @Value("${image.download.cache.ttl:60s}") Duration ttl,
+                            @Value("${image.download.sendfile-threshold:48KB}") DataSize sendfileThreshold,
+                            @Value("${image.download.max-age:1h}") Duration maxAge,
+                            @Value("${image.download.bulk.max-files:10000}") int maxBulkFiles) {
+        this(Path.of(""), maxEntries, ttl, sendfileThreshold, maxAge, maxBulkFiles);
+    }
+
+    /**
+     * Serves the sidecar directories under {@code baseDirectory} instead of the working directory.
+     */
+    SidecarDownloads(Path baseDirectory, long maxEntries, Duration ttl, DataSize sendfileThreshold, Duration maxAge,
+                     int maxBulkFiles) {
+        this.baseDirectory = baseDirectory;
+        this.sidecars = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .build();
+        this.sendfileThreshold = sendfileThreshold.toBytes();
+        this.cacheControl = "max-age=" + maxAge.toSeconds();
+        this.maxBulkFiles = maxBulkFiles;
+    }
+
+    /**
+     * The existing sidecars among these stored names (each name once, kind taken from the
+     * suffix). Throws {@link IllegalArgumentException} for more than
+     * {@code image.download.bulk.max-files} names.
+     */
+    public List<Sidecar> findAll(Collection<String> fileNames) {
+        Set<String> distinct = new LinkedHashSet<>(fileNames);
+        if (distinct.size() > maxBulkFiles) {
+            throw new IllegalArgumentException("At most " + maxBulkFiles + " files can be downloaded at once");
+        }
+        List<Sidecar> found = new ArrayList<>(distinct.size());
+        for (String fileName : distinct) {
+            Kind.of(fileName).flatMap(kind -> find(kind, fileName)).ifPresent(found::add);
+        }
+        return found;
+    }
+
+    /**
+     * The sidecar with this stored name, if it exists. Names with path separators or leading
+     * dots are rejected, so only files directly inside the sidecar directory can be served.
+     */
+    public Optional<Sidecar> find(Kind kind, String fileName) {
+        if (fileName.isEmpty() || fileName.startsWith(".") || fileName.indexOf('/') >= 0
+                || fileName.indexOf('\\') >= 0 || fileName.indexOf('\0') >= 0) {
+            return Optional.empty();
+        }
+        String key = kind.name() + "/" + fileName;
+        Sidecar sidecar = sidecars.getIfPresent(key);
+        if (sidecar == null) {
+            sidecar = load(kind, fileName);
+            if (sidecar == null) {
+                return Optional.empty();
+            }
+            sidecars.put(key, sidecar);
+        }
+        return Optional.of(sidecar);
+    }
+
+    private Sidecar load(Kind kind, String fileName) {
+        Path path = baseDirectory.resolve(kind.directory).resolve(fileName);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            String etag;
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                etag = "\"" + XxHash64.hash(inputStream).toHex() + "\"";
+            }
+            return new Sidecar(kind, fileName, path.toAbsolutePath(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), etag);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not read sidecar {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the response for a GET or HEAD of the sidecar: 304 when the client's copy is
+     * current, 206 for a satisfiable single range, 416 for an unsatisfiable one, 200 otherwise.
+     */
+    public void send(Sidecar sidecar, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        // Sets ETag and Last-Modified, and the 304 (or 412) status when the preconditions say so
+        if (new ServletWebRequest(request, response).checkNotModified(sidecar.etag(), sidecar.lastModified())) {
+            return;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Previews are shown in the browser, the other sidecars are saved
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, (sidecar.kind().inline ? ContentDisposition.inline()
+                : ContentDisposition.attachment())
+                .filename(SidecarWriter.downloadName(sidecar.name()))
+                .build().toString());
+        response.setContentType(sidecar.kind().contentType);
+
+        long start = 0;
+        long length = sidecar.size();
+        HttpRange range = range(sidecar, request);
+        if (range != null) {
+            if (sidecar.size() == 0 || range.getRangeStart(sidecar.size()) >= sidecar.size()) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + sidecar.size());
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = range.getRangeStart(sidecar.size());
+            length = range.getRangeEnd(sidecar.size()) - start + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + start + "-" + (start + length - 1) + "/" + sidecar.size());
+        }
+        response.setContentLengthLong(length);
+        if (!"HEAD".equals(request.getMethod()) && length > 0) {
+            transfer(sidecar, start, length, request, response);
+        }
+    }
+
+    /**
+     * The single range requested, or null to send the whole file: no (or an unparseable)
+     * {@code Range} header, several ranges, or an {@code If-Range} validator that no longer
+     * matches.
+     */
+    private static HttpRange range(Sidecar sidecar, HttpServletRequest request) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !ifRangeMatches(sidecar, request.getHeader(HttpHeaders.IF_RANGE))) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean ifRangeMatches(Sidecar sidecar, String ifRange) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(sidecar.etag());
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return date == sidecar.lastModified() / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private void transfer(Sidecar sidecar, long start, long length, HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        if (length >= sendfileThreshold && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, sidecar.path().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(sidecar.path(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long written = channel.transferTo(position, end - position, out);
+                if (written <= 0) {
+                    throw new IOException("Sidecar " + sidecar.name() + " is shorter than " + sidecar.size() + " bytes");
+                }
+                position += written;
+            }
+        } catch (NoSuchFileException e) {
+            evict(sidecar);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the sidecars as a ZIP archive. Entries are named as in single downloads (without
+     * the hash) unless that name is already taken in the archive, in which case the stored name
+     * is used. Sidecars deleted since they were looked up are left out.
+     */
+    public void writeZip(List<Sidecar> sidecars, OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> names = new HashSet<>();
+        for (Sidecar sidecar : sidecars) {
+            try (InputStream inputStream = Files.newInputStream(sidecar.path())) {
+                String name = SidecarWriter.downloadName(sidecar.name());
+                if (!names.add(name)) {
+                    name = sidecar.name();
+                    if (!names.add(name)) {
+                        continue;
+                    }
+                }
+                ZipEntry entry = new ZipEntry(name);
+                entry.setLastModifiedTime(FileTime.fromMillis(sidecar.lastModified()));
+                zip.putNextEntry(entry);
+                inputStream.transferTo(zip);
+                zip.closeEntry();
+            } catch (NoSuchFileException e) {
+                evict(sidecar);
+            }
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private void evict(Sidecar sidecar) {
+        sidecars.invalidate(sidecar.kind().name() + "/" + sidecar.name());
+    }
+}
@@ -0,0 +1,250 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes sidecar files (XMP, metadata text) on dedicated I/O threads.
+ *
+ * Callers queue writes and get a future back. Each I/O thread takes whatever is queued, up to
+ * {@code image.sidecar.batch-size} files, and commits them as a group: every file is rendered
+ * into the thread's reusable {@link Utf8Buffer}, written through a {@link FileChannel} to a
+ * temporary file in the target directory, then renamed into place atomically, so a reader never sees a partial sidecar. With
+ * {@code image.sidecar.fsync=true} each file is forced before its rename and each directory
+ * touched by the group is synced once afterwards, so the directory sync is paid per group rather
+ * than per file.
+ * <p>
+ * Sidecar names are content-addressed (see {@link #fileName}); a write whose target already
+ * exists is skipped without being rendered, since it would produce the same file.
+ * <p>
+ * Metrics: {@code image.sidecar.files} and {@code image.sidecar.bytes} (written), {@code
+ * image.sidecar.skipped} (already present), {@code image.sidecar.batch} (time per group) and
+ * {@code image.sidecar.batch.size}, and the {@code image.sidecar.queue} depth.
+ */
+@Component
+@Slf4j
+public class SidecarWriter implements DisposableBean {
+
+    private static final int HASH_LENGTH = 16;
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+    private static final int BUFFER_CAPACITY = 16 * 1024;
+
+    private final BlockingQueue<PendingWrite> queue;
+    private final List<Thread> ioThreads = new ArrayList<>();
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    private final int batchSize;
+    private final boolean fsync;
+    private final Counter files;
+    private final Counter skipped;
+    private final DistributionSummary bytes;
+    private final DistributionSummary batchSizes;
+    private final Timer batchTimer;
+
+    private volatile boolean running = true;
+
+    public SidecarWriter(MeterRegistry meterRegistry,
+                         @Value("${image.sidecar.io-threads:1}") int ioThreads,
+                         @Value("${image.sidecar.queue-capacity:10000}") int queueCapacity,
+                         @Value("${image.sidecar.batch-size:64}") int batchSize,
+                         @Value("${image.sidecar.fsync:true}") boolean fsync) {
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.fsync = fsync;
+        this.files = Counter.builder("image.sidecar.files").register(meterRegistry);
+        this.skipped = Counter.builder("image.sidecar.skipped").register(meterRegistry);
+        this.bytes = DistributionSummary.builder("image.sidecar.bytes").baseUnit("bytes").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("image.sidecar.batch.size").register(meterRegistry);
+        this.batchTimer = Timer.builder("image.sidecar.batch").register(meterRegistry);
+        Gauge.builder("image.sidecar.queue", queue, BlockingQueue::size).register(meterRegistry);
+
+        for (int i = 0; i < Math.max(1, ioThreads); i++) {
+            Thread thread = new Thread(this::run, "sidecar-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            this.ioThreads.add(thread);
+        }
+        log.info("Sidecar writer initialised: {} I/O threads, groups of up to {} files, fsync={}",
+                this.ioThreads.size(), this.batchSize, fsync);
+    }
+
+    /**
+     * Collision-free sidecar name: the upload's base name plus the first 16 hex digits of its
+     * content hash, e.g. {@code IMG_0001_3f2a9c0d41e7b655.xmp}. Two different files uploaded under
+     * the same name get different sidecars, and re-uploading the same file maps to the same one.
+     * Uploads without a file name are named after the hash alone ({@code 3f2a9c0d41e7b655.xmp}).
+     */
+    public static String fileName(String originalFileName, String contentHash, String suffix) {
+        String hash = contentHash == null || contentHash.isEmpty()
+                ? null : contentHash.substring(0, Math.min(HASH_LENGTH, contentHash.length()));
+        if (originalFileName == null || originalFileName.isBlank()) {
+            return (hash != null ? hash : "image") + suffix;
+        }
+        String baseName = originalFileName.replaceAll("\\.[^.]*$", "");
+        return hash == null ? baseName + suffix : baseName + "_" + hash + suffix;
+    }
+
+    /**
+     * Name to offer a client downloading a sidecar: the stored name without its hash, so the XMP
+     * matches the image it belongs to ({@code IMG_0001.xmp} next to {@code IMG_0001.CR2}).
+     */
+    public static String downloadName(String storedFileName) {
+        return storedFileName.replaceFirst("_[0-9a-f]{" + HASH_LENGTH + "}(?=\\.xmp$|_metadata\\.txt$)", "");
+    }
+
+    /**
+     * Renders a sidecar's contents. Called on an I/O thread, so it must only read state that is
+     * no longer being modified by the caller.
+     */
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(Utf8Buffer out);
+    }
+
+    /**
+     * Queues a write of {@code content} to {@code target}. Blocks while the queue is full.
+     */
+    public CompletableFuture<Path> write(Path target, Content content) {
+        PendingWrite write = new PendingWrite(target, content, new CompletableFuture<>());
+        if (!running) {
+            write.result().completeExceptionally(new RejectedExecutionException("Sidecar writer is shut down"));
+            return write.result();
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.result().completeExceptionally(e);
+        }
+        return write.result();
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        Utf8Buffer buffer = new Utf8Buffer(BUFFER_CAPACITY);
+        // After shutdown starts, keep going until the queue is drained
+        while (running || !queue.isEmpty()) {
+            PendingWrite first;
+            try {
+                first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            commit(batch, buffer);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingWrite> batch, Utf8Buffer buffer) {
+        long start = System.nanoTime();
+        Set<Path> touched = new HashSet<>();
+        List<PendingWrite> written = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            try {
+                if (Files.exists(write.target())) {
+                    skipped.increment();
+                    write.result().complete(write.target());
+                    continue;
+                }
+                Path directory = write.target().toAbsolutePath().getParent();
+                if (!this.directories.contains(directory)) {
+                    Files.createDirectories(directory);
+                    this.directories.add(directory);
+                }
+                bytes.record(writeAtomically(directory, write, buffer));
+                touched.add(directory);
+                written.add(write);
+            } catch (IOException | RuntimeException e) {
+                write.result().completeExceptionally(e);
+            }
+        }
+        if (fsync) {
+            for (Path directory : touched) {
+                syncDirectory(directory);
+            }
+        }
+        for (PendingWrite write : written) {
+            files.increment();
+            write.result().complete(write.target());
+        }
+        batchSizes.record(batch.size());
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private long writeAtomically(Path directory, PendingWrite write, Utf8Buffer buffer) throws IOException {
+        buffer.reset();
+        write.content().writeTo(buffer);
+        Path temp = Files.createTempFile(directory, "." + write.target().getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buffer.writeTo(channel);
+                if (fsync) {
+                    channel.force(false);
+                }
+            }
+            Files.move(temp, write.target(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return buffer.size();
+    }
+
+    /**
+     * Makes the renames in a directory durable. Opening a directory for reading is supported on
+     * Linux and macOS; elsewhere the sync is skipped.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Directory sync not supported for {}: {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting writes and waits for the queued ones to be committed.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        for (Thread thread : ioThreads) {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.result().completeExceptionally(new RejectedExecutionException("Sidecar writer is shut down"));
+        }
+    }
+
+    private record PendingWrite(Path target, Content content, CompletableFuture<Path> result) {
+    }
+}
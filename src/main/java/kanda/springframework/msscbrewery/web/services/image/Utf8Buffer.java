@@ -0,0 +1,189 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer for rendering sidecar documents. Strings are encoded (and optionally
+ * XML-escaped) straight into the buffer in one pass, numbers are written digit by digit, and
+ * static markup is appended as pre-encoded fragments, so rendering a document allocates next to
+ * nothing once the buffer has grown to size. Meant to be reused by one thread: {@link #reset}
+ * between documents.
+ */
+public final class Utf8Buffer {
+
+    private static final byte[] NULL = fragment("null");
+    private static final byte[] AMP = fragment("&amp;");
+    private static final byte[] LT = fragment("&lt;");
+    private static final byte[] GT = fragment("&gt;");
+    private static final byte[] QUOT = fragment("&quot;");
+    private static final byte[] APOS = fragment("&apos;");
+    private static final byte[] HEX_UPPER = fragment("0123456789ABCDEF");
+    private static final byte[] MIN_LONG = fragment(Long.toString(Long.MIN_VALUE));
+
+    private byte[] bytes;
+    private char[] chars;
+    private int size;
+
+    public Utf8Buffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(16, initialCapacity)];
+        this.chars = new char[256];
+    }
+
+    /**
+     * Pre-encodes static markup.
+     */
+    public static byte[] fragment(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Utf8Buffer raw(byte[] fragment) {
+        ensure(fragment.length);
+        System.arraycopy(fragment, 0, bytes, size, fragment.length);
+        size += fragment.length;
+        return this;
+    }
+
+    /**
+     * Appends text as UTF-8; {@code null} is written as "null", like {@link StringBuilder#append(String)}.
+     */
+    public Utf8Buffer text(String text) {
+        if (text == null) {
+            return raw(NULL);
+        }
+        return encode(text, false);
+    }
+
+    /**
+     * Appends text with the five XML special characters escaped; {@code null} is written as nothing.
+     */
+    public Utf8Buffer escaped(String text) {
+        if (text == null) {
+            return this;
+        }
+        return encode(text, true);
+    }
+
+    public Utf8Buffer number(long value) {
+        if (value == Long.MIN_VALUE) {
+            return raw(MIN_LONG);
+        }
+        ensure(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Appends the 8 upper-case hex digits of an int, with leading zeros.
+     */
+    public Utf8Buffer hex(int value) {
+        ensure(8);
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            bytes[size++] = HEX_UPPER[(value >>> shift) & 0xF];
+        }
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private Utf8Buffer encode(String text, boolean escape) {
+        int length = text.length();
+        // Worst case: 6 bytes per char for "&quot;", 3 bytes per char otherwise
+        ensure(length * (escape ? 6 : 3));
+        // Bulk-copy the chars once rather than going through charAt() for each
+        if (chars.length < length) {
+            chars = new char[Math.max(chars.length * 2, length)];
+        }
+        char[] in = chars;
+        text.getChars(0, length, in, 0);
+        byte[] out = bytes;
+        int position = size;
+        int i = 0;
+        // Fast path for the common all-ASCII, nothing-to-escape prefix
+        while (i < length) {
+            char c = in[i];
+            if (c >= 0x80 || (escape && needsEscape(c))) {
+                break;
+            }
+            out[position++] = (byte) c;
+            i++;
+        }
+        for (; i < length; i++) {
+            char c = in[i];
+            if (c < 0x80) {
+                if (escape && needsEscape(c)) {
+                    byte[] entity = c == '&' ? AMP : c == '<' ? LT : c == '>' ? GT : c == '"' ? QUOT : APOS;
+                    System.arraycopy(entity, 0, out, position, entity.length);
+                    position += entity.length;
+                } else {
+                    out[position++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(in[i + 1])) {
+                int codePoint = Character.toCodePoint(c, in[++i]);
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: replaced, as String.getBytes(UTF_8) does
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        size = position;
+        return this;
+    }
+
+    private static boolean needsEscape(char c) {
+        return c == '&' || c == '<' || c == '>' || c == '"' || c == '\'';
+    }
+
+    private void ensure(int additional) {
+        if (size + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+        }
+    }
+}
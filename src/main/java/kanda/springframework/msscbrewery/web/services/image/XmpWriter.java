@@ -0,0 +1,457 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+
+import java.time.LocalDateTime;
+
+import static kanda.springframework.msscbrewery.web.services.image.Utf8Buffer.fragment;
+
+/**
+ * Renders the Lightroom-compatible XMP sidecar for an image into a {@link Utf8Buffer}.
+ *
+ * The document is mostly fixed Camera Raw defaults; every run of static markup between two values
+ * is a single pre-encoded fragment, and values are encoded and escaped straight into the buffer.
+ */
+public final class XmpWriter {
+
+    private static final byte[] HEADER = fragment("""
+            <?xml version="1.0" encoding="UTF-8"?>
+            <x:xmpmeta xmlns:x="adobe:ns:meta/" x:xmptk="Adobe XMP Core 7.0-c000 79.217bca6, 2021/06/14-18:28:11">
+              <rdf:RDF xmlns:rdf="http://www.w3.org/1999/02/22-rdf-syntax-ns#">
+                <rdf:Description rdf:about=""
+                    xmlns:aux="http://ns.adobe.com/exif/1.0/aux/"
+                    xmlns:crs="http://ns.adobe.com/camera-raw-settings/1.0/"
+                    xmlns:dc="http://purl.org/dc/elements/1.1/"
+                    xmlns:exif="http://ns.adobe.com/exif/1.0/"
+                    xmlns:exifEX="http://ns.adobe.com/exif/1.0/aux/"
+                    xmlns:photoshop="http://ns.adobe.com/photoshop/1.0/"
+                    xmlns:tiff="http://ns.adobe.com/tiff/1.0/"
+                    xmlns:xmp="http://ns.adobe.com/xap/1.0/"
+                    xmlns:xmpMM="http://ns.adobe.com/xap/1.0/mm/">
+                  <crs:Version>15.4</crs:Version>
+                  <crs:ProcessVersion>11.0</crs:ProcessVersion>
+                  <crs:WhiteBalance>""");
+    private static final byte[] TEMPERATURE = fragment("""
+            </crs:WhiteBalance>
+                  <crs:Temperature>""");
+    private static final byte[] TINT = fragment("""
+            </crs:Temperature>
+                  <crs:Tint>""");
+    private static final byte[] CONTRAST = fragment("""
+            </crs:Tint>
+                  <crs:Exposure2012>0.00</crs:Exposure2012>
+                  <crs:Contrast2012>""");
+    private static final byte[] CLARITY = fragment("""
+            </crs:Contrast2012>
+                  <crs:Highlights2012>0</crs:Highlights2012>
+                  <crs:Shadows2012>0</crs:Shadows2012>
+                  <crs:Whites2012>0</crs:Whites2012>
+                  <crs:Blacks2012>0</crs:Blacks2012>
+                  <crs:Texture>0</crs:Texture>
+                  <crs:Clarity2012>""");
+    private static final byte[] SATURATION = fragment("""
+            </crs:Clarity2012>
+                  <crs:Dehaze>0</crs:Dehaze>
+                  <crs:Vibrance>0</crs:Vibrance>
+                  <crs:Saturation>""");
+    private static final byte[] CAMERA_PROFILE = fragment("""
+            </crs:Saturation>
+                  <crs:ParametricShadows>0</crs:ParametricShadows>
+                  <crs:ParametricDarks>0</crs:ParametricDarks>
+                  <crs:ParametricLights>0</crs:ParametricLights>
+                  <crs:ParametricHighlights>0</crs:ParametricHighlights>
+                  <crs:ParametricShadowSplit>25</crs:ParametricShadowSplit>
+                  <crs:ParametricMidtoneSplit>50</crs:ParametricMidtoneSplit>
+                  <crs:ParametricHighlightSplit>75</crs:ParametricHighlightSplit>
+                  <crs:HueAdjustmentRed>0</crs:HueAdjustmentRed>
+                  <crs:HueAdjustmentOrange>0</crs:HueAdjustmentOrange>
+                  <crs:HueAdjustmentYellow>0</crs:HueAdjustmentYellow>
+                  <crs:HueAdjustmentGreen>0</crs:HueAdjustmentGreen>
+                  <crs:HueAdjustmentAqua>0</crs:HueAdjustmentAqua>
+                  <crs:HueAdjustmentBlue>0</crs:HueAdjustmentBlue>
+                  <crs:HueAdjustmentPurple>0</crs:HueAdjustmentPurple>
+                  <crs:HueAdjustmentMagenta>0</crs:HueAdjustmentMagenta>
+                  <crs:SaturationAdjustmentRed>0</crs:SaturationAdjustmentRed>
+                  <crs:SaturationAdjustmentOrange>0</crs:SaturationAdjustmentOrange>
+                  <crs:SaturationAdjustmentYellow>0</crs:SaturationAdjustmentYellow>
+                  <crs:SaturationAdjustmentGreen>0</crs:SaturationAdjustmentGreen>
+                  <crs:SaturationAdjustmentAqua>0</crs:SaturationAdjustmentAqua>
+                  <crs:SaturationAdjustmentBlue>0</crs:SaturationAdjustmentBlue>
+                  <crs:SaturationAdjustmentPurple>0</crs:SaturationAdjustmentPurple>
+                  <crs:SaturationAdjustmentMagenta>0</crs:SaturationAdjustmentMagenta>
+                  <crs:LuminanceAdjustmentRed>0</crs:LuminanceAdjustmentRed>
+                  <crs:LuminanceAdjustmentOrange>0</crs:LuminanceAdjustmentOrange>
+                  <crs:LuminanceAdjustmentYellow>0</crs:LuminanceAdjustmentYellow>
+                  <crs:LuminanceAdjustmentGreen>0</crs:LuminanceAdjustmentGreen>
+                  <crs:LuminanceAdjustmentAqua>0</crs:LuminanceAdjustmentAqua>
+                  <crs:LuminanceAdjustmentBlue>0</crs:LuminanceAdjustmentBlue>
+                  <crs:LuminanceAdjustmentPurple>0</crs:LuminanceAdjustmentPurple>
+                  <crs:LuminanceAdjustmentMagenta>0</crs:LuminanceAdjustmentMagenta>
+                  <crs:ColorGradeMidtoneHue>0</crs:ColorGradeMidtoneHue>
+                  <crs:ColorGradeMidtoneSat>0</crs:ColorGradeMidtoneSat>
+                  <crs:ColorGradeShadowLum>0</crs:ColorGradeShadowLum>
+                  <crs:ColorGradeMidtoneLum>0</crs:ColorGradeMidtoneLum>
+                  <crs:ColorGradeHighlightLum>0</crs:ColorGradeHighlightLum>
+                  <crs:ColorGradeBlending>50</crs:ColorGradeBlending>
+                  <crs:ColorGradeGlobalHue>0</crs:ColorGradeGlobalHue>
+                  <crs:ColorGradeGlobalSat>0</crs:ColorGradeGlobalSat>
+                  <crs:ColorGradeGlobalLum>0</crs:ColorGradeGlobalLum>
+                  <crs:LensProfileEnable>1</crs:LensProfileEnable>
+                  <crs:LensManualDistortionAmount>0</crs:LensManualDistortionAmount>
+                  <crs:VignetteAmount>0</crs:VignetteAmount>
+                  <crs:DefringePurpleAmount>0</crs:DefringePurpleAmount>
+                  <crs:DefringeGreenAmount>0</crs:DefringeGreenAmount>
+                  <crs:SharpenRadius>1.0</crs:SharpenRadius>
+                  <crs:SharpenDetail>25</crs:SharpenDetail>
+                  <crs:SharpenEdgeMasking>0</crs:SharpenEdgeMasking>
+                  <crs:PostCropVignettingAmount>0</crs:PostCropVignettingAmount>
+                  <crs:GrainAmount>0</crs:GrainAmount>
+                  <crs:ColorNoiseReductionDetail>50</crs:ColorNoiseReductionDetail>
+                  <crs:ColorNoiseReductionSmoothness>50</crs:ColorNoiseReductionSmoothness>
+                  <crs:LuminanceSmoothing>0</crs:LuminanceSmoothing>
+                  <crs:PerspectiveUpright>0</crs:PerspectiveUpright>
+                  <crs:PerspectiveVertical>0</crs:PerspectiveVertical>
+                  <crs:PerspectiveHorizontal>0</crs:PerspectiveHorizontal>
+                  <crs:PerspectiveRotate>0.0</crs:PerspectiveRotate>
+                  <crs:PerspectiveAspect>0</crs:PerspectiveAspect>
+                  <crs:PerspectiveScale>100</crs:PerspectiveScale>
+                  <crs:PerspectiveX>0.00</crs:PerspectiveX>
+                  <crs:PerspectiveY>0.00</crs:PerspectiveY>
+                  <crs:CameraProfile>""");
+    private static final byte[] PROFILE_DIGEST = fragment("</crs:CameraProfile>\n      <crs:CameraProfileDigest>");
+    private static final byte[] PROFILE_DIGEST_END = fragment("</crs:CameraProfileDigest>\n");
+    private static final byte[] TIFF_MAKE = fragment("      <tiff:Make>");
+    private static final byte[] EXIF_MAKE = fragment("</tiff:Make>\n      <exif:Make>");
+    private static final byte[] EXIF_MAKE_END = fragment("</exif:Make>\n");
+    private static final byte[] TIFF_MODEL = fragment("      <tiff:Model>");
+    private static final byte[] EXIF_MODEL = fragment("</tiff:Model>\n      <exif:Model>");
+    private static final byte[] EXIF_MODEL_END = fragment("</exif:Model>\n");
+    private static final byte[] ISO = fragment("      <exif:ISOSpeedRatings>\n        <rdf:Seq>\n          <rdf:li>");
+    private static final byte[] ISO_END = fragment("</rdf:li>\n        </rdf:Seq>\n      </exif:ISOSpeedRatings>\n");
+    private static final byte[] F_NUMBER = fragment("      <exif:FNumber>");
+    private static final byte[] APERTURE_VALUE = fragment("/1</exif:FNumber>\n      <exif:ApertureValue>");
+    private static final byte[] APERTURE_VALUE_END = fragment("/1</exif:ApertureValue>\n");
+    private static final byte[] EXPOSURE_TIME = fragment("      <exif:ExposureTime>");
+    private static final byte[] EXPOSURE_TIME_END = fragment("</exif:ExposureTime>\n");
+    private static final byte[] FOCAL_LENGTH = fragment("      <exif:FocalLength>");
+    private static final byte[] FOCAL_LENGTH_END = fragment("/1</exif:FocalLength>\n");
+    private static final byte[] DATE_TIME_ORIGINAL = fragment("      <exif:DateTimeOriginal>");
+    private static final byte[] DATE_TIME_DIGITIZED = fragment("</exif:DateTimeOriginal>\n      <exif:DateTimeDigitized>");
+    private static final byte[] CREATE_DATE = fragment("</exif:DateTimeDigitized>\n      <xmp:CreateDate>");
+    private static final byte[] MODIFY_DATE = fragment("</xmp:CreateDate>\n      <xmp:ModifyDate>");
+    private static final byte[] MODIFY_DATE_END = fragment("</xmp:ModifyDate>\n");
+    private static final byte[] PIXEL_X = fragment("      <exif:PixelXDimension>");
+    private static final byte[] IMAGE_WIDTH = fragment("</exif:PixelXDimension>\n      <tiff:ImageWidth>");
+    private static final byte[] IMAGE_WIDTH_END = fragment("</tiff:ImageWidth>\n");
+    private static final byte[] PIXEL_Y = fragment("      <exif:PixelYDimension>");
+    private static final byte[] IMAGE_LENGTH = fragment("</exif:PixelYDimension>\n      <tiff:ImageLength>");
+    private static final byte[] IMAGE_LENGTH_END = fragment("</tiff:ImageLength>\n");
+    private static final byte[] LENS = fragment("      <aux:Lens>");
+    private static final byte[] LENS_MODEL = fragment("</aux:Lens>\n      <exifEX:LensModel>");
+    private static final byte[] LENS_MODEL_END = fragment("</exifEX:LensModel>\n");
+    private static final byte[] LATITUDE = fragment("      <exif:GPSLatitude>");
+    private static final byte[] LATITUDE_END = fragment("</exif:GPSLatitude>\n");
+    private static final byte[] LATITUDE_REF = fragment("      <exif:GPSLatitudeRef>");
+    private static final byte[] LATITUDE_REF_END = fragment("</exif:GPSLatitudeRef>\n");
+    private static final byte[] LONGITUDE = fragment("      <exif:GPSLongitude>");
+    private static final byte[] LONGITUDE_END = fragment("</exif:GPSLongitude>\n");
+    private static final byte[] LONGITUDE_REF = fragment("      <exif:GPSLongitudeRef>");
+    private static final byte[] LONGITUDE_REF_END = fragment("</exif:GPSLongitudeRef>\n");
+    private static final byte[] ALTITUDE = fragment("      <exif:GPSAltitude>");
+    private static final byte[] ALTITUDE_END = fragment("</exif:GPSAltitude>\n      <exif:GPSAltitudeRef>0</exif:GPSAltitudeRef>\n");
+    private static final byte[] METADATA_DATE = fragment(
+            "      <xmp:CreatorTool>Karthi's Meta Data Extractor</xmp:CreatorTool>\n      <xmp:MetadataDate>");
+    private static final byte[] FORMAT = fragment("</xmp:MetadataDate>\n      <dc:format>");
+    private static final byte[] FOOTER = fragment("""
+            </dc:format>
+                  <photoshop:ColorMode>3</photoshop:ColorMode>
+                  <photoshop:ICCProfile>sRGB IEC61966-2.1</photoshop:ICCProfile>
+                </rdf:Description>
+              </rdf:RDF>
+            </x:xmpmeta>
+            <?xpacket end="w"?>""");
+    private static final byte[] COORDINATE_SEPARATOR = fragment("/1,");
+    private static final byte[] RATIONAL_ONE = fragment("/1");
+
+    private XmpWriter() {
+    }
+
+    public static void write(ImageMetadataDto metadata, Utf8Buffer out) {
+        // Camera Raw Settings (Lightroom adjustments) - use real extracted data where available
+        out.raw(HEADER)
+                .escaped(metadata.getWhiteBalanceMode() != null ? metadata.getWhiteBalanceMode() : "As Shot")
+                .raw(TEMPERATURE)
+                .number(metadata.getWhiteBalanceTemperature() != null ? metadata.getWhiteBalanceTemperature() : 5500)
+                .raw(TINT)
+                .number(metadata.getWhiteBalanceTint() != null ? metadata.getWhiteBalanceTint() : 0)
+                .raw(CONTRAST)
+                .text(mapContrastToLightroom(metadata.getContrast()))
+                .raw(CLARITY)
+                .text(mapSharpnessToClarity(metadata.getSharpness()))
+                .raw(SATURATION)
+                .text(mapSaturationToLightroom(metadata.getSaturation()));
+
+        // Calibration - use extracted color space and profile information
+        String cameraProfile = determineCameraProfile(metadata);
+        out.raw(CAMERA_PROFILE).escaped(cameraProfile).raw(PROFILE_DIGEST);
+        writeProfileDigest(metadata.getCameraMake(), metadata.getCameraModel(), cameraProfile, out);
+        out.raw(PROFILE_DIGEST_END);
+
+        // EXIF data
+        if (metadata.getCameraMake() != null) {
+            out.raw(TIFF_MAKE).escaped(metadata.getCameraMake()).raw(EXIF_MAKE).escaped(metadata.getCameraMake()).raw(EXIF_MAKE_END);
+        }
+        if (metadata.getCameraModel() != null) {
+            out.raw(TIFF_MODEL).escaped(metadata.getCameraModel()).raw(EXIF_MODEL).escaped(metadata.getCameraModel()).raw(EXIF_MODEL_END);
+        }
+        if (metadata.getIso() != null) {
+            out.raw(ISO).escaped(metadata.getIso()).raw(ISO_END);
+        }
+        if (metadata.getAperture() != null) {
+            String apertureValue = metadata.getAperture().replace("f/", "");
+            out.raw(F_NUMBER).text(apertureValue).raw(APERTURE_VALUE).text(calculateApertureValue(apertureValue)).raw(APERTURE_VALUE_END);
+        }
+        if (metadata.getShutterSpeed() != null) {
+            out.raw(EXPOSURE_TIME).escaped(metadata.getShutterSpeed().replace("s", "")).raw(EXPOSURE_TIME_END);
+        }
+        if (metadata.getFocalLength() != null) {
+            out.raw(FOCAL_LENGTH).text(metadata.getFocalLength().replace(" mm", "")).raw(FOCAL_LENGTH_END);
+        }
+        if (metadata.getDateTimeTaken() != null) {
+            String taken = metadata.getDateTimeTaken().toString();
+            String dateTime = taken.replace('T', ' ');
+            out.raw(DATE_TIME_ORIGINAL).text(dateTime)
+                    .raw(DATE_TIME_DIGITIZED).text(dateTime)
+                    .raw(CREATE_DATE).text(taken)
+                    .raw(MODIFY_DATE).text(LocalDateTime.now().toString())
+                    .raw(MODIFY_DATE_END);
+        }
+        if (metadata.getWidth() != null) {
+            out.raw(PIXEL_X).number(metadata.getWidth()).raw(IMAGE_WIDTH).number(metadata.getWidth()).raw(IMAGE_WIDTH_END);
+        }
+        if (metadata.getHeight() != null) {
+            out.raw(PIXEL_Y).number(metadata.getHeight()).raw(IMAGE_LENGTH).number(metadata.getHeight()).raw(IMAGE_LENGTH_END);
+        }
+        if (metadata.getLensModel() != null) {
+            out.raw(LENS).escaped(metadata.getLensModel()).raw(LENS_MODEL).escaped(metadata.getLensModel()).raw(LENS_MODEL_END);
+        }
+
+        // GPS data
+        if (metadata.getLatitude() != null) {
+            out.raw(LATITUDE);
+            writeGpsCoordinate(metadata.getLatitude(), out);
+            out.raw(LATITUDE_END);
+            if (metadata.getGpsLatitudeRef() != null) {
+                out.raw(LATITUDE_REF).text(metadata.getGpsLatitudeRef()).raw(LATITUDE_REF_END);
+            }
+        }
+        if (metadata.getLongitude() != null) {
+            out.raw(LONGITUDE);
+            writeGpsCoordinate(metadata.getLongitude(), out);
+            out.raw(LONGITUDE_END);
+            if (metadata.getGpsLongitudeRef() != null) {
+                out.raw(LONGITUDE_REF).text(metadata.getGpsLongitudeRef()).raw(LONGITUDE_REF_END);
+            }
+        }
+        if (metadata.getAltitude() != null) {
+            out.raw(ALTITUDE).text(String.format("%.2f/1", metadata.getAltitude())).raw(ALTITUDE_END);
+        }
+
+        // Metadata information and Photoshop settings
+        out.raw(METADATA_DATE).text(LocalDateTime.now().toString())
+                .raw(FORMAT).text(metadata.getMimeType())
+                .raw(FOOTER);
+    }
+
+    /**
+     * Degrees, minutes and rounded seconds as XMP rationals ("40/1,26/1,46/1").
+     */
+    private static void writeGpsCoordinate(double coordinate, Utf8Buffer out) {
+        double absCoordinate = Math.abs(coordinate);
+        int degrees = (int) absCoordinate;
+        double minutesFloat = (absCoordinate - degrees) * 60;
+        int minutes = (int) minutesFloat;
+        double seconds = (minutesFloat - minutes) * 60;
+        out.number(degrees).raw(COORDINATE_SEPARATOR)
+                .number(minutes).raw(COORDINATE_SEPARATOR);
+        // NaN and infinite coordinates keep their name in the seconds, as "%.0f" formatting did
+        if (Double.isFinite(seconds)) {
+            out.number(Math.round(seconds));
+        } else {
+            out.text(Double.toString(seconds));
+        }
+        out.raw(RATIONAL_ONE);
+    }
+
+    /**
+     * 32 hex digits derived from the camera and profile: the hash of make + model + profile,
+     * repeated. The hash is computed over the three parts without concatenating them.
+     */
+    private static void writeProfileDigest(String make, String model, String profile, Utf8Buffer out) {
+        int hash = 0;
+        hash = hash(hash, make != null ? make : "");
+        hash = hash(hash, model != null ? model : "");
+        hash = hash(hash, profile);
+        if (hash < 0) {
+            hash = -hash;
+        }
+        for (int i = 0; i < 4; i++) {
+            out.hex(hash);
+        }
+    }
+
+    private static int hash(int hash, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            hash = 31 * hash + part.charAt(i);
+        }
+        return hash;
+    }
+
+    private static String calculateApertureValue(String apertureStr) {
+        try {
+            double aperture = Double.parseDouble(apertureStr);
+            // APEX aperture value = 2 * log2(f-number)
+            double apexValue = 2 * (Math.log(aperture) / Math.log(2));
+            return String.format("%.0f", apexValue * 100);
+        } catch (NumberFormatException e) {
+            return "0";
+        }
+    }
+
+    private static String mapContrastToLightroom(String contrast) {
+        if (contrast == null) return "0";
+        
+        String lowerContrast = contrast.toLowerCase();
+        if (lowerContrast.contains("low") || lowerContrast.contains("soft")) {
+            return "-25";
+        } else if (lowerContrast.contains("high") || lowerContrast.contains("hard")) {
+            return "+25";
+        } else if (lowerContrast.contains("normal") || lowerContrast.contains("standard")) {
+            return "0";
+        }
+        
+        // Try to extract numeric value
+        try {
+            if (contrast.matches(".*\\d+.*")) {
+                String numStr = contrast.replaceAll("[^-\\d]", "");
+                int value = Integer.parseInt(numStr);
+                // Scale to Lightroom range (-100 to +100)
+                return String.valueOf(Math.max(-100, Math.min(100, value * 25)));
+            }
+        } catch (NumberFormatException e) {
+            // Continue with default
+        }
+        
+        return "0";
+    }
+    
+    private static String mapSaturationToLightroom(String saturation) {
+        if (saturation == null) return "0";
+        
+        String lowerSaturation = saturation.toLowerCase();
+        if (lowerSaturation.contains("low") || lowerSaturation.contains("muted")) {
+            return "-25";
+        } else if (lowerSaturation.contains("high") || lowerSaturation.contains("vivid")) {
+            return "+25";
+        } else if (lowerSaturation.contains("normal") || lowerSaturation.contains("standard")) {
+            return "0";
+        }
+        
+        // Try to extract numeric value
+        try {
+            if (saturation.matches(".*\\d+.*")) {
+                String numStr = saturation.replaceAll("[^-\\d]", "");
+                int value = Integer.parseInt(numStr);
+                // Scale to Lightroom range (-100 to +100)
+                return String.valueOf(Math.max(-100, Math.min(100, value * 25)));
+            }
+        } catch (NumberFormatException e) {
+            // Continue with default
+        }
+        
+        return "0";
+    }
+    
+    private static String mapSharpnessToClarity(String sharpness) {
+        if (sharpness == null) return "0";
+        
+        String lowerSharpness = sharpness.toLowerCase();
+        if (lowerSharpness.contains("low") || lowerSharpness.contains("soft")) {
+            return "-15";
+        } else if (lowerSharpness.contains("high") || lowerSharpness.contains("hard")) {
+            return "+15";
+        } else if (lowerSharpness.contains("normal") || lowerSharpness.contains("standard")) {
+            return "0";
+        }
+        
+        // Try to extract numeric value
+        try {
+            if (sharpness.matches(".*\\d+.*")) {
+                String numStr = sharpness.replaceAll("[^-\\d]", "");
+                int value = Integer.parseInt(numStr);
+                // Scale to Lightroom clarity range (-100 to +100)
+                return String.valueOf(Math.max(-100, Math.min(100, value * 15)));
+            }
+        } catch (NumberFormatException e) {
+            // Continue with default
+        }
+        
+        return "0";
+    }
+    
+    private static String determineCameraProfile(ImageMetadataDto metadata) {
+        // Determine camera profile based on extracted metadata
+        String cameraMake = metadata.getCameraMake();
+        String pictureStyle = metadata.getPictureStyle();
+        String colorSpace = metadata.getColorSpace();
+        
+        if (cameraMake != null) {
+            String lowerMake = cameraMake.toLowerCase();
+            
+            // Canon profiles
+            if (lowerMake.contains("canon")) {
+                if (pictureStyle != null) {
+                    String lowerStyle = pictureStyle.toLowerCase();
+                    if (lowerStyle.contains("neutral")) return "Camera Neutral";
+                    if (lowerStyle.contains("portrait")) return "Camera Portrait";
+                    if (lowerStyle.contains("landscape")) return "Camera Landscape";
+                    if (lowerStyle.contains("vivid")) return "Camera Vivid";
+                }
+                return "Camera Standard";
+            }
+            
+            // Nikon profiles
+            else if (lowerMake.contains("nikon")) {
+                if (pictureStyle != null) {
+                    String lowerStyle = pictureStyle.toLowerCase();
+                    if (lowerStyle.contains("neutral")) return "Camera Neutral";
+                    if (lowerStyle.contains("portrait")) return "Camera Portrait";
+                    if (lowerStyle.contains("landscape")) return "Camera Landscape";
+                    if (lowerStyle.contains("vivid")) return "Camera Vivid";
+                }
+                return "Camera Standard";
+            }
+            
+            // Sony profiles
+            else if (lowerMake.contains("sony")) {
+                if (pictureStyle != null) {
+                    String lowerStyle = pictureStyle.toLowerCase();
+                    if (lowerStyle.contains("neutral")) return "Camera Neutral";
+                    if (lowerStyle.contains("portrait")) return "Camera Portrait";
+                    if (lowerStyle.contains("landscape")) return "Camera Landscape";
+                    if (lowerStyle.contains("vivid")) return "Camera Vivid";
+                }
+                return "Camera Standard";
+            }
+        }
+        
+        // Fallback based on color space
+        if ("Adobe RGB".equals(colorSpace)) {
+            return "Adobe Standard";
+        } else if ("sRGB".equals(colorSpace)) {
+            return "Adobe Standard";
+        }
+        
+        return "Adobe Standard";
+    }
+}
@@ -0,0 +1,380 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@code $group} accumulator ({@code $sum $avg $min $max $first $last $push $addToSet
+ * $count}) over a compiled expression. Each group keeps one {@link State} per accumulator.
+ * States can be written to a spill file and merged with the state of the same group from a
+ * later run. Merging in run order keeps {@code $first}, {@code $last} and {@code $push} in
+ * input order.
+ */
+final class Accumulator {
+
+    private final String operator;
+    private final Expression expression;
+
+    private Accumulator(String operator, Expression expression) {
+        this.operator = operator;
+        this.expression = expression;
+    }
+
+    static Accumulator compile(String field, Object spec, Set<String> dependencies) {
+        if (!(spec instanceof Map<?, ?> map) || map.size() != 1) {
+            throw new IllegalArgumentException("The field '" + field + "' must be an accumulator object");
+        }
+        String operator = String.valueOf(map.keySet().iterator().next());
+        Object argument = map.values().iterator().next();
+        return switch (operator) {
+            case "$sum", "$avg", "$min", "$max", "$first", "$last", "$push", "$addToSet" ->
+                    new Accumulator(operator, Expression.compile(argument, dependencies));
+            case "$count" -> {
+                if (!(argument instanceof Map<?, ?> empty) || !empty.isEmpty()) {
+                    throw new IllegalArgumentException("$count takes an empty document: {\"$count\": {}}");
+                }
+                yield new Accumulator(operator, null);
+            }
+            default -> throw new IllegalArgumentException("Unsupported accumulator " + operator + " for '" + field + "'");
+        };
+    }
+
+    State newState() {
+        return switch (operator) {
+            case "$sum" -> new Sum();
+            case "$avg" -> new Average();
+            case "$min" -> new Extreme(-1);
+            case "$max" -> new Extreme(1);
+            case "$first" -> new First();
+            case "$last" -> new Last();
+            case "$push" -> new Push();
+            case "$addToSet" -> new AddToSet();
+            default -> new Count();
+        };
+    }
+
+    State readState(DataInput in) throws IOException {
+        State state = newState();
+        state.read(in);
+        return state;
+    }
+
+    /**
+     * Adds a document to the state; returns roughly how many bytes the state grew by.
+     */
+    long add(State state, Map<String, Object> document) {
+        return state.add(expression != null ? expression.evaluate(document) : null);
+    }
+
+    abstract static class State {
+
+        abstract long add(Object value);
+
+        /**
+         * Folds in the state of the same group from a later run.
+         */
+        abstract void merge(State later);
+
+        abstract Object result();
+
+        abstract void write(DataOutput out) throws IOException;
+
+        abstract void read(DataInput in) throws IOException;
+    }
+
+    private static final class Sum extends State {
+        private Number total = 0;
+
+        @Override
+        long add(Object value) {
+            if (value instanceof Number number) {
+                total = Update.add(total, number);
+            }
+            return 0;
+        }
+
+        @Override
+        void merge(State later) {
+            total = Update.add(total, ((Sum) later).total);
+        }
+
+        @Override
+        Object result() {
+            return total;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, total);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            total = (Number) SpillFile.read(in);
+        }
+    }
+
+    private static final class Average extends State {
+        private Number total = 0;
+        private long count;
+
+        @Override
+        long add(Object value) {
+            if (value instanceof Number number) {
+                total = total instanceof Double || number instanceof Double
+                        ? (Number) (total.doubleValue() + number.doubleValue()) : Update.add(total, number);
+                count++;
+            }
+            return 0;
+        }
+
+        @Override
+        void merge(State later) {
+            Average other = (Average) later;
+            total = Update.add(total, other.total);
+            count += other.count;
+        }
+
+        @Override
+        Object result() {
+            if (count == 0) {
+                return null;
+            }
+            if (total instanceof BigDecimal decimal) {
+                return decimal.divide(BigDecimal.valueOf(count), MathContext.DECIMAL128);
+            }
+            return total.doubleValue() / count;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, total);
+            out.writeLong(count);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            total = (Number) SpillFile.read(in);
+            count = in.readLong();
+        }
+    }
+
+    /**
+     * $min and $max, which skip null and missing values.
+     */
+    private static final class Extreme extends State {
+        private final int direction;
+        private Object value = Values.MISSING;
+
+        Extreme(int direction) {
+            this.direction = direction;
+        }
+
+        @Override
+        long add(Object candidate) {
+            if (candidate == null || candidate == Values.MISSING) {
+                return 0;
+            }
+            if (value == Values.MISSING || Integer.signum(Values.compare(candidate, value)) == direction) {
+                value = candidate;
+            }
+            return 0;
+        }
+
+        @Override
+        void merge(State later) {
+            add(((Extreme) later).value);
+        }
+
+        @Override
+        Object result() {
+            return value == Values.MISSING ? null : value;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, value);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            value = SpillFile.read(in);
+        }
+    }
+
+    private static final class First extends State {
+        private Object value = Values.MISSING;
+
+        @Override
+        long add(Object candidate) {
+            if (value == Values.MISSING) {
+                value = candidate == Values.MISSING ? null : candidate;
+                return Values.estimateSize(value);
+            }
+            return 0;
+        }
+
+        @Override
+        void merge(State later) {
+            if (value == Values.MISSING) {
+                value = ((First) later).value;
+            }
+        }
+
+        @Override
+        Object result() {
+            return value == Values.MISSING ? null : value;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, value);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            value = SpillFile.read(in);
+        }
+    }
+
+    private static final class Last extends State {
+        private Object value = Values.MISSING;
+
+        @Override
+        long add(Object candidate) {
+            long grown = Values.estimateSize(candidate) - (value == Values.MISSING ? 0 : Values.estimateSize(value));
+            value = candidate == Values.MISSING ? null : candidate;
+            return Math.max(0, grown);
+        }
+
+        @Override
+        void merge(State later) {
+            Object other = ((Last) later).value;
+            if (other != Values.MISSING) {
+                value = other;
+            }
+        }
+
+        @Override
+        Object result() {
+            return value == Values.MISSING ? null : value;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, value);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            value = SpillFile.read(in);
+        }
+    }
+
+    private static final class Push extends State {
+        private List<Object> values = new ArrayList<>();
+
+        @Override
+        long add(Object value) {
+            if (value == Values.MISSING) {
+                return 0;
+            }
+            values.add(value);
+            return 8 + Values.estimateSize(value);
+        }
+
+        @Override
+        void merge(State later) {
+            values.addAll(((Push) later).values);
+        }
+
+        @Override
+        Object result() {
+            return values;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, values);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void read(DataInput in) throws IOException {
+            values = (List<Object>) SpillFile.read(in);
+        }
+    }
+
+    private static final class AddToSet extends State {
+        private Map<Object, Object> values = new LinkedHashMap<>();
+
+        @Override
+        long add(Object value) {
+            if (value == Values.MISSING) {
+                return 0;
+            }
+            return values.putIfAbsent(Values.hashKey(value), value) == null ? 16 + Values.estimateSize(value) : 0;
+        }
+
+        @Override
+        void merge(State later) {
+            ((AddToSet) later).values.forEach(values::putIfAbsent);
+        }
+
+        @Override
+        Object result() {
+            return new ArrayList<>(values.values());
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            SpillFile.write(out, new ArrayList<>(values.values()));
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            values = new LinkedHashMap<>();
+            for (Object value : (List<?>) SpillFile.read(in)) {
+                values.putIfAbsent(Values.hashKey(value), value);
+            }
+        }
+    }
+
+    private static final class Count extends State {
+        private long count;
+
+        @Override
+        long add(Object value) {
+            count++;
+            return 0;
+        }
+
+        @Override
+        void merge(State later) {
+            count += ((Count) later).count;
+        }
+
+        @Override
+        Object result() {
+            return count <= Integer.MAX_VALUE ? (Object) (int) count : (Object) count;
+        }
+
+        @Override
+        void write(DataOutput out) throws IOException {
+            out.writeLong(count);
+        }
+
+        @Override
+        void read(DataInput in) throws IOException {
+            count = in.readLong();
+        }
+    }
+}
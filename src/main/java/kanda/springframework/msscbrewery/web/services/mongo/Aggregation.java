@@ -0,0 +1,1139 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * An aggregation pipeline ({@code $match $project $group $sort $skip $limit $unwind $lookup
+ * $count}) compiled once and run as a chain of pull-based cursors. A stage asks the one before
+ * it for one document at a time, so a {@code $limit} stops the scan early and only
+ * {@code $sort} and {@code $group} hold more than one document.
+ * <p>
+ * Before running, the pipeline is rewritten the way MongoDB's optimizer does:
+ * <ul>
+ * <li>{@code $match} moves ahead of {@code $sort}, and of {@code $unwind}/{@code $lookup}
+ * when it does not read the fields they produce.</li>
+ * <li>Adjacent {@code $match}, {@code $skip} and {@code $limit} stages are merged.</li>
+ * <li>{@code $sort} followed by {@code $limit} keeps only the top documents.</li>
+ * <li>{@code $lookup} followed by {@code $unwind} of its output joins one document at a
+ * time.</li>
+ * <li>Leading {@code $match} stages filter inside the collection scan, and an {@code _id}
+ * equality there becomes a single lookup.</li>
+ * <li>When a later stage replaces the documents ({@code $group}, {@code $count} or an inclusion
+ * {@code $project}) and a buffering stage comes first, the scan projects documents down to
+ * the fields the pipeline reads.</li>
+ * </ul>
+ * {@code $sort} and {@code $group} spill sorted runs to disk when they outgrow the memory limit
+ * and merge them when the input ends.
+ */
+public final class Aggregation {
+
+    /**
+     * A stream of documents pulled one at a time; {@code next} returns null at the end.
+     */
+    interface Cursor extends AutoCloseable {
+
+        Map<String, Object> next();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * What a run needs from the store: the collections {@code $lookup} reads, the memory limit
+     * per blocking stage, where to spill, and the {@code maxTimeMS} deadline.
+     */
+    record Context(Function<String, DocumentCollection> collections, long memoryLimit, Path spillDirectory,
+                   long deadlineNanos) {
+    }
+
+    public record Result(List<Map<String, Object>> documents, boolean truncated, long examined, List<String> plan,
+                         int spills) {
+    }
+
+    /**
+     * The first documents each stage produced, by the stage's position in the request.
+     */
+    public record StagePreview(int index, String stage, List<Map<String, Object>> documents) {
+    }
+
+    public record Preview(List<StagePreview> stages, long total, long examined) {
+    }
+
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private final List<Stage> stages;
+    private final Filter scanFilter;
+    private final Projection scanProjection;
+    private final List<String> scanFields;
+
+    private Aggregation(List<Stage> stages, Filter scanFilter, Projection scanProjection, List<String> scanFields) {
+        this.stages = stages;
+        this.scanFilter = scanFilter;
+        this.scanProjection = scanProjection;
+        this.scanFields = scanFields;
+    }
+
+    /**
+     * Compiles a pipeline of one-field stage documents ({@code {"$match": {...}}}). Without
+     * {@code optimize}, stages run as written, so each one's output can be previewed.
+     */
+    static Aggregation compile(List<Map<String, Object>> pipeline, boolean optimize) {
+        if (pipeline == null) {
+            pipeline = List.of();
+        }
+        List<Stage> stages = new ArrayList<>(pipeline.size());
+        for (int i = 0; i < pipeline.size(); i++) {
+            Map<String, Object> stage = pipeline.get(i);
+            if (stage == null || stage.size() != 1) {
+                throw new IllegalArgumentException("Pipeline stage " + i + " must be a document with one field");
+            }
+            Map.Entry<String, Object> entry = stage.entrySet().iterator().next();
+            try {
+                Stage compiled = stage(entry.getKey(), Values.fromJson(entry.getValue()));
+                compiled.index = i;
+                stages.add(compiled);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(entry.getKey() + " (stage " + i + "): " + e.getMessage());
+            }
+        }
+        if (!optimize) {
+            return new Aggregation(stages, Filter.compile(null), null, List.of());
+        }
+        optimize(stages);
+        Filter scanFilter = Filter.compile(null);
+        if (!stages.isEmpty() && stages.get(0) instanceof MatchStage match) {
+            scanFilter = match.filter;
+            stages.remove(0);
+        }
+        List<String> scanFields = scanFields(stages);
+        Projection scanProjection = null;
+        if (!scanFields.isEmpty()) {
+            Map<String, Object> projection = new LinkedHashMap<>();
+            scanFields.forEach(field -> projection.put(field, 1));
+            projection.putIfAbsent("_id", 0);
+            scanProjection = Projection.compile(projection);
+        }
+        return new Aggregation(stages, scanFilter, scanProjection, scanFields);
+    }
+
+    private static Stage stage(String name, Object config) {
+        return switch (name) {
+            case "$match" -> new MatchStage(Filter.document(config, name));
+            case "$project" -> new ProjectStage(Filter.document(config, name));
+            case "$group" -> new GroupStage(Filter.document(config, name));
+            case "$sort" -> new SortStage(Filter.document(config, name));
+            case "$skip" -> new SkipStage(count(name, config, true));
+            case "$limit" -> new LimitStage(count(name, config, false));
+            case "$unwind" -> UnwindStage.of(config);
+            case "$lookup" -> new LookupStage(Filter.document(config, name));
+            case "$count" -> new CountStage(config);
+            default -> throw new IllegalArgumentException("Unsupported pipeline stage " + name);
+        };
+    }
+
+    private static long count(String stage, Object config, boolean zeroAllowed) {
+        if (!(config instanceof Number number) || number.doubleValue() != Math.floor(number.doubleValue())) {
+            throw new IllegalArgumentException(stage + " needs a whole number");
+        }
+        long value = number.longValue();
+        if (value < 0 || (value == 0 && !zeroAllowed)) {
+            throw new IllegalArgumentException(stage + " must be " + (zeroAllowed ? "non-negative" : "positive"));
+        }
+        return value;
+    }
+
+    private static void optimize(List<Stage> stages) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i + 1 < stages.size(); i++) {
+                Stage a = stages.get(i);
+                Stage b = stages.get(i + 1);
+                Stage merged = null;
+                if (b instanceof MatchStage match && a.commutesWith(match)) {
+                    stages.set(i, b);
+                    stages.set(i + 1, a);
+                    changed = true;
+                    continue;
+                }
+                if (a instanceof MatchStage x && b instanceof MatchStage y) {
+                    merged = x.and(y);
+                } else if (a instanceof SkipStage x && b instanceof SkipStage y) {
+                    merged = new SkipStage(x.count + y.count);
+                } else if (a instanceof LimitStage x && b instanceof LimitStage y) {
+                    merged = new LimitStage(Math.min(x.count, y.count));
+                } else if (a instanceof LookupStage lookup && b instanceof UnwindStage unwind && lookup.unwind == null
+                        && unwind.path.dotted().equals(lookup.as.dotted()) && unwind.indexField == null) {
+                    merged = lookup.fuse(unwind);
+                }
+                if (merged != null) {
+                    merged.index = a.index;
+                    stages.set(i, merged);
+                    stages.remove(i + 1);
+                    changed = true;
+                }
+            }
+        }
+        for (int i = 0; i + 1 < stages.size(); i++) {
+            if (stages.get(i) instanceof SortStage sort) {
+                if (stages.get(i + 1) instanceof LimitStage limit) {
+                    sort.bound = limit.count;
+                } else if (i + 2 < stages.size() && stages.get(i + 1) instanceof SkipStage skip
+                        && stages.get(i + 2) instanceof LimitStage limit) {
+                    sort.bound = skip.count + limit.count;
+                }
+            }
+        }
+    }
+
+    /**
+     * The fields the pipeline reads before a stage that replaces the documents, when narrowing
+     * the scanned documents to them pays off: some stage before it buffers or copies
+     * documents. Empty when any stage needs whole documents.
+     */
+    private static List<String> scanFields(List<Stage> stages) {
+        Set<String> needed = new LinkedHashSet<>();
+        Set<String> generated = new LinkedHashSet<>();
+        boolean copies = false;
+        for (Stage stage : stages) {
+            copies |= stage.copiesDocuments();
+            Set<String> dependencies = new LinkedHashSet<>();
+            if (!stage.dependencies(dependencies) || dependencies.contains(Expression.ROOT)) {
+                return List.of();
+            }
+            for (String field : dependencies) {
+                if (generated.stream().noneMatch(path -> FieldPath.overlap(path, field))) {
+                    needed.add(field);
+                }
+            }
+            generated.addAll(stage.generatedFields());
+            if (stage.replacesDocuments()) {
+                List<String> fields = minimal(needed);
+                return copies && !fields.isEmpty() && !fields.equals(List.of("_id")) ? fields : List.of();
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * The paths without those inside another one ({@code a.b} is covered by {@code a}).
+     */
+    private static List<String> minimal(Set<String> paths) {
+        List<String> sorted = new ArrayList<>(new TreeSet<>(paths));
+        List<String> minimal = new ArrayList<>();
+        for (String path : sorted) {
+            if (minimal.stream().noneMatch(kept -> path.equals(kept) || path.startsWith(kept + "."))) {
+                minimal.add(path);
+            }
+        }
+        return minimal;
+    }
+
+    /**
+     * The stages as they will run, for explain output.
+     */
+    List<String> plan(DocumentCollection source) {
+        List<String> plan = new ArrayList<>();
+        String scan = scanFilter.id() != null ? "IDHACK" : "COLLSCAN";
+        if (!scanFilter.matchesAll()) {
+            scan += " filter on " + scanFilter.fields();
+        }
+        if (scanProjection != null) {
+            scan += " projecting " + scanFields;
+        }
+        plan.add(source == null ? "EOF (no such collection)" : scan);
+        for (Stage stage : stages) {
+            plan.add(stage.describe());
+        }
+        return plan;
+    }
+
+    Result execute(DocumentCollection source, Context context, int maxResults) {
+        Run run = new Run(context);
+        List<Map<String, Object>> documents = new ArrayList<>();
+        boolean truncated = false;
+        try (Cursor cursor = open(source, run, null, 0)) {
+            Map<String, Object> document;
+            while ((document = cursor.next()) != null) {
+                if (documents.size() == maxResults) {
+                    truncated = true;
+                    break;
+                }
+                documents.add(document);
+            }
+        }
+        return new Result(documents, truncated, run.examined, plan(source), run.spills);
+    }
+
+    /**
+     * Runs the pipeline once, keeping the first {@code perStage} documents each stage
+     * produced. Stages that stopped pulling early (after a {@code $limit}) are then read on
+     * from where they stopped until their preview is full.
+     */
+    Preview preview(DocumentCollection source, Context context, int perStage) {
+        Run run = new Run(context);
+        List<Tap> taps = new ArrayList<>(stages.size());
+        long total = 0;
+        try (Cursor cursor = open(source, run, taps, perStage)) {
+            while (cursor.next() != null) {
+                total++;
+            }
+            for (int i = taps.size() - 1; i >= 0; i--) {
+                taps.get(i).fill();
+            }
+        }
+        List<StagePreview> previews = new ArrayList<>(taps.size());
+        for (int i = 0; i < taps.size(); i++) {
+            previews.add(new StagePreview(stages.get(i).index, stages.get(i).name, taps.get(i).documents));
+        }
+        return new Preview(previews, total, run.examined);
+    }
+
+    private Cursor open(DocumentCollection source, Run run, List<Tap> taps, int perStage) {
+        Cursor cursor = new ScanCursor(source == null ? List.of()
+                : scanFilter.id() != null ? source.lookup(scanFilter.id()) : source.snapshot(),
+                scanFilter, scanProjection, run);
+        try {
+            for (Stage stage : stages) {
+                cursor = stage.open(cursor, run);
+                if (taps != null) {
+                    Tap tap = new Tap(cursor, perStage);
+                    taps.add(tap);
+                    cursor = tap;
+                }
+            }
+            return cursor;
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Counters and limits of one run of the pipeline.
+     */
+    static final class Run {
+        final Context context;
+        long examined;
+        int spills;
+
+        Run(Context context) {
+            this.context = context;
+        }
+
+        void checkDeadline(long processed) {
+            if (processed % DEADLINE_CHECK_INTERVAL == 0) {
+                DocumentCollection.checkDeadline(context.deadlineNanos());
+            }
+        }
+    }
+
+    /**
+     * A cursor reading from the stage before it, which it closes with itself.
+     */
+    abstract static class Pipe implements Cursor {
+        final Cursor input;
+
+        Pipe(Cursor input) {
+            this.input = input;
+        }
+
+        @Override
+        public void close() {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the collection snapshot taken when the run started, so a long pipeline neither
+     * blocks writers nor sees their changes halfway.
+     */
+    private static final class ScanCursor implements Cursor {
+        private final List<Map<String, Object>> documents;
+        private final Filter filter;
+        private final Projection projection;
+        private final Run run;
+        private int position;
+
+        ScanCursor(List<Map<String, Object>> documents, Filter filter, Projection projection, Run run) {
+            this.documents = documents;
+            this.filter = filter;
+            this.projection = projection;
+            this.run = run;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            while (position < documents.size()) {
+                Map<String, Object> document = documents.get(position++);
+                run.checkDeadline(++run.examined);
+                if (filter.test(document)) {
+                    return projection != null ? projection.apply(document) : document;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Passes documents through, keeping the first few for a preview.
+     */
+    private static final class Tap extends Pipe {
+        private final int limit;
+        private final List<Map<String, Object>> documents = new ArrayList<>();
+        private boolean exhausted;
+
+        Tap(Cursor input, int limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (exhausted) {
+                return null;
+            }
+            Map<String, Object> document = input.next();
+            if (document == null) {
+                exhausted = true;
+            } else if (documents.size() < limit) {
+                documents.add(document);
+            }
+            return document;
+        }
+
+        void fill() {
+            while (!exhausted && documents.size() < limit) {
+                next();
+            }
+        }
+    }
+
+    abstract static class Stage {
+        final String name;
+        int index;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        abstract Cursor open(Cursor input, Run run);
+
+        /**
+         * Adds the fields the stage reads; false when it needs whole documents.
+         */
+        abstract boolean dependencies(Set<String> fields);
+
+        /**
+         * Fields the stage adds to its documents, which earlier stages cannot provide.
+         */
+        Set<String> generatedFields() {
+            return Set.of();
+        }
+
+        /**
+         * Whether the output documents are new documents built only from dependencies.
+         */
+        boolean replacesDocuments() {
+            return false;
+        }
+
+        /**
+         * Whether the stage holds or copies documents, so smaller documents make it cheaper.
+         */
+        boolean copiesDocuments() {
+            return false;
+        }
+
+        /**
+         * Whether a {@code $match} right after this stage may run before it instead.
+         */
+        boolean commutesWith(MatchStage match) {
+            return false;
+        }
+
+        String describe() {
+            return name;
+        }
+    }
+
+    static final class MatchStage extends Stage {
+        final Map<String, Object> spec;
+        final Filter filter;
+
+        MatchStage(Map<String, Object> spec) {
+            super("$match");
+            this.spec = spec;
+            this.filter = Filter.compile(spec);
+        }
+
+        MatchStage and(MatchStage other) {
+            return new MatchStage(Map.of("$and", List.of(spec, other.spec)));
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                @Override
+                public Map<String, Object> next() {
+                    Map<String, Object> document;
+                    while ((document = input.next()) != null) {
+                        if (filter.test(document)) {
+                            return document;
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.addAll(filter.fields());
+            return true;
+        }
+
+        @Override
+        String describe() {
+            return "$match on " + filter.fields();
+        }
+    }
+
+    /**
+     * {@code $project}: fields to keep (or to drop), and computed fields.
+     */
+    static final class ProjectStage extends Stage {
+        private final Projection projection;
+        private final boolean exclusion;
+        private final boolean keepId;
+        private final Map<FieldPath, Expression> computed = new LinkedHashMap<>();
+        private final Set<String> dependencies = new LinkedHashSet<>();
+
+        ProjectStage(Map<String, Object> spec) {
+            super("$project");
+            if (spec.isEmpty()) {
+                throw new IllegalArgumentException("$project needs at least one field");
+            }
+            Map<String, Object> fields = new LinkedHashMap<>();
+            flatten("", spec, fields);
+            Map<String, Object> included = new LinkedHashMap<>();
+            Map<String, Object> excluded = new LinkedHashMap<>();
+            boolean keepId = true;
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                String path = field.getKey();
+                Object value = field.getValue();
+                if (value instanceof Boolean || value instanceof Number) {
+                    boolean include = Filter.truthy(value);
+                    if (path.equals("_id")) {
+                        keepId = include;
+                    } else {
+                        (include ? included : excluded).put(path, include ? 1 : 0);
+                    }
+                } else {
+                    for (String other : fields.keySet()) {
+                        if (!other.equals(path) && FieldPath.overlap(other, path)) {
+                            throw new IllegalArgumentException("Path collision between '" + path + "' and '" + other + "'");
+                        }
+                    }
+                    computed.put(FieldPath.of(path), Expression.compile(value, dependencies));
+                }
+            }
+            if (!excluded.isEmpty() && (!included.isEmpty() || !computed.isEmpty())) {
+                throw new IllegalArgumentException("Cannot do exclusion in an inclusion projection (at '"
+                        + excluded.keySet().iterator().next() + "')");
+            }
+            // {"_id": 1} alone keeps just _id; {"_id": 0} alone drops just _id
+            this.exclusion = !excluded.isEmpty() || (included.isEmpty() && computed.isEmpty() && !keepId);
+            this.keepId = keepId && !computed.containsKey(FieldPath.of("_id"));
+            if (exclusion) {
+                excluded.put("_id", keepId ? 1 : 0);
+                this.projection = Projection.compile(excluded);
+            } else {
+                dependencies.addAll(included.keySet());
+                if (this.keepId) {
+                    dependencies.add("_id");
+                }
+                included.put("_id", this.keepId ? 1 : 0);
+                this.projection = included.size() > 1 ? Projection.compile(included) : null;
+            }
+        }
+
+        /**
+         * Nested specs ({@code {"a": {"b": 1}}}) as dotted paths ({@code a.b}).
+         */
+        private static void flatten(String prefix, Map<String, Object> spec, Map<String, Object> fields) {
+            spec.forEach((name, value) -> {
+                String path = prefix + name;
+                if (value instanceof Map<?, ?> nested && !nested.isEmpty() && !Filter.isOperatorDocument(nested)) {
+                    flatten(path + ".", Filter.document(nested, path), fields);
+                } else if (value instanceof Map<?, ?> nested && nested.isEmpty()) {
+                    throw new IllegalArgumentException("An empty object is not a valid value for '" + path + "'");
+                } else {
+                    fields.put(path, value);
+                }
+            });
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                @Override
+                public Map<String, Object> next() {
+                    Map<String, Object> document = input.next();
+                    return document == null ? null : project(document);
+                }
+            };
+        }
+
+        private Map<String, Object> project(Map<String, Object> document) {
+            if (exclusion) {
+                return projection.apply(document);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            FieldPath id = FieldPath.of("_id");
+            Expression computedId = computed.get(id);
+            if (computedId != null) {
+                Object value = computedId.evaluate(document);
+                if (value != Values.MISSING) {
+                    result.put("_id", value);
+                }
+            }
+            if (projection != null) {
+                result.putAll(projection.apply(document));
+            } else if (keepId && document.containsKey("_id")) {
+                result.put("_id", document.get("_id"));
+            }
+            computed.forEach((path, expression) -> {
+                if (!path.dotted().equals("_id")) {
+                    Object value = expression.evaluate(document);
+                    if (value != Values.MISSING) {
+                        path.set(result, value);
+                    }
+                }
+            });
+            return result;
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.addAll(dependencies);
+            return !exclusion;
+        }
+
+        @Override
+        boolean replacesDocuments() {
+            return !exclusion;
+        }
+    }
+
+    static final class GroupStage extends Stage {
+        final Expression id;
+        final List<String> fields = new ArrayList<>();
+        final List<Accumulator> accumulators = new ArrayList<>();
+        private final Set<String> dependencies = new LinkedHashSet<>();
+
+        GroupStage(Map<String, Object> spec) {
+            super("$group");
+            if (!spec.containsKey("_id")) {
+                throw new IllegalArgumentException("a group specification must include an _id");
+            }
+            id = Expression.compile(spec.get("_id"), dependencies);
+            spec.forEach((field, value) -> {
+                if (field.equals("_id")) {
+                    return;
+                }
+                if (field.startsWith("$") || field.contains(".")) {
+                    throw new IllegalArgumentException("Invalid group field name '" + field + "'");
+                }
+                fields.add(field);
+                accumulators.add(Accumulator.compile(field, value, dependencies));
+            });
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new GroupCursor(input, this, run);
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.addAll(dependencies);
+            return true;
+        }
+
+        @Override
+        boolean replacesDocuments() {
+            return true;
+        }
+    }
+
+    static final class SortStage extends Stage {
+        final Sort sort;
+        private final Set<String> fields;
+        long bound;
+
+        SortStage(Map<String, Object> spec) {
+            super("$sort");
+            this.sort = Sort.compile(spec);
+            if (sort == null) {
+                throw new IllegalArgumentException("$sort needs at least one field");
+            }
+            this.fields = spec.keySet();
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new SortCursor(input, sort, bound, run);
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.addAll(this.fields);
+            return true;
+        }
+
+        @Override
+        boolean copiesDocuments() {
+            return true;
+        }
+
+        @Override
+        boolean commutesWith(MatchStage match) {
+            return true;
+        }
+
+        @Override
+        String describe() {
+            return bound > 0 ? "$sort keeping the top " + bound : "$sort";
+        }
+    }
+
+    static final class SkipStage extends Stage {
+        final long count;
+
+        SkipStage(long count) {
+            super("$skip");
+            this.count = count;
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                private long skipped;
+
+                @Override
+                public Map<String, Object> next() {
+                    while (skipped < count) {
+                        if (input.next() == null) {
+                            return null;
+                        }
+                        skipped++;
+                    }
+                    return input.next();
+                }
+            };
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            return true;
+        }
+
+        @Override
+        String describe() {
+            return "$skip " + count;
+        }
+    }
+
+    static final class LimitStage extends Stage {
+        final long count;
+
+        LimitStage(long count) {
+            super("$limit");
+            this.count = count;
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                private long returned;
+
+                @Override
+                public Map<String, Object> next() {
+                    if (returned == count) {
+                        return null;
+                    }
+                    Map<String, Object> document = input.next();
+                    if (document != null) {
+                        returned++;
+                    }
+                    return document;
+                }
+            };
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            return true;
+        }
+
+        @Override
+        String describe() {
+            return "$limit " + count;
+        }
+    }
+
+    static final class CountStage extends Stage {
+        private final String field;
+
+        CountStage(Object config) {
+            super("$count");
+            if (!(config instanceof String field) || field.isEmpty() || field.startsWith("$") || field.contains(".")) {
+                throw new IllegalArgumentException("$count needs a field name without '$' or '.'");
+            }
+            this.field = field;
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                private boolean done;
+
+                @Override
+                public Map<String, Object> next() {
+                    if (done) {
+                        return null;
+                    }
+                    done = true;
+                    long count = 0;
+                    while (input.next() != null) {
+                        count++;
+                    }
+                    if (count == 0) {
+                        return null;
+                    }
+                    Map<String, Object> result = new LinkedHashMap<>();
+                    result.put(field, count <= Integer.MAX_VALUE ? (Object) (int) count : (Object) count);
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            return true;
+        }
+
+        @Override
+        boolean replacesDocuments() {
+            return true;
+        }
+    }
+
+    static final class UnwindStage extends Stage {
+        final FieldPath path;
+        final String indexField;
+        final boolean preserveNullAndEmptyArrays;
+
+        private UnwindStage(FieldPath path, String indexField, boolean preserveNullAndEmptyArrays) {
+            super("$unwind");
+            this.path = path;
+            this.indexField = indexField;
+            this.preserveNullAndEmptyArrays = preserveNullAndEmptyArrays;
+        }
+
+        static UnwindStage of(Object config) {
+            Object path = config;
+            String indexField = null;
+            boolean preserve = false;
+            if (config instanceof Map<?, ?> options) {
+                path = options.get("path");
+                for (Object option : options.keySet()) {
+                    if (!List.of("path", "includeArrayIndex", "preserveNullAndEmptyArrays").contains(option)) {
+                        throw new IllegalArgumentException("Unrecognized option '" + option + "'");
+                    }
+                }
+                if (options.get("includeArrayIndex") instanceof String name && !name.isEmpty()) {
+                    if (name.startsWith("$")) {
+                        throw new IllegalArgumentException("includeArrayIndex must not start with '$'");
+                    }
+                    indexField = name;
+                }
+                preserve = Boolean.TRUE.equals(options.get("preserveNullAndEmptyArrays"));
+            }
+            if (!(path instanceof String dotted) || !dotted.startsWith("$") || dotted.length() < 2) {
+                throw new IllegalArgumentException("path must be a field path starting with '$'");
+            }
+            return new UnwindStage(FieldPath.of(dotted.substring(1)), indexField, preserve);
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                private Map<String, Object> current;
+                private List<?> elements;
+                private int position;
+
+                @Override
+                public Map<String, Object> next() {
+                    while (true) {
+                        if (elements != null && position < elements.size()) {
+                            int index = position++;
+                            return unwound(current, elements.get(index), (long) index);
+                        }
+                        elements = null;
+                        Map<String, Object> document = input.next();
+                        if (document == null) {
+                            return null;
+                        }
+                        Object value = path.get(document);
+                        if (value instanceof List<?> list && !list.isEmpty()) {
+                            current = document;
+                            elements = list;
+                            position = 0;
+                        } else if (value instanceof List<?>) {
+                            if (preserveNullAndEmptyArrays) {
+                                return unwound(document, Values.MISSING, null);
+                            }
+                        } else if (value == null || value == Values.MISSING) {
+                            if (preserveNullAndEmptyArrays) {
+                                return unwound(document, value, null);
+                            }
+                        } else {
+                            // A value that is not an array unwinds to itself
+                            return unwound(document, value, null);
+                        }
+                    }
+                }
+            };
+        }
+
+        private Map<String, Object> unwound(Map<String, Object> document, Object value, Long index) {
+            Map<String, Object> result = withField(document, path, value);
+            if (indexField != null) {
+                result = withField(result, FieldPath.of(indexField), index);
+            }
+            return result;
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.add(path.dotted());
+            return true;
+        }
+
+        @Override
+        Set<String> generatedFields() {
+            return indexField != null ? Set.of(indexField) : Set.of();
+        }
+
+        @Override
+        boolean copiesDocuments() {
+            return true;
+        }
+
+        @Override
+        boolean commutesWith(MatchStage match) {
+            return match.filter.fields().stream().noneMatch(field -> FieldPath.overlap(field, path.dotted())
+                    || (indexField != null && FieldPath.overlap(field, indexField)));
+        }
+
+        @Override
+        String describe() {
+            return "$unwind " + path;
+        }
+    }
+
+    /**
+     * {@code $lookup} by equality of a local and a foreign field: the foreign collection is
+     * hashed on its field once per run, then each document is joined by lookups.
+     */
+    static final class LookupStage extends Stage {
+        final String from;
+        final FieldPath localField;
+        final FieldPath foreignField;
+        final FieldPath as;
+        final UnwindStage unwind;
+        private final Map<String, Object> spec;
+
+        LookupStage(Map<String, Object> spec) {
+            this(spec, null);
+        }
+
+        private LookupStage(Map<String, Object> spec, UnwindStage unwind) {
+            super(unwind != null ? "$lookup+$unwind" : "$lookup");
+            if (spec.containsKey("pipeline") || spec.containsKey("let")) {
+                throw new IllegalArgumentException("only the localField/foreignField form of $lookup is supported");
+            }
+            for (String option : List.of("from", "localField", "foreignField", "as")) {
+                if (!(spec.get(option) instanceof String value) || value.isEmpty()) {
+                    throw new IllegalArgumentException("$lookup requires '" + option + "'");
+                }
+            }
+            this.from = (String) spec.get("from");
+            this.localField = FieldPath.of((String) spec.get("localField"));
+            this.foreignField = FieldPath.of((String) spec.get("foreignField"));
+            this.as = FieldPath.of((String) spec.get("as"));
+            this.unwind = unwind;
+            this.spec = spec;
+        }
+
+        LookupStage fuse(UnwindStage unwind) {
+            return new LookupStage(spec, unwind);
+        }
+
+        @Override
+        Cursor open(Cursor input, Run run) {
+            return new Pipe(input) {
+                private List<Map<String, Object>> foreign;
+                private Map<Object, int[]> index;
+                private Map<String, Object> current;
+                private int[] matches;
+                private int position;
+
+                @Override
+                public Map<String, Object> next() {
+                    if (index == null) {
+                        buildIndex();
+                    }
+                    while (true) {
+                        if (matches != null && position < matches.length) {
+                            return withField(current, as, foreign.get(matches[position++]));
+                        }
+                        matches = null;
+                        Map<String, Object> document = input.next();
+                        if (document == null) {
+                            return null;
+                        }
+                        int[] joined = join(document);
+                        if (unwind == null) {
+                            List<Object> documents = new ArrayList<>(joined.length);
+                            for (int match : joined) {
+                                documents.add(foreign.get(match));
+                            }
+                            return withField(document, as, documents);
+                        }
+                        if (joined.length > 0) {
+                            current = document;
+                            matches = joined;
+                            position = 0;
+                        } else if (unwind.preserveNullAndEmptyArrays) {
+                            return withField(document, as, Values.MISSING);
+                        }
+                    }
+                }
+
+                private void buildIndex() {
+                    DocumentCollection collection = run.context.collections().apply(from);
+                    foreign = collection != null ? collection.snapshot() : List.of();
+                    Map<Object, List<Integer>> positions = new HashMap<>();
+                    List<Object> values = new ArrayList<>();
+                    for (int i = 0; i < foreign.size(); i++) {
+                        values.clear();
+                        foreignField.collect(foreign.get(i), values);
+                        for (Object value : values) {
+                            List<Integer> list = positions.computeIfAbsent(Values.hashKey(value), key -> new ArrayList<>(1));
+                            if (list.isEmpty() || list.get(list.size() - 1) != i) {
+                                list.add(i);
+                            }
+                        }
+                        run.checkDeadline(i + 1);
+                    }
+                    index = new HashMap<>(Math.max(16, positions.size() * 4 / 3 + 1));
+                    positions.forEach((key, list) -> index.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+                }
+
+                /**
+                 * Positions of the matching foreign documents, in collection order.
+                 */
+                private int[] join(Map<String, Object> document) {
+                    List<Object> values = new ArrayList<>(1);
+                    localField.collect(document, values);
+                    if (values.size() == 1) {
+                        return index.getOrDefault(Values.hashKey(values.get(0)), new int[0]);
+                    }
+                    BitSet matched = new BitSet(foreign.size());
+                    for (Object value : values) {
+                        for (int position : index.getOrDefault(Values.hashKey(value), new int[0])) {
+                            matched.set(position);
+                        }
+                    }
+                    return matched.stream().toArray();
+                }
+            };
+        }
+
+        @Override
+        boolean dependencies(Set<String> fields) {
+            fields.add(localField.dotted());
+            return true;
+        }
+
+        @Override
+        Set<String> generatedFields() {
+            return Set.of(as.dotted());
+        }
+
+        @Override
+        boolean copiesDocuments() {
+            return true;
+        }
+
+        @Override
+        boolean commutesWith(MatchStage match) {
+            return match.filter.fields().stream().noneMatch(field -> FieldPath.overlap(field, as.dotted()));
+        }
+
+        @Override
+        String describe() {
+            return name + " from " + from + " on " + localField + " = " + foreignField;
+        }
+    }
+
+    /**
+     * A copy of the document with the field at {@code path} set (or removed, for
+     * {@link Values#MISSING}); only the documents and arrays along the path are copied.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> withField(Map<String, Object> document, FieldPath path, Object value) {
+        return (Map<String, Object>) withField(document, path.segments(), 0, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object withField(Object current, String[] segments, int i, Object value) {
+        if (i == segments.length) {
+            return value;
+        }
+        if (current instanceof List<?> list) {
+            int index = segments[i].chars().allMatch(Character::isDigit) ? Integer.parseInt(segments[i]) : -1;
+            if (index >= 0 && index < list.size()) {
+                List<Object> copy = new ArrayList<>(list);
+                copy.set(index, withField(list.get(index), segments, i + 1, value));
+                return copy;
+            }
+        }
+        Map<String, Object> copy = current instanceof Map<?, ?> map
+                ? new LinkedHashMap<>((Map<String, Object>) map) : new LinkedHashMap<>();
+        Object next = withField(copy.get(segments[i]), segments, i + 1, value);
+        if (next == Values.MISSING) {
+            copy.remove(segments[i]);
+        } else {
+            copy.put(segments[i], next);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,333 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * One collection of the embedded store: documents in insertion order, keyed by {@code _id}.
+ * <p>
+ * Stored documents are never changed in place; an update stores an updated copy. Readers can
+ * therefore hand out stored documents without copying them, and only hold the read lock while
+ * scanning, not while the response is serialized.
+ */
+public final class DocumentCollection {
+
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private final String namespace;
+    private final Map<Object, Map<String, Object>> documents = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    DocumentCollection(String namespace) {
+        this.namespace = namespace;
+    }
+
+    /**
+     * Documents a query returned, how many it examined and how it found them (IDHACK for an
+     * {@code _id} lookup, COLLSCAN for a scan, SORT when the scan fed an in-memory sort).
+     */
+    public record FindResult(List<Map<String, Object>> documents, long examined, String plan, boolean truncated) {
+    }
+
+    public record UpdateResult(long matched, long modified, Object upsertedId) {
+    }
+
+    public String namespace() {
+        return namespace;
+    }
+
+    public String name() {
+        return namespace.substring(namespace.indexOf('.') + 1);
+    }
+
+    /**
+     * Runs a query; {@code limit} 0 means no limit, and at most {@code maxResults} documents
+     * are returned, with {@code truncated} set when more matched.
+     */
+    FindResult find(Filter filter, Sort sort, int skip, int limit, Projection projection,
+                    long deadlineNanos, int maxResults) {
+        int wanted = limit > 0 ? Math.min(limit, maxResults) : maxResults;
+        List<Map<String, Object>> matched;
+        long examined;
+        String plan;
+        boolean truncated;
+        lock.readLock().lock();
+        try {
+            if (filter.id() != null) {
+                Map<String, Object> document = documents.get(Values.idKey(filter.id()));
+                matched = document != null && skip == 0 && wanted > 0 ? List.of(document) : List.of();
+                examined = document != null ? 1 : 0;
+                plan = "IDHACK";
+                truncated = false;
+            } else if (sort != null) {
+                // One past the page, to tell a full page from a truncated one
+                Sort.Sorter sorter = sort.sorter(skip + wanted + 1);
+                examined = scan(filter, sorter::add, Long.MAX_VALUE, deadlineNanos);
+                List<Map<String, Object>> sorted = sorter.sorted();
+                List<Map<String, Object>> page = sorted.subList(Math.min(skip, sorted.size()), sorted.size());
+                truncated = page.size() > wanted && (limit == 0 || limit > maxResults);
+                matched = page.size() > wanted ? page.subList(0, wanted) : page;
+                plan = "SORT";
+            } else {
+                List<Map<String, Object>> page = new ArrayList<>(Math.min(wanted + 1, 1024));
+                long[] skipped = {0};
+                long stopAfter = (long) skip + wanted + 1;
+                examined = scan(filter, document -> {
+                    if (skipped[0] < skip) {
+                        skipped[0]++;
+                    } else {
+                        page.add(document);
+                    }
+                }, stopAfter, deadlineNanos);
+                truncated = page.size() > wanted && (limit == 0 || limit > maxResults);
+                matched = page.size() > wanted ? page.subList(0, wanted) : page;
+                plan = "COLLSCAN";
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (projection != null) {
+            List<Map<String, Object>> projected = new ArrayList<>(matched.size());
+            for (Map<String, Object> document : matched) {
+                projected.add(projection.apply(document));
+            }
+            matched = projected;
+        }
+        return new FindResult(List.copyOf(matched), examined, plan, truncated);
+    }
+
+    long count(Filter filter, long deadlineNanos) {
+        lock.readLock().lock();
+        try {
+            if (filter.matchesAll()) {
+                return documents.size();
+            }
+            if (filter.id() != null) {
+                return documents.containsKey(Values.idKey(filter.id())) ? 1 : 0;
+            }
+            long[] count = {0};
+            scan(filter, document -> count[0]++, Long.MAX_VALUE, deadlineNanos);
+            return count[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes matching documents to the sink until {@code stopAfter} have matched; returns how
+     * many documents were examined.
+     */
+    private long scan(Filter filter, Consumer<Map<String, Object>> sink, long stopAfter,
+                      long deadlineNanos) {
+        long examined = 0;
+        long matched = 0;
+        for (Map<String, Object> document : documents.values()) {
+            if (++examined % DEADLINE_CHECK_INTERVAL == 0) {
+                checkDeadline(deadlineNanos);
+            }
+            if (filter.test(document)) {
+                sink.accept(document);
+                if (++matched >= stopAfter) {
+                    break;
+                }
+            }
+        }
+        return examined;
+    }
+
+    /**
+     * Inserts all documents or none: an {@code _id} already stored, or repeated in the batch,
+     * fails the whole insert. Documents without an {@code _id} get a new ObjectId. The
+     * collection takes ownership of the documents, which the caller must not change afterwards.
+     */
+    List<Object> insert(List<Map<String, Object>> batch) {
+        List<Map<String, Object>> prepared = new ArrayList<>(batch.size());
+        for (Map<String, Object> document : batch) {
+            prepared.add(withId(document));
+        }
+        lock.writeLock().lock();
+        try {
+            Map<Object, Map<String, Object>> pending = new LinkedHashMap<>();
+            for (Map<String, Object> document : prepared) {
+                Object key = Values.idKey(document.get("_id"));
+                if (documents.containsKey(key) || pending.putIfAbsent(key, document) != null) {
+                    throw new IllegalArgumentException("E11000 duplicate key error collection: " + namespace
+                            + " index: _id_ dup key: { _id: " + Values.toJson(document.get("_id")) + " }");
+                }
+            }
+            documents.putAll(pending);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<Object> ids = new ArrayList<>(prepared.size());
+        for (Map<String, Object> document : prepared) {
+            ids.add(document.get("_id"));
+        }
+        return ids;
+    }
+
+    /**
+     * Applies the update to the first (or, with {@code multi}, every) matching document; with
+     * {@code upsert} and no match, inserts the filter's equalities with the update applied.
+     */
+    UpdateResult update(Filter filter, Update update, boolean multi, boolean upsert, long deadlineNanos) {
+        lock.writeLock().lock();
+        try {
+            List<Map<String, Object>> targets = new ArrayList<>();
+            if (filter.id() != null) {
+                Map<String, Object> document = documents.get(Values.idKey(filter.id()));
+                if (document != null) {
+                    targets.add(document);
+                }
+            } else {
+                scan(filter, targets::add, multi ? Long.MAX_VALUE : 1, deadlineNanos);
+            }
+            if (targets.isEmpty()) {
+                if (!upsert) {
+                    return new UpdateResult(0, 0, null);
+                }
+                Map<String, Object> seed = new LinkedHashMap<>();
+                filter.equalities().forEach((dotted, value) -> FieldPath.of(dotted).set(seed, Values.copy(value)));
+                Map<String, Object> inserted = withId(update.apply(seed, true));
+                Object key = Values.idKey(inserted.get("_id"));
+                if (documents.containsKey(key)) {
+                    throw new IllegalArgumentException("E11000 duplicate key error collection: " + namespace
+                            + " index: _id_ dup key: { _id: " + Values.toJson(inserted.get("_id")) + " }");
+                }
+                documents.put(key, inserted);
+                return new UpdateResult(0, 0, inserted.get("_id"));
+            }
+            // Compute every change before storing any, so a failing document leaves all unchanged
+            List<Map<String, Object>> changed = new ArrayList<>(targets.size());
+            for (Map<String, Object> document : targets) {
+                Map<String, Object> updated = update.apply(document, false);
+                if (!Values.equal(document, updated)) {
+                    changed.add(updated);
+                }
+            }
+            for (Map<String, Object> updated : changed) {
+                documents.put(Values.idKey(updated.get("_id")), updated);
+            }
+            return new UpdateResult(targets.size(), changed.size(), null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long delete(Filter filter, boolean multi, long deadlineNanos) {
+        lock.writeLock().lock();
+        try {
+            if (filter.id() != null) {
+                return documents.remove(Values.idKey(filter.id())) != null ? 1 : 0;
+            }
+            long deleted = 0;
+            long examined = 0;
+            Iterator<Map<String, Object>> iterator = documents.values().iterator();
+            while (iterator.hasNext()) {
+                if (++examined % DEADLINE_CHECK_INTERVAL == 0) {
+                    checkDeadline(deadlineNanos);
+                }
+                if (filter.test(iterator.next())) {
+                    iterator.remove();
+                    deleted++;
+                    if (!multi) {
+                        break;
+                    }
+                }
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The document with this {@code _id}, as a list of zero or one.
+     */
+    List<Map<String, Object>> lookup(Object id) {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> document = documents.get(Values.idKey(id));
+            return document != null ? List.of(document) : List.of();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The documents as of now, in insertion order; later writes do not affect the list.
+     */
+    List<Map<String, Object>> snapshot() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(documents.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Average document size in bytes, estimated from up to the first 1000 documents.
+     */
+    public long averageDocumentSize() {
+        lock.readLock().lock();
+        try {
+            long total = 0;
+            int sampled = 0;
+            for (Map<String, Object> document : documents.values()) {
+                total += Values.estimateSize(document);
+                if (++sampled == 1000) {
+                    break;
+                }
+            }
+            return sampled == 0 ? 0 : total / sampled;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            documents.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static void checkDeadline(long deadlineNanos) {
+        if (deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0) {
+            throw new IllegalStateException("operation exceeded time limit");
+        }
+    }
+
+    private static Map<String, Object> withId(Map<String, Object> document) {
+        if (document.containsKey("_id")) {
+            Object id = document.get("_id");
+            if (id instanceof List || id instanceof Pattern) {
+                throw new IllegalArgumentException("_id cannot be of type " + Values.typeName(id));
+            }
+            return document;
+        }
+        Map<String, Object> withId = new LinkedHashMap<>(Math.max(4, (document.size() + 1) * 4 / 3 + 1));
+        withId.put("_id", ObjectId.generate());
+        withId.putAll(document);
+        return withId;
+    }
+}
@@ -0,0 +1,312 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The embedded document store the Mongo query builder runs queries against: databases of
+ * in-memory collections, filled through the import endpoint, by insert operations, or at
+ * startup from {@code <mongo.store.directory>/<database>/<collection>.json} files in
+ * {@code mongoexport} format (JSON lines or an array, Extended JSON allowed).
+ * <p>
+ * Filters, sorts, projections, updates and aggregation pipelines arrive as JSON documents and
+ * are compiled once per request; documents go out in relaxed Extended JSON
+ * ({@code {"$oid": ...}}, {@code {"$date": ...}}).
+ */
+@Slf4j
+@Component
+public class DocumentStore {
+
+    public static final String DEFAULT_DATABASE = "test";
+
+    private final String directory;
+    private final int maxResults;
+    private final long aggregationMemoryLimit;
+    private final Path spillDirectory;
+    private final Map<String, DocumentCollection> collections = new ConcurrentHashMap<>();
+
+    public DocumentStore(@Value("${mongo.store.directory:}") String directory,
+                         @Value("${mongo.query.max-results:1000}") int maxResults,
+                         @Value("${mongo.aggregation.memory-limit:100MB}") DataSize aggregationMemoryLimit,
+                         @Value("${mongo.aggregation.spill-directory:}") String spillDirectory) {
+        this.directory = directory;
+        this.maxResults = maxResults;
+        this.aggregationMemoryLimit = aggregationMemoryLimit.toBytes();
+        this.spillDirectory = Path.of(StringUtils.hasText(spillDirectory) ? spillDirectory
+                : System.getProperty("java.io.tmpdir"));
+    }
+
+    @PostConstruct
+    void load() {
+        if (!StringUtils.hasText(directory)) {
+            return;
+        }
+        Path root = Path.of(directory);
+        if (!Files.isDirectory(root)) {
+            log.warn("Mongo store directory {} does not exist", root);
+            return;
+        }
+        long start = System.nanoTime();
+        long documents = 0;
+        int loaded = 0;
+        try (Stream<Path> databases = Files.list(root)) {
+            for (Path database : databases.filter(Files::isDirectory).sorted().toList()) {
+                try (Stream<Path> files = Files.list(database)) {
+                    for (Path file : files.filter(path -> path.getFileName().toString().endsWith(".json")).sorted().toList()) {
+                        String name = file.getFileName().toString();
+                        try (InputStream inputStream = Files.newInputStream(file)) {
+                            documents += importDocuments(database.getFileName().toString(),
+                                    name.substring(0, name.length() - ".json".length()), inputStream, true);
+                            loaded++;
+                        } catch (IOException | IllegalArgumentException e) {
+                            log.error("Error loading collection file {}: {}", file, e.getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading Mongo store directory {}: {}", root, e.getMessage());
+        }
+        log.info("Mongo store loaded in {} ms: {} collections, {} documents",
+                (System.nanoTime() - start) / 1_000_000, loaded, documents);
+    }
+
+    public int maxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Reads documents in {@code mongoexport} format into a collection, created if needed. With
+     * {@code replace}, the collection is swapped for the imported one when the import succeeds;
+     * otherwise documents are added, and a duplicate {@code _id} fails the whole import.
+     */
+    public long importDocuments(String database, String collection, InputStream inputStream, boolean replace)
+            throws IOException {
+        String namespace = namespace(database, collection);
+        List<Map<String, Object>> documents = new ArrayList<>();
+        JsonDocuments.read(inputStream, documents::add);
+        if (replace) {
+            DocumentCollection imported = new DocumentCollection(namespace);
+            imported.insert(documents);
+            collections.put(namespace, imported);
+        } else {
+            collection(namespace).insert(documents);
+        }
+        return documents.size();
+    }
+
+    public boolean drop(String database, String collection) {
+        return collections.remove(namespace(database, collection)) != null;
+    }
+
+    public Optional<DocumentCollection> find(String database, String collection) {
+        return Optional.ofNullable(collections.get(namespace(database, collection)));
+    }
+
+    /**
+     * The collections of a database, by name.
+     */
+    public List<DocumentCollection> collections(String database) {
+        String prefix = database(database) + ".";
+        return collections.values().stream()
+                .filter(collection -> collection.namespace().startsWith(prefix))
+                .sorted(Comparator.comparing(DocumentCollection::namespace))
+                .toList();
+    }
+
+    public List<String> databases() {
+        return collections.keySet().stream()
+                .map(namespace -> namespace.substring(0, namespace.indexOf('.')))
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    public DocumentCollection.FindResult find(String database, String collection, Map<String, Object> filter,
+                                              Map<String, ?> sort, int skip, int limit, Map<String, ?> projection,
+                                              long deadlineNanos) {
+        if (skip < 0 || limit < 0) {
+            throw new IllegalArgumentException("skip and limit cannot be negative");
+        }
+        Filter compiled = Filter.compile(filter);
+        Sort sorted = Sort.compile(sort);
+        Projection projected = Projection.compile(projection);
+        DocumentCollection target = collections.get(namespace(database, collection));
+        if (target == null) {
+            return new DocumentCollection.FindResult(List.of(), 0, compiled.id() != null ? "IDHACK" : "EOF", false);
+        }
+        DocumentCollection.FindResult result = target.find(compiled, sorted, skip, limit, projected, deadlineNanos, maxResults);
+        return new DocumentCollection.FindResult(toJson(result.documents()), result.examined(), result.plan(), result.truncated());
+    }
+
+    public long count(String database, String collection, Map<String, Object> filter, long deadlineNanos) {
+        Filter compiled = Filter.compile(filter);
+        DocumentCollection target = collections.get(namespace(database, collection));
+        return target == null ? 0 : target.count(compiled, deadlineNanos);
+    }
+
+    /**
+     * Runs an optimized aggregation pipeline; the documents are capped at {@code maxResults}.
+     */
+    public Aggregation.Result aggregate(String database, String collection, List<Map<String, Object>> pipeline,
+                                       long deadlineNanos) {
+        Aggregation aggregation = Aggregation.compile(pipeline, true);
+        Aggregation.Result result = aggregation.execute(collections.get(namespace(database, collection)),
+                context(database, deadlineNanos), maxResults);
+        return new Aggregation.Result(toJson(result.documents()), result.truncated(), result.examined(),
+                result.plan(), result.spills());
+    }
+
+    /**
+     * Runs a pipeline as written and returns the first {@code perStage} documents out of each
+     * stage, with the number of documents the whole pipeline returns.
+     */
+    public Aggregation.Preview preview(String database, String collection, List<Map<String, Object>> pipeline,
+                                       int perStage, long deadlineNanos) {
+        Aggregation.Preview preview = Aggregation.compile(pipeline, false)
+                .preview(collections.get(namespace(database, collection)), context(database, deadlineNanos), perStage);
+        List<Aggregation.StagePreview> stages = preview.stages().stream()
+                .map(stage -> new Aggregation.StagePreview(stage.index(), stage.stage(), toJson(stage.documents())))
+                .toList();
+        return new Aggregation.Preview(stages, preview.total(), preview.examined());
+    }
+
+    private Aggregation.Context context(String database, long deadlineNanos) {
+        return new Aggregation.Context(from -> collections.get(namespace(database, from)), aggregationMemoryLimit,
+                spillDirectory, deadlineNanos);
+    }
+
+    /**
+     * Inserts documents (creating the collection) and returns their {@code _id}s.
+     */
+    public List<Object> insert(String database, String collection, List<Map<String, Object>> documents) {
+        if (documents == null || documents.isEmpty()) {
+            throw new IllegalArgumentException("No documents to insert");
+        }
+        List<Map<String, Object>> converted = new ArrayList<>(documents.size());
+        for (Map<String, Object> document : documents) {
+            if (document == null) {
+                throw new IllegalArgumentException("Documents to insert cannot be null");
+            }
+            converted.add(Filter.document(Values.fromJson(document), "document"));
+        }
+        return collection(namespace(database, collection)).insert(converted);
+    }
+
+    public DocumentCollection.UpdateResult update(String database, String collection, Map<String, Object> filter,
+                                                  Map<String, Object> update, boolean replace, boolean multi,
+                                                  boolean upsert, long deadlineNanos) {
+        Filter compiled = Filter.compile(filter);
+        Update compiledUpdate = Update.compile(update, replace);
+        String namespace = namespace(database, collection);
+        DocumentCollection target = upsert ? collection(namespace) : collections.get(namespace);
+        if (target == null) {
+            return new DocumentCollection.UpdateResult(0, 0, null);
+        }
+        return target.update(compiled, compiledUpdate, multi, upsert, deadlineNanos);
+    }
+
+    public long delete(String database, String collection, Map<String, Object> filter, boolean multi,
+                       long deadlineNanos) {
+        Filter compiled = Filter.compile(filter);
+        DocumentCollection target = collections.get(namespace(database, collection));
+        return target == null ? 0 : target.delete(compiled, multi, deadlineNanos);
+    }
+
+    /**
+     * The problems with a query's parts, without running it; empty when all compile.
+     */
+    public List<String> validate(Map<String, Object> filter, Map<String, ?> sort, Map<String, ?> projection,
+                                 Map<String, Object> update, boolean replace) {
+        List<String> errors = new ArrayList<>();
+        check(errors, "filter", () -> Filter.compile(filter));
+        check(errors, "sort", () -> Sort.compile(sort));
+        check(errors, "projection", () -> Projection.compile(projection));
+        if (update != null) {
+            check(errors, replace ? "replacement" : "update", () -> Update.compile(update, replace));
+        }
+        return errors;
+    }
+
+    /**
+     * The problems with a pipeline, without running it; empty when it compiles.
+     */
+    public List<String> validatePipeline(List<Map<String, Object>> pipeline) {
+        List<String> errors = new ArrayList<>();
+        check(errors, "pipeline", () -> Aggregation.compile(pipeline, false));
+        return errors;
+    }
+
+    private static void check(List<String> errors, String part, Runnable compile) {
+        try {
+            compile.run();
+        } catch (IllegalArgumentException e) {
+            errors.add("Invalid " + part + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * An {@code _id} as it is listed in write results: an ObjectId as its hex string.
+     */
+    public static String idString(Object id) {
+        return id instanceof Map || id instanceof List ? String.valueOf(Values.toJson(id)) : String.valueOf(id);
+    }
+
+    /**
+     * The deadline for {@code maxTimeMS}, or none.
+     */
+    public static long deadline(Integer maxTimeMS) {
+        return maxTimeMS == null || maxTimeMS <= 0 ? Long.MAX_VALUE : System.nanoTime() + maxTimeMS * 1_000_000L;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> toJson(List<Map<String, Object>> documents) {
+        List<Map<String, Object>> json = new ArrayList<>(documents.size());
+        for (Map<String, Object> document : documents) {
+            json.add((Map<String, Object>) Values.toJson(document));
+        }
+        return json;
+    }
+
+    private DocumentCollection collection(String namespace) {
+        return collections.computeIfAbsent(namespace, DocumentCollection::new);
+    }
+
+    private static String namespace(String database, String collection) {
+        if (!StringUtils.hasText(collection)) {
+            throw new IllegalArgumentException("Collection name is required");
+        }
+        if (collection.startsWith("$") || collection.indexOf('\0') >= 0 || collection.startsWith("system.")) {
+            throw new IllegalArgumentException("Invalid collection name '" + collection + "'");
+        }
+        return database(database) + "." + collection;
+    }
+
+    private static String database(String database) {
+        if (!StringUtils.hasText(database)) {
+            return DEFAULT_DATABASE;
+        }
+        for (char c : database.toCharArray()) {
+            if ("/\\. \"$*<>:|?".indexOf(c) >= 0 || c == '\0') {
+                throw new IllegalArgumentException("Invalid database name '" + database + "'");
+            }
+        }
+        return database;
+    }
+}
@@ -0,0 +1,559 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An aggregation expression compiled once per pipeline: field paths ({@code "$price"},
+ * {@code "$items.qty"}, {@code "$$ROOT"}), literals, expression documents and arrays, and the
+ * operators below. Evaluation returns {@link Values#MISSING} for a path that is not there.
+ * <p>
+ * Operators: {@code $add $subtract $multiply $divide $mod $abs $ceil $floor $round},
+ * {@code $concat $toUpper $toLower $substrCP $strLenCP $toString}, {@code $eq $ne $gt $gte $lt
+ * $lte $cmp}, {@code $and $or $not}, {@code $cond $ifNull}, {@code $size $arrayElemAt $in},
+ * {@code $year $month $dayOfMonth $hour $minute $second $dayOfWeek $dateToString} (UTC),
+ * {@code $type $literal}.
+ */
+final class Expression {
+
+    @FunctionalInterface
+    private interface Evaluator {
+        Object evaluate(Map<String, Object> document);
+    }
+
+    private final Evaluator evaluator;
+
+    private Expression(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    Object evaluate(Map<String, Object> document) {
+        return evaluator.evaluate(document);
+    }
+
+    /**
+     * Compiles an expression, adding the field paths it reads to {@code dependencies}; a
+     * reference to the whole document adds {@link #ROOT}.
+     */
+    static Expression compile(Object spec, Set<String> dependencies) {
+        return new Expression(evaluator(spec, dependencies));
+    }
+
+    /**
+     * The dependency of an expression that reads the whole document.
+     */
+    static final String ROOT = "$$ROOT";
+
+    private static Evaluator evaluator(Object spec, Set<String> dependencies) {
+        if (spec instanceof String string && string.startsWith("$")) {
+            return path(string, dependencies);
+        }
+        if (spec instanceof Map<?, ?> map) {
+            if (!map.isEmpty() && map.keySet().iterator().next() instanceof String key && key.startsWith("$")) {
+                if (map.size() != 1) {
+                    throw new IllegalArgumentException("An expression document with operator " + key + " must have one field");
+                }
+                return operator(key, map.get(key), dependencies);
+            }
+            Map<String, Evaluator> fields = new LinkedHashMap<>();
+            map.forEach((name, value) -> {
+                if (String.valueOf(name).startsWith("$") || String.valueOf(name).contains(".")) {
+                    throw new IllegalArgumentException("Invalid field name '" + name + "' in an expression document");
+                }
+                fields.put(String.valueOf(name), evaluator(value, dependencies));
+            });
+            return document -> {
+                Map<String, Object> result = new LinkedHashMap<>(Math.max(4, fields.size() * 4 / 3 + 1));
+                fields.forEach((name, field) -> {
+                    Object value = field.evaluate(document);
+                    if (value != Values.MISSING) {
+                        result.put(name, value);
+                    }
+                });
+                return result;
+            };
+        }
+        if (spec instanceof List<?> list) {
+            List<Evaluator> items = new ArrayList<>(list.size());
+            for (Object item : list) {
+                items.add(evaluator(item, dependencies));
+            }
+            return document -> {
+                List<Object> result = new ArrayList<>(items.size());
+                for (Evaluator item : items) {
+                    Object value = item.evaluate(document);
+                    result.add(value == Values.MISSING ? null : value);
+                }
+                return result;
+            };
+        }
+        return document -> spec;
+    }
+
+    private static Evaluator path(String reference, Set<String> dependencies) {
+        if (reference.equals("$$ROOT") || reference.equals("$$CURRENT")) {
+            dependencies.add(ROOT);
+            return document -> document;
+        }
+        if (reference.equals("$$REMOVE")) {
+            return document -> Values.MISSING;
+        }
+        String dotted;
+        if (reference.startsWith("$$ROOT.") || reference.startsWith("$$CURRENT.")) {
+            dotted = reference.substring(reference.indexOf('.') + 1);
+        } else if (reference.startsWith("$$")) {
+            throw new IllegalArgumentException("Unknown variable " + reference);
+        } else {
+            dotted = reference.substring(1);
+        }
+        String[] segments = FieldPath.of(dotted).segments();
+        dependencies.add(dotted);
+        return document -> traverse(document, segments, 0);
+    }
+
+    /**
+     * The value at a path; through an array of documents, the array of their values.
+     */
+    private static Object traverse(Object current, String[] segments, int i) {
+        if (i == segments.length) {
+            return current;
+        }
+        if (current instanceof Map<?, ?> map) {
+            Object next = map.get(segments[i]);
+            if (next == null && !map.containsKey(segments[i])) {
+                return Values.MISSING;
+            }
+            return traverse(next, segments, i + 1);
+        }
+        if (current instanceof List<?> list) {
+            List<Object> values = new ArrayList<>(list.size());
+            for (Object element : list) {
+                if (element instanceof Map || element instanceof List) {
+                    Object value = traverse(element, segments, i);
+                    if (value != Values.MISSING) {
+                        values.add(value);
+                    }
+                }
+            }
+            return values;
+        }
+        return Values.MISSING;
+    }
+
+    private static Evaluator operator(String operator, Object argument, Set<String> dependencies) {
+        if (operator.equals("$literal")) {
+            return document -> argument;
+        }
+        // $cond and $dateToString take named arguments and compile them themselves
+        boolean named = operator.equals("$cond") || operator.equals("$dateToString");
+        List<Evaluator> args = new ArrayList<>();
+        if (!named && argument instanceof List<?> list) {
+            for (Object item : list) {
+                args.add(evaluator(item, dependencies));
+            }
+        } else if (!named) {
+            args.add(evaluator(argument, dependencies));
+        }
+        return switch (operator) {
+            case "$add" -> document -> {
+                Object sum = 0;
+                Instant date = null;
+                for (Evaluator arg : args) {
+                    Object value = arg.evaluate(document);
+                    if (value == null || value == Values.MISSING) {
+                        return null;
+                    }
+                    if (value instanceof Instant instant) {
+                        if (date != null) {
+                            throw new IllegalArgumentException("$add can only add one date");
+                        }
+                        date = instant;
+                    } else {
+                        sum = Update.add((Number) sum, number(operator, value));
+                    }
+                }
+                return date != null ? date.plusMillis(((Number) sum).longValue()) : sum;
+            };
+            case "$subtract" -> binary(operator, args, (a, b) -> {
+                if (a instanceof Instant x && b instanceof Instant y) {
+                    return y.until(x, ChronoUnit.MILLIS);
+                }
+                if (a instanceof Instant x) {
+                    return x.minusMillis(number(operator, b).longValue());
+                }
+                return Update.add(number(operator, a), negate(number(operator, b)));
+            });
+            case "$multiply" -> document -> {
+                Number product = 1;
+                for (Evaluator arg : args) {
+                    Object value = arg.evaluate(document);
+                    if (value == null || value == Values.MISSING) {
+                        return null;
+                    }
+                    product = Update.multiply(product, number(operator, value));
+                }
+                return product;
+            };
+            case "$divide" -> binary(operator, args, (a, b) -> {
+                Number divisor = number(operator, b);
+                if (divisor.doubleValue() == 0) {
+                    throw new IllegalArgumentException("$divide by zero");
+                }
+                if (a instanceof BigDecimal || b instanceof BigDecimal) {
+                    return Values.decimal(number(operator, a)).divide(Values.decimal(divisor), MathContext.DECIMAL128);
+                }
+                return number(operator, a).doubleValue() / divisor.doubleValue();
+            });
+            case "$mod" -> binary(operator, args, (a, b) -> {
+                Number x = number(operator, a);
+                Number y = number(operator, b);
+                if (y.doubleValue() == 0) {
+                    throw new IllegalArgumentException("$mod by zero");
+                }
+                if (Values.isIntegral(x) && Values.isIntegral(y)) {
+                    long result = x.longValue() % y.longValue();
+                    return x instanceof Integer && y instanceof Integer ? (Object) (int) result : (Object) result;
+                }
+                return x.doubleValue() % y.doubleValue();
+            });
+            case "$abs" -> unary(operator, args, value -> {
+                Number number = number(operator, value);
+                return Values.compareNumbers(number, 0) < 0 ? negate(number) : number;
+            });
+            case "$ceil", "$floor" -> unary(operator, args, value -> {
+                Number number = number(operator, value);
+                if (Values.isIntegral(number)) {
+                    return number;
+                }
+                if (number instanceof BigDecimal decimal) {
+                    return decimal.setScale(0, operator.equals("$ceil") ? RoundingMode.CEILING : RoundingMode.FLOOR);
+                }
+                return operator.equals("$ceil") ? Math.ceil(number.doubleValue()) : Math.floor(number.doubleValue());
+            });
+            case "$round" -> document -> {
+                Object value = args.get(0).evaluate(document);
+                if (value == null || value == Values.MISSING) {
+                    return null;
+                }
+                int places = args.size() > 1 ? number(operator, args.get(1).evaluate(document)).intValue() : 0;
+                Number number = number(operator, value);
+                if (Values.isIntegral(number) && places >= 0) {
+                    return number;
+                }
+                BigDecimal rounded = Values.decimal(number).setScale(places, RoundingMode.HALF_EVEN);
+                return number instanceof BigDecimal ? rounded : (Object) rounded.doubleValue();
+            };
+            case "$concat" -> document -> {
+                StringBuilder result = new StringBuilder();
+                for (Evaluator arg : args) {
+                    Object value = arg.evaluate(document);
+                    if (value == null || value == Values.MISSING) {
+                        return null;
+                    }
+                    if (!(value instanceof String string)) {
+                        throw new IllegalArgumentException("$concat only supports strings, not " + Values.typeName(value));
+                    }
+                    result.append(string);
+                }
+                return result.toString();
+            };
+            case "$toUpper", "$toLower" -> unary(operator, args, value -> {
+                String string = value instanceof String s ? s : String.valueOf(Values.toJson(value));
+                return operator.equals("$toUpper") ? string.toUpperCase() : string.toLowerCase();
+            }, "");
+            case "$toString" -> unary(operator, args, value -> switch (value) {
+                case String s -> s;
+                case ObjectId id -> id.hex();
+                case Instant instant -> instant.toString();
+                case BigDecimal d -> d.toPlainString();
+                case Number n -> String.valueOf(n);
+                case Boolean b -> String.valueOf(b);
+                default -> throw new IllegalArgumentException("$toString cannot convert a " + Values.typeName(value));
+            });
+            case "$strLenCP" -> unary(operator, args, value -> {
+                if (!(value instanceof String string)) {
+                    throw new IllegalArgumentException("$strLenCP needs a string");
+                }
+                return string.codePointCount(0, string.length());
+            });
+            case "$substrCP" -> document -> {
+                if (args.size() != 3) {
+                    throw new IllegalArgumentException("$substrCP needs [string, start, length]");
+                }
+                Object value = args.get(0).evaluate(document);
+                String string = value == null || value == Values.MISSING ? "" : String.valueOf(value);
+                int start = number(operator, args.get(1).evaluate(document)).intValue();
+                int length = number(operator, args.get(2).evaluate(document)).intValue();
+                int count = string.codePointCount(0, string.length());
+                if (start < 0 || length < 0 || start >= count) {
+                    return "";
+                }
+                int from = string.offsetByCodePoints(0, start);
+                int to = string.offsetByCodePoints(from, Math.min(length, count - start));
+                return string.substring(from, to);
+            };
+            case "$eq", "$ne", "$gt", "$gte", "$lt", "$lte", "$cmp" -> {
+                if (args.size() != 2) {
+                    throw new IllegalArgumentException(operator + " needs two arguments");
+                }
+                yield document -> {
+                    Object a = args.get(0).evaluate(document);
+                    Object b = args.get(1).evaluate(document);
+                    int order = Values.compare(a == Values.MISSING ? null : a, b == Values.MISSING ? null : b);
+                    return switch (operator) {
+                        case "$eq" -> order == 0;
+                        case "$ne" -> order != 0;
+                        case "$gt" -> order > 0;
+                        case "$gte" -> order >= 0;
+                        case "$lt" -> order < 0;
+                        case "$lte" -> order <= 0;
+                        default -> Integer.signum(order);
+                    };
+                };
+            }
+            case "$and" -> document -> {
+                for (Evaluator arg : args) {
+                    if (!truthy(arg.evaluate(document))) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+            case "$or" -> document -> {
+                for (Evaluator arg : args) {
+                    if (truthy(arg.evaluate(document))) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+            case "$not" -> document -> !truthy(args.get(0).evaluate(document));
+            case "$cond" -> condition(argument, dependencies);
+            case "$ifNull" -> {
+                if (args.size() < 2) {
+                    throw new IllegalArgumentException("$ifNull needs at least two arguments");
+                }
+                yield document -> {
+                    for (int i = 0; i < args.size() - 1; i++) {
+                        Object value = args.get(i).evaluate(document);
+                        if (value != null && value != Values.MISSING) {
+                            return value;
+                        }
+                    }
+                    return args.get(args.size() - 1).evaluate(document);
+                };
+            }
+            case "$size" -> {
+                Evaluator arg = single(operator, args);
+                yield document -> {
+                    if (!(arg.evaluate(document) instanceof List<?> list)) {
+                        throw new IllegalArgumentException("The argument to $size must be an array");
+                    }
+                    return list.size();
+                };
+            }
+            case "$arrayElemAt" -> binary(operator, args, (a, b) -> {
+                if (!(a instanceof List<?> list)) {
+                    throw new IllegalArgumentException("$arrayElemAt needs an array, not " + Values.typeName(a));
+                }
+                int index = number(operator, b).intValue();
+                int position = index < 0 ? list.size() + index : index;
+                return position >= 0 && position < list.size() ? list.get(position) : Values.MISSING;
+            });
+            case "$in" -> {
+                if (args.size() != 2) {
+                    throw new IllegalArgumentException("$in needs [value, array]");
+                }
+                yield document -> {
+                    Object value = args.get(0).evaluate(document);
+                    if (!(args.get(1).evaluate(document) instanceof List<?> list)) {
+                        throw new IllegalArgumentException("The second argument of $in must be an array");
+                    }
+                    Object needle = value == Values.MISSING ? null : value;
+                    for (Object item : list) {
+                        if (Values.compare(needle, item) == 0) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            case "$year", "$month", "$dayOfMonth", "$hour", "$minute", "$second", "$dayOfWeek" -> unary(operator, args, value -> {
+                ZonedDateTime date = date(operator, value);
+                return switch (operator) {
+                    case "$year" -> date.getYear();
+                    case "$month" -> date.getMonthValue();
+                    case "$dayOfMonth" -> date.getDayOfMonth();
+                    case "$hour" -> date.getHour();
+                    case "$minute" -> date.getMinute();
+                    case "$second" -> date.getSecond();
+                    default -> date.getDayOfWeek().getValue() % 7 + 1;
+                };
+            });
+            case "$dateToString" -> dateToString(argument, dependencies);
+            case "$type" -> {
+                Evaluator arg = single(operator, args);
+                yield document -> Values.typeName(arg.evaluate(document));
+            }
+            default -> throw new IllegalArgumentException("Unsupported expression operator " + operator);
+        };
+    }
+
+    @FunctionalInterface
+    private interface Function1 {
+        Object apply(Object value);
+    }
+
+    @FunctionalInterface
+    private interface Function2 {
+        Object apply(Object a, Object b);
+    }
+
+    /**
+     * A one-argument operator that is null for null or missing input.
+     */
+    private static Evaluator unary(String operator, List<Evaluator> args, Function1 function) {
+        return unary(operator, args, function, null);
+    }
+
+    private static Evaluator unary(String operator, List<Evaluator> args, Function1 function, Object nullResult) {
+        Evaluator arg = single(operator, args);
+        return document -> {
+            Object value = arg.evaluate(document);
+            return value == null || value == Values.MISSING ? nullResult : function.apply(value);
+        };
+    }
+
+    private static Evaluator single(String operator, List<Evaluator> args) {
+        if (args.size() != 1) {
+            throw new IllegalArgumentException(operator + " needs one argument");
+        }
+        return args.get(0);
+    }
+
+    private static Evaluator binary(String operator, List<Evaluator> args, Function2 function) {
+        if (args.size() != 2) {
+            throw new IllegalArgumentException(operator + " needs two arguments");
+        }
+        Evaluator left = args.get(0);
+        Evaluator right = args.get(1);
+        return document -> {
+            Object a = left.evaluate(document);
+            Object b = right.evaluate(document);
+            if (a == null || a == Values.MISSING || b == null || b == Values.MISSING) {
+                return null;
+            }
+            return function.apply(a, b);
+        };
+    }
+
+    private static Evaluator condition(Object argument, Set<String> dependencies) {
+        Object test;
+        Object then;
+        Object otherwise;
+        if (argument instanceof List<?> list && list.size() == 3) {
+            test = list.get(0);
+            then = list.get(1);
+            otherwise = list.get(2);
+        } else if (argument instanceof Map<?, ?> map && map.containsKey("if") && map.containsKey("then") && map.containsKey("else")) {
+            test = map.get("if");
+            then = map.get("then");
+            otherwise = map.get("else");
+        } else {
+            throw new IllegalArgumentException("$cond needs [if, then, else] or {if, then, else}");
+        }
+        Evaluator condition = evaluator(test, dependencies);
+        Evaluator yes = evaluator(then, dependencies);
+        Evaluator no = evaluator(otherwise, dependencies);
+        return document -> truthy(condition.evaluate(document)) ? yes.evaluate(document) : no.evaluate(document);
+    }
+
+    private static Evaluator dateToString(Object argument, Set<String> dependencies) {
+        if (!(argument instanceof Map<?, ?> map) || !map.containsKey("date")) {
+            throw new IllegalArgumentException("$dateToString needs {format, date}");
+        }
+        String format = map.containsKey("format") ? String.valueOf(map.get("format")) : "%Y-%m-%dT%H:%M:%S.%LZ";
+        Evaluator date = evaluator(map.get("date"), dependencies);
+        return document -> {
+            Object value = date.evaluate(document);
+            if (value == null || value == Values.MISSING) {
+                return null;
+            }
+            ZonedDateTime time = date("$dateToString", value);
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c != '%' || i + 1 == format.length()) {
+                    result.append(c);
+                    continue;
+                }
+                char specifier = format.charAt(++i);
+                switch (specifier) {
+                    case 'Y' -> result.append(String.format("%04d", time.getYear()));
+                    case 'm' -> result.append(String.format("%02d", time.getMonthValue()));
+                    case 'd' -> result.append(String.format("%02d", time.getDayOfMonth()));
+                    case 'H' -> result.append(String.format("%02d", time.getHour()));
+                    case 'M' -> result.append(String.format("%02d", time.getMinute()));
+                    case 'S' -> result.append(String.format("%02d", time.getSecond()));
+                    case 'L' -> result.append(String.format("%03d", time.getNano() / 1_000_000));
+                    case 'j' -> result.append(String.format("%03d", time.getDayOfYear()));
+                    case '%' -> result.append('%');
+                    default -> throw new IllegalArgumentException("Unsupported $dateToString format %" + specifier);
+                }
+            }
+            return result.toString();
+        };
+    }
+
+    private static ZonedDateTime date(String operator, Object value) {
+        if (value instanceof Instant instant) {
+            return instant.atZone(ZoneOffset.UTC);
+        }
+        if (value instanceof ObjectId id) {
+            return Instant.ofEpochSecond(Long.parseLong(id.hex().substring(0, 8), 16)).atZone(ZoneOffset.UTC);
+        }
+        throw new IllegalArgumentException(operator + " needs a date, not " + Values.typeName(value));
+    }
+
+    private static Number number(String operator, Object value) {
+        if (!(value instanceof Number number)) {
+            throw new IllegalArgumentException(operator + " only supports numeric types, not " + Values.typeName(value));
+        }
+        return number;
+    }
+
+    private static Number negate(Number number) {
+        return switch (number) {
+            case Integer i -> i == Integer.MIN_VALUE ? (Number) (-(long) i) : (Number) (-i);
+            case Long l -> Math.negateExact(l);
+            case BigDecimal d -> d.negate();
+            default -> -number.doubleValue();
+        };
+    }
+
+    /**
+     * Aggregation truthiness: false, null, missing and zero are false; everything else is true.
+     */
+    static boolean truthy(Object value) {
+        if (value == null || value == Values.MISSING) {
+            return false;
+        }
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value instanceof Number number) {
+            return Values.compareNumbers(number, 0) != 0;
+        }
+        return true;
+    }
+}
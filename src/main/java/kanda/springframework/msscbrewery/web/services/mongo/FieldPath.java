@@ -0,0 +1,253 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dotted field path ({@code address.city}, {@code items.0.price}), split once when a query is
+ * compiled. Queries see through arrays: {@code items.price} reaches the price of every document
+ * in the {@code items} array, and a value test on an array also tries each element. Updates
+ * follow the path exactly, with numeric segments indexing arrays.
+ */
+final class FieldPath {
+
+    /**
+     * A test of the value at the end of a path, which may be {@link Values#MISSING}.
+     */
+    @FunctionalInterface
+    interface ValueTest {
+        boolean test(Object value);
+    }
+
+    private final String dotted;
+    private final String[] segments;
+    private final int[] indexes;
+
+    private FieldPath(String dotted) {
+        this.dotted = dotted;
+        this.segments = dotted.split("\\.", -1);
+        this.indexes = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Invalid field path '" + dotted + "'");
+            }
+            indexes[i] = index(segment);
+        }
+    }
+
+    static FieldPath of(String dotted) {
+        if (dotted.startsWith("$")) {
+            throw new IllegalArgumentException("Unknown top-level operator " + dotted);
+        }
+        return new FieldPath(dotted);
+    }
+
+    String dotted() {
+        return dotted;
+    }
+
+    String[] segments() {
+        return segments;
+    }
+
+    /**
+     * Whether some value reached by the path passes the test; with {@code expandArrays}, the
+     * elements of an array at the end of the path are tried as well as the array itself.
+     */
+    boolean anyMatch(Map<String, Object> document, ValueTest test, boolean expandArrays) {
+        return anyMatch(document, 0, test, expandArrays);
+    }
+
+    private boolean anyMatch(Object current, int i, ValueTest test, boolean expandArrays) {
+        if (i == segments.length) {
+            if (test.test(current)) {
+                return true;
+            }
+            if (expandArrays && current instanceof List<?> list) {
+                for (Object element : list) {
+                    if (test.test(element)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        if (current instanceof Map<?, ?> map) {
+            Object next = map.get(segments[i]);
+            if (next == null && !map.containsKey(segments[i])) {
+                next = Values.MISSING;
+            }
+            return anyMatch(next, i + 1, test, expandArrays);
+        }
+        if (current instanceof List<?> list) {
+            int index = indexes[i];
+            if (index >= 0 && index < list.size() && anyMatch(list.get(index), i + 1, test, expandArrays)) {
+                return true;
+            }
+            boolean documents = false;
+            for (Object element : list) {
+                if (element instanceof Map) {
+                    documents = true;
+                    if (anyMatch(element, i, test, expandArrays)) {
+                        return true;
+                    }
+                }
+            }
+            return !documents && index < 0 && test.test(Values.MISSING);
+        }
+        return test.test(Values.MISSING);
+    }
+
+    /**
+     * Every value the path reaches, with arrays at the end of the path expanded (for sort keys).
+     */
+    void collect(Map<String, Object> document, List<Object> values) {
+        collect(document, 0, values);
+    }
+
+    private void collect(Object current, int i, List<Object> values) {
+        if (i == segments.length) {
+            if (current instanceof List<?> list && !list.isEmpty()) {
+                values.addAll(list);
+            } else {
+                values.add(current);
+            }
+            return;
+        }
+        if (current instanceof Map<?, ?> map) {
+            Object next = map.get(segments[i]);
+            collect(next == null && !map.containsKey(segments[i]) ? Values.MISSING : next, i + 1, values);
+        } else if (current instanceof List<?> list) {
+            int index = indexes[i];
+            if (index >= 0 && index < list.size()) {
+                collect(list.get(index), i + 1, values);
+            }
+            for (Object element : list) {
+                if (element instanceof Map) {
+                    collect(element, i, values);
+                }
+            }
+        } else {
+            values.add(Values.MISSING);
+        }
+    }
+
+    /**
+     * The value at exactly this path, or {@link Values#MISSING}.
+     */
+    Object get(Map<String, Object> document) {
+        Object current = document;
+        for (int i = 0; i < segments.length; i++) {
+            if (current instanceof Map<?, ?> map) {
+                if (!map.containsKey(segments[i])) {
+                    return Values.MISSING;
+                }
+                current = map.get(segments[i]);
+            } else if (current instanceof List<?> list && indexes[i] >= 0 && indexes[i] < list.size()) {
+                current = list.get(indexes[i]);
+            } else {
+                return Values.MISSING;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Sets the value, creating missing documents on the way; arrays are padded with nulls.
+     */
+    @SuppressWarnings("unchecked")
+    void set(Map<String, Object> document, Object value) {
+        Object current = document;
+        for (int i = 0; i < segments.length; i++) {
+            boolean last = i == segments.length - 1;
+            if (current instanceof Map<?, ?> map) {
+                Map<String, Object> parent = (Map<String, Object>) map;
+                if (last) {
+                    parent.put(segments[i], value);
+                    return;
+                }
+                Object next = parent.get(segments[i]);
+                if (next == null) {
+                    next = new LinkedHashMap<String, Object>();
+                    parent.put(segments[i], next);
+                }
+                current = next;
+            } else if (current instanceof List<?> list && indexes[i] >= 0) {
+                List<Object> parent = (List<Object>) list;
+                while (parent.size() <= indexes[i]) {
+                    parent.add(null);
+                }
+                if (last) {
+                    parent.set(indexes[i], value);
+                    return;
+                }
+                if (parent.get(indexes[i]) == null) {
+                    parent.set(indexes[i], new LinkedHashMap<String, Object>());
+                }
+                current = parent.get(indexes[i]);
+            } else {
+                throw new IllegalArgumentException("Cannot create field '" + segments[i] + "' of '" + dotted
+                        + "' in a " + Values.typeName(current) + " value");
+            }
+        }
+    }
+
+    /**
+     * Removes the field (an array element becomes null, as in MongoDB); false if it was not there.
+     */
+    @SuppressWarnings("unchecked")
+    boolean unset(Map<String, Object> document) {
+        Object current = document;
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (current instanceof Map<?, ?> map) {
+                current = map.get(segments[i]);
+            } else if (current instanceof List<?> list && indexes[i] >= 0 && indexes[i] < list.size()) {
+                current = list.get(indexes[i]);
+            } else {
+                return false;
+            }
+        }
+        int last = segments.length - 1;
+        if (current instanceof Map<?, ?> map) {
+            if (!map.containsKey(segments[last])) {
+                return false;
+            }
+            ((Map<String, Object>) map).remove(segments[last]);
+            return true;
+        }
+        if (current instanceof List<?> list && indexes[last] >= 0 && indexes[last] < list.size()) {
+            ((List<Object>) list).set(indexes[last], null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The paths in a projection or update that overlap ({@code a} and {@code a.b}).
+     */
+    static boolean overlap(String a, String b) {
+        return a.equals(b) || a.startsWith(b + ".") || b.startsWith(a + ".");
+    }
+
+    private static int index(String segment) {
+        if (segment.length() > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return dotted;
+    }
+}
@@ -0,0 +1,475 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A query filter compiled once into a tree of matchers, so a collection scan runs plain method
+ * calls per document instead of interpreting the filter document each time.
+ * <p>
+ * Supported: implicit equality, {@code $eq $ne $gt $gte $lt $lte $in $nin $exists $type $size
+ * $all $elemMatch $regex $options $mod $not} on fields and {@code $and $or $nor} at any level,
+ * with MongoDB's array semantics (a condition on an array field matches when the array or any
+ * element matches; {@code $ne}/{@code $nin} match when none does). Filter values may use
+ * Extended JSON ({@code {"$oid": ...}}, {@code {"$date": ...}}).
+ */
+final class Filter implements Predicate<Map<String, Object>> {
+
+    @FunctionalInterface
+    interface Matcher {
+        boolean matches(Map<String, Object> document);
+    }
+
+    private static final Filter ALL = new Filter(document -> true, null, Map.of(), Set.of());
+
+    private final Matcher matcher;
+    private final Object id;
+    private final Map<String, Object> equalities;
+    private final Set<String> fields;
+
+    private Filter(Matcher matcher, Object id, Map<String, Object> equalities, Set<String> fields) {
+        this.matcher = matcher;
+        this.id = id;
+        this.equalities = equalities;
+        this.fields = fields;
+    }
+
+    static Filter compile(Map<String, Object> spec) {
+        if (spec == null || spec.isEmpty()) {
+            return ALL;
+        }
+        Map<String, Object> filter = document(Values.fromJson(spec), "filter");
+        Map<String, Object> equalities = new LinkedHashMap<>();
+        collectEqualities(filter, equalities);
+        Object id = null;
+        if (filter.size() == 1 && equalities.containsKey("_id")) {
+            id = equalities.get("_id");
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        collectFields(filter, fields);
+        return new Filter(matcher(filter), id, equalities, fields);
+    }
+
+    @Override
+    public boolean test(Map<String, Object> document) {
+        return matcher.matches(document);
+    }
+
+    boolean matchesAll() {
+        return this == ALL;
+    }
+
+    /**
+     * The {@code _id} when the filter is an equality on it alone, so one lookup answers it.
+     */
+    Object id() {
+        return id;
+    }
+
+    /**
+     * Field equalities the filter requires (including inside {@code $and}), which an upsert
+     * copies into the document it inserts.
+     */
+    Map<String, Object> equalities() {
+        return equalities;
+    }
+
+    /**
+     * The field paths the filter reads, for the aggregation optimizer's dependency analysis.
+     */
+    Set<String> fields() {
+        return fields;
+    }
+
+    private static Matcher matcher(Map<String, Object> filter) {
+        List<Matcher> matchers = new ArrayList<>(filter.size());
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            switch (key) {
+                case "$and" -> matchers.add(and(clauses(key, value)));
+                case "$or" -> {
+                    List<Matcher> clauses = clauses(key, value);
+                    matchers.add(document -> {
+                        for (Matcher clause : clauses) {
+                            if (clause.matches(document)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    });
+                }
+                case "$nor" -> {
+                    List<Matcher> clauses = clauses(key, value);
+                    matchers.add(document -> {
+                        for (Matcher clause : clauses) {
+                            if (clause.matches(document)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+                }
+                case "$comment" -> {
+                }
+                default -> {
+                    if (key.startsWith("$")) {
+                        throw new IllegalArgumentException("Unsupported top-level operator " + key);
+                    }
+                    matchers.add(field(FieldPath.of(key), value));
+                }
+            }
+        }
+        return and(matchers);
+    }
+
+    private static Matcher and(List<Matcher> matchers) {
+        if (matchers.size() == 1) {
+            return matchers.get(0);
+        }
+        Matcher[] all = matchers.toArray(Matcher[]::new);
+        return document -> {
+            for (Matcher matcher : all) {
+                if (!matcher.matches(document)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static List<Matcher> clauses(String operator, Object value) {
+        if (!(value instanceof List<?> list) || list.isEmpty()) {
+            throw new IllegalArgumentException(operator + " needs a non-empty array of filters");
+        }
+        List<Matcher> clauses = new ArrayList<>(list.size());
+        for (Object clause : list) {
+            clauses.add(matcher(document(clause, operator)));
+        }
+        return clauses;
+    }
+
+    /**
+     * The condition on one field: an operator document, or a value it must equal.
+     */
+    private static Matcher field(FieldPath path, Object condition) {
+        if (isOperatorDocument(condition)) {
+            return operators(path, document(condition, path.dotted()));
+        }
+        return equality(path, condition);
+    }
+
+    private static Matcher operators(FieldPath path, Map<String, Object> operators) {
+        List<Matcher> matchers = new ArrayList<>(operators.size());
+        for (Map.Entry<String, Object> entry : operators.entrySet()) {
+            String operator = entry.getKey();
+            Object argument = entry.getValue();
+            switch (operator) {
+                case "$eq" -> matchers.add(equality(path, argument));
+                case "$ne" -> {
+                    Matcher equal = equality(path, argument);
+                    matchers.add(document -> !equal.matches(document));
+                }
+                case "$gt", "$gte", "$lt", "$lte" -> matchers.add(comparison(path, operator, argument));
+                case "$in" -> matchers.add(in(path, argument, operator));
+                case "$nin" -> {
+                    Matcher in = in(path, argument, operator);
+                    matchers.add(document -> !in.matches(document));
+                }
+                case "$exists" -> {
+                    boolean exists = truthy(argument);
+                    matchers.add(document -> path.anyMatch(document, value -> value != Values.MISSING, false) == exists);
+                }
+                case "$type" -> matchers.add(type(path, argument));
+                case "$size" -> {
+                    if (!(argument instanceof Number size)) {
+                        throw new IllegalArgumentException("$size needs a number");
+                    }
+                    int expected = size.intValue();
+                    matchers.add(document -> path.anyMatch(document,
+                            value -> value instanceof List<?> list && list.size() == expected, false));
+                }
+                case "$all" -> matchers.add(all(path, argument));
+                case "$elemMatch" -> {
+                    Predicate<Object> element = element(document(argument, "$elemMatch"));
+                    matchers.add(document -> path.anyMatch(document, value -> {
+                        if (value instanceof List<?> list) {
+                            for (Object item : list) {
+                                if (element.test(item)) {
+                                    return true;
+                                }
+                            }
+                        }
+                        return false;
+                    }, false));
+                }
+                case "$regex" -> {
+                    Pattern pattern = pattern(argument, operators.get("$options"));
+                    matchers.add(regex(path, pattern));
+                }
+                case "$options" -> {
+                    if (!operators.containsKey("$regex")) {
+                        throw new IllegalArgumentException("$options needs a $regex");
+                    }
+                }
+                case "$mod" -> matchers.add(mod(path, argument));
+                case "$not" -> {
+                    Matcher inner = argument instanceof Pattern pattern ? regex(path, pattern)
+                            : operators(path, operatorDocument(argument, "$not"));
+                    matchers.add(document -> !inner.matches(document));
+                }
+                case "$comment" -> {
+                }
+                default -> throw new IllegalArgumentException("Unsupported operator " + operator);
+            }
+        }
+        return and(matchers);
+    }
+
+    private static Matcher equality(FieldPath path, Object expected) {
+        if (expected instanceof Pattern pattern) {
+            return regex(path, pattern);
+        }
+        FieldPath.ValueTest test = equalityTest(expected);
+        return document -> path.anyMatch(document, test, true);
+    }
+
+    private static FieldPath.ValueTest equalityTest(Object expected) {
+        if (expected == null) {
+            return value -> value == null || value == Values.MISSING;
+        }
+        if (expected instanceof String string) {
+            return string::equals;
+        }
+        return value -> value != Values.MISSING && Values.equal(value, expected);
+    }
+
+    private static Matcher comparison(FieldPath path, String operator, Object bound) {
+        if (bound == null) {
+            // Null is only equal to itself: $gte and $lte match null and missing fields
+            boolean inclusive = operator.equals("$gte") || operator.equals("$lte");
+            return document -> inclusive && path.anyMatch(document, value -> value == null || value == Values.MISSING, true);
+        }
+        int bracket = Values.typeOrder(bound);
+        FieldPath.ValueTest test = switch (operator) {
+            case "$gt" -> value -> value != Values.MISSING && Values.typeOrder(value) == bracket && Values.compare(value, bound) > 0;
+            case "$gte" -> value -> value != Values.MISSING && Values.typeOrder(value) == bracket && Values.compare(value, bound) >= 0;
+            case "$lt" -> value -> value != Values.MISSING && Values.typeOrder(value) == bracket && Values.compare(value, bound) < 0;
+            default -> value -> value != Values.MISSING && Values.typeOrder(value) == bracket && Values.compare(value, bound) <= 0;
+        };
+        return document -> path.anyMatch(document, test, true);
+    }
+
+    private static Matcher in(FieldPath path, Object argument, String operator) {
+        if (!(argument instanceof List<?> list)) {
+            throw new IllegalArgumentException(operator + " needs an array");
+        }
+        List<FieldPath.ValueTest> tests = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (item instanceof Pattern pattern) {
+                tests.add(value -> value instanceof String s && pattern.matcher(s).find());
+            } else if (isOperatorDocument(item)) {
+                throw new IllegalArgumentException("Operators are not allowed inside " + operator);
+            } else {
+                tests.add(equalityTest(item));
+            }
+        }
+        FieldPath.ValueTest[] all = tests.toArray(FieldPath.ValueTest[]::new);
+        return document -> path.anyMatch(document, value -> {
+            for (FieldPath.ValueTest test : all) {
+                if (test.test(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }, true);
+    }
+
+    private static Matcher type(FieldPath path, Object argument) {
+        List<String> names = new ArrayList<>();
+        for (Object item : argument instanceof List<?> list ? list : List.of(argument)) {
+            names.add(typeAlias(item));
+        }
+        return document -> path.anyMatch(document, value -> {
+            if (value == Values.MISSING) {
+                return false;
+            }
+            String name = Values.typeName(value);
+            return names.contains(name) || (names.contains("number") && value instanceof Number);
+        }, true);
+    }
+
+    private static String typeAlias(Object type) {
+        if (type instanceof Number number) {
+            return switch (number.intValue()) {
+                case 1 -> "double";
+                case 2 -> "string";
+                case 3 -> "object";
+                case 4 -> "array";
+                case 7 -> "objectId";
+                case 8 -> "bool";
+                case 9 -> "date";
+                case 10 -> "null";
+                case 11 -> "regex";
+                case 16 -> "int";
+                case 18 -> "long";
+                case 19 -> "decimal";
+                default -> throw new IllegalArgumentException("Unsupported $type " + type);
+            };
+        }
+        String alias = String.valueOf(type);
+        if (!List.of("double", "string", "object", "array", "objectId", "bool", "date", "null", "regex", "int",
+                "long", "decimal", "number").contains(alias)) {
+            throw new IllegalArgumentException("Unknown $type " + alias);
+        }
+        return alias;
+    }
+
+    private static Matcher all(FieldPath path, Object argument) {
+        if (!(argument instanceof List<?> list)) {
+            throw new IllegalArgumentException("$all needs an array");
+        }
+        if (list.isEmpty()) {
+            return document -> false;
+        }
+        List<Matcher> matchers = new ArrayList<>(list.size());
+        for (Object item : list) {
+            matchers.add(item instanceof Map<?, ?> map && map.containsKey("$elemMatch")
+                    ? operators(path, document(item, "$all"))
+                    : equality(path, item));
+        }
+        return and(matchers);
+    }
+
+    /**
+     * The test of one array element in {@code $elemMatch}: operators apply to the element
+     * itself, anything else is a filter on element documents.
+     */
+    private static Predicate<Object> element(Map<String, Object> spec) {
+        if (isOperatorDocument(spec) && !spec.containsKey("$and") && !spec.containsKey("$or") && !spec.containsKey("$nor")) {
+            Matcher matcher = operators(FieldPath.of("element"), spec);
+            return element -> {
+                Map<String, Object> wrapper = new HashMap<>(2);
+                wrapper.put("element", element);
+                return matcher.matches(wrapper);
+            };
+        }
+        Matcher matcher = matcher(spec);
+        @SuppressWarnings("unchecked")
+        Predicate<Object> test = element -> element instanceof Map<?, ?> map && matcher.matches((Map<String, Object>) map);
+        return test;
+    }
+
+    private static Matcher regex(FieldPath path, Pattern pattern) {
+        return document -> path.anyMatch(document, value -> value instanceof String s && pattern.matcher(s).find(), true);
+    }
+
+    private static Pattern pattern(Object regex, Object options) {
+        if (regex instanceof Pattern pattern && options == null) {
+            return pattern;
+        }
+        String source = regex instanceof Pattern pattern ? pattern.pattern() : String.valueOf(regex);
+        int flags = 0;
+        for (char option : (options != null ? String.valueOf(options) : "").toCharArray()) {
+            flags |= switch (option) {
+                case 'i' -> Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                case 'm' -> Pattern.MULTILINE;
+                case 's' -> Pattern.DOTALL;
+                case 'x' -> Pattern.COMMENTS;
+                default -> throw new IllegalArgumentException("Unsupported $options flag " + option);
+            };
+        }
+        try {
+            return Pattern.compile(source, flags);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid $regex: " + e.getDescription());
+        }
+    }
+
+    private static Matcher mod(FieldPath path, Object argument) {
+        if (!(argument instanceof List<?> list) || list.size() != 2
+                || !(list.get(0) instanceof Number divisor) || !(list.get(1) instanceof Number remainder)) {
+            throw new IllegalArgumentException("$mod needs [divisor, remainder]");
+        }
+        long d = divisor.longValue();
+        long r = remainder.longValue();
+        if (d == 0) {
+            throw new IllegalArgumentException("$mod divisor cannot be 0");
+        }
+        return document -> path.anyMatch(document,
+                value -> value instanceof Number number && number.longValue() % d == r, true);
+    }
+
+    private static void collectEqualities(Map<String, Object> filter, Map<String, Object> equalities) {
+        filter.forEach((key, value) -> {
+            if (key.equals("$and") && value instanceof List<?> clauses) {
+                for (Object clause : clauses) {
+                    if (clause instanceof Map<?, ?>) {
+                        collectEqualities(document(clause, key), equalities);
+                    }
+                }
+            } else if (!key.startsWith("$")) {
+                if (!isOperatorDocument(value) && !(value instanceof Pattern)) {
+                    equalities.put(key, value);
+                } else if (value instanceof Map<?, ?> operators && operators.size() == 1 && operators.containsKey("$eq")) {
+                    equalities.put(key, operators.get("$eq"));
+                }
+            }
+        });
+    }
+
+    private static void collectFields(Map<String, Object> filter, Set<String> fields) {
+        filter.forEach((key, value) -> {
+            if ((key.equals("$and") || key.equals("$or") || key.equals("$nor")) && value instanceof List<?> clauses) {
+                for (Object clause : clauses) {
+                    collectFields(document(clause, key), fields);
+                }
+            } else if (!key.startsWith("$")) {
+                fields.add(key);
+            }
+        });
+    }
+
+    static boolean isOperatorDocument(Object value) {
+        if (!(value instanceof Map<?, ?> map) || map.isEmpty()) {
+            return false;
+        }
+        return map.keySet().iterator().next() instanceof String key && key.startsWith("$");
+    }
+
+    /**
+     * A {@code $not} argument: an operator document, or {@code {"$regex": ...}}.
+     */
+    private static Map<String, Object> operatorDocument(Object value, String operator) {
+        if (!isOperatorDocument(value)) {
+            throw new IllegalArgumentException(operator + " needs an operator document or a regex");
+        }
+        return document(value, operator);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> document(Object value, String context) {
+        if (!(value instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException(context + " must be a document");
+        }
+        return (Map<String, Object>) map;
+    }
+
+    static boolean truthy(Object value) {
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue() != 0;
+        }
+        return value != null;
+    }
+}
@@ -0,0 +1,197 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * {@code $group} by hashing: one entry per distinct {@code _id}, holding an accumulator state
+ * per output field. When the groups outgrow the memory limit they are written to a spill file
+ * in key order and the table starts over; at the end the runs are merged by key and the states
+ * of a group from each run are combined in run order.
+ */
+final class GroupCursor extends Aggregation.Pipe {
+
+    /**
+     * Per-group overhead of the table entry, on top of the key and the states.
+     */
+    private static final long GROUP_OVERHEAD = 96;
+    private static final long STATE_OVERHEAD = 32;
+
+    private final Aggregation.GroupStage stage;
+    private final Aggregation.Run run;
+    private final List<SpillFile> spills = new ArrayList<>();
+    private Iterator<Group> groups;
+    private PriorityQueue<RunReader> merge;
+
+    GroupCursor(Aggregation.Cursor input, Aggregation.GroupStage stage, Aggregation.Run run) {
+        super(input);
+        this.stage = stage;
+        this.run = run;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (groups == null && merge == null) {
+            consume();
+        }
+        if (groups != null) {
+            return groups.hasNext() ? groups.next().result() : null;
+        }
+        RunReader first = merge.poll();
+        if (first == null) {
+            return null;
+        }
+        Group group = first.current;
+        advance(first);
+        while (!merge.isEmpty() && Values.compare(merge.peek().current.id, group.id) == 0) {
+            RunReader reader = merge.poll();
+            for (int i = 0; i < group.states.length; i++) {
+                group.states[i].merge(reader.current.states[i]);
+            }
+            advance(reader);
+        }
+        return group.result();
+    }
+
+    private void advance(RunReader reader) {
+        if (reader.advance()) {
+            merge.add(reader);
+        }
+    }
+
+    private void consume() {
+        Map<Object, Group> table = new LinkedHashMap<>();
+        List<Accumulator> accumulators = stage.accumulators;
+        long bytes = 0;
+        Map<String, Object> document;
+        while ((document = input.next()) != null) {
+            Object id = stage.id.evaluate(document);
+            if (id == Values.MISSING) {
+                id = null;
+            }
+            Group group = table.get(Values.hashKey(id));
+            if (group == null) {
+                Accumulator.State[] states = new Accumulator.State[accumulators.size()];
+                for (int i = 0; i < states.length; i++) {
+                    states[i] = accumulators.get(i).newState();
+                }
+                group = new Group(id, states);
+                table.put(Values.hashKey(id), group);
+                bytes += GROUP_OVERHEAD + Values.estimateSize(id) + STATE_OVERHEAD * states.length;
+            }
+            for (int i = 0; i < accumulators.size(); i++) {
+                bytes += accumulators.get(i).add(group.states[i], document);
+            }
+            if (bytes > run.context.memoryLimit()) {
+                spill(table);
+                table.clear();
+                bytes = 0;
+            }
+        }
+        if (spills.isEmpty()) {
+            groups = table.values().iterator();
+            return;
+        }
+        if (!table.isEmpty()) {
+            spill(table);
+        }
+        merge = new PriorityQueue<>(spills.size(), (a, b) -> {
+            int order = Values.compare(a.current.id, b.current.id);
+            return order != 0 ? order : Integer.compare(a.index, b.index);
+        });
+        for (int i = 0; i < spills.size(); i++) {
+            RunReader reader = new RunReader(spills.get(i), i);
+            if (reader.advance()) {
+                merge.add(reader);
+            }
+        }
+    }
+
+    private void spill(Map<Object, Group> table) {
+        List<Group> sorted = new ArrayList<>(table.values());
+        sorted.sort((a, b) -> Values.compare(a.id, b.id));
+        SpillFile file = SpillFile.create(run.context.spillDirectory());
+        spills.add(file);
+        try {
+            for (Group group : sorted) {
+                DataOutput out = file.output();
+                SpillFile.write(out, group.id);
+                for (Accumulator.State state : group.states) {
+                    state.write(out);
+                }
+            }
+            file.input();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write group spill file", e);
+        }
+        run.spills++;
+    }
+
+    @Override
+    public void close() {
+        spills.forEach(SpillFile::close);
+        super.close();
+    }
+
+    private final class Group {
+        final Object id;
+        final Accumulator.State[] states;
+
+        Group(Object id, Accumulator.State[] states) {
+            this.id = id;
+            this.states = states;
+        }
+
+        Map<String, Object> result() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("_id", id);
+            for (int i = 0; i < states.length; i++) {
+                result.put(stage.fields.get(i), states[i].result());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Reads the groups of one run back in key order.
+     */
+    private final class RunReader {
+        private final SpillFile file;
+        private final int index;
+        private long remaining;
+        private Group current;
+
+        RunReader(SpillFile file, int index) {
+            this.file = file;
+            this.index = index;
+            this.remaining = file.records();
+        }
+
+        boolean advance() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            try {
+                DataInput in = file.input();
+                Object id = SpillFile.read(in);
+                Accumulator.State[] states = new Accumulator.State[stage.accumulators.size()];
+                for (int i = 0; i < states.length; i++) {
+                    states[i] = stage.accumulators.get(i).readState(in);
+                }
+                current = new Group(id, states);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read group spill file", e);
+            }
+        }
+    }
+}
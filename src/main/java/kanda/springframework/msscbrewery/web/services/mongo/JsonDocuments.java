@@ -0,0 +1,107 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads documents from JSON as {@code mongoexport} writes it: one document per line, or a JSON
+ * array ({@code --jsonArray}), with Extended JSON wrappers for ObjectIds, dates and typed
+ * numbers. Documents are built straight from the token stream, one at a time, so imports of
+ * any size need memory only for the documents kept. Field names come from Jackson's symbol
+ * table and are shared by all documents that use them.
+ */
+final class JsonDocuments {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private JsonDocuments() {
+    }
+
+    static void read(InputStream inputStream, Consumer<Map<String, Object>> documents) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(inputStream)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    documents.accept(document(parser, token));
+                }
+                token = parser.nextToken();
+                if (token != null) {
+                    throw new IllegalArgumentException("Unexpected content after the document array at line "
+                            + parser.currentLocation().getLineNr());
+                }
+                return;
+            }
+            while (token != null) {
+                documents.accept(document(parser, token));
+                token = parser.nextToken();
+            }
+        }
+    }
+
+    private static Map<String, Object> document(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a document at line " + parser.currentLocation().getLineNr()
+                    + ", found " + token);
+        }
+        if (!(object(parser) instanceof Map<?, ?> map)) {
+            throw new IllegalArgumentException("Expected a document at line " + parser.currentLocation().getLineNr());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> document = (Map<String, Object>) map;
+        return document;
+    }
+
+    private static Object value(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case START_OBJECT -> object(parser);
+            case START_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    list.add(value(parser, next));
+                }
+                yield list;
+            }
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT -> switch (parser.getNumberType()) {
+                case INT -> parser.getIntValue();
+                case LONG -> parser.getLongValue();
+                default -> Values.scalar(parser.getBigIntegerValue());
+            };
+            case VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_NULL -> null;
+            default -> throw new IllegalArgumentException("Unexpected " + token + " at line "
+                    + parser.currentLocation().getLineNr());
+        };
+    }
+
+    /**
+     * A document, or the value of an Extended JSON wrapper ({@code {"$oid": ...}}).
+     */
+    private static Object object(JsonParser parser) throws IOException {
+        Map<String, Object> document = new LinkedHashMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            document.put(name, value(parser, parser.nextToken()));
+        }
+        if (document.size() == 1 && document.keySet().iterator().next().startsWith("$")) {
+            Object extended = Values.extended(document);
+            if (extended != null) {
+                return extended;
+            }
+        }
+        return document;
+    }
+}
@@ -0,0 +1,43 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A 12-byte MongoDB ObjectId: 4 bytes of seconds since the epoch, 5 random bytes per process and
+ * a 3-byte counter, so generated ids sort by creation time as they do in MongoDB.
+ */
+public record ObjectId(String hex) implements Comparable<ObjectId> {
+
+    private static final long PROCESS = new SecureRandom().nextLong() & 0xFF_FFFF_FFFFL;
+    private static final AtomicInteger COUNTER = new AtomicInteger(new SecureRandom().nextInt());
+
+    public ObjectId {
+        if (hex.length() != 24) {
+            throw new IllegalArgumentException("Invalid ObjectId " + hex);
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            if (!HexFormat.isHexDigit(hex.charAt(i))) {
+                throw new IllegalArgumentException("Invalid ObjectId " + hex);
+            }
+        }
+        hex = hex.toLowerCase();
+    }
+
+    public static ObjectId generate() {
+        long seconds = System.currentTimeMillis() / 1000;
+        int counter = COUNTER.getAndIncrement() & 0xFF_FFFF;
+        return new ObjectId(String.format("%08x%010x%06x", seconds & 0xFFFF_FFFFL, PROCESS, counter));
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        return hex.compareTo(other.hex);
+    }
+
+    @Override
+    public String toString() {
+        return hex;
+    }
+}
@@ -0,0 +1,166 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A find projection: either the fields to keep ({@code {"name": 1}}) or the fields to drop
+ * ({@code {"password": 0}}), with dotted paths reaching into nested documents and arrays of
+ * documents. {@code _id} is kept unless excluded, and may be excluded in an inclusion
+ * projection. The paths are compiled into a tree once, so applying a projection walks each
+ * returned document a single time.
+ */
+final class Projection {
+
+    private final Node root;
+    private final boolean inclusion;
+    private final boolean keepId;
+
+    /**
+     * The children of one level of the projection; a null child means the whole field.
+     */
+    private static final class Node {
+        final Map<String, Node> children = new LinkedHashMap<>();
+    }
+
+    private Projection(Node root, boolean inclusion, boolean keepId) {
+        this.root = root;
+        this.inclusion = inclusion;
+        this.keepId = keepId;
+    }
+
+    /**
+     * The compiled projection, or null when every field is returned.
+     */
+    static Projection compile(Map<String, ?> spec) {
+        if (spec == null || spec.isEmpty()) {
+            return null;
+        }
+        Boolean inclusion = null;
+        boolean keepId = true;
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : spec.entrySet()) {
+            String path = entry.getKey();
+            boolean include = Filter.truthy(entry.getValue());
+            if (entry.getValue() instanceof Map || entry.getValue() instanceof String) {
+                throw new IllegalArgumentException("Projection of '" + path + "' must be 0 or 1");
+            }
+            if (path.equals("_id")) {
+                keepId = include;
+                continue;
+            }
+            if (inclusion != null && inclusion != include) {
+                throw new IllegalArgumentException("Cannot mix inclusion and exclusion in a projection (at '" + path + "')");
+            }
+            inclusion = include;
+            paths.add(path);
+        }
+        Node root = new Node();
+        for (String path : paths) {
+            Node node = root;
+            String[] segments = FieldPath.of(path).segments();
+            for (int i = 0; i < segments.length; i++) {
+                if (node.children.containsKey(segments[i]) && node.children.get(segments[i]) == null) {
+                    throw new IllegalArgumentException("Projection paths '" + path + "' and '"
+                            + String.join(".", List.of(segments).subList(0, i + 1)) + "' overlap");
+                }
+                if (i == segments.length - 1) {
+                    if (node.children.containsKey(segments[i])) {
+                        throw new IllegalArgumentException("Projection path '" + path + "' overlaps another");
+                    }
+                    node.children.put(segments[i], null);
+                } else {
+                    node = node.children.computeIfAbsent(segments[i], segment -> new Node());
+                }
+            }
+        }
+        // A spec naming only _id keeps just _id ({"_id": 1}) or drops just _id ({"_id": 0})
+        return new Projection(root, inclusion == null ? keepId : inclusion, keepId);
+    }
+
+    /**
+     * A new document with the projected fields; the stored document is not changed.
+     */
+    Map<String, Object> apply(Map<String, Object> document) {
+        Map<String, Object> result = inclusion ? include(document, root, true) : exclude(document, root);
+        if (!keepId) {
+            result.remove("_id");
+        }
+        return result;
+    }
+
+    private Map<String, Object> include(Map<String, Object> document, Node node, boolean top) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : document.entrySet()) {
+            String name = field.getKey();
+            if (top && name.equals("_id")) {
+                result.put(name, field.getValue());
+                continue;
+            }
+            if (!node.children.containsKey(name)) {
+                continue;
+            }
+            Node child = node.children.get(name);
+            if (child == null) {
+                result.put(name, field.getValue());
+                continue;
+            }
+            Object projected = includeNested(field.getValue(), child);
+            if (projected != Values.MISSING) {
+                result.put(name, projected);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object includeNested(Object value, Node node) {
+        if (value instanceof Map<?, ?> map) {
+            return include((Map<String, Object>) map, node, false);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> projected = new ArrayList<>(list.size());
+            for (Object element : list) {
+                Object item = includeNested(element, node);
+                if (item != Values.MISSING) {
+                    projected.add(item);
+                }
+            }
+            return projected;
+        }
+        return Values.MISSING;
+    }
+
+    private Map<String, Object> exclude(Map<String, Object> document, Node node) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : document.entrySet()) {
+            String name = field.getKey();
+            if (!node.children.containsKey(name)) {
+                result.put(name, field.getValue());
+                continue;
+            }
+            Node child = node.children.get(name);
+            if (child != null) {
+                result.put(name, excludeNested(field.getValue(), child));
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object excludeNested(Object value, Node node) {
+        if (value instanceof Map<?, ?> map) {
+            return exclude((Map<String, Object>) map, node);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> projected = new ArrayList<>(list.size());
+            for (Object element : list) {
+                projected.add(excludeNested(element, node));
+            }
+            return projected;
+        }
+        return value;
+    }
+}
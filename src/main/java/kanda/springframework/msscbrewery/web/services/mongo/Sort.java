@@ -0,0 +1,131 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A sort specification ({@code {"age": -1, "name": 1}}). Keys are extracted once per document,
+ * not on every comparison, and a sort with a limit keeps only the best {@code skip + limit}
+ * documents in a bounded heap instead of sorting everything. Ties keep insertion order.
+ * <p>
+ * As in MongoDB, an array sorts by its smallest element ascending and its largest descending.
+ */
+final class Sort {
+
+    private final FieldPath[] paths;
+    private final int[] directions;
+
+    private Sort(FieldPath[] paths, int[] directions) {
+        this.paths = paths;
+        this.directions = directions;
+    }
+
+    /**
+     * The compiled sort, or null for no sort.
+     */
+    static Sort compile(Map<String, ?> spec) {
+        if (spec == null || spec.isEmpty()) {
+            return null;
+        }
+        FieldPath[] paths = new FieldPath[spec.size()];
+        int[] directions = new int[spec.size()];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : spec.entrySet()) {
+            if (!(entry.getValue() instanceof Number direction)
+                    || (direction.intValue() != 1 && direction.intValue() != -1)) {
+                throw new IllegalArgumentException("Sort direction for '" + entry.getKey() + "' must be 1 or -1");
+            }
+            paths[i] = FieldPath.of(entry.getKey());
+            directions[i++] = direction.intValue();
+        }
+        return new Sort(paths, directions);
+    }
+
+    /**
+     * A document with its sort keys and arrival position.
+     */
+    record Keyed(Object[] keys, long sequence, Map<String, Object> document) {
+    }
+
+    Keyed keyed(Map<String, Object> document, long sequence) {
+        Object[] keys = new Object[paths.length];
+        List<Object> values = new ArrayList<>(2);
+        for (int i = 0; i < paths.length; i++) {
+            values.clear();
+            paths[i].collect(document, values);
+            Object key = values.get(0);
+            for (int j = 1; j < values.size(); j++) {
+                int order = Values.compare(values.get(j), key);
+                if (directions[i] > 0 ? order < 0 : order > 0) {
+                    key = values.get(j);
+                }
+            }
+            keys[i] = key == Values.MISSING ? null : key;
+        }
+        return new Keyed(keys, sequence, document);
+    }
+
+    Comparator<Keyed> comparator() {
+        return (a, b) -> {
+            for (int i = 0; i < directions.length; i++) {
+                int order = Values.compare(a.keys[i], b.keys[i]);
+                if (order != 0) {
+                    return directions[i] * order;
+                }
+            }
+            return Long.compare(a.sequence, b.sequence);
+        };
+    }
+
+    /**
+     * Collects documents and returns them in order; with a bound, only the first {@code bound}.
+     */
+    final class Sorter {
+
+        private final int bound;
+        private final List<Keyed> all;
+        private final PriorityQueue<Keyed> top;
+        private long sequence;
+
+        Sorter(int bound) {
+            this.bound = bound;
+            this.all = bound > 0 ? null : new ArrayList<>();
+            this.top = bound > 0 ? new PriorityQueue<>(Math.min(bound, 1024) + 1, comparator().reversed()) : null;
+        }
+
+        void add(Map<String, Object> document) {
+            Keyed keyed = keyed(document, sequence++);
+            if (all != null) {
+                all.add(keyed);
+                return;
+            }
+            if (top.size() < bound) {
+                top.add(keyed);
+            } else if (comparator().compare(keyed, top.peek()) < 0) {
+                top.poll();
+                top.add(keyed);
+            }
+        }
+
+        List<Map<String, Object>> sorted() {
+            Keyed[] keyed = (all != null ? all : top).toArray(Keyed[]::new);
+            Arrays.sort(keyed, comparator());
+            List<Map<String, Object>> documents = new ArrayList<>(keyed.length);
+            for (Keyed item : keyed) {
+                documents.add(item.document);
+            }
+            return documents;
+        }
+    }
+
+    /**
+     * A sorter keeping the first {@code bound} documents, or all of them when {@code bound <= 0}.
+     */
+    Sorter sorter(int bound) {
+        return new Sorter(bound);
+    }
+}
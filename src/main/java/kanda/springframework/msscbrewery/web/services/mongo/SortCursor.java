@@ -0,0 +1,158 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * {@code $sort}. With a bound from a following {@code $limit}, only the top documents are
+ * kept. Otherwise documents are buffered up to the memory limit; a full buffer is sorted and
+ * written to a spill file as a run, and the runs are merged when the input ends. Equal keys
+ * keep their input order, in memory and across runs.
+ */
+final class SortCursor extends Aggregation.Pipe {
+
+    /**
+     * Above this, a bounded sort buffers like an unbounded one so it can spill.
+     */
+    private static final long MAX_TOP_K = 100_000;
+
+    /**
+     * Per-document overhead of a buffered entry on top of the document itself.
+     */
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private final Sort sort;
+    private final long bound;
+    private final Aggregation.Run run;
+    private final List<SpillFile> spills = new ArrayList<>();
+    private Iterator<Map<String, Object>> sorted;
+    private PriorityQueue<RunReader> merge;
+
+    SortCursor(Aggregation.Cursor input, Sort sort, long bound, Aggregation.Run run) {
+        super(input);
+        this.sort = sort;
+        this.bound = bound;
+        this.run = run;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (sorted == null && merge == null) {
+            consume();
+        }
+        if (sorted != null) {
+            return sorted.hasNext() ? sorted.next() : null;
+        }
+        RunReader reader = merge.poll();
+        if (reader == null) {
+            return null;
+        }
+        Map<String, Object> document = reader.current.document();
+        if (reader.advance()) {
+            merge.add(reader);
+        }
+        return document;
+    }
+
+    private void consume() {
+        if (bound > 0 && bound <= MAX_TOP_K) {
+            Sort.Sorter sorter = sort.sorter((int) bound);
+            Map<String, Object> document;
+            while ((document = input.next()) != null) {
+                sorter.add(document);
+            }
+            sorted = sorter.sorted().iterator();
+            return;
+        }
+        Comparator<Sort.Keyed> comparator = sort.comparator();
+        List<Sort.Keyed> buffer = new ArrayList<>();
+        long bytes = 0;
+        long sequence = 0;
+        Map<String, Object> document;
+        while ((document = input.next()) != null) {
+            buffer.add(sort.keyed(document, sequence++));
+            bytes += ENTRY_OVERHEAD + Values.estimateSize(document);
+            if (bytes > run.context.memoryLimit()) {
+                buffer.sort(comparator);
+                spill(buffer);
+                buffer.clear();
+                bytes = 0;
+            }
+        }
+        buffer.sort(comparator);
+        if (spills.isEmpty()) {
+            sorted = buffer.stream().map(Sort.Keyed::document).iterator();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            spill(buffer);
+        }
+        merge = new PriorityQueue<>(spills.size(), (a, b) -> comparator.compare(a.current, b.current));
+        for (SpillFile spill : spills) {
+            RunReader reader = new RunReader(spill);
+            if (reader.advance()) {
+                merge.add(reader);
+            }
+        }
+    }
+
+    private void spill(List<Sort.Keyed> buffer) {
+        SpillFile file = SpillFile.create(run.context.spillDirectory());
+        spills.add(file);
+        try {
+            for (Sort.Keyed keyed : buffer) {
+                DataOutput out = file.output();
+                out.writeLong(keyed.sequence());
+                SpillFile.write(out, keyed.document());
+            }
+            file.input();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write sort spill file", e);
+        }
+        run.spills++;
+    }
+
+    @Override
+    public void close() {
+        spills.forEach(SpillFile::close);
+        super.close();
+    }
+
+    /**
+     * Reads one sorted run back, recomputing each document's sort keys.
+     */
+    private final class RunReader {
+        private final SpillFile file;
+        private long remaining;
+        private Sort.Keyed current;
+
+        RunReader(SpillFile file) {
+            this.file = file;
+            this.remaining = file.records();
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            try {
+                DataInput in = file.input();
+                long sequence = in.readLong();
+                current = sort.keyed((Map<String, Object>) SpillFile.read(in), sequence);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read sort spill file", e);
+            }
+        }
+    }
+}
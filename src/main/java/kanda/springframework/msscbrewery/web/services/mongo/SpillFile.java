@@ -0,0 +1,231 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A temporary file that a blocking aggregation stage writes sorted runs to when it outgrows its
+ * memory limit, and reads back once for the merge. Values are written in a compact tagged
+ * binary form that keeps their exact type (int, long, double, decimal, date, ObjectId), which
+ * JSON would not. The file is deleted on close.
+ */
+final class SpillFile implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte DECIMAL = 4;
+    private static final byte STRING = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte DATE = 8;
+    private static final byte OBJECT_ID = 9;
+    private static final byte ARRAY = 10;
+    private static final byte DOCUMENT = 11;
+    private static final byte REGEX = 12;
+    private static final byte MISSING = 13;
+
+    private final Path path;
+    private DataOutputStream output;
+    private DataInputStream input;
+    private long records;
+
+    private SpillFile(Path path, DataOutputStream output) {
+        this.path = path;
+        this.output = output;
+    }
+
+    static SpillFile create(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            Path path = Files.createTempFile(directory, "aggregation-", ".spill");
+            return new SpillFile(path, new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create a spill file in " + directory, e);
+        }
+    }
+
+    DataOutput output() {
+        records++;
+        return output;
+    }
+
+    long records() {
+        return records;
+    }
+
+    long bytes() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Finishes writing and opens the file for reading from the start.
+     */
+    DataInput input() {
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+            if (input == null) {
+                input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+            }
+            return input;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read spill file " + path, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (output != null) {
+                output.close();
+            }
+            if (input != null) {
+                input.close();
+            }
+        } catch (IOException ignored) {
+            // The file is deleted below either way
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Temporary directory cleanup removes it eventually
+        }
+    }
+
+    static void write(DataOutput out, Object value) throws IOException {
+        switch (value) {
+            case null -> out.writeByte(NULL);
+            case Integer i -> {
+                out.writeByte(INT);
+                out.writeInt(i);
+            }
+            case Long l -> {
+                out.writeByte(LONG);
+                out.writeLong(l);
+            }
+            case Double d -> {
+                out.writeByte(DOUBLE);
+                out.writeDouble(d);
+            }
+            case BigDecimal d -> {
+                out.writeByte(DECIMAL);
+                writeString(out, d.toString());
+            }
+            case String s -> {
+                out.writeByte(STRING);
+                writeString(out, s);
+            }
+            case Boolean b -> out.writeByte(b ? TRUE : FALSE);
+            case Instant instant -> {
+                out.writeByte(DATE);
+                out.writeLong(instant.getEpochSecond());
+                out.writeInt(instant.getNano());
+            }
+            case ObjectId id -> {
+                out.writeByte(OBJECT_ID);
+                writeString(out, id.hex());
+            }
+            case List<?> list -> {
+                out.writeByte(ARRAY);
+                out.writeInt(list.size());
+                for (Object item : list) {
+                    write(out, item);
+                }
+            }
+            case Map<?, ?> map -> {
+                out.writeByte(DOCUMENT);
+                out.writeInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(out, (String) entry.getKey());
+                    write(out, entry.getValue());
+                }
+            }
+            case Pattern pattern -> {
+                out.writeByte(REGEX);
+                writeString(out, pattern.pattern());
+                out.writeInt(pattern.flags());
+            }
+            default -> {
+                if (value != Values.MISSING) {
+                    throw new IllegalArgumentException("Cannot spill a " + value.getClass().getSimpleName());
+                }
+                out.writeByte(MISSING);
+            }
+        }
+    }
+
+    static Object read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case INT -> in.readInt();
+            case LONG -> in.readLong();
+            case DOUBLE -> in.readDouble();
+            case DECIMAL -> new BigDecimal(readString(in));
+            case STRING -> readString(in);
+            case TRUE -> Boolean.TRUE;
+            case FALSE -> Boolean.FALSE;
+            case DATE -> Instant.ofEpochSecond(in.readLong(), in.readInt());
+            case OBJECT_ID -> new ObjectId(readString(in));
+            case ARRAY -> {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in));
+                }
+                yield list;
+            }
+            case DOCUMENT -> {
+                int size = in.readInt();
+                Map<String, Object> document = new LinkedHashMap<>(Math.max(4, size * 4 / 3 + 1));
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    document.put(key, read(in));
+                }
+                yield document;
+            }
+            case REGEX -> Pattern.compile(readString(in), in.readInt());
+            case MISSING -> Values.MISSING;
+            default -> throw new IOException("Corrupt spill file: unknown tag " + tag);
+        };
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
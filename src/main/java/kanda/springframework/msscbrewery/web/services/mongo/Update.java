@@ -0,0 +1,315 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An update document compiled once and applied to each matched document: either update
+ * operators ({@code $set $unset $inc $mul $min $max $rename $push $addToSet $pull $pullAll $pop
+ * $currentDate $setOnInsert}) or, for replaceOne, a replacement document. Updates are applied
+ * to a copy, so a failing operator leaves the stored document untouched.
+ */
+final class Update {
+
+    @FunctionalInterface
+    private interface Operation {
+        void apply(Map<String, Object> document, boolean inserting);
+    }
+
+    private final Map<String, Object> replacement;
+    private final List<Operation> operations;
+
+    private Update(Map<String, Object> replacement, List<Operation> operations) {
+        this.replacement = replacement;
+        this.operations = operations;
+    }
+
+    static Update compile(Map<String, Object> spec, boolean replace) {
+        if (spec == null || spec.isEmpty()) {
+            throw new IllegalArgumentException("Update document is required");
+        }
+        Map<String, Object> update = Filter.document(Values.fromJson(spec), "update");
+        boolean operators = update.keySet().iterator().next().startsWith("$");
+        if (replace) {
+            if (operators) {
+                throw new IllegalArgumentException("Replacement document cannot contain update operators");
+            }
+            update.keySet().forEach(FieldPath::of);
+            return new Update(update, List.of());
+        }
+        if (!operators) {
+            throw new IllegalArgumentException("Update document must contain update operators (use replaceOne to replace)");
+        }
+        List<Operation> operations = new ArrayList<>();
+        List<String> touched = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            String operator = entry.getKey();
+            Map<String, Object> fields = Filter.document(entry.getValue(), operator);
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                String dotted = field.getKey();
+                for (String other : touched) {
+                    if (FieldPath.overlap(dotted, other)) {
+                        throw new IllegalArgumentException("Updating '" + dotted + "' would conflict with '" + other + "'");
+                    }
+                }
+                touched.add(dotted);
+                operations.add(operation(operator, FieldPath.of(dotted), field.getValue(), touched));
+            }
+        }
+        return new Update(null, operations);
+    }
+
+    /**
+     * The updated copy of a document; {@code inserting} applies {@code $setOnInsert} for upserts.
+     */
+    Map<String, Object> apply(Map<String, Object> document, boolean inserting) {
+        Object id = document.get("_id");
+        Map<String, Object> updated;
+        if (replacement != null) {
+            updated = new LinkedHashMap<>();
+            if (id != null || document.containsKey("_id")) {
+                updated.put("_id", id);
+            }
+            Values.copy(replacement).forEach(updated::put);
+        } else {
+            updated = Values.copy(document);
+            for (Operation operation : operations) {
+                operation.apply(updated, inserting);
+            }
+        }
+        if (document.containsKey("_id") && !Values.equal(id, updated.get("_id"))) {
+            throw new IllegalArgumentException("Performing an update would modify the immutable field '_id'");
+        }
+        return updated;
+    }
+
+    private static Operation operation(String operator, FieldPath path, Object argument, List<String> touched) {
+        return switch (operator) {
+            case "$set" -> (document, inserting) -> path.set(document, Values.copy(argument));
+            case "$setOnInsert" -> (document, inserting) -> {
+                if (inserting) {
+                    path.set(document, Values.copy(argument));
+                }
+            };
+            case "$unset" -> (document, inserting) -> path.unset(document);
+            case "$inc", "$mul" -> {
+                Number operand = number(operator, argument);
+                boolean inc = operator.equals("$inc");
+                yield (document, inserting) -> {
+                    Object current = path.get(document);
+                    if (current == Values.MISSING) {
+                        path.set(document, inc ? operand : zero(operand));
+                    } else if (current instanceof Number number) {
+                        path.set(document, inc ? add(number, operand) : multiply(number, operand));
+                    } else {
+                        throw new IllegalArgumentException("Cannot apply " + operator + " to '" + path
+                                + "' of type " + Values.typeName(current));
+                    }
+                };
+            }
+            case "$min", "$max" -> {
+                int keepIf = operator.equals("$min") ? -1 : 1;
+                yield (document, inserting) -> {
+                    Object current = path.get(document);
+                    if (current == Values.MISSING || Integer.signum(Values.compare(argument, current)) == keepIf) {
+                        path.set(document, Values.copy(argument));
+                    }
+                };
+            }
+            case "$rename" -> {
+                if (!(argument instanceof String target)) {
+                    throw new IllegalArgumentException("$rename target of '" + path + "' must be a string");
+                }
+                if (FieldPath.overlap(path.dotted(), target)) {
+                    throw new IllegalArgumentException("$rename source and target overlap: '" + path + "'");
+                }
+                FieldPath to = FieldPath.of(target);
+                touched.add(target);
+                yield (document, inserting) -> {
+                    Object value = path.get(document);
+                    if (value != Values.MISSING) {
+                        path.unset(document);
+                        to.set(document, value);
+                    }
+                };
+            }
+            case "$currentDate" -> (document, inserting) -> path.set(document, Instant.now());
+            case "$push" -> push(path, argument);
+            case "$addToSet" -> {
+                List<Object> values = each(argument);
+                yield (document, inserting) -> {
+                    List<Object> array = array(document, path, operator);
+                    for (Object value : values) {
+                        if (array.stream().noneMatch(existing -> Values.equal(existing, value))) {
+                            array.add(Values.copy(value));
+                        }
+                    }
+                };
+            }
+            case "$pull" -> {
+                FieldPath.ValueTest test = pullTest(argument);
+                yield (document, inserting) -> {
+                    if (path.get(document) != Values.MISSING) {
+                        array(document, path, operator).removeIf(test::test);
+                    }
+                };
+            }
+            case "$pullAll" -> {
+                if (!(argument instanceof List<?> values)) {
+                    throw new IllegalArgumentException("$pullAll of '" + path + "' needs an array");
+                }
+                yield (document, inserting) -> {
+                    if (path.get(document) != Values.MISSING) {
+                        array(document, path, operator).removeIf(existing ->
+                                values.stream().anyMatch(value -> Values.equal(existing, value)));
+                    }
+                };
+            }
+            case "$pop" -> {
+                int end = number(operator, argument).intValue();
+                if (end != 1 && end != -1) {
+                    throw new IllegalArgumentException("$pop of '" + path + "' must be 1 or -1");
+                }
+                yield (document, inserting) -> {
+                    if (path.get(document) != Values.MISSING) {
+                        List<Object> array = array(document, path, operator);
+                        if (!array.isEmpty()) {
+                            array.remove(end > 0 ? array.size() - 1 : 0);
+                        }
+                    }
+                };
+            }
+            default -> throw new IllegalArgumentException("Unsupported update operator " + operator);
+        };
+    }
+
+    private static Operation push(FieldPath path, Object argument) {
+        List<Object> values = each(argument);
+        Integer position = null;
+        Integer slice = null;
+        if (argument instanceof Map<?, ?> modifiers && modifiers.containsKey("$each")) {
+            for (Map.Entry<?, ?> modifier : modifiers.entrySet()) {
+                switch (String.valueOf(modifier.getKey())) {
+                    case "$each" -> {
+                    }
+                    case "$position" -> position = number("$position", modifier.getValue()).intValue();
+                    case "$slice" -> slice = number("$slice", modifier.getValue()).intValue();
+                    default -> throw new IllegalArgumentException("Unsupported $push modifier " + modifier.getKey());
+                }
+            }
+        }
+        Integer at = position;
+        Integer keep = slice;
+        return (document, inserting) -> {
+            List<Object> array = array(document, path, "$push");
+            int index = at == null ? array.size()
+                    : at < 0 ? Math.max(0, array.size() + at) : Math.min(at, array.size());
+            for (Object value : values) {
+                array.add(index++, Values.copy(value));
+            }
+            if (keep != null) {
+                if (keep >= 0 && array.size() > keep) {
+                    array.subList(keep, array.size()).clear();
+                } else if (keep < 0 && array.size() > -keep) {
+                    array.subList(0, array.size() + keep).clear();
+                }
+            }
+        };
+    }
+
+    private static List<Object> each(Object argument) {
+        if (argument instanceof Map<?, ?> modifiers && modifiers.containsKey("$each")) {
+            if (!(modifiers.get("$each") instanceof List<?> list)) {
+                throw new IllegalArgumentException("$each needs an array");
+            }
+            return new ArrayList<>(list);
+        }
+        List<Object> single = new ArrayList<>(1);
+        single.add(argument);
+        return single;
+    }
+
+    /**
+     * {@code $pull} removes elements equal to a value, or matching a condition.
+     */
+    private static FieldPath.ValueTest pullTest(Object argument) {
+        if (Filter.isOperatorDocument(argument)) {
+            Filter filter = Filter.compile(Map.of("element", argument));
+            return element -> {
+                Map<String, Object> wrapper = new LinkedHashMap<>(2);
+                wrapper.put("element", element);
+                return filter.test(wrapper);
+            };
+        }
+        if (argument instanceof Map<?, ?> map) {
+            @SuppressWarnings("unchecked")
+            Filter filter = Filter.compile((Map<String, Object>) map);
+            @SuppressWarnings("unchecked")
+            FieldPath.ValueTest test = element -> element instanceof Map<?, ?> candidate
+                    && filter.test((Map<String, Object>) candidate);
+            return test;
+        }
+        return element -> Values.equal(element, argument);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Map<String, Object> document, FieldPath path, String operator) {
+        Object current = path.get(document);
+        if (current == Values.MISSING || current == null && operator.equals("$push")) {
+            List<Object> array = new ArrayList<>();
+            path.set(document, array);
+            return array;
+        }
+        if (!(current instanceof List<?> list)) {
+            throw new IllegalArgumentException("Cannot apply " + operator + " to '" + path + "' of type "
+                    + Values.typeName(current));
+        }
+        return (List<Object>) list;
+    }
+
+    private static Number number(String operator, Object argument) {
+        if (!(argument instanceof Number number)) {
+            throw new IllegalArgumentException(operator + " needs a number");
+        }
+        return number;
+    }
+
+    private static Number zero(Number type) {
+        return switch (type) {
+            case Integer i -> 0;
+            case Long l -> 0L;
+            case BigDecimal d -> BigDecimal.ZERO;
+            default -> 0.0;
+        };
+    }
+
+    /**
+     * Sum with MongoDB's widening: int overflows into long, anything with a double is double.
+     */
+    static Number add(Number a, Number b) {
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return Values.decimal(a).add(Values.decimal(b));
+        }
+        if (Values.isIntegral(a) && Values.isIntegral(b)) {
+            long sum = Math.addExact(a.longValue(), b.longValue());
+            return a instanceof Integer && b instanceof Integer && sum == (int) sum ? (Number) (int) sum : (Number) sum;
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    static Number multiply(Number a, Number b) {
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return Values.decimal(a).multiply(Values.decimal(b));
+        }
+        if (Values.isIntegral(a) && Values.isIntegral(b)) {
+            long product = Math.multiplyExact(a.longValue(), b.longValue());
+            return a instanceof Integer && b instanceof Integer && product == (int) product
+                    ? (Number) (int) product : (Number) product;
+        }
+        return a.doubleValue() * b.doubleValue();
+    }
+}
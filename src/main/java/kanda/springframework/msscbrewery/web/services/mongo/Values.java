@@ -0,0 +1,355 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Document values and their MongoDB semantics. Documents are {@code LinkedHashMap}s (field order
+ * matters for equality, as in BSON) holding null, Boolean, Integer, Long, Double, BigDecimal,
+ * String, {@link Instant} (dates), {@link ObjectId}, Lists and nested documents. Comparison
+ * follows the BSON type order (null &lt; numbers &lt; strings &lt; documents &lt; arrays &lt;
+ * ObjectId &lt; booleans &lt; dates), with all numeric types compared by value.
+ */
+final class Values {
+
+    /**
+     * The value of a field that is not there, which some operators treat like null.
+     */
+    static final Object MISSING = new Object() {
+        @Override
+        public String toString() {
+            return "MISSING";
+        }
+    };
+
+    private Values() {
+    }
+
+    static int typeOrder(Object value) {
+        if (value == null || value == MISSING) {
+            return 1;
+        }
+        if (value instanceof Number) {
+            return 2;
+        }
+        if (value instanceof String) {
+            return 3;
+        }
+        if (value instanceof Map) {
+            return 4;
+        }
+        if (value instanceof List) {
+            return 5;
+        }
+        if (value instanceof ObjectId) {
+            return 7;
+        }
+        if (value instanceof Boolean) {
+            return 8;
+        }
+        if (value instanceof Instant) {
+            return 9;
+        }
+        if (value instanceof Pattern) {
+            return 11;
+        }
+        throw new IllegalArgumentException("Unsupported value type " + value.getClass().getSimpleName());
+    }
+
+    static boolean equal(Object a, Object b) {
+        if (a instanceof String sa) {
+            return sa.equals(b);
+        }
+        return typeOrder(a) == typeOrder(b) && compare(a, b) == 0;
+    }
+
+    /**
+     * Total order of values across types, as used by sort.
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(Object a, Object b) {
+        int order = Integer.compare(typeOrder(a), typeOrder(b));
+        if (order != 0) {
+            return order;
+        }
+        return switch (a) {
+            case null -> 0;
+            case Number na -> compareNumbers(na, (Number) b);
+            case String sa -> sa.compareTo((String) b);
+            case Map<?, ?> ma -> compareDocuments((Map<String, Object>) ma, (Map<String, Object>) b);
+            case List<?> la -> compareLists(la, (List<?>) b);
+            case ObjectId oa -> oa.compareTo((ObjectId) b);
+            case Boolean ba -> Boolean.compare(ba, (Boolean) b);
+            case Instant ia -> ia.compareTo((Instant) b);
+            case Pattern pa -> pa.pattern().compareTo(((Pattern) b).pattern());
+            default -> 0;
+        };
+    }
+
+    static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        if (a instanceof BigDecimal || b instanceof BigDecimal) {
+            return decimal(a).compareTo(decimal(b));
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static int compareDocuments(Map<String, Object> a, Map<String, Object> b) {
+        Iterator<Map.Entry<String, Object>> left = a.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> right = b.entrySet().iterator();
+        while (left.hasNext() && right.hasNext()) {
+            Map.Entry<String, Object> l = left.next();
+            Map.Entry<String, Object> r = right.next();
+            int order = Integer.compare(typeOrder(l.getValue()), typeOrder(r.getValue()));
+            if (order == 0) {
+                order = l.getKey().compareTo(r.getKey());
+            }
+            if (order == 0) {
+                order = compare(l.getValue(), r.getValue());
+            }
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Boolean.compare(left.hasNext(), right.hasNext());
+    }
+
+    private static int compareLists(List<?> a, List<?> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int order = compare(a.get(i), b.get(i));
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long;
+    }
+
+    static BigDecimal decimal(Number number) {
+        if (number instanceof BigDecimal decimal) {
+            return decimal;
+        }
+        return isIntegral(number) ? BigDecimal.valueOf(number.longValue()) : BigDecimal.valueOf(number.doubleValue());
+    }
+
+    /**
+     * The {@code $type} alias of a value.
+     */
+    static String typeName(Object value) {
+        return switch (value) {
+            case null -> "null";
+            case Integer i -> "int";
+            case Long l -> "long";
+            case Double d -> "double";
+            case BigDecimal d -> "decimal";
+            case String s -> "string";
+            case Map<?, ?> m -> "object";
+            case List<?> l -> "array";
+            case ObjectId o -> "objectId";
+            case Boolean b -> "bool";
+            case Instant i -> "date";
+            case Pattern p -> "regex";
+            default -> value == MISSING ? "missing" : "unknown";
+        };
+    }
+
+    /**
+     * A value received as JSON (from Jackson or {@link JsonDocuments}) in document form: maps
+     * and lists copied, other numbers narrowed, and Extended JSON wrappers ({@code $oid},
+     * {@code $date}, {@code $numberLong}, {@code $numberInt}, {@code $numberDouble},
+     * {@code $numberDecimal}) turned into values.
+     */
+    static Object fromJson(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Object extended = map.size() == 1 ? extended(map) : null;
+            if (extended != null) {
+                return extended;
+            }
+            Map<String, Object> document = new LinkedHashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+            map.forEach((key, item) -> document.put(String.valueOf(key), fromJson(item)));
+            return document;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(fromJson(item));
+            }
+            return copy;
+        }
+        return scalar(value);
+    }
+
+    static Object scalar(Object value) {
+        return switch (value) {
+            case Short s -> (int) s;
+            case Byte b -> (int) b;
+            case Float f -> (double) f;
+            case BigInteger i -> i.bitLength() < 64 ? (Object) i.longValue() : (Object) i.doubleValue();
+            case null, default -> value;
+        };
+    }
+
+    /**
+     * The value of a single-field Extended JSON wrapper, or null when the map is not one.
+     */
+    static Object extended(Map<?, ?> map) {
+        Map.Entry<?, ?> entry = map.entrySet().iterator().next();
+        Object inner = entry.getValue();
+        try {
+            return switch (String.valueOf(entry.getKey())) {
+                case "$oid" -> new ObjectId(String.valueOf(inner));
+                case "$date" -> date(inner);
+                case "$numberLong" -> Long.parseLong(String.valueOf(inner));
+                case "$numberInt" -> Integer.parseInt(String.valueOf(inner));
+                case "$numberDouble" -> Double.parseDouble(String.valueOf(inner));
+                case "$numberDecimal" -> new BigDecimal(String.valueOf(inner));
+                default -> null;
+            };
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + entry.getKey() + " value " + inner);
+        }
+    }
+
+    private static Instant date(Object value) {
+        if (value instanceof Number millis) {
+            return Instant.ofEpochMilli(millis.longValue());
+        }
+        if (value instanceof Map<?, ?> map && map.size() == 1 && extended(map) instanceof Long millis) {
+            return Instant.ofEpochMilli(millis);
+        }
+        return OffsetDateTime.parse(String.valueOf(value)).toInstant();
+    }
+
+    /**
+     * A document value in relaxed Extended JSON, for responses.
+     */
+    static Object toJson(Object value) {
+        return switch (value) {
+            case Map<?, ?> map -> {
+                Map<String, Object> json = new LinkedHashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+                map.forEach((key, item) -> json.put((String) key, toJson(item)));
+                yield json;
+            }
+            case List<?> list -> {
+                List<Object> json = new ArrayList<>(list.size());
+                for (Object item : list) {
+                    json.add(toJson(item));
+                }
+                yield json;
+            }
+            case ObjectId id -> Map.of("$oid", id.hex());
+            case Instant instant -> Map.of("$date", instant.toString());
+            case Pattern pattern -> Map.of("$regex", pattern.pattern());
+            case null, default -> value;
+        };
+    }
+
+    /**
+     * A deep copy of a document value; scalars are immutable and shared.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T copy(T value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> copy = new LinkedHashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+            map.forEach((key, item) -> copy.put((String) key, copy(item)));
+            return (T) copy;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(copy(item));
+            }
+            return (T) copy;
+        }
+        return value;
+    }
+
+    /**
+     * The key an {@code _id} is stored under: numbers by value, so 1, 1L and 1.0 are the same id.
+     */
+    static Object idKey(Object id) {
+        if (id instanceof Number number && !(id instanceof Long)) {
+            if (number instanceof Integer) {
+                return number.longValue();
+            }
+            if (number instanceof Double d && !Double.isFinite(d)) {
+                return d;
+            }
+            BigDecimal decimal = decimal(number);
+            try {
+                return decimal.longValueExact();
+            } catch (ArithmeticException e) {
+                return number.doubleValue();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * A key for hash lookups ({@code $group}, {@code $lookup}, {@code $addToSet}) under which
+     * values that compare equal are equal: numbers by value, inside documents and arrays too,
+     * with null and missing the same.
+     */
+    static Object hashKey(Object value) {
+        return switch (value) {
+            case null -> null;
+            case Number number -> idKey(number);
+            case Map<?, ?> map -> {
+                Map<String, Object> key = new LinkedHashMap<>(Math.max(4, map.size() * 4 / 3 + 1));
+                map.forEach((name, item) -> key.put((String) name, hashKey(item)));
+                yield key;
+            }
+            case List<?> list -> {
+                List<Object> key = new ArrayList<>(list.size());
+                for (Object item : list) {
+                    key.add(hashKey(item));
+                }
+                yield key;
+            }
+            default -> value == MISSING ? null : value;
+        };
+    }
+
+    /**
+     * Approximate BSON size of a value, for collection statistics.
+     */
+    static long estimateSize(Object value) {
+        return switch (value) {
+            case Map<?, ?> map -> {
+                long size = 5;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    size += 2 + ((String) entry.getKey()).length() + estimateSize(entry.getValue());
+                }
+                yield size;
+            }
+            case List<?> list -> {
+                long size = 5;
+                for (int i = 0; i < list.size(); i++) {
+                    size += 2 + String.valueOf(i).length() + estimateSize(list.get(i));
+                }
+                yield size;
+            }
+            case String s -> 5 + s.length();
+            case Integer i -> 4;
+            case Boolean b -> 1;
+            case ObjectId o -> 12;
+            case BigDecimal d -> 16;
+            case null -> 0;
+            default -> 8;
+        };
+    }
+}
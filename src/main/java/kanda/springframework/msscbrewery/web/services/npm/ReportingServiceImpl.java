@@ -5,6 +5,8 @@ import com.itextpdf.text.*;
 import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.opencsv.CSVWriter;
+import jakarta.annotation.PostConstruct;
+import kanda.springframework.msscbrewery.config.NpmSchedulers;
 import kanda.springframework.msscbrewery.web.model.npm.PackageAnalysisDto;
 import kanda.springframework.msscbrewery.web.model.npm.OptimizationSuggestion;
 import kanda.springframework.msscbrewery.web.model.npm.SecurityVulnerability;
@@ -26,6 +28,24 @@ import java.util.Map;
 public class ReportingServiceImpl implements ReportingService {
 
     private final ObjectMapper objectMapper;
+    private final NpmSchedulers npmSchedulers;
+
+    /**
+     * iText loads the AFM metrics of the standard fonts from its jar on first use. Do that once at
+     * startup so PDF rendering on the non-blocking cpu scheduler never performs that read.
+     */
+    @PostConstruct
+    void preloadFonts() {
+        Font[] fonts = {
+                new Font(Font.FontFamily.HELVETICA, 12, Font.NORMAL),
+                new Font(Font.FontFamily.HELVETICA, 12, Font.BOLD),
+                new Font(Font.FontFamily.HELVETICA, 8, Font.ITALIC),
+                new Font(Font.FontFamily.COURIER, 10, Font.NORMAL)
+        };
+        for (Font font : fonts) {
+            font.getCalculatedBaseFont(false);
+        }
+    }
 
     @Override
     public Mono<byte[]> generatePdfReport(PackageAnalysisDto analysis) {
@@ -68,7 +88,7 @@ public class ReportingServiceImpl implements ReportingService {
                 document.close();
                 return baos.toByteArray();
             }
-        });
+        }).subscribeOn(npmSchedulers.cpu());
     }
 
     @Override
@@ -107,14 +127,15 @@ public class ReportingServiceImpl implements ReportingService {
 
                 return stringWriter.toString().getBytes();
             }
-        });
+        }).subscribeOn(npmSchedulers.cpu());
     }
 
     @Override
     public Mono<String> generateJsonReport(PackageAnalysisDto analysis) {
         log.info("Generating JSON report for package: {}", analysis.getPackageName());
         
-        return Mono.fromCallable(() -> objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(analysis));
+        return Mono.fromCallable(() -> objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(analysis))
+                .subscribeOn(npmSchedulers.cpu());
     }
 
     @Override
@@ -171,7 +192,7 @@ public class ReportingServiceImpl implements ReportingService {
                 
                 return baos.toByteArray();
             }
-        });
+        }).subscribeOn(npmSchedulers.cpu());
     }
 
     @Override
@@ -228,7 +249,7 @@ public class ReportingServiceImpl implements ReportingService {
             }
             
             return markdown.toString();
-        });
+        }).subscribeOn(npmSchedulers.cpu());
     }
 
     private void addPackageInfoSection(Document document, PackageAnalysisDto analysis) throws DocumentException {
@@ -0,0 +1,123 @@
+package kanda.springframework.msscbrewery;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput of slow, blocking requests with platform vs virtual request threads.
+ *
+ * Excluded from the default build; run with {@code mvn test -Pload-test}. Concurrency and the
+ * simulated latency can be changed with {@code -Dload.concurrency} and {@code -Dload.latency-ms}.
+ */
+@Tag("load")
+@Slf4j
+class VirtualThreadLoadTest {
+
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 5000);
+    private static final long LATENCY_MS = Long.getLong("load.latency-ms", 200);
+
+    @Test
+    void virtualThreadsServeSlowRequestsFasterThanPlatformThreads() throws Exception {
+        double platformSleep = measure(false, "/load-test/sleep");
+        double platformBlock = measure(false, "/load-test/block");
+        double virtualSleep = measure(true, "/load-test/sleep");
+        double virtualBlock = measure(true, "/load-test/block");
+
+        log.info("{} concurrent requests, {} ms latency (requests/s)", CONCURRENCY, LATENCY_MS);
+        log.info("  Thread.sleep  platform: {}  virtual: {}", rate(platformSleep), rate(virtualSleep));
+        log.info("  Mono.block()  platform: {}  virtual: {}", rate(platformBlock), rate(virtualBlock));
+
+        assertTrue(virtualSleep > platformSleep, "virtual threads should out-perform platform threads on Thread.sleep");
+        assertTrue(virtualBlock > platformBlock, "virtual threads should out-perform platform threads on block()");
+    }
+
+    private static String rate(double requestsPerSecond) {
+        return String.format("%8.1f", requestsPerSecond);
+    }
+
+    private double measure(boolean virtualThreads, String path) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(MsscBreweryApplication.class, SlowController.class)
+                .profiles("load-test")
+                .properties("server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "server.tomcat.max-connections=" + (CONCURRENCY + 100),
+                        "server.tomcat.accept-count=" + CONCURRENCY,
+                        "load-test.latency-ms=" + LATENCY_MS)
+                .run();
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            URI uri = URI.create("http://localhost:" + port + path);
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clients)
+                    .build();
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2)).build();
+
+            // Warm up the endpoint and the connection handling before measuring
+            httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+
+            long start = System.nanoTime();
+            List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(CONCURRENCY);
+            for (int i = 0; i < CONCURRENCY; i++) {
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+            }
+            for (CompletableFuture<HttpResponse<Void>> response : responses) {
+                assertEquals(200, response.join().statusCode());
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            return CONCURRENCY / seconds;
+        }
+    }
+
+    /**
+     * Simulates the blocking patterns used by the real controllers: {@code Thread.sleep} in the
+     * Mongo query service and {@code WebClient...block()} in the temperature service.
+     */
+    @RestController
+    @RequestMapping("/load-test")
+    @Profile("load-test")
+    static class SlowController {
+
+        private final long latencyMs;
+
+        SlowController(@Value("${load-test.latency-ms:200}") long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @GetMapping("/sleep")
+        String sleep() throws InterruptedException {
+            Thread.sleep(latencyMs);
+            return "ok";
+        }
+
+        @GetMapping("/block")
+        String block() {
+            return Mono.delay(Duration.ofMillis(latencyMs)).thenReturn("ok").block();
+        }
+    }
+}
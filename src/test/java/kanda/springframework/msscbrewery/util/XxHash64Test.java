@@ -0,0 +1,58 @@
+package kanda.springframework.msscbrewery.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class XxHash64Test {
+
+    @Test
+    void matchesReferenceVectors() {
+        assertThat(hash("")).isEqualTo(0xEF46DB3751D8E999L);
+        assertThat(hash("a")).isEqualTo(0xD24EC4F1A98C6E5BL);
+        assertThat(hash("abc")).isEqualTo(0x44BC2CF5AD770999L);
+        assertThat(hash("Nobody inspects the spammish repetition")).isEqualTo(0xFBCEA83C8A378BF1L);
+    }
+
+    @Test
+    void chunkingDoesNotChangeTheHash() {
+        byte[] bytes = new byte[10_000];
+        new Random(42).nextBytes(bytes);
+        long whole = new XxHash64().update(bytes, 0, bytes.length).getValue();
+
+        for (int chunk : new int[]{1, 7, 31, 32, 33, 4096}) {
+            XxHash64 hash = new XxHash64();
+            for (int offset = 0; offset < bytes.length; offset += chunk) {
+                hash.update(bytes, offset, Math.min(chunk, bytes.length - offset));
+            }
+            assertThat(hash.getValue()).as("chunk size %d", chunk).isEqualTo(whole);
+        }
+    }
+
+    @Test
+    void copyHashesWhatItCopies() throws IOException {
+        byte[] bytes = new byte[200_000];
+        new Random(7).nextBytes(bytes);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        XxHash64 hash = XxHash64.copy(new ByteArrayInputStream(bytes), copy, bytes.length);
+
+        assertThat(copy.toByteArray()).isEqualTo(bytes);
+        assertThat(hash.getValue()).isEqualTo(new XxHash64().update(bytes, 0, bytes.length).getValue());
+        assertThatThrownBy(() -> XxHash64.copy(new ByteArrayInputStream(bytes), new ByteArrayOutputStream(), bytes.length - 1))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("maximum size");
+    }
+
+    private static long hash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return new XxHash64().update(bytes, 0, bytes.length).getValue();
+    }
+}
@@ -0,0 +1,108 @@
+package kanda.springframework.msscbrewery.web.controller;
+
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchEntry;
+import kanda.springframework.msscbrewery.web.model.TemperatureDto;
+import kanda.springframework.msscbrewery.web.services.ReactiveTemperatureService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class TemperatureControllerTest {
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        mvc = MockMvcBuilders.standaloneSetup(new TemperatureController(new ReversedBatches(), 3, Duration.ofSeconds(15)))
+                .build();
+    }
+
+    @Test
+    void returnsBatchEntriesInRequestOrder() throws Exception {
+        batch("{\"locations\": [\"Delhi\", \"Nowhere\", \"Tokyo\"]}")
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].index").value(0))
+                .andExpect(jsonPath("$[0].location").value("Delhi"))
+                .andExpect(jsonPath("$[0].temperature.temperature").value(20.0))
+                .andExpect(jsonPath("$[1].location").value("Nowhere"))
+                .andExpect(jsonPath("$[1].error").value("Unknown location 'Nowhere'"))
+                .andExpect(jsonPath("$[1].temperature").doesNotExist())
+                .andExpect(jsonPath("$[2].location").value("Tokyo"))
+                .andExpect(jsonPath("$[2].temperature.temperature").value(22.0));
+    }
+
+    @Test
+    void rejectsEmptyAndOversizedBatches() throws Exception {
+        batch("{\"locations\": []}")
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("At least one location is required"));
+        batch("{\"locations\": [\"Delhi\", \"Paris\", \"Tokyo\", \"Lima\"]}")
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("At most 3 locations can be requested at once"));
+    }
+
+    private ResultActions batch(String body) throws Exception {
+        MvcResult started = mvc.perform(post("/api/v1/temperature/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(started));
+    }
+
+    /**
+     * Completes batch entries in reverse request order, as a batch whose first locations are the
+     * slowest would; names starting with "Nowhere" are rejected.
+     */
+    private static final class ReversedBatches implements ReactiveTemperatureService {
+
+        @Override
+        public Flux<TemperatureBatchEntry> getCurrentTemperatures(List<String> locations) {
+            return Flux.range(0, locations.size())
+                    .map(index -> locations.size() - 1 - index)
+                    .map(index -> entry(index, locations.get(index)));
+        }
+
+        private static TemperatureBatchEntry entry(int index, String location) {
+            TemperatureBatchEntry.TemperatureBatchEntryBuilder entry = TemperatureBatchEntry.builder()
+                    .index(index)
+                    .location(location);
+            if (location.startsWith("Nowhere")) {
+                return entry.error("Unknown location '" + location + "'").build();
+            }
+            return entry.temperature(TemperatureDto.builder().location(location).temperature(20.0 + index).build()).build();
+        }
+
+        @Override
+        public Mono<TemperatureDto> getCurrentTemperature() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Mono<TemperatureDto> getCurrentTemperature(String location) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flux<TemperatureDto> streamTemperature(String location) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package kanda.springframework.msscbrewery.web.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kanda.springframework.msscbrewery.web.model.LocationMatch;
+import kanda.springframework.msscbrewery.web.model.TemperatureBatchEntry;
+import kanda.springframework.msscbrewery.web.model.TemperatureDto;
+import kanda.springframework.msscbrewery.web.services.airquality.AqiTimeSeriesStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReactiveTemperatureServiceImplTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration FAILURE_TTL = Duration.ofMillis(200);
+    private static final int BATCH_CONCURRENCY = 4;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile HttpStatus upstreamStatus = HttpStatus.OK;
+    private volatile Duration upstreamDelay = Duration.ZERO;
+    private SimpleMeterRegistry registry;
+    private AqiTimeSeriesStore aqiStore;
+    private ReactiveTemperatureServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        WebClient.Builder webClient = WebClient.builder().exchangeFunction(request -> {
+            requests.incrementAndGet();
+            return Mono.fromSupplier(() -> ClientResponse.create(upstreamStatus)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body("{\"name\": \"London\", \"main\": {\"temp\": 12.5}}")
+                            .build())
+                    .delaySubscription(upstreamDelay)
+                    .doOnSubscribe(subscription -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+                    // Before the response is handed on, which may already start the next call
+                    .doOnNext(response -> inFlight.decrementAndGet());
+        });
+        registry = new SimpleMeterRegistry();
+        aqiStore = new AqiTimeSeriesStore("", Duration.ofMinutes(5), Duration.ofHours(48), 100);
+        service = new ReactiveTemperatureServiceImpl(webClient, new KnownLocations(),
+                new AirQualityService(aqiStore),
+                registry, Duration.ofMinutes(1), Duration.ofMinutes(10), FAILURE_TTL, 100, TIMEOUT, BATCH_CONCURRENCY,
+                Duration.ofMillis(20));
+    }
+
+    @Test
+    void resubscribingAfterCancelStartsANewLoop() {
+        for (int i = 0; i < 3; i++) {
+            TemperatureDto reading = service.streamTemperature("London").take(1).blockFirst(TIMEOUT);
+            assertNotNull(reading);
+            assertEquals(12.5, reading.getTemperature());
+            assertEquals(0, activeLoops());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void churningSubscribersShareOneLoop() {
+        Disposable longLived = service.streamTemperature("London").subscribe();
+        assertEquals(1, activeLoops());
+
+        Long received = Flux.range(0, 200)
+                .flatMap(i -> service.streamTemperature("London").take(1).subscribeOn(Schedulers.parallel()), 16)
+                .count()
+                .block(TIMEOUT);
+
+        assertEquals(200, received);
+        assertEquals(1, activeLoops());
+        longLived.dispose();
+        assertEquals(0, activeLoops());
+        assertNotNull(service.streamTemperature("London").take(1).blockFirst(TIMEOUT));
+        assertEquals(0, activeLoops());
+    }
+
+    @Test
+    void cachesSimulatedReadingsForTheFailureTtl() throws InterruptedException {
+        upstreamStatus = HttpStatus.SERVICE_UNAVAILABLE;
+        TemperatureDto fallback = service.getCurrentTemperature("London").block(TIMEOUT);
+        assertNotNull(fallback);
+        assertEquals("simulated", fallback.getSource());
+        assertEquals("London (simulated)", fallback.getLocation());
+
+        // The failure is absorbed: further requests get the same reading without calling upstream
+        upstreamStatus = HttpStatus.OK;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(fallback, service.getCurrentTemperature("London").block(TIMEOUT));
+        }
+        assertEquals(1, requests.get());
+
+        Thread.sleep(FAILURE_TTL.toMillis() + 100);
+        TemperatureDto reading = service.getCurrentTemperature("London").block(TIMEOUT);
+        assertNotNull(reading);
+        assertEquals("openweathermap", reading.getSource());
+        assertEquals(12.5, reading.getTemperature());
+        assertEquals(2, requests.get());
+
+        service.getCurrentTemperature("London").block(TIMEOUT);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void failingUpstreamDoesNotPushRepeatedReadings(@TempDir Path dir) throws Exception {
+        // A one-sample feed keeps the AQI constant, so only the temperature could change
+        Path feed = dir.resolve("aqi.csv");
+        Files.writeString(feed, "Oslo,2024-05-01T10:00:00Z,42\n");
+        aqiStore.load(feed);
+        upstreamStatus = HttpStatus.SERVICE_UNAVAILABLE;
+
+        List<TemperatureDto> readings = service.streamTemperature("Oslo")
+                .take(FAILURE_TTL.multipliedBy(4))
+                .collectList()
+                .block(TIMEOUT);
+
+        // The simulated reading expired and was reloaded, each time with the same temperature
+        assertTrue(requests.get() >= 2, "upstream calls: " + requests.get());
+        assertNotNull(readings);
+        assertEquals(1, readings.size());
+        assertEquals("simulated", readings.get(0).getSource());
+        assertEquals(42, readings.get(0).getAqi());
+    }
+
+    @Test
+    void batchReportsInvalidLocationsPerEntry() {
+        List<TemperatureBatchEntry> entries = batch(List.of("London", "Nowhere", " "));
+
+        assertEquals(3, entries.size());
+        assertEquals(12.5, entries.get(0).getTemperature().getTemperature());
+        assertNull(entries.get(0).getError());
+        assertEquals("Please enter a valid country or major city name", entries.get(1).getError());
+        assertNull(entries.get(1).getTemperature());
+        assertEquals("Location name cannot be empty", entries.get(2).getError());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void batchSharesOneUpstreamCallPerPlace() {
+        upstreamDelay = Duration.ofMillis(100);
+
+        List<TemperatureBatchEntry> entries = batch(List.of("London", "LDN", "London", "Paris"));
+
+        assertEquals(List.of("London", "LDN", "London", "Paris"), entries.stream().map(TemperatureBatchEntry::getLocation).toList());
+        entries.forEach(entry -> assertEquals(12.5, entry.getTemperature().getTemperature()));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void batchKeepsAtMostTheConfiguredUpstreamCallsInFlight() {
+        upstreamDelay = Duration.ofMillis(50);
+        List<String> locations = IntStream.range(0, 20).mapToObj(i -> "City " + i).toList();
+
+        List<TemperatureBatchEntry> entries = batch(locations);
+
+        assertEquals(locations, entries.stream().map(TemperatureBatchEntry::getLocation).toList());
+        assertEquals(20, requests.get());
+        assertEquals(BATCH_CONCURRENCY, maxInFlight.get());
+    }
+
+    private List<TemperatureBatchEntry> batch(List<String> locations) {
+        return service.getCurrentTemperatures(locations)
+                .collectSortedList(Comparator.comparingInt(TemperatureBatchEntry::getIndex))
+                .block(TIMEOUT);
+    }
+
+    /**
+     * Accepts every location as is, except the alias LDN for London and names starting with
+     * "Nowhere", so the tests need no gazetteer.
+     */
+    private static final class KnownLocations extends CountryValidationService {
+        private static final Map<String, String> ALIASES = Map.of("LDN", "London");
+
+        KnownLocations() {
+            super(null);
+        }
+
+        @Override
+        public Optional<LocationMatch> resolve(String location) {
+            if (location.isBlank() || location.startsWith("Nowhere")) {
+                return Optional.empty();
+            }
+            String name = ALIASES.getOrDefault(location, location);
+            return Optional.of(LocationMatch.builder().name(name).countryCode("GB").matchType("exact").distance(0).build());
+        }
+
+        @Override
+        public String getValidationMessage(String location) {
+            return location.isBlank() ? "Location name cannot be empty" : "Please enter a valid country or major city name";
+        }
+    }
+
+    private double activeLoops() {
+        return registry.get("weather.stream.locations").gauge().value();
+    }
+}
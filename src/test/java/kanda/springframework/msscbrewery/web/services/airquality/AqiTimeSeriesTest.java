@@ -0,0 +1,108 @@
+package kanda.springframework.msscbrewery.web.services.airquality;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static kanda.springframework.msscbrewery.web.services.airquality.AqiTimeSeries.DAY_MILLIS;
+import static kanda.springframework.msscbrewery.web.services.airquality.AqiTimeSeries.HOUR_MILLIS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class AqiTimeSeriesTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    void windowsExcludeSamplesExactlyTheirSpanOld() {
+        AqiTimeSeries series = new AqiTimeSeries(1000);
+        series.append(0, 300);
+        series.append(HOUR_MILLIS - 1, 100);
+        assertAggregates(series.aggregates(), HOUR_MILLIS - 1, 200, 300, 200, 300);
+
+        series.append(HOUR_MILLIS, 50);
+        assertAggregates(series.aggregates(), HOUR_MILLIS, 75, 100, 150, 300);
+
+        series.append(DAY_MILLIS - 1, 20);
+        assertAggregates(series.aggregates(), DAY_MILLIS - 1, 20, 20, 117.5, 300);
+
+        series.append(DAY_MILLIS, 10);
+        assertAggregates(series.aggregates(), DAY_MILLIS, 15, 20, 45, 100);
+
+        // A gap longer than a day leaves only the new sample in both windows
+        series.append(3 * DAY_MILLIS, 70);
+        assertAggregates(series.aggregates(), 3 * DAY_MILLIS, 70, 70, 70, 70);
+        assertFalse(series.append(3 * DAY_MILLIS, 500));
+        assertEquals(70, series.aggregates().getMax24h());
+    }
+
+    @Test
+    void windowsOnlyCoverTheSamplesStillStored() {
+        // Four samples fit, although a day of them is within the window
+        AqiTimeSeries series = new AqiTimeSeries(4);
+        int[] values = {90, 10, 20, 30, 40, 5};
+        for (int i = 0; i < values.length; i++) {
+            series.append(i * MINUTE, values[i]);
+        }
+        assertAggregates(series.aggregates(), 5 * MINUTE, 23.75, 40, 23.75, 40);
+    }
+
+    @Test
+    void matchesARecomputationOverRandomSeries() {
+        Random random = new Random(42);
+        for (int capacity : new int[]{2, 7, 300, 2000}) {
+            AqiTimeSeries series = new AqiTimeSeries(capacity);
+            List<long[]> stored = new ArrayList<>();
+            long timestamp = 0;
+            for (int i = 0; i < 3000; i++) {
+                // Mostly 5-minute steps, with the odd multi-hour gap and runs of equal values
+                timestamp += random.nextInt(20) == 0 ? random.nextInt(30) * HOUR_MILLIS / 4 + 1 : 5 * MINUTE;
+                int value = random.nextInt(4) == 0 ? 100 : random.nextInt(500);
+                series.append(timestamp, value);
+                stored.add(new long[]{timestamp, value});
+                if (stored.size() > capacity) {
+                    stored.remove(0);
+                }
+                AqiAggregates expected = recompute(stored);
+                assertAggregates(series.aggregates(), expected.getAsOf(), expected.getAverage1h(),
+                        expected.getMax1h(), expected.getAverage24h(), expected.getMax24h());
+            }
+        }
+    }
+
+    private static AqiAggregates recompute(List<long[]> samples) {
+        long latest = samples.get(samples.size() - 1)[0];
+        long hourSum = 0;
+        int hourCount = 0;
+        int hourMax = Integer.MIN_VALUE;
+        long daySum = 0;
+        int dayCount = 0;
+        int dayMax = Integer.MIN_VALUE;
+        for (long[] sample : samples) {
+            long age = latest - sample[0];
+            int value = (int) sample[1];
+            if (age < DAY_MILLIS) {
+                daySum += value;
+                dayCount++;
+                dayMax = Math.max(dayMax, value);
+            }
+            if (age < HOUR_MILLIS) {
+                hourSum += value;
+                hourCount++;
+                hourMax = Math.max(hourMax, value);
+            }
+        }
+        return new AqiAggregates(latest, (double) hourSum / hourCount, hourMax, (double) daySum / dayCount, dayMax);
+    }
+
+    private static void assertAggregates(AqiAggregates aggregates, long asOf, double average1h, int max1h,
+                                         double average24h, int max24h) {
+        assertEquals(asOf, aggregates.getAsOf());
+        assertEquals(average1h, aggregates.getAverage1h(), 1e-9);
+        assertEquals(max1h, aggregates.getMax1h());
+        assertEquals(average24h, aggregates.getAverage24h(), 1e-9);
+        assertEquals(max24h, aggregates.getMax24h());
+    }
+}
@@ -0,0 +1,97 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kanda.springframework.msscbrewery.web.model.ConnectionBundleRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.DatabaseType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConnectionBundleTest {
+
+    // Renders the fields that differ between the configs below, so the env files of two
+    // databases in one environment come out identical
+    private static final BiFunction<ConnectionStringRequest, String, Map<String, String>> RENDERER = (request, format) ->
+            Map.of("filename", format.equals("env") ? ".env" : "database-config.yaml",
+                    "content", format + " " + request.getHost() + (format.equals("env") ? "" : " " + request.getDatabase()));
+
+    @Test
+    void rendersTheMatrixWithEnvironmentOverridesAndStoresIdenticalFilesOnce() throws IOException {
+        Map<String, ConnectionStringRequest> environments = new LinkedHashMap<>();
+        environments.put("staging", config(null, "staging-db", null));
+        environments.put("prod", config(null, "prod-db", null));
+        Map<String, ConnectionStringRequest> databases = new LinkedHashMap<>();
+        databases.put("orders", config(DatabaseType.POSTGRESQL, "localhost", "orders"));
+        databases.put("billing", config(DatabaseType.POSTGRESQL, "localhost", "billing"));
+        ConnectionBundle bundle = ConnectionBundle.plan(ConnectionBundleRequest.builder()
+                .environments(environments)
+                .databases(databases)
+                .formats(List.of("env", "yaml"))
+                .build(), RENDERER, 100);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bundle.writeZip(out);
+        Map<String, String> entries = unzip(out.toByteArray());
+
+        assertEquals(8, bundle.size());
+        assertEquals(List.of("staging/orders/.env", "staging/orders/database-config.yaml",
+                "staging/billing/database-config.yaml", "prod/orders/.env", "prod/orders/database-config.yaml",
+                "prod/billing/database-config.yaml", "manifest.json"), List.copyOf(entries.keySet()));
+        assertEquals("yaml prod-db billing", entries.get("prod/billing/database-config.yaml"));
+
+        JsonNode manifest = new ObjectMapper().readTree(entries.get("manifest.json"));
+        assertEquals(8, manifest.get("files").asInt());
+        assertEquals(6, manifest.get("stored").asInt());
+        assertEquals("prod/orders/.env", manifest.get("entries").get(6).get("storedAs").asText());
+    }
+
+    @Test
+    void rejectsInvalidRequestsBeforeRendering() {
+        ConnectionBundleRequest unknownFormat = ConnectionBundleRequest.builder()
+                .targets(List.of(new ConnectionBundleRequest.Target("a", config(DatabaseType.MYSQL, "h", "d"))))
+                .formats(List.of("toml"))
+                .build();
+        ConnectionBundleRequest noType = ConnectionBundleRequest.builder()
+                .databases(Map.of("a", config(null, "h", "d")))
+                .build();
+        ConnectionBundleRequest tooMany = ConnectionBundleRequest.builder()
+                .databases(Map.of("a", config(DatabaseType.MYSQL, "h", "d")))
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> ConnectionBundle.plan(unknownFormat, RENDERER, 100));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionBundle.plan(noType, RENDERER, 100));
+        assertThrows(IllegalArgumentException.class, () -> ConnectionBundle.plan(tooMany, RENDERER, 2));
+    }
+
+    private static ConnectionStringRequest config(DatabaseType type, String host, String database) {
+        ConnectionStringRequest request = new ConnectionStringRequest();
+        request.setDatabaseType(type);
+        request.setHost(host);
+        request.setDatabase(database);
+        return request;
+    }
+
+    private static Map<String, String> unzip(byte[] archive) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
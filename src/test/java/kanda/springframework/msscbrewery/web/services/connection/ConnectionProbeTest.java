@@ -0,0 +1,340 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.ConnectionTestResult;
+import kanda.springframework.msscbrewery.web.model.DatabaseType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the probe against stand-in servers on localhost that speak just enough of each protocol.
+ */
+class ConnectionProbeTest {
+
+    private final ConnectionProbe probe = new ConnectionProbe(Duration.ofSeconds(2), 10, 5, List.of(), List.of("169.254.0.0/16", "fe80::/10"));
+    private final List<ServerSocket> servers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        probe.destroy();
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    void authenticatesToPostgresWithMd5() throws Exception {
+        int port = serve(socket -> {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            byte[] startup = new byte[in.readInt() - 4];
+            in.readFully(startup);
+            assertThat(new String(startup, StandardCharsets.UTF_8)).contains("user\0app\0database\0orders\0");
+            out.write(message('R', 0, 0, 0, 5, 1, 2, 3, 4));
+            assertThat(in.read()).isEqualTo('p');
+            byte[] password = new byte[in.readInt() - 4];
+            in.readFully(password);
+            String expected = "md5" + md5Hex((md5Hex("s3cret" + "app") + "\u0001\u0002\u0003\u0004")) + "\0";
+            if (!new String(password, StandardCharsets.ISO_8859_1).equals(expected)) {
+                out.write(message('E', "SFATAL\0C28P01\0Mpassword authentication failed\0\0".getBytes(StandardCharsets.UTF_8)));
+                return;
+            }
+            out.write(message('R', 0, 0, 0, 0));
+            out.write(message('S', "server_version\u000016.2\0".getBytes(StandardCharsets.UTF_8)));
+            out.write(message('Z', 'I'));
+            assertThat(in.read()).isEqualTo('X');
+        });
+
+        ConnectionTestResult result = probe.test(request(DatabaseType.POSTGRESQL, port, "app", "s3cret"));
+        assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+        assertThat(result.getServerVersion()).isEqualTo("PostgreSQL 16.2");
+        assertThat(result.getAuthMethod()).isEqualTo("md5");
+        assertThat(result.getTimingsMs()).containsOnlyKeys("dns", "tcp", "handshake", "auth", "total");
+
+        ConnectionTestResult rejected = probe.test(request(DatabaseType.POSTGRESQL, port, "app", "wrong"));
+        assertThat(rejected.isSuccess()).isFalse();
+        assertThat(rejected.getFailedPhase()).isEqualTo("auth");
+        assertThat(rejected.getMessage()).contains("password authentication failed", "28P01");
+    }
+
+    @Test
+    void authenticatesToMysqlWithNativePassword() throws Exception {
+        byte[] scramble = "abcdefghijklmnopqrst".getBytes(StandardCharsets.US_ASCII);
+        int port = serve(socket -> {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            ByteArrayOutputStream g = new ByteArrayOutputStream();
+            g.write(10);
+            g.writeBytes("8.0.36\0".getBytes(StandardCharsets.US_ASCII));
+            g.writeBytes(new byte[]{1, 0, 0, 0});
+            g.write(scramble, 0, 8);
+            g.write(0);
+            g.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xF7, 45, 2, 0, (byte) 0xFF, (byte) 0x81, 21});
+            g.writeBytes(new byte[10]);
+            g.write(scramble, 8, 12);
+            g.write(0);
+            g.writeBytes("mysql_native_password\0".getBytes(StandardCharsets.US_ASCII));
+            out.write(packet(0, g.toByteArray()));
+            byte[] header = new byte[4];
+            in.readFully(header);
+            byte[] login = new byte[(header[0] & 0xFF) | (header[1] & 0xFF) << 8];
+            in.readFully(login);
+            int user = 32;
+            int authLength = login[user + "root".length() + 1];
+            byte[] auth = Arrays.copyOfRange(login, user + 6, user + 6 + authLength);
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] stage1 = sha1.digest("secret".getBytes(StandardCharsets.UTF_8));
+            byte[] stage2 = sha1.digest(stage1);
+            sha1.update(scramble);
+            byte[] mix = sha1.digest(stage2);
+            for (int i = 0; i < 20; i++) {
+                stage1[i] ^= mix[i];
+            }
+            out.write(packet(2, Arrays.equals(auth, stage1)
+                    ? new byte[]{0, 0, 0, 2, 0, 0, 0}
+                    : "ÿ\u0015\u0004#28000Access denied".getBytes(StandardCharsets.ISO_8859_1)));
+        });
+
+        ConnectionTestResult result = probe.test(request(DatabaseType.MYSQL, port, "root", "secret"));
+        assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+        assertThat(result.getServerVersion()).isEqualTo("8.0.36");
+        assertThat(result.getAuthMethod()).isEqualTo("mysql_native_password");
+
+        ConnectionTestResult rejected = probe.test(request(DatabaseType.MYSQL, port, "root", "nope"));
+        assertThat(rejected.getFailedPhase()).isEqualTo("auth");
+        assertThat(rejected.getMessage()).contains("Access denied", "1045");
+    }
+
+    @Test
+    void authenticatesToRedisAndReadsItsVersion() throws Exception {
+        int port = serve(socket -> {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            assertThat(command(in)).containsExactly("PING");
+            out.write("-NOAUTH Authentication required.\r\n".getBytes(StandardCharsets.UTF_8));
+            assertThat(command(in)).containsExactly("AUTH", "hunter2");
+            out.write("+OK\r\n".getBytes(StandardCharsets.UTF_8));
+            assertThat(command(in)).containsExactly("INFO", "server");
+            String info = "# Server\r\nredis_version:7.2.4\r\n";
+            out.write(("$" + info.length() + "\r\n" + info + "\r\n").getBytes(StandardCharsets.UTF_8));
+            assertThat(command(in)).containsExactly("QUIT");
+        });
+
+        ConnectionTestResult result = probe.test(request(DatabaseType.REDIS, port, null, "hunter2"));
+        assertThat(result.isSuccess()).as(result.getMessage()).isTrue();
+        assertThat(result.getServerVersion()).isEqualTo("Redis 7.2.4");
+        assertThat(result.getAuthMethod()).isEqualTo("AUTH");
+    }
+
+    @Test
+    void failsFastOnSilentServersAndClosedPorts() throws Exception {
+        int silent = serve(socket -> Thread.sleep(5000));
+        long start = System.nanoTime();
+        ConnectionTestResult timedOut = probe.test(request(DatabaseType.POSTGRESQL, silent, "app", null), Duration.ofMillis(300));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        assertThat(timedOut.getFailedPhase()).isEqualTo("handshake");
+        assertThat(timedOut.getMessage()).startsWith("Timed out");
+
+        int closed;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closed = socket.getLocalPort();
+        }
+        ConnectionTestResult refused = probe.test(request(DatabaseType.MSSQL, closed, null, null));
+        assertThat(refused.isSuccess()).isFalse();
+        assertThat(refused.getFailedPhase()).isEqualTo("tcp");
+    }
+
+    @Test
+    void testsBatchesConcurrently() throws Exception {
+        int port = serve(socket -> {
+            Thread.sleep(300);
+            socket.getOutputStream().write("+PONG\r\n$-1\r\n".getBytes(StandardCharsets.UTF_8));
+            socket.getInputStream().readAllBytes();
+        });
+        List<ConnectionStringRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requests.add(request(DatabaseType.REDIS, port, null, null));
+        }
+
+        long start = System.nanoTime();
+        List<ConnectionTestResult> results = probe.testAll(requests);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1500));
+        assertThat(results).hasSize(8).allMatch(ConnectionTestResult::isSuccess);
+
+        ConnectionTestResult.PoolWarmup warmup = probe.warmUp(requests.get(0), 10);
+        assertThat(warmup.getConnections()).isEqualTo(5);
+        assertThat(warmup.getSucceeded()).isEqualTo(5);
+        assertThat(warmup.getWallMs()).isLessThan(warmup.getSequentialMs());
+    }
+
+    @Test
+    void refusesDestinationsOutsideThePolicy() throws Exception {
+        for (String host : List.of("169.254.169.254", "fe80::1", "0.0.0.0")) {
+            ConnectionStringRequest metadata = request(DatabaseType.ELASTICSEARCH, 80, null, null);
+            metadata.setHost(host);
+            ConnectionTestResult refused = probe.test(metadata);
+            assertThat(refused.isSuccess()).as(host).isFalse();
+            assertThat(refused.getFailedPhase()).as(host).isEqualTo("tcp");
+            assertThat(refused.getMessage()).as(host).endsWith("are not allowed from this server");
+        }
+
+        AtomicInteger accepted = new AtomicInteger();
+        int port = serve(socket -> accepted.incrementAndGet());
+        ConnectionProbe privateOnly = new ConnectionProbe(Duration.ofSeconds(2), 10, 5, List.of("10.0.0.0/8", "fd00::/8"), List.of());
+        try {
+            assertThat(privateOnly.test(request(DatabaseType.REDIS, port, null, null)).getMessage())
+                    .isEqualTo("Connections to 127.0.0.1 are not allowed from this server");
+        } finally {
+            privateOnly.destroy();
+        }
+        assertThat(accepted.get()).isZero();
+        assertThat(probe.test(request(DatabaseType.MSSQL, port, null, null)).isSuccess()).isTrue();
+
+        assertThatThrownBy(() -> new ConnectionProbe(Duration.ofSeconds(1), 1, 1, List.of("internal.example.com"), List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ConnectionProbe(Duration.ofSeconds(1), 1, 1, List.of(), List.of("10.0.0.0/33")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void connectsOnlyToLoopbackWithTheDefaultNetworks() throws Exception {
+        ConnectionProbe loopbackOnly = new ConnectionProbe(Duration.ofSeconds(2), 10, 5, List.of("127.0.0.0/8", "::1"),
+                List.of("169.254.0.0/16", "fe80::/10"));
+        try {
+            for (String host : List.of("10.1.2.3", "192.168.1.10", "172.16.0.1", "fd00::1", "8.8.8.8")) {
+                ConnectionStringRequest internal = request(DatabaseType.POSTGRESQL, 5432, null, null);
+                internal.setHost(host);
+                assertThat(loopbackOnly.test(internal).getMessage()).as(host)
+                        .endsWith("are not allowed from this server");
+            }
+            int port = serve(socket -> { });
+            assertThat(loopbackOnly.test(request(DatabaseType.MSSQL, port, null, null)).isSuccess()).isTrue();
+        } finally {
+            loopbackOnly.destroy();
+        }
+    }
+
+    @Test
+    void computesScramProofsAsInRfc7677() throws Exception {
+        Scram scram = new Scram("SHA-256", "user", "pencil", "rOprNGfwEbeRWgbNEkqO");
+        assertThat(scram.clientFirst()).isEqualTo("n,,n=user,r=rOprNGfwEbeRWgbNEkqO");
+        assertThat(scram.clientFinal("r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,s=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096"))
+                .isEqualTo("c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,p=dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ=");
+        scram.verifyServerFinal("v=6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4=");
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(Socket socket) throws Exception;
+    }
+
+    /**
+     * Starts a server on an ephemeral port that handles each connection on its own virtual thread.
+     */
+    private int serve(Handler handler) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        servers.add(server);
+        Thread.ofVirtual().start(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread.ofVirtual().start(() -> {
+                        try (socket) {
+                            handler.handle(socket);
+                        } catch (Exception ignored) {
+                            // the client went away
+                        }
+                    });
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        return server.getLocalPort();
+    }
+
+    private static ConnectionStringRequest request(DatabaseType type, int port, String username, String password) {
+        ConnectionStringRequest request = new ConnectionStringRequest();
+        request.setDatabaseType(type);
+        request.setHost("127.0.0.1");
+        request.setPort(port);
+        request.setUsername(username);
+        request.setPassword(password);
+        if (type == DatabaseType.POSTGRESQL) {
+            request.setDatabase("orders");
+        }
+        return request;
+    }
+
+    private static byte[] message(char type, int... body) {
+        byte[] bytes = new byte[body.length];
+        for (int i = 0; i < body.length; i++) {
+            bytes[i] = (byte) body[i];
+        }
+        return message(type, bytes);
+    }
+
+    private static byte[] message(char type, byte[] body) {
+        int length = body.length + 4;
+        byte[] message = new byte[body.length + 5];
+        message[0] = (byte) type;
+        message[1] = (byte) (length >> 24);
+        message[2] = (byte) (length >> 16);
+        message[3] = (byte) (length >> 8);
+        message[4] = (byte) length;
+        System.arraycopy(body, 0, message, 5, body.length);
+        return message;
+    }
+
+    private static byte[] packet(int sequence, byte[] payload) {
+        byte[] packet = new byte[payload.length + 4];
+        packet[0] = (byte) payload.length;
+        packet[1] = (byte) (payload.length >> 8);
+        packet[3] = (byte) sequence;
+        System.arraycopy(payload, 0, packet, 4, payload.length);
+        return packet;
+    }
+
+    private static List<String> command(DataInputStream in) throws IOException {
+        int count = Integer.parseInt(line(in).substring(1));
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            line(in);
+            parts.add(line(in));
+        }
+        return parts;
+    }
+
+    private static String line(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static String md5Hex(String value) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
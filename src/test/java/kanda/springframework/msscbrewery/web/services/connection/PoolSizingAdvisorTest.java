@@ -0,0 +1,74 @@
+package kanda.springframework.msscbrewery.web.services.connection;
+
+import kanda.springframework.msscbrewery.web.model.ConnectionStringRequest;
+import kanda.springframework.msscbrewery.web.model.PoolSizingRequest;
+import kanda.springframework.msscbrewery.web.model.PoolSizingResponse;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoolSizingAdvisorTest {
+
+    private final PoolSizingAdvisor advisor = new PoolSizingAdvisor();
+
+    @Test
+    void erlangCMatchesTheClosedForm() {
+        // a = 2 Erlangs on 3 servers: C = (8/6 * 3) / (1 + 2 + 2 + 4) = 4/9
+        assertEquals(4.0 / 9, PoolSizingAdvisor.erlangC(3, 2), 1e-9);
+    }
+
+    @Test
+    void simulationAgreesWithMMcForExponentialQueries() {
+        // 4 connections, 3 Erlangs, a database that never slows down: E[W] = C / (c * mu - lambda)
+        double meanMs = 10;
+        double arrivalsPerMs = 0.3;
+        PoolSimulation.Outcome outcome = PoolSimulation.run(
+                new PoolSimulation.Config(1, 4, 0, 0, arrivalsPerMs, 1000, 1e9, 200_000, 7),
+                random -> -meanMs * Math.log(1 - random.nextDouble()));
+        double expected = PoolSizingAdvisor.erlangC(4, 3) / (4 / meanMs - arrivalsPerMs);
+        assertEquals(expected, PoolSimulation.Outcome.mean(outcome.waits()), expected * 0.1);
+        assertEquals(0.75, outcome.connectionUtilization(), 0.02);
+    }
+
+    @Test
+    void recommendsAPoolNearTheDatabaseCapacityForSaturatingClients() {
+        ConnectionStringRequest connection = new ConnectionStringRequest();
+        connection.setMinPoolSize(10);
+        connection.setMaxPoolSize(100);
+        PoolSizingRequest request = PoolSizingRequest.builder()
+                .concurrency(200)
+                .latencyP50Ms(5.0)
+                .latencyP99Ms(40.0)
+                .dbCores(4)
+                .simulatedQueries(20_000)
+                .connection(connection)
+                .build();
+
+        PoolSizingResponse response = advisor.advise(request);
+
+        int size = response.getSettings().getMaximumPoolSize();
+        assertTrue(size >= 4 && size <= 40, "recommended " + size);
+        assertEquals(size, response.getSettings().getMinimumIdle());
+        assertEquals(size, response.getConnection().getMaxPoolSize());
+        assertEquals(8.0, response.getWorkload().getDbCapacity());
+        assertTrue(response.getPredictions().stream().anyMatch(p -> p.getLabel().contains("current")));
+        assertEquals(response.getPredictions(), advisor.advise(request).getPredictions());
+    }
+
+    @Test
+    void rejectsAWorkloadWithoutLoad() {
+        PoolSizingRequest request = PoolSizingRequest.builder().latencyP50Ms(5.0).dbCores(4).build();
+        assertThrows(IllegalArgumentException.class, () -> advisor.advise(request));
+    }
+
+    @Test
+    void rejectsWorkloadsTooLargeToSimulate() {
+        PoolSizingRequest.PoolSizingRequestBuilder base = PoolSizingRequest.builder().latencyP50Ms(5.0).dbCores(4).concurrency(100);
+        assertThrows(IllegalArgumentException.class, () -> advisor.advise(base.appInstances(1_000_000).build()));
+        assertThrows(IllegalArgumentException.class, () -> advisor.advise(base.appInstances(1_000).concurrency(10_000).build()));
+        assertThrows(IllegalArgumentException.class, () -> advisor.advise(base.appInstances(1).concurrency(100).dbCores(100_000).build()));
+        assertThrows(IllegalArgumentException.class, () -> advisor.advise(base.dbCores(4).effectiveSpindles(Integer.MAX_VALUE).build()));
+    }
+}
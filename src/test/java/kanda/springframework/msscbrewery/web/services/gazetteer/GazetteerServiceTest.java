@@ -0,0 +1,70 @@
+package kanda.springframework.msscbrewery.web.services.gazetteer;
+
+import kanda.springframework.msscbrewery.web.model.LocationMatch;
+import kanda.springframework.msscbrewery.web.services.CountryValidationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GazetteerServiceTest {
+
+    private GazetteerService gazetteer;
+
+    @BeforeEach
+    void setUp() {
+        gazetteer = new GazetteerService("", 0, 10);
+        gazetteer.buildIndex();
+    }
+
+    @Test
+    void resolvesNamesAndAliasesWithCountryCodes() {
+        assertMatch("builtin:delhi", "IN", "alias", 0, "New Delhi");
+        assertMatch("builtin:sao-paulo", "BR", "exact", 0, "Sao Paulo, BR");
+        assertMatch("builtin:paris", "FR", "exact", 0, "Paris, France");
+        assertMatch("builtin:peru", "PE", "exact", 0, "Peru");
+        assertMatch("builtin:czech-republic", "CZ", "alias", 0, "Czechia");
+    }
+
+    @Test
+    void countryQualifierExcludesPlacesElsewhere() {
+        assertEquals(Optional.empty(), gazetteer.resolve("Paris, US"));
+        assertEquals(Optional.empty(), gazetteer.resolve("Perm, RU"));
+        assertEquals(Optional.empty(), gazetteer.resolve("Perm, Russia"));
+        assertMatch("builtin:moscow", "RU", "fuzzy", 1, "Moscwo, Russia");
+    }
+
+    @Test
+    void fuzzyMatchesTranspositions() {
+        assertMatch("builtin:delhi", "IN", "fuzzy", 1, "Dehli");
+        assertMatch("builtin:london", "GB", "fuzzy", 1, "Lodnon");
+        // Short and 8-letter queries can share no trigram with the name they are one or two edits from
+        assertMatch("builtin:rome", "IT", "fuzzy", 1, "Rmoe");
+        assertMatch("builtin:shanghai", "CN", "fuzzy", 2, "Shnagahi");
+        assertEquals(1, GazetteerIndex.editDistance("rmoe", "rome", 1));
+    }
+
+    @Test
+    void validationDoesNotAcceptMisspellings() {
+        CountryValidationService validation = new CountryValidationService(gazetteer);
+
+        assertTrue(validation.isValidCountryOrCity("Delhi"));
+        assertFalse(validation.isValidCountryOrCity("Dehli"));
+        assertEquals("Unknown location 'Dehli'. Did you mean Delhi,IN?", validation.getValidationMessage("Dehli"));
+        assertFalse(validation.isValidCountryOrCity("Lyon"));
+        assertFalse(validation.isValidCountryOrCity("Perm"));
+        assertEquals("Please enter a valid country or major city name", validation.getValidationMessage("Perm, RU"));
+    }
+
+    private void assertMatch(String id, String countryCode, String matchType, int distance, String location) {
+        LocationMatch match = gazetteer.resolve(location).orElseThrow(() -> new AssertionError("no match for " + location));
+        assertEquals(id, match.getId(), location);
+        assertEquals(countryCode, match.getCountryCode(), location);
+        assertEquals(matchType, match.getMatchType(), location);
+        assertEquals(distance, match.getDistance(), location);
+    }
+}
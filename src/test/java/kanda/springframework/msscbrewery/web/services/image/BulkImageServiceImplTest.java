@@ -0,0 +1,241 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.web.model.ImageBatchEntry;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import kanda.springframework.msscbrewery.web.services.ImageMetadataService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.Disposable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs bulk uploads against a stand-in metadata service whose extraction can be held back, to
+ * see how many files are staged and read while the workers are busy.
+ */
+class BulkImageServiceImplTest {
+
+    private static final int ENTRY_SIZE = 64 * 1024;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path stagingDir;
+
+    private final HeldExtraction extraction = new HeldExtraction();
+    private BulkImageServiceImpl service;
+
+    @AfterEach
+    void tearDown() {
+        extraction.release();
+        if (service != null) {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void stopsReadingTheArchiveWhileTheInFlightLimitIsReached() throws Exception {
+        service = new BulkImageServiceImpl(extraction, 2, 3, stagingDir.toString(), DataSize.ofMegabytes(1));
+        CountingInputStream archive = new CountingInputStream(zip(20, "notes.txt", "__MACOSX/._IMG_0000.jpg"));
+
+        CompletableFuture<List<ImageBatchEntry>> results = service.processZip(archive).collectList().toFuture();
+
+        // Two workers extract, one more file is staged, and the reader waits for a permit
+        await(() -> extraction.started.get() == 2);
+        Thread.sleep(200);
+        assertThat(extraction.started.get()).isEqualTo(2);
+        assertThat(staged()).isEqualTo(3);
+        assertThat(archive.read.get()).isLessThan(5L * ENTRY_SIZE);
+
+        extraction.release();
+        List<ImageBatchEntry> entries = results.get(TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        assertThat(entries).hasSize(21);
+        assertThat(entries.stream().filter(entry -> entry.getResult().isSuccess())).hasSize(20);
+        assertThat(entries).filteredOn(entry -> "notes.txt".equals(entry.getPath()))
+                .singleElement().satisfies(entry -> assertThat(entry.getResult().getMessage()).startsWith("Skipped"));
+        assertThat(entries.stream().map(ImageBatchEntry::getIndex).sorted().toList())
+                .isEqualTo(Stream.iterate(0, i -> i + 1).limit(21).toList());
+        assertThat(extraction.maxRunning.get()).isEqualTo(2);
+        assertThat(staged()).isZero();
+    }
+
+    @Test
+    void cancellingStopsReadingAndReleasesThePermits() throws Exception {
+        service = new BulkImageServiceImpl(extraction, 1, 2, stagingDir.toString(), DataSize.ofMegabytes(1));
+        CountingInputStream archive = new CountingInputStream(zip(50));
+
+        Disposable upload = service.processZip(archive).subscribe();
+        await(() -> extraction.started.get() == 1);
+        upload.dispose();
+        extraction.release();
+
+        // The files already staged are processed and cleaned up; nothing more is read
+        await(() -> staged() == 0);
+        long read = archive.read.get();
+        Thread.sleep(200);
+        assertThat(archive.read.get()).isEqualTo(read).isLessThan(5L * ENTRY_SIZE);
+
+        // Every permit came back, so a new upload gets through the same limit
+        List<ImageBatchEntry> next = service.processZip(new ByteArrayInputStream(zip(10))).collectList().block(TIMEOUT);
+        assertThat(next).hasSize(10).allMatch(entry -> entry.getResult().isSuccess());
+    }
+
+    @Test
+    void failsOversizedFilesAndKeepsGoing() throws Exception {
+        extraction.release();
+        service = new BulkImageServiceImpl(extraction, 2, 4, stagingDir.toString(), DataSize.ofKilobytes(32));
+
+        List<ImageBatchEntry> entries = service.processFiles(List.<MultipartFile>of(
+                new MockMultipartFile("files", "shoot.zip", "application/zip", zip(2)),
+                new MockMultipartFile("files", "small.jpg", "image/jpeg", new byte[1024])))
+                .collectList().block(TIMEOUT);
+
+        assertThat(entries).hasSize(3);
+        assertThat(entries).filteredOn(entry -> entry.getResult().isSuccess())
+                .extracting(ImageBatchEntry::getPath).containsExactly("small.jpg");
+        assertThat(entries).filteredOn(entry -> !entry.getResult().isSuccess())
+                .allSatisfy(entry -> assertThat(entry.getResult().getMessage()).contains("exceeds the maximum size"));
+        assertThat(staged()).isZero();
+    }
+
+    private long staged() {
+        try (Stream<Path> files = Files.list(stagingDir)) {
+            return files.count();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws Exception {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("timed out waiting").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A ZIP of {@code images} incompressible JPEG entries of {@link #ENTRY_SIZE} bytes each,
+     * followed by small entries with the given names.
+     */
+    private static byte[] zip(int images, String... others) throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < images; i++) {
+                byte[] content = new byte[ENTRY_SIZE];
+                random.nextBytes(content);
+                zip.putNextEntry(new ZipEntry(String.format("shoot/IMG_%04d.jpg", i)));
+                zip.write(content);
+                zip.closeEntry();
+            }
+            for (String other : others) {
+                zip.putNextEntry(new ZipEntry(other));
+                zip.write(other.getBytes());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        final AtomicLong read = new AtomicLong();
+
+        CountingInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                read.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                read.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Extraction that waits until {@link #release()} and records how many ran at once.
+     */
+    private static final class HeldExtraction implements ImageMetadataService {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        void release() {
+            gate.countDown();
+        }
+
+        @Override
+        public ImageMetadataDto extractMetadata(Path file, String fileName, String mimeType, String contentHash) throws Exception {
+            started.incrementAndGet();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                gate.await();
+                return ImageMetadataDto.builder()
+                        .fileName(fileName)
+                        .fileSize(Files.size(file))
+                        .mimeType(mimeType)
+                        .xmpFilePath("sidecars/" + fileName + ".xmp")
+                        .textFilePath("sidecars/" + fileName + ".txt")
+                        .build();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public CompletableFuture<ImageMetadataDto> generateSidecars(ImageMetadataDto metadata) {
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        @Override
+        public ImageMetadataDto extractMetadata(MultipartFile file) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String generateXmpFile(ImageMetadataDto metadata) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String generateTextFile(ImageMetadataDto metadata) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
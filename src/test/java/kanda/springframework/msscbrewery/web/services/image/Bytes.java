@@ -0,0 +1,45 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Big-endian byte builder for synthetic JPEG and TIFF files.
+ */
+final class Bytes {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Bytes u16(int value) {
+        out.write(value >>> 8);
+        out.write(value);
+        return this;
+    }
+
+    Bytes u32(int value) {
+        return u16(value >>> 16).u16(value & 0xFFFF);
+    }
+
+    /**
+     * A 12-byte IFD entry. Values shorter than four bytes go in the high-order bytes.
+     */
+    Bytes entry(int tag, int type, int count, int value) {
+        return u16(tag).u16(type).u32(count).u32(value);
+    }
+
+    Bytes ascii(String text) {
+        return bytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    Bytes bytes(byte[] bytes) {
+        out.writeBytes(bytes);
+        return this;
+    }
+
+    int size() {
+        return out.size();
+    }
+
+    byte[] toArray() {
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,147 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddedPreviewsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsTheExifThumbnailAndTheMpfPreviewOfAJpeg() throws IOException {
+        byte[] file = cameraJpeg();
+
+        EmbeddedPreviews.Result result = EmbeddedPreviews.find(ByteBuffer.wrap(file));
+
+        assertThat(result.format()).isEqualTo(EmbeddedPreviews.Format.JPEG);
+        assertThat(result.orientation()).isEqualTo(6);
+        assertThat(result.width()).isEqualTo(400);
+        assertThat(result.height()).isEqualTo(300);
+        assertThat(result.previews()).extracting(EmbeddedPreviews.Preview::width).containsExactlyInAnyOrder(80, 160);
+        assertThat(result.smallestAtLeast(100).width()).isEqualTo(160);
+        assertThat(result.smallestAtLeast(64).width()).isEqualTo(80);
+        assertThat(result.smallestAtLeast(200)).isNull();
+        EmbeddedPreviews.Preview mpf = result.smallestAtLeast(100);
+        assertThat(ImageIO.read(new ByteArrayInputStream(file, mpf.offset(), mpf.length())).getWidth()).isEqualTo(160);
+    }
+
+    @Test
+    void findsJpegSubIfdsOfARawFileAndSkipsLosslessData() throws IOException {
+        byte[] preview = jpeg(320, 240, Color.GREEN);
+        byte[] lossless = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC3, 0, 11, 8, 0x10, 0, 0x10, 0, 1, 0, 0x11, 0};
+        Bytes tiff = new Bytes().u16(0x4D4D).u16(42).u32(8);
+        // IFD0 at 8: compression, orientation, two SubIFDs listed at 50
+        tiff.u16(3).entry(0x0103, 3, 1, 1 << 16).entry(0x0112, 3, 1, 3 << 16).entry(0x014A, 4, 2, 50).u32(0);
+        // 50: SubIFD offsets; 58: JPEG SubIFD; 100: lossless SubIFD; data from 142
+        int jpegAt = 142;
+        int losslessAt = jpegAt + preview.length;
+        tiff.u32(58).u32(100);
+        tiff.u16(3).entry(0x0103, 3, 1, 7 << 16).entry(0x0111, 4, 1, jpegAt).entry(0x0117, 4, 1, preview.length).u32(0);
+        tiff.u16(3).entry(0x0103, 3, 1, 7 << 16).entry(0x0111, 4, 1, losslessAt).entry(0x0117, 4, 1, lossless.length).u32(0);
+        tiff.bytes(preview).bytes(lossless);
+
+        EmbeddedPreviews.Result result = EmbeddedPreviews.find(ByteBuffer.wrap(tiff.toArray()));
+
+        assertThat(result.format()).isEqualTo(EmbeddedPreviews.Format.TIFF);
+        assertThat(result.orientation()).isEqualTo(3);
+        assertThat(result.previews()).containsExactly(new EmbeddedPreviews.Preview(jpegAt, preview.length, 320, 240));
+    }
+
+    @Test
+    void toleratesTruncatedFiles() throws IOException {
+        byte[] file = cameraJpeg();
+        for (int length = 0; length < 200; length++) {
+            EmbeddedPreviews.find(ByteBuffer.wrap(Arrays.copyOf(file, length)));
+        }
+    }
+
+    @Test
+    void decodesTheSmallestSufficientSourceAndAppliesTheOrientation() throws IOException {
+        Path file = Files.write(directory.resolve("camera.jpg"), cameraJpeg());
+        PreviewGenerator embedded = new PreviewGenerator(true, 100, 16, 0.85f, 1, 4);
+        PreviewGenerator fullDecode = new PreviewGenerator(true, 1000, 16, 0.85f, 1, 4);
+        try {
+            // MPF preview (160x120, green), scaled and rotated a quarter turn clockwise
+            BufferedImage preview = embedded.decode(file);
+            assertThat(preview.getWidth()).isEqualTo(75);
+            assertThat(preview.getHeight()).isEqualTo(100);
+            assertThat(new Color(preview.getRGB(37, 50)).getGreen()).isGreaterThan(200);
+
+            // Nothing embedded is large enough: the main image (400x300, red) itself
+            BufferedImage full = fullDecode.decode(file);
+            assertThat(full.getWidth()).isEqualTo(300);
+            assertThat(full.getHeight()).isEqualTo(400);
+            assertThat(new Color(full.getRGB(150, 200)).getRed()).isGreaterThan(200);
+        } finally {
+            embedded.destroy();
+            fullDecode.destroy();
+        }
+    }
+
+    @Test
+    void downscalesInSteps() {
+        BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_3BYTE_BGR);
+
+        BufferedImage scaled = PreviewGenerator.downscale(image, 256);
+
+        assertThat(scaled.getWidth()).isEqualTo(256);
+        assertThat(scaled.getHeight()).isEqualTo(192);
+        assertThat(scaled.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * A 400x300 red JPEG with orientation 6, an 80x60 blue EXIF thumbnail and a 160x120 green
+     * MPF preview appended after the main image, laid out as cameras write them.
+     */
+    private static byte[] cameraJpeg() throws IOException {
+        byte[] main = jpeg(400, 300, Color.RED);
+        byte[] thumbnail = jpeg(80, 60, Color.BLUE);
+        byte[] preview = jpeg(160, 120, Color.GREEN);
+
+        Bytes exif = new Bytes().ascii("Exif\0\0").u16(0x4D4D).u16(42).u32(8);
+        exif.u16(1).entry(0x0112, 3, 1, 6 << 16).u32(26);
+        exif.u16(2).entry(0x0201, 4, 1, 56).entry(0x0202, 4, 1, thumbnail.length).u32(0);
+        exif.bytes(thumbnail);
+
+        int mpfLength = 4 + 8 + 2 + 12 + 4 + 32;
+        int mpfBase = 2 + (4 + exif.size()) + 4 + 4;
+        int primaryLength = 2 + (4 + exif.size()) + (4 + mpfLength) + main.length - 2;
+        Bytes mpf = new Bytes().ascii("MPF\0").u16(0x4D4D).u16(42).u32(8);
+        mpf.u16(1).entry(0xB002, 7, 32, 26).u32(0);
+        mpf.u32(0x20030000).u32(primaryLength).u32(0).u32(0);
+        mpf.u32(0x00010001).u32(preview.length).u32(primaryLength - mpfBase).u32(0);
+
+        return new Bytes().u16(0xFFD8)
+                .u16(0xFFE1).u16(exif.size() + 2).bytes(exif.toArray())
+                .u16(0xFFE2).u16(mpf.size() + 2).bytes(mpf.toArray())
+                .bytes(Arrays.copyOfRange(main, 2, main.length))
+                .bytes(preview)
+                .toArray();
+    }
+
+    private static byte[] jpeg(int width, int height, Color color) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,178 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.tiff.TiffMetadataReader;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import com.drew.metadata.file.FileSystemDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares header-only reads with {@link ImageMetadataReader} reading the whole file.
+ */
+class HeaderMetadataReaderTest {
+
+    private static final int SENSOR_DATA = 4 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsJpegMetadataWithoutTheImageData() throws Exception {
+        byte[] jpeg = exifJpeg();
+        Path full = Files.write(directory.resolve("full.jpg"), jpeg);
+        // Everything up to and including the start-of-scan marker: no image data, no end marker
+        Path headers = Files.write(directory.resolve("headers.jpg"), Arrays.copyOf(jpeg, startOfScan(jpeg) + 2));
+
+        Map<String, String> expected = tags(ImageMetadataReader.readMetadata(full.toFile()));
+
+        assertThat(expected).containsEntry("Exif IFD0/Make", "Canon")
+                .containsEntry("Exif IFD0/Model", "EOS R5")
+                .containsEntry("JPEG/Image Width", "64 pixels");
+        assertThat(tags(HeaderMetadataReader.readMetadata(full))).isEqualTo(expected);
+        assertThat(tags(HeaderMetadataReader.readMetadata(headers))).isEqualTo(expected);
+    }
+
+    @Test
+    void readsRawMetadataAfterTheSensorDataWithoutReadingIt() throws Exception {
+        Path raw = Files.write(directory.resolve("raw.tif"), raw(SENSOR_DATA, true));
+
+        Map<String, String> expected = tags(ImageMetadataReader.readMetadata(raw.toFile()));
+
+        assertThat(expected).containsEntry("Exif IFD0/Make", "Canon")
+                .containsEntry("Exif IFD0/Orientation", "Right side, top (Rotate 90 CW)")
+                .containsEntry("Exif SubIFD/ISO Speed Ratings", "400")
+                .containsEntry("Exif SubIFD/Date/Time Original", "2024:05:01 10:15:30");
+        assertThat(tags(HeaderMetadataReader.readMetadata(raw))).isEqualTo(expected);
+
+        try (PagedFileReader reader = new PagedFileReader(raw)) {
+            TiffMetadataReader.readMetadata(reader);
+            // The header page and the page holding the IFDs, never the sensor data in between
+            assertThat(reader.bytesRead()).isLessThanOrEqualTo(3L * PagedFileReader.PAGE_SIZE);
+        }
+    }
+
+    @Test
+    void readsTheSameTiffMetadataWhenTheImageDataIsMissing() throws Exception {
+        byte[] tiff = raw(SENSOR_DATA, false);
+        Path full = Files.write(directory.resolve("full.tif"), tiff);
+        Path truncated = Files.write(directory.resolve("truncated.tif"), Arrays.copyOf(tiff, tiff.length - SENSOR_DATA));
+
+        Map<String, String> expected = tags(ImageMetadataReader.readMetadata(full.toFile()));
+
+        assertThat(tags(HeaderMetadataReader.readMetadata(full))).isEqualTo(expected);
+        assertThat(tags(HeaderMetadataReader.readMetadata(truncated))).isEqualTo(expected);
+    }
+
+    @Test
+    void closesTheFileSoItCanBeDeleted() throws Exception {
+        Path raw = Files.write(directory.resolve("raw.tif"), raw(1024, true));
+
+        HeaderMetadataReader.readMetadata(raw);
+
+        Files.delete(raw);
+        assertThat(raw).doesNotExist();
+    }
+
+    /**
+     * Every tag description and directory error by "directory/tag", leaving out the file system
+     * directory (name, size and modification time of the file that was read).
+     */
+    private static Map<String, String> tags(Metadata metadata) {
+        Map<String, String> tags = new TreeMap<>();
+        for (Directory directory : metadata.getDirectories()) {
+            if (directory instanceof FileSystemDirectory) {
+                continue;
+            }
+            for (Tag tag : directory.getTags()) {
+                tags.put(directory.getName() + "/" + tag.getTagName(), tag.getDescription());
+            }
+            for (String error : directory.getErrors()) {
+                tags.put(directory.getName() + "/error", error);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * A TIFF laid out like a RAW file: IFD0 (with make, model, orientation and one strip of
+     * {@code sensorData} bytes) and an Exif sub-IFD (ISO, capture time), placed after the strip
+     * when {@code ifdLast}, otherwise before it.
+     */
+    private static byte[] raw(int sensorData, boolean ifdLast) {
+        int ifd0 = ifdLast ? 8 + sensorData : 8;
+        int make = ifd0 + 2 + 8 * 12 + 4;
+        int model = make + 6;
+        int exif = model + 8;
+        int dateTime = exif + 2 + 2 * 12 + 4;
+        int strip = ifdLast ? 8 : dateTime + 20;
+
+        Bytes ifds = new Bytes();
+        ifds.u16(8)
+                .entry(0x0100, 4, 1, 1000)
+                .entry(0x0101, 4, 1, 500)
+                .entry(0x010F, 2, 6, make)
+                .entry(0x0110, 2, 7, model)
+                .entry(0x0111, 4, 1, strip)
+                .entry(0x0112, 3, 1, 6 << 16)
+                .entry(0x0117, 4, 1, sensorData)
+                .entry(0x8769, 4, 1, exif)
+                .u32(0);
+        ifds.ascii("Canon\0").ascii("EOS R5\0\0");
+        ifds.u16(2)
+                .entry(0x8827, 3, 1, 400 << 16)
+                .entry(0x9003, 2, 20, dateTime)
+                .u32(0);
+        ifds.ascii("2024:05:01 10:15:30\0");
+
+        Bytes tiff = new Bytes().u16(0x4D4D).u16(42).u32(ifd0);
+        if (ifdLast) {
+            return tiff.bytes(new byte[sensorData]).bytes(ifds.toArray()).toArray();
+        }
+        return tiff.bytes(ifds.toArray()).bytes(new byte[sensorData]).toArray();
+    }
+
+    /**
+     * A 64x48 JPEG with an Exif segment holding make, model and orientation.
+     */
+    private static byte[] exifJpeg() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+        byte[] image = out.toByteArray();
+
+        Bytes exif = new Bytes().ascii("Exif\0\0").u16(0x4D4D).u16(42).u32(8);
+        exif.u16(3)
+                .entry(0x010F, 2, 6, 50)
+                .entry(0x0110, 2, 7, 56)
+                .entry(0x0112, 3, 1, 1 << 16)
+                .u32(0);
+        exif.ascii("Canon\0").ascii("EOS R5\0");
+
+        return new Bytes().u16(0xFFD8)
+                .u16(0xFFE1).u16(exif.size() + 2).bytes(exif.toArray())
+                .bytes(Arrays.copyOfRange(image, 2, image.length))
+                .toArray();
+    }
+
+    private static int startOfScan(byte[] jpeg) {
+        int offset = 2;
+        while ((jpeg[offset + 1] & 0xFF) != 0xDA) {
+            offset += 2 + ((jpeg[offset + 2] & 0xFF) << 8 | jpeg[offset + 3] & 0xFF);
+        }
+        return offset;
+    }
+}
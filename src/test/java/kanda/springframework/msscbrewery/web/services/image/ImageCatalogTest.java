@@ -0,0 +1,249 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogEntry;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogPage;
+import kanda.springframework.msscbrewery.web.model.ImageCatalogQuery;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageCatalogTest {
+
+    private static final String[] MAKES = {"Canon", "SONY", "Nikon", "FUJIFILM"};
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    void queriesMatchAFullScan() {
+        ImageCatalog catalog = catalog();
+        Random random = new Random(42);
+        List<ImageMetadataDto> images = new ArrayList<>();
+        // Enough rows for the sorted indexes to merge their tails more than once
+        for (int i = 0; i < 12_000; i++) {
+            ImageMetadataDto image = image(random, i);
+            images.add(image);
+            catalog.add(image);
+        }
+
+        for (int i = 0; i < 300; i++) {
+            ImageCatalogQuery query = query(random);
+            ImageCatalogPage page = catalog.query(query);
+            List<Integer> expected = fullScan(images, query);
+
+            assertThat(page.getTotal()).as("total for %s", query).isEqualTo(expected.size());
+            int from = Math.min(expected.size(), page.getPage() * page.getSize());
+            int to = Math.min(expected.size(), from + page.getSize());
+            assertThat(page.getItems()).extracting(ImageCatalogEntry::getContentHash).as("page for %s", query)
+                    .containsExactlyElementsOf(expected.subList(from, to).stream()
+                            .map(index -> images.get(index).getContentHash()).toList());
+        }
+    }
+
+    @Test
+    void replaysTheCatalogFileOnStartup() {
+        ImageCatalog catalog = catalog();
+        ImageMetadataDto image = image(new Random(1), 7);
+        catalog.add(image);
+        image.setFileName("renamed.jpg");
+        catalog.add(image);
+        catalog.close();
+
+        ImageCatalog reloaded = catalog();
+
+        assertThat(reloaded.size()).isEqualTo(1);
+        assertThat(reloaded.findByFileName("IMG_7.jpg")).isEmpty();
+        ImageCatalogEntry entry = reloaded.findByFileName("renamed.jpg").orElseThrow();
+        assertThat(entry.getCameraMake()).isEqualTo(image.getCameraMake());
+        assertThat(entry.getDateTimeTaken()).isEqualTo(image.getDateTimeTaken());
+        assertThat(entry.getLatitude()).isEqualTo(image.getLatitude());
+        assertThat(entry.getXmpDownloadUrl()).startsWith("/api/v1/images/download/xmp/renamed_");
+    }
+
+    @Test
+    void findsTheLatestImageWithAFileName() {
+        ImageCatalog catalog = catalog();
+        Random random = new Random(3);
+        ImageMetadataDto first = image(random, 1);
+        ImageMetadataDto second = image(random, 2);
+        first.setProcessedDateTime(EPOCH.plusHours(1));
+        second.setFileName(first.getFileName());
+        second.setProcessedDateTime(EPOCH.plusHours(2));
+        catalog.add(first);
+        catalog.add(second);
+
+        assertThat(catalog.findByFileName("IMG_1.jpg")).get()
+                .extracting(ImageCatalogEntry::getContentHash).isEqualTo(second.getContentHash());
+
+        // Uploading the first image again makes it the latest
+        first.setProcessedDateTime(EPOCH.plusHours(3));
+        catalog.add(first);
+        assertThat(catalog.findByFileName("IMG_1.jpg")).get()
+                .extracting(ImageCatalogEntry::getContentHash).isEqualTo(first.getContentHash());
+
+        // Under another name it no longer matches the old one
+        first.setFileName("renamed.jpg");
+        catalog.add(first);
+        assertThat(catalog.findByFileName("IMG_1.jpg")).get()
+                .extracting(ImageCatalogEntry::getContentHash).isEqualTo(second.getContentHash());
+        assertThat(catalog.findByFileName("renamed.jpg")).get()
+                .extracting(ImageCatalogEntry::getContentHash).isEqualTo(first.getContentHash());
+        assertThat(catalog.findByFileName("IMG_2.jpg")).isEmpty();
+    }
+
+    @Test
+    void rejectsInvalidQueries() {
+        ImageCatalog catalog = catalog();
+
+        assertThatThrownBy(() -> catalog.query(ImageCatalogQuery.builder().minIso(800).maxIso(100).build()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> catalog.query(ImageCatalogQuery.builder().minLat(-91.0).build()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> catalog.query(ImageCatalogQuery.builder().sort("aperture").build()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> catalog.query(ImageCatalogQuery.builder().size(10_000).build()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private ImageCatalog catalog() {
+        ImageCatalog catalog = new ImageCatalog(objectMapper, true, directory.resolve("images.jsonl").toString(), 500);
+        catalog.load();
+        return catalog;
+    }
+
+    private static ImageMetadataDto image(Random random, int index) {
+        boolean gps = random.nextInt(4) > 0;
+        return ImageMetadataDto.builder()
+                .contentHash(String.format("%016x", random.nextLong()))
+                .fileName("IMG_" + index + ".jpg")
+                .fileSize(1000L + random.nextInt(1_000_000))
+                .mimeType("image/jpeg")
+                .cameraMake(random.nextInt(10) == 0 ? null : MAKES[random.nextInt(MAKES.length)])
+                .cameraModel("Model " + random.nextInt(20))
+                .lensModel(random.nextBoolean() ? null : "Lens " + random.nextInt(30))
+                .iso(random.nextInt(8) == 0 ? null : String.valueOf(100 << random.nextInt(7)))
+                .focalLength(random.nextInt(8) == 0 ? null : String.format(Locale.ROOT, "%.1f mm", 10 + random.nextInt(590) / 2.0))
+                .dateTimeTaken(random.nextInt(8) == 0 ? null : EPOCH.plusMinutes(random.nextInt(1_000_000)))
+                .latitude(gps ? random.nextDouble() * 180 - 90 : null)
+                .longitude(gps ? random.nextDouble() * 360 - 180 : null)
+                .processedDateTime(EPOCH.plusSeconds(random.nextInt(100)))
+                .build();
+    }
+
+    private static ImageCatalogQuery query(Random random) {
+        ImageCatalogQuery.ImageCatalogQueryBuilder query = ImageCatalogQuery.builder();
+        if (random.nextInt(3) == 0) {
+            query.make(MAKES[random.nextInt(MAKES.length)].toLowerCase());
+        }
+        if (random.nextInt(4) == 0) {
+            query.lens("Lens " + random.nextInt(32));
+        }
+        if (random.nextInt(3) == 0) {
+            query.minIso(100 << random.nextInt(4));
+        }
+        if (random.nextInt(4) == 0) {
+            query.maxIso(800 << random.nextInt(3));
+        }
+        if (random.nextInt(3) == 0) {
+            double min = 10 + random.nextInt(300);
+            query.minFocalLength(min).maxFocalLength(min + random.nextInt(200));
+        }
+        if (random.nextInt(3) == 0) {
+            LocalDateTime from = EPOCH.plusMinutes(random.nextInt(1_000_000));
+            query.takenFrom(from).takenTo(from.plusMinutes(random.nextInt(500_000)));
+        }
+        if (random.nextInt(3) == 0) {
+            double lat = random.nextDouble() * 160 - 80;
+            query.minLat(lat).maxLat(lat + random.nextDouble() * 10)
+                    .minLon(random.nextDouble() * 360 - 180).maxLon(random.nextDouble() * 360 - 180);
+        }
+        return query.sort(new String[]{null, "taken", "iso", "focalLength", "fileName"}[random.nextInt(5)])
+                .direction(random.nextBoolean() ? "asc" : null)
+                .page(random.nextInt(3))
+                .size(1 + random.nextInt(60))
+                .build();
+    }
+
+    /**
+     * Indexes of the matching images in result order.
+     */
+    private static List<Integer> fullScan(List<ImageMetadataDto> images, ImageCatalogQuery query) {
+        List<Predicate<ImageMetadataDto>> filters = new ArrayList<>();
+        if (query.getMake() != null) {
+            filters.add(image -> query.getMake().equalsIgnoreCase(image.getCameraMake()));
+        }
+        if (query.getLens() != null) {
+            filters.add(image -> query.getLens().equalsIgnoreCase(image.getLensModel()));
+        }
+        if (query.getMinIso() != null || query.getMaxIso() != null) {
+            filters.add(image -> image.getIso() != null
+                    && (query.getMinIso() == null || Integer.parseInt(image.getIso()) >= query.getMinIso())
+                    && (query.getMaxIso() == null || Integer.parseInt(image.getIso()) <= query.getMaxIso()));
+        }
+        if (query.getMinFocalLength() != null) {
+            filters.add(image -> image.getFocalLength() != null
+                    && focalLength(image) >= query.getMinFocalLength() && focalLength(image) <= query.getMaxFocalLength());
+        }
+        if (query.getTakenFrom() != null) {
+            filters.add(image -> image.getDateTimeTaken() != null
+                    && !image.getDateTimeTaken().isBefore(query.getTakenFrom()) && !image.getDateTimeTaken().isAfter(query.getTakenTo()));
+        }
+        if (query.getMinLat() != null) {
+            filters.add(image -> image.getLatitude() != null
+                    && image.getLatitude() >= query.getMinLat() && image.getLatitude() <= query.getMaxLat()
+                    && (query.getMinLon() <= query.getMaxLon()
+                    ? image.getLongitude() >= query.getMinLon() && image.getLongitude() <= query.getMaxLon()
+                    : image.getLongitude() >= query.getMinLon() || image.getLongitude() <= query.getMaxLon()));
+        }
+
+        Function<ImageMetadataDto, Comparable<?>> key = switch (query.getSort() == null ? "processed" : query.getSort()) {
+            case "taken" -> ImageMetadataDto::getDateTimeTaken;
+            case "iso" -> image -> image.getIso() == null ? null : Integer.valueOf(image.getIso());
+            case "focalLength" -> image -> image.getFocalLength() == null ? null : focalLength(image);
+            case "fileName" -> ImageMetadataDto::getFileName;
+            default -> ImageMetadataDto::getProcessedDateTime;
+        };
+        int sign = "asc".equals(query.getDirection()) ? 1 : -1;
+        Comparator<Integer> order = (a, b) -> {
+            @SuppressWarnings("unchecked")
+            Comparable<Object> ka = (Comparable<Object>) key.apply(images.get(a));
+            Comparable<?> kb = key.apply(images.get(b));
+            if (ka == null || kb == null) {
+                return ka == kb ? sign * Integer.compare(a, b) : ka == null ? 1 : -1;
+            }
+            int cmp = ka.compareTo(kb);
+            return cmp != 0 ? sign * cmp : sign * Integer.compare(a, b);
+        };
+
+        List<Integer> matches = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            ImageMetadataDto image = images.get(i);
+            if (filters.stream().allMatch(filter -> filter.test(image))) {
+                matches.add(i);
+            }
+        }
+        matches.sort(order);
+        return matches;
+    }
+
+    private static double focalLength(ImageMetadataDto image) {
+        return Double.parseDouble(image.getFocalLength().replace(" mm", ""));
+    }
+}
@@ -0,0 +1,181 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.drew.lang.Rational;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.GpsDirectory;
+import com.drew.metadata.exif.makernotes.CanonMakernoteDirectory;
+import com.drew.metadata.exif.makernotes.NikonType2MakernoteDirectory;
+import com.drew.metadata.exif.makernotes.PanasonicMakernoteDirectory;
+import com.drew.metadata.exif.makernotes.SonyType1MakernoteDirectory;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Extraction from hand-built directories: the EXIF fields every camera writes, and the makernote
+ * tags of each vendor.
+ */
+class MetadataExtractorTest {
+
+    private final MetadataExtractor extractor = new MetadataExtractor(false);
+
+    @Test
+    void extractsExifFields() {
+        ExifIFD0Directory ifd0 = ifd0("Canon", "EOS 250D");
+        ifd0.setInt(ExifIFD0Directory.TAG_IMAGE_WIDTH, 6000);
+        ifd0.setInt(ExifIFD0Directory.TAG_IMAGE_HEIGHT, 4000);
+        ExifSubIFDDirectory subIfd = subIfd(400, "2024:05:01 10:15:30");
+        subIfd.setRational(ExifSubIFDDirectory.TAG_FNUMBER, new Rational(28, 10));
+        subIfd.setRational(ExifSubIFDDirectory.TAG_FOCAL_LENGTH, new Rational(50, 1));
+        subIfd.setRational(ExifSubIFDDirectory.TAG_EXPOSURE_TIME, new Rational(1, 250));
+        subIfd.setString(ExifSubIFDDirectory.TAG_LENS_MODEL, "EF50mm f/1.8 STM");
+        subIfd.setInt(ExifSubIFDDirectory.TAG_COLOR_SPACE, 1);
+        GpsDirectory gps = new GpsDirectory();
+        gps.setRationalArray(GpsDirectory.TAG_LATITUDE, degrees(47, 22));
+        gps.setString(GpsDirectory.TAG_LATITUDE_REF, "N");
+        gps.setRationalArray(GpsDirectory.TAG_LONGITUDE, degrees(8, 33));
+        gps.setString(GpsDirectory.TAG_LONGITUDE_REF, "W");
+        gps.setRational(GpsDirectory.TAG_ALTITUDE, new Rational(4085, 10));
+
+        ImageMetadataDto metadata = extract(ifd0, subIfd, gps,
+                subIfd(3200, "2020:01:01 00:00:00"));
+
+        assertThat(metadata.getWidth()).isEqualTo(6000);
+        assertThat(metadata.getHeight()).isEqualTo(4000);
+        assertThat(metadata.getCameraMake()).isEqualTo("Canon");
+        assertThat(metadata.getCameraModel()).isEqualTo("EOS 250D");
+        assertThat(metadata.getLensModel()).isEqualTo("EF50mm f/1.8 STM");
+        // Only the first Exif sub-IFD counts
+        assertThat(metadata.getIso()).isEqualTo("400");
+        assertThat(metadata.getDateTimeTaken()).isEqualTo(LocalDateTime.of(2024, 5, 1, 10, 15, 30));
+        assertThat(metadata.getAperture()).isEqualTo("f/2.8");
+        assertThat(metadata.getFocalLength()).isEqualTo("50.0 mm");
+        assertThat(metadata.getShutterSpeed()).isEqualTo("1/250 sec");
+        assertThat(metadata.getColorSpace()).isEqualTo("sRGB");
+        assertThat(metadata.getLatitude()).isCloseTo(47.3667, within(1e-4));
+        assertThat(metadata.getLongitude()).isCloseTo(-8.55, within(1e-4));
+        assertThat(metadata.getGpsLatitudeRef()).isEqualTo("N");
+        assertThat(metadata.getGpsLongitudeRef()).isEqualTo("W");
+        assertThat(metadata.getAltitude()).isEqualTo(408.5);
+        assertThat(metadata.getPictureStyle()).isNull();
+    }
+
+    @Test
+    void readsCanonPictureStyleAndWhiteBalance() {
+        CanonMakernoteDirectory canon = new CanonMakernoteDirectory();
+        canon.setString(CanonMakernoteDirectory.TAG_CUSTOM_PICTURE_STYLE_FILE_NAME, "Landscape");
+        canon.setInt(CanonMakernoteDirectory.FocalLength.TAG_WHITE_BALANCE, 1);
+
+        // The makernote comes before the Exif white balance, and still wins
+        ImageMetadataDto metadata = extract(ifd0("Canon", "EOS R5"), canon, whiteBalance(subIfd(100, null), 1));
+
+        assertThat(metadata.getPictureStyle()).isEqualTo("Landscape");
+        assertThat(metadata.getWhiteBalanceMode()).isEqualTo("Sunny");
+    }
+
+    @Test
+    void readsNikonColorMode() {
+        NikonType2MakernoteDirectory nikon = new NikonType2MakernoteDirectory();
+        nikon.setString(NikonType2MakernoteDirectory.TAG_COLOR_MODE, "COLOR");
+        nikon.setString(NikonType2MakernoteDirectory.TAG_CAMERA_WHITE_BALANCE, "AUTO");
+
+        ImageMetadataDto metadata = extract(ifd0("NIKON CORPORATION", "NIKON Z 6"), whiteBalance(subIfd(100, null), 1), nikon);
+
+        assertThat(metadata.getPictureStyle()).isEqualTo("COLOR");
+        // Nikon white balance settings are not used: the Exif one stays
+        assertThat(metadata.getWhiteBalanceMode()).isEqualTo("Manual");
+    }
+
+    @Test
+    void readsSonyCreativeStyle() {
+        SonyType1MakernoteDirectory sony = new SonyType1MakernoteDirectory();
+        sony.setInt(SonyType1MakernoteDirectory.TAG_COLOR_MODE, 2);
+
+        ImageMetadataDto metadata = extract(ifd0("SONY", "ILCE-7M4"), whiteBalance(subIfd(640, null), 0), sony);
+
+        assertThat(metadata.getPictureStyle()).isEqualTo("Portrait");
+        assertThat(metadata.getWhiteBalanceMode()).isEqualTo("Auto");
+    }
+
+    @Test
+    void readsColorModeAndWhiteBalanceFromOtherMakernotes() {
+        PanasonicMakernoteDirectory panasonic = new PanasonicMakernoteDirectory();
+        panasonic.setInt(PanasonicMakernoteDirectory.TAG_COLOR_MODE, 1);
+        panasonic.setInt(PanasonicMakernoteDirectory.TAG_WHITE_BALANCE, 3);
+
+        ImageMetadataDto metadata = extract(ifd0("Panasonic", "DC-GH6"), panasonic, whiteBalance(subIfd(200, null), 0));
+
+        assertThat(metadata.getPictureStyle()).isEqualTo("Natural");
+        assertThat(metadata.getWhiteBalanceMode()).isEqualTo("Cloudy");
+    }
+
+    @Test
+    void dumpsEveryTagOnlyWhenEnabled() {
+        Metadata metadata = metadata(ifd0("Canon", "EOS R5"), subIfd(100, null));
+
+        ImageMetadataDto.ImageMetadataDtoBuilder without = ImageMetadataDto.builder();
+        extractor.extract(metadata, without);
+        ImageMetadataDto.ImageMetadataDtoBuilder with = ImageMetadataDto.builder();
+        new MetadataExtractor(true).extract(metadata, with);
+
+        assertThat(without.build().getAdditionalMetadata()).isEmpty();
+        assertThat(with.build().getAdditionalMetadata())
+                .containsEntry("Exif IFD0 - Make", "Canon")
+                .containsEntry("Exif IFD0 - Model", "EOS R5")
+                .containsEntry("Exif SubIFD - ISO Speed Ratings", "100");
+    }
+
+    @Test
+    void additionalMetadataIsOffByDefault() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(MetadataExtractor.class)) {
+            assertThat(context.getBean(MetadataExtractor.class).isAdditionalMetadata()).isFalse();
+        }
+    }
+
+    private ImageMetadataDto extract(Directory... directories) {
+        ImageMetadataDto.ImageMetadataDtoBuilder builder = ImageMetadataDto.builder();
+        extractor.extract(metadata(directories), builder);
+        return builder.build();
+    }
+
+    private static Metadata metadata(Directory... directories) {
+        Metadata metadata = new Metadata();
+        for (Directory directory : directories) {
+            metadata.addDirectory(directory);
+        }
+        return metadata;
+    }
+
+    private static ExifIFD0Directory ifd0(String make, String model) {
+        ExifIFD0Directory ifd0 = new ExifIFD0Directory();
+        ifd0.setString(ExifIFD0Directory.TAG_MAKE, make);
+        ifd0.setString(ExifIFD0Directory.TAG_MODEL, model);
+        return ifd0;
+    }
+
+    private static ExifSubIFDDirectory subIfd(int iso, String taken) {
+        ExifSubIFDDirectory subIfd = new ExifSubIFDDirectory();
+        subIfd.setInt(ExifSubIFDDirectory.TAG_ISO_EQUIVALENT, iso);
+        if (taken != null) {
+            subIfd.setString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL, taken);
+        }
+        return subIfd;
+    }
+
+    private static ExifSubIFDDirectory whiteBalance(ExifSubIFDDirectory subIfd, int value) {
+        subIfd.setInt(ExifSubIFDDirectory.TAG_WHITE_BALANCE, value);
+        return subIfd;
+    }
+
+    private static Rational[] degrees(int degrees, int minutes) {
+        return new Rational[]{new Rational(degrees, 1), new Rational(minutes, 1), new Rational(0, 1)};
+    }
+}
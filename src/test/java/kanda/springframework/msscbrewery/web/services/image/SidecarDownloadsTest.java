@@ -0,0 +1,212 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import kanda.springframework.msscbrewery.util.XxHash64;
+import kanda.springframework.msscbrewery.web.controller.ImageUploadController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Downloads through {@link ImageUploadController} with the sidecar directories in a temporary
+ * directory.
+ */
+class SidecarDownloadsTest {
+
+    private static final String XMP = "IMG_0001_0123456789abcdef.xmp";
+    private static final String TEXT = "IMG_0001_0123456789abcdef_metadata.txt";
+    private static final String CONTENTS = "0123456789abcdefghij";
+    private static final Instant MODIFIED = Instant.parse("2024-05-01T10:15:30Z");
+    private static final String LAST_MODIFIED = "Wed, 01 May 2024 10:15:30 GMT";
+
+    @TempDir
+    Path baseDirectory;
+
+    private SidecarDownloads downloads;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        write("xmp/" + XMP, CONTENTS);
+        write("text/" + TEXT, "Camera: Canon EOS R5\n");
+        write("xmp/.hidden.xmp", "hidden");
+        write("secret.xmp", "secret");
+        downloads = new SidecarDownloads(baseDirectory, 100, Duration.ofMinutes(1), DataSize.ofKilobytes(48),
+                Duration.ofHours(1), 10);
+        mvc = MockMvcBuilders.standaloneSetup(new ImageUploadController(null, null, null, downloads)).build();
+    }
+
+    @Test
+    void sendsTheWholeFileWithValidators() throws Exception {
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENTS))
+                .andExpect(header().string(HttpHeaders.ETAG, etag()))
+                .andExpect(header().string(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"IMG_0001.xmp\""))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, CONTENTS.length()));
+    }
+
+    @Test
+    void answersCurrentCopiesWithNotModified() throws Exception {
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.IF_NONE_MATCH, etag()))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED))
+                .andExpect(status().isNotModified());
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.IF_NONE_MATCH, "\"0000000000000000\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENTS));
+    }
+
+    @Test
+    void sendsSingleRanges() throws Exception {
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("2345"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/20"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.RANGE, "bytes=-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("ghij"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 16-19/20"));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.RANGE, "bytes=15-100"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("fghij"));
+        // Several ranges get the whole file
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.RANGE, "bytes=0-1,4-5"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENTS));
+    }
+
+    @Test
+    void rejectsRangesPastTheEnd() throws Exception {
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP).header(HttpHeaders.RANGE, "bytes=20-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void sendsTheWholeFileWhenIfRangeIsStale() throws Exception {
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP)
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, "\"0000000000000000\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENTS));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP)
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, "Wed, 01 May 2024 10:15:29 GMT"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(CONTENTS));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP)
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, etag()))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("2345"));
+        mvc.perform(get("/api/v1/images/download/xmp/" + XMP)
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, LAST_MODIFIED))
+                .andExpect(status().isPartialContent());
+    }
+
+    @Test
+    void servesOnlyFilesDirectlyInTheSidecarDirectory() throws Exception {
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, "../secret.xmp")).isEmpty();
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, "..\\secret.xmp")).isEmpty();
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, "../text/" + TEXT)).isEmpty();
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, ".hidden.xmp")).isEmpty();
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, "")).isEmpty();
+        assertThat(downloads.find(SidecarDownloads.Kind.XMP, XMP)).isPresent();
+
+        mvc.perform(get("/api/v1/images/download/xmp/.hidden.xmp"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/v1/images/download/xmp/..%5Csecret.xmp"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/v1/images/download/text/" + XMP))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void zipsBulkDownloadsAndCountsMissingFiles() throws Exception {
+        MvcResult started = mvc.perform(post("/api/v1/images/download/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"" + XMP + "\", \"" + TEXT + "\", \"IMG_0002_fedcba9876543210.xmp\", \"../secret.xmp\", \""
+                                + XMP + "\"]"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string("X-Missing-Files", "2"))
+                .andReturn();
+        MvcResult zip = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andReturn();
+
+        assertThat(entries(zip.getResponse().getContentAsByteArray())).containsExactly(
+                Map.entry("IMG_0001.xmp", CONTENTS),
+                Map.entry("IMG_0001_metadata.txt", "Camera: Canon EOS R5\n"));
+
+        mvc.perform(post("/api/v1/images/download/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"IMG_0002_fedcba9876543210.xmp\"]"))
+                .andExpect(status().isNotFound());
+        mvc.perform(post("/api/v1/images/download/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(List.of("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k").stream()
+                                .map(name -> "\"" + name + ".xmp\"").toList().toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    private String etag() throws IOException {
+        try (var inputStream = Files.newInputStream(baseDirectory.resolve("xmp").resolve(XMP))) {
+            return "\"" + XxHash64.hash(inputStream).toHex() + "\"";
+        }
+    }
+
+    private void write(String relativePath, String contents) throws IOException {
+        Path path = baseDirectory.resolve(relativePath);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, contents);
+        Files.setLastModifiedTime(path, FileTime.from(MODIFIED));
+    }
+
+    private static Map<String, String> entries(byte[] zip) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,164 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SidecarWriterTest {
+
+    private static final int BATCH_SIZE = 8;
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SidecarWriter writer = new SidecarWriter(registry, 1, 100, BATCH_SIZE, true);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writer.destroy();
+    }
+
+    @Test
+    void namesSidecarsAfterTheUploadAndItsHash() {
+        assertThat(SidecarWriter.fileName("IMG_0001.CR2", "3f2a9c0d41e7b655aa", ".xmp")).isEqualTo("IMG_0001_3f2a9c0d41e7b655.xmp");
+        assertThat(SidecarWriter.fileName("archive.tar.gz", "3f2a9c0d41e7b655", "_metadata.txt"))
+                .isEqualTo("archive.tar_3f2a9c0d41e7b655_metadata.txt");
+        assertThat(SidecarWriter.fileName("IMG_0001.CR2", null, ".xmp")).isEqualTo("IMG_0001.xmp");
+        // Without a file name the hash alone names the sidecar
+        assertThat(SidecarWriter.fileName(null, "3f2a9c0d41e7b655", ".xmp")).isEqualTo("3f2a9c0d41e7b655.xmp");
+        assertThat(SidecarWriter.fileName(" ", "3f2a9c0d41e7b655", "_metadata.txt")).isEqualTo("3f2a9c0d41e7b655_metadata.txt");
+        assertThat(SidecarWriter.fileName(null, null, ".xmp")).isEqualTo("image.xmp");
+
+        assertThat(SidecarWriter.downloadName("IMG_0001_3f2a9c0d41e7b655.xmp")).isEqualTo("IMG_0001.xmp");
+        assertThat(SidecarWriter.downloadName("IMG_0001_3f2a9c0d41e7b655_metadata.txt")).isEqualTo("IMG_0001_metadata.txt");
+        assertThat(SidecarWriter.downloadName("3f2a9c0d41e7b655.xmp")).isEqualTo("3f2a9c0d41e7b655.xmp");
+    }
+
+    @Test
+    void commitsQueuedWritesInGroups() throws Exception {
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Path>> results = new ArrayList<>();
+        results.add(writer.write(directory.resolve("first.xmp"), out -> {
+            rendering.countDown();
+            await(release);
+            out.text("first");
+        }));
+        assertThat(rendering.await(5, TimeUnit.SECONDS)).isTrue();
+        // Queued while the I/O thread is busy, so they are taken in groups of BATCH_SIZE
+        for (int i = 0; i < 2 * BATCH_SIZE; i++) {
+            String name = "sidecar-" + i;
+            results.add(writer.write(directory.resolve(name + ".xmp"), out -> out.text(name)));
+        }
+        release.countDown();
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        assertThat(Files.readString(directory.resolve("sidecar-11.xmp"))).isEqualTo("sidecar-11");
+        assertThat(registry.get("image.sidecar.files").counter().count()).isEqualTo(2 * BATCH_SIZE + 1);
+        HistogramSnapshot groups = registry.get("image.sidecar.batch.size").summary().takeSnapshot();
+        assertThat(groups.count()).isEqualTo(3);
+        assertThat(groups.max()).isEqualTo(BATCH_SIZE);
+    }
+
+    @Test
+    void renamesCompleteFilesIntoPlace() throws Exception {
+        Path target = directory.resolve("nested/IMG_0001.xmp");
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Path> result = writer.write(target, out -> {
+            rendering.countDown();
+            await(release);
+            out.text("<x:xmpmeta/>");
+        });
+        assertThat(rendering.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(target).doesNotExist();
+        release.countDown();
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(target);
+        assertThat(target).hasContent("<x:xmpmeta/>");
+        try (Stream<Path> files = Files.list(target.getParent())) {
+            assertThat(files).containsExactly(target);
+        }
+    }
+
+    @Test
+    void skipsTargetsThatAlreadyExist() throws Exception {
+        Path target = Files.writeString(directory.resolve("IMG_0001_3f2a9c0d41e7b655.xmp"), "existing");
+        AtomicInteger rendered = new AtomicInteger();
+
+        Path written = writer.write(target, out -> {
+            rendered.incrementAndGet();
+            out.text("replacement");
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(written).isEqualTo(target);
+        assertThat(target).hasContent("existing");
+        assertThat(rendered.get()).isZero();
+        assertThat(registry.get("image.sidecar.skipped").counter().count()).isEqualTo(1);
+        assertThat(registry.get("image.sidecar.files").counter().count()).isZero();
+    }
+
+    @Test
+    void failsOnlyTheWritesThatFailed() throws Exception {
+        Path blocked = Files.writeString(directory.resolve("not-a-directory"), "");
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Path> first = writer.write(directory.resolve("first.xmp"), out -> await(release));
+        CompletableFuture<Path> failing = writer.write(directory.resolve("failing.xmp"), out -> {
+            throw new IllegalStateException("render failed");
+        });
+        CompletableFuture<Path> unwritable = writer.write(blocked.resolve("IMG_0001.xmp"), out -> out.text("x"));
+        CompletableFuture<Path> fine = writer.write(directory.resolve("fine.xmp"), out -> out.text("fine"));
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).exists();
+        assertThat(fine.get(5, TimeUnit.SECONDS)).hasContent("fine");
+        assertThatThrownBy(failing::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("render failed");
+        assertThatThrownBy(unwritable::join).hasCauseInstanceOf(FileSystemException.class);
+        assertThat(directory.resolve("failing.xmp")).doesNotExist();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).noneMatch(file -> file.getFileName().toString().endsWith(".tmp"));
+        }
+    }
+
+    @Test
+    void rejectsWritesAfterShutdown() throws Exception {
+        writer.destroy();
+
+        CompletableFuture<Path> result = writer.write(directory.resolve("late.xmp"), out -> out.text("late"));
+
+        assertThatThrownBy(result::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(directory.resolve("late.xmp")).doesNotExist();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
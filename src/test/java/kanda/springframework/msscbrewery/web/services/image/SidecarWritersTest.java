@@ -0,0 +1,58 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kanda.springframework.msscbrewery.web.model.ImageMetadataDto;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link XmpWriter} and {@link MetadataReportWriter} against the sidecars in
+ * {@code src/test/resources/sidecars}, rendered from the metadata in the JSON file of the same
+ * name. The expected files are the output of the StringBuilder rendering the writers replaced;
+ * the two timestamps the XMP writer takes from the clock are "{now}" there.
+ */
+class SidecarWritersTest {
+
+    private static final String NOW = "$1{now}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sony-a7iv", "canon-gps", "edge-cases"})
+    void rendersTheFixtureXmp(String fixture) throws IOException {
+        Utf8Buffer buffer = new Utf8Buffer(1024);
+
+        XmpWriter.write(metadata(fixture), buffer);
+
+        String xmp = buffer.toString().replaceAll("(<xmp:(?:Modify|Metadata)Date>)[^<]*", NOW);
+        assertThat(xmp).isEqualTo(resource(fixture + ".xmp"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sony-a7iv", "canon-gps", "edge-cases"})
+    void rendersTheFixtureReport(String fixture) throws IOException {
+        Utf8Buffer buffer = new Utf8Buffer(1024);
+
+        MetadataReportWriter.write(metadata(fixture), buffer);
+
+        assertThat(buffer.toString()).isEqualTo(resource(fixture + "_metadata.txt"));
+    }
+
+    private ImageMetadataDto metadata(String fixture) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/sidecars/" + fixture + ".json")) {
+            return objectMapper.readValue(in, ImageMetadataDto.class);
+        }
+    }
+
+    private String resource(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/sidecars/" + name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
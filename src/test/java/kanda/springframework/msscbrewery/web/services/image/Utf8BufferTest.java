@@ -0,0 +1,42 @@
+package kanda.springframework.msscbrewery.web.services.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Utf8BufferTest {
+
+    @Test
+    void encodesTextLikeStringGetBytes() {
+        String text = "ASCII, Latin-1 °é, BMP ü€, supplementary 😀, unpaired \uD800 end";
+        Utf8Buffer buffer = new Utf8Buffer(16);
+
+        buffer.text(text).text(null).number(-1234567890123L).number(0).hex(0x0AB).hex(Integer.MIN_VALUE);
+
+        assertThat(buffer.toByteArray())
+                .isEqualTo((text + "null-12345678901230000000AB80000000").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void escapesXmlSpecialCharacters() {
+        Utf8Buffer buffer = new Utf8Buffer(16);
+
+        buffer.escaped("Canon & <Co> \"5D\" 'Mk II' é").escaped(null);
+
+        assertThat(buffer.toString()).isEqualTo("Canon &amp; &lt;Co&gt; &quot;5D&quot; &apos;Mk II&apos; é");
+    }
+
+    @Test
+    void resetReusesTheBuffer() {
+        Utf8Buffer buffer = new Utf8Buffer(16);
+        buffer.text("x".repeat(1000));
+
+        buffer.reset();
+        buffer.raw(Utf8Buffer.fragment("<a>")).text("b");
+
+        assertThat(buffer.size()).isEqualTo(4);
+        assertThat(buffer.toString()).isEqualTo("<a>b");
+    }
+}
@@ -0,0 +1,174 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AggregationTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String ORDERS = """
+            {"_id": 1, "customer": "ann", "status": "shipped", "total": 120, "items": [{"sku": "x", "qty": 2}, {"sku": "y", "qty": 1}]}
+            {"_id": 2, "customer": "bob", "status": "pending", "total": 80.5, "items": [{"sku": "x", "qty": 5}]}
+            {"_id": 3, "customer": "ann", "status": "shipped", "total": 40, "items": []}
+            {"_id": 4, "customer": "cid", "status": "shipped", "total": 200, "items": [{"sku": "z", "qty": 1}]}
+            """;
+
+    private static final String CUSTOMERS = """
+            {"_id": "ann", "city": "Oslo"}
+            {"_id": "bob", "city": "Bergen"}
+            """;
+
+    @TempDir
+    Path spillDirectory;
+
+    private DocumentStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = store(DataSize.ofMegabytes(100));
+    }
+
+    @Test
+    void groupsSortsAndJoins() {
+        Aggregation.Result result = aggregate(store, """
+                [{"$match": {"status": "shipped"}},
+                 {"$group": {"_id": "$customer", "spent": {"$sum": "$total"}, "orders": {"$count": {}}, "largest": {"$max": "$total"}}},
+                 {"$sort": {"spent": -1}},
+                 {"$lookup": {"from": "customers", "localField": "_id", "foreignField": "_id", "as": "profile"}},
+                 {"$unwind": {"path": "$profile", "preserveNullAndEmptyArrays": true}},
+                 {"$project": {"spent": 1, "orders": 1, "city": "$profile.city"}}]
+                """);
+
+        assertEquals(List.of(
+                Map.of("_id", "cid", "spent", 200, "orders", 1),
+                Map.of("_id", "ann", "spent", 160, "orders", 2, "city", "Oslo")), result.documents());
+        assertEquals("COLLSCAN filter on [status]", result.plan().get(0));
+        assertTrue(result.plan().contains("$lookup+$unwind from customers on _id = _id"), () -> result.plan().toString());
+    }
+
+    @Test
+    void fusesSortWithLimitAndProjectsTheScan() {
+        Aggregation.Result top = aggregate(store, """
+                [{"$unwind": "$items"}, {"$sort": {"items.qty": -1}}, {"$match": {"items.sku": "x"}}, {"$limit": 1},
+                 {"$project": {"_id": 0, "order": "$_id", "qty": "$items.qty"}}]
+                """);
+
+        assertEquals(List.of(Map.of("order", 2, "qty", 5)), top.documents());
+        assertEquals(List.of("COLLSCAN projecting [_id, items]", "$unwind items", "$match on [items.sku]",
+                "$sort keeping the top 1", "$limit 1", "$project"), top.plan());
+
+        assertEquals(List.of(Map.of("n", 3)), aggregate(store, "[{\"$match\": {\"status\": \"shipped\"}}, {\"$count\": \"n\"}]").documents());
+        assertEquals(List.of(), aggregate(store, "[{\"$match\": {\"status\": \"lost\"}}, {\"$count\": \"n\"}]").documents());
+        assertThrows(IllegalArgumentException.class, () -> aggregate(store, "[{\"$out\": \"copy\"}]"));
+        assertThrows(IllegalArgumentException.class, () -> aggregate(store, "[{\"$limit\": 0}]"));
+    }
+
+    @Test
+    void projectsOnlyIdOrEverythingButId() {
+        Aggregation.Result ids = aggregate(store, "[{\"$match\": {\"status\": \"shipped\"}}, {\"$sort\": {\"total\": -1}}, {\"$project\": {\"_id\": 1}}]");
+        assertEquals(List.of(Map.of("_id", 4), Map.of("_id", 1), Map.of("_id", 3)), ids.documents());
+        assertEquals("COLLSCAN filter on [status] projecting [_id, total]", ids.plan().get(0));
+
+        assertEquals(List.of(Map.of("customer", "cid", "status", "shipped", "total", 200, "items", List.of(Map.of("sku", "z", "qty", 1)))),
+                aggregate(store, "[{\"$match\": {\"_id\": 4}}, {\"$project\": {\"_id\": 0}}]").documents());
+    }
+
+    @Test
+    void previewsEachStageAsWritten() {
+        Aggregation.Preview preview = store.preview("shop", "orders", pipeline("""
+                [{"$sort": {"total": 1}}, {"$limit": 3}, {"$project": {"total": 1}}]
+                """), 2, Long.MAX_VALUE);
+
+        assertEquals(3, preview.total());
+        assertEquals(List.of(Map.of("_id", 3, "total", 40), Map.of("_id", 2, "total", 80.5)),
+                preview.stages().get(2).documents());
+        assertEquals(2, preview.stages().get(0).documents().size());
+    }
+
+    @Test
+    void spillsToDiskWithTheSameResults() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            lines.append("{\"_id\": ").append(i).append(", \"bucket\": ").append(i % 37)
+                    .append(", \"value\": ").append((i * 7919) % 1000).append(", \"tag\": \"t").append(i % 5).append("\"}\n");
+        }
+        DocumentStore large = store(DataSize.ofMegabytes(100));
+        DocumentStore small = store(DataSize.ofKilobytes(1));
+        for (DocumentStore target : List.of(large, small)) {
+            target.importDocuments("shop", "events", new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.UTF_8)), true);
+        }
+        String pipeline = """
+                [{"$group": {"_id": "$bucket", "sum": {"$sum": "$value"}, "avg": {"$avg": "$value"}, "first": {"$first": "$_id"},
+                             "last": {"$last": "$_id"}, "tags": {"$addToSet": "$tag"}, "ids": {"$push": "$_id"}}},
+                 {"$sort": {"sum": -1, "_id": 1}}]
+                """;
+
+        Aggregation.Result inMemory = aggregate(large, "events", pipeline);
+        Aggregation.Result spilled = aggregate(small, "events", pipeline);
+        Aggregation.Result sorted = aggregate(small, "events", "[{\"$sort\": {\"value\": 1}}]");
+
+        assertEquals(0, inMemory.spills());
+        assertTrue(spilled.spills() > 2, () -> "spills: " + spilled.spills());
+        assertEquals(37, spilled.documents().size());
+        assertEquals(inMemory.documents().stream().map(AggregationTest::sortedTags).toList(),
+                spilled.documents().stream().map(AggregationTest::sortedTags).toList());
+        // Equal sort keys keep their input order across spilled runs
+        assertEquals(IntStream.range(0, 2000).boxed().sorted((a, b) -> (a * 7919) % 1000 - (b * 7919) % 1000).toList(),
+                sorted.documents().stream().map(document -> document.get("_id")).toList());
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private DocumentStore store(DataSize memoryLimit) throws IOException {
+        DocumentStore store = new DocumentStore("", 5000, memoryLimit, spillDirectory.toString());
+        store.importDocuments("shop", "orders", new ByteArrayInputStream(ORDERS.getBytes(StandardCharsets.UTF_8)), true);
+        store.importDocuments("shop", "customers", new ByteArrayInputStream(CUSTOMERS.getBytes(StandardCharsets.UTF_8)), true);
+        return store;
+    }
+
+    private static Aggregation.Result aggregate(DocumentStore store, String pipeline) {
+        return aggregate(store, "orders", pipeline);
+    }
+
+    private static Aggregation.Result aggregate(DocumentStore store, String collection, String pipeline) {
+        return store.aggregate("shop", collection, pipeline(pipeline), Long.MAX_VALUE);
+    }
+
+    /**
+     * $addToSet keeps no order, so sets are compared sorted.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> sortedTags(Map<String, Object> document) {
+        return document.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getKey().equals("tags")
+                ? ((List<String>) entry.getValue()).stream().sorted().toList() : entry.getValue()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> pipeline(String json) {
+        try {
+            return MAPPER.readValue(json, List.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package kanda.springframework.msscbrewery.web.services.mongo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentStoreTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String ORDERS = """
+            {"_id": {"$oid": "64b7f0a1c2d3e4f5a6b7c8d1"}, "status": "shipped", "total": 120.5, "tags": ["a", "b"], "items": [{"sku": "x", "qty": 2}], "placed": {"$date": "2024-01-05T10:00:00Z"}}
+            {"_id": {"$oid": "64b7f0a1c2d3e4f5a6b7c8d2"}, "status": "pending", "total": {"$numberLong": "80"}, "tags": ["b"], "items": [{"sku": "y", "qty": 1}, {"sku": "x", "qty": 5}]}
+            {"_id": 3, "status": "shipped", "total": 40, "tags": [], "customer": {"city": "Oslo"}}
+            {"_id": 4, "status": null, "total": 200}
+            """;
+
+    private DocumentStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new DocumentStore("", 1000, DataSize.ofMegabytes(100), "");
+        store.importDocuments("shop", "orders", new ByteArrayInputStream(ORDERS.getBytes(StandardCharsets.UTF_8)), false);
+    }
+
+    @Test
+    void filtersWithOperatorsArraysAndExtendedJson() {
+        // int, long and double compare by value; ids come back in Extended JSON
+        assertEquals(List.of(Map.of("$oid", "64b7f0a1c2d3e4f5a6b7c8d2"), 3),
+                ids(find("{\"total\": {\"$gte\": 40, \"$lt\": 100}}", null)));
+        assertEquals(2, find("{\"tags\": \"b\"}", null).size());
+        assertEquals(1, find("{\"items\": {\"$elemMatch\": {\"sku\": \"x\", \"qty\": {\"$gt\": 3}}}}", null).size());
+        assertEquals(2, find("{\"items.sku\": \"x\"}", null).size());
+        assertEquals(1, find("{\"tags\": {\"$size\": 0}}", null).size());
+        assertEquals(1, find("{\"customer.city\": {\"$regex\": \"^os\", \"$options\": \"i\"}}", null).size());
+        assertEquals(1, find("{\"placed\": {\"$gt\": {\"$date\": \"2024-01-01T00:00:00Z\"}}}", null).size());
+        assertEquals(1, find("{\"_id\": {\"$oid\": \"64b7f0a1c2d3e4f5a6b7c8d2\"}}", null).size());
+        // null matches null and missing fields; $ne excludes arrays containing the value
+        assertEquals(3, find("{\"customer\": null}", null).size());
+        assertEquals(2, find("{\"tags\": {\"$ne\": \"b\"}}", null).size());
+        assertEquals(3, find("{\"$or\": [{\"status\": \"shipped\"}, {\"total\": {\"$gt\": 150}}]}", null).size());
+        assertThrows(IllegalArgumentException.class, () -> find("{\"$where\": \"true\"}", null));
+    }
+
+    @Test
+    void sortsWithTopKAndProjects() {
+        DocumentCollection.FindResult result = store.find("shop", "orders", json("{}"), json("{\"total\": -1}"),
+                1, 2, json("{\"total\": 1, \"_id\": 0}"), Long.MAX_VALUE);
+
+        assertEquals("SORT", result.plan());
+        assertEquals(List.of(Map.of("total", 120.5), Map.of("total", 80L)), result.documents());
+        assertEquals(4, result.examined());
+        assertThrows(IllegalArgumentException.class, () -> find("{}", "{\"total\": 1, \"status\": 0}"));
+    }
+
+    @Test
+    void projectsOnlyIdOrEverythingButId() {
+        assertEquals(List.of(Map.of("_id", 3)), find("{\"_id\": 3}", "{\"_id\": 1}"));
+        assertEquals(List.of(Map.of("status", "shipped", "total", 40, "tags", List.of(), "customer", Map.of("city", "Oslo"))),
+                find("{\"_id\": 3}", "{\"_id\": 0}"));
+    }
+
+    @Test
+    void looksUpIdsWithoutScanningAndCapsResults() throws IOException {
+        DocumentCollection.FindResult byId = store.find("shop", "orders", json("{\"_id\": 3.0}"), null, 0, 0, null, Long.MAX_VALUE);
+        assertEquals("IDHACK", byId.plan());
+        assertEquals(1, byId.examined());
+
+        DocumentStore capped = new DocumentStore("", 2, DataSize.ofMegabytes(100), "");
+        capped.importDocuments("shop", "orders", new ByteArrayInputStream(ORDERS.getBytes(StandardCharsets.UTF_8)), true);
+        DocumentCollection.FindResult page = capped.find("shop", "orders", null, null, 0, 0, null, Long.MAX_VALUE);
+        assertEquals(2, page.documents().size());
+        assertTrue(page.truncated());
+        assertFalse(capped.find("shop", "orders", null, null, 0, 2, null, Long.MAX_VALUE).truncated());
+    }
+
+    @Test
+    void updatesUpsertsAndDeletes() {
+        DocumentCollection.UpdateResult updated = store.update("shop", "orders", json("{\"status\": \"shipped\"}"),
+                json("{\"$inc\": {\"total\": 10}, \"$push\": {\"tags\": \"c\"}, \"$set\": {\"audit.by\": \"ops\"}}"),
+                false, true, false, Long.MAX_VALUE);
+        assertEquals(2, updated.matched());
+        assertEquals(2, updated.modified());
+        Map<String, Object> third = find("{\"_id\": 3}", null).get(0);
+        assertEquals(50, third.get("total"));
+        assertEquals(List.of("c"), third.get("tags"));
+        assertEquals(Map.of("by", "ops"), third.get("audit"));
+
+        DocumentCollection.UpdateResult unchanged = store.update("shop", "orders", json("{\"_id\": 3}"),
+                json("{\"$set\": {\"total\": 50}}"), false, false, false, Long.MAX_VALUE);
+        assertEquals(1, unchanged.matched());
+        assertEquals(0, unchanged.modified());
+
+        DocumentCollection.UpdateResult upserted = store.update("shop", "orders", json("{\"sku\": \"z\"}"),
+                json("{\"$setOnInsert\": {\"qty\": 1}}"), false, false, true, Long.MAX_VALUE);
+        assertEquals(1, find("{\"sku\": \"z\", \"qty\": 1, \"_id\": {\"$type\": \"objectId\"}}", null).size(),
+                () -> "upserted " + upserted);
+
+        assertThrows(IllegalArgumentException.class, () -> store.update("shop", "orders", json("{\"_id\": 3}"),
+                json("{\"$set\": {\"_id\": 5}}"), false, false, false, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> store.insert("shop", "orders", List.of(json("{\"_id\": 4}"))));
+        assertEquals(2, store.delete("shop", "orders", json("{\"status\": \"shipped\"}"), true, Long.MAX_VALUE));
+        assertEquals(3, store.count("shop", "orders", null, Long.MAX_VALUE));
+    }
+
+    private List<Map<String, Object>> find(String filter, String projection) {
+        return store.find("shop", "orders", json(filter), null, 0, 0,
+                projection != null ? json(projection) : null, Long.MAX_VALUE).documents();
+    }
+
+    private static List<Object> ids(List<Map<String, Object>> documents) {
+        return documents.stream().map(document -> document.get("_id")).toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> json(String json) {
+        try {
+            return MAPPER.readValue(json, Map.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
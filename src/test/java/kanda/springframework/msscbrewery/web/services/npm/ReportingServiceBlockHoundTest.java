@@ -0,0 +1,119 @@
+package kanda.springframework.msscbrewery.web.services.npm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kanda.springframework.msscbrewery.config.NpmSchedulers;
+import kanda.springframework.msscbrewery.web.model.npm.OptimizationSuggestion;
+import kanda.springframework.msscbrewery.web.model.npm.PackageAnalysisDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the reporting pipeline with BlockHound installed: any blocking call made on a
+ * non-blocking thread (the npm-cpu scheduler, reactor-netty event loops) fails the test.
+ */
+class ReportingServiceBlockHoundTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private NpmSchedulers npmSchedulers;
+    private ReportingService reportingService;
+
+    @BeforeAll
+    static void installBlockHound() {
+        BlockHound.install();
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        npmSchedulers = new NpmSchedulers(meterRegistry, 4, 100, 2, false);
+        ReportingServiceImpl reportingServiceImpl = new ReportingServiceImpl(Jackson2ObjectMapperBuilder.json().build(), npmSchedulers);
+        reportingServiceImpl.preloadFonts();
+        reportingService = reportingServiceImpl;
+    }
+
+    @AfterEach
+    void tearDown() {
+        npmSchedulers.destroy();
+    }
+
+    @Test
+    void reportsRenderWithoutBlockingTheCpuScheduler() {
+        PackageAnalysisDto analysis = sampleAnalysis();
+
+        assertThat(reportingService.generatePdfReport(analysis).block(Duration.ofSeconds(30))).isNotEmpty();
+        assertThat(reportingService.generateCsvReport(List.of(analysis)).block(Duration.ofSeconds(30))).isNotEmpty();
+        assertThat(reportingService.generateJsonReport(analysis).block(Duration.ofSeconds(30))).contains("lodash");
+        assertThat(reportingService.generateMarkdownReport(analysis).block(Duration.ofSeconds(30))).contains("lodash");
+        assertThat(reportingService.generateComparisonReport(Map.of("lodash", analysis)).block(Duration.ofSeconds(30))).isNotEmpty();
+    }
+
+    @Test
+    void blockingCallOnCpuSchedulerIsDetected() {
+        Mono<Void> sleeping = Mono.<Void>fromRunnable(() -> sleep(10)).subscribeOn(npmSchedulers.cpu());
+
+        assertThatThrownBy(() -> sleeping.block(Duration.ofSeconds(5)))
+                .hasRootCauseInstanceOf(BlockingOperationError.class);
+    }
+
+    @Test
+    void blockingCallOnBlockingSchedulerIsAllowed() {
+        Mono<String> sleeping = Mono.fromCallable(() -> {
+            sleep(10);
+            return "done";
+        }).subscribeOn(npmSchedulers.blocking());
+
+        assertThat(sleeping.block(Duration.ofSeconds(5))).isEqualTo("done");
+    }
+
+    @Test
+    void schedulerMetricsArePublished() {
+        reportingService.generateMarkdownReport(sampleAnalysis()).block(Duration.ofSeconds(30));
+
+        assertThat(meterRegistry.getMeters())
+                .anyMatch(meter -> meter.getId().getName().startsWith("npm.scheduler.cpu"))
+                .anyMatch(meter -> meter.getId().getName().startsWith("npm.scheduler.blocking"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static PackageAnalysisDto sampleAnalysis() {
+        return PackageAnalysisDto.builder()
+                .packageName("lodash")
+                .version("4.17.21")
+                .description("Lodash modular utilities.")
+                .license("MIT")
+                .bundleSize(PackageAnalysisDto.BundleSizeInfo.builder()
+                        .uncompressed(72_000)
+                        .gzipped(25_000)
+                        .treeshakable(false)
+                        .build())
+                .security(PackageAnalysisDto.SecurityInfo.builder()
+                        .vulnerabilityCount(0)
+                        .licenseCompatibility("Permissive")
+                        .build())
+                .optimizations(List.of(OptimizationSuggestion.builder()
+                        .title("Use lodash-es")
+                        .description("Import individual functions to enable tree shaking")
+                        .build()))
+                .build();
+    }
+}